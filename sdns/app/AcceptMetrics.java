@@ -0,0 +1,114 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 7
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.app;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts what one acceptor of a TCP server has accepted, so a connection storm shows up as a rate per listening
+ * socket. Any thread can record and read it without locking, except for sampling the rate.
+ *
+ * @version 1.0
+ */
+public class AcceptMetrics {
+    private final String name;
+    private final int backlog;
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    //where the last rate sample left off
+    private long sampledCount = 0;
+    private long sampledAt = System.nanoTime();
+
+    /**
+     * Makes the metrics for an acceptor
+     * @param name what to call the acceptor in the log
+     * @param backlog the backlog its listening socket was bound with
+     */
+    public AcceptMetrics(String name, int backlog) {
+        this.name = name;
+        this.backlog = backlog;
+    }
+
+    /**
+     * Records an accepted connection
+     */
+    public void recordAccept() {
+        accepted.increment();
+    }
+
+    /**
+     * Records an accept that failed
+     */
+    public void recordFailure() {
+        failed.increment();
+    }
+
+    /**
+     * Gets what the acceptor is called
+     * @return the name
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Gets the backlog the listening socket was bound with
+     * @return the backlog
+     */
+    public int getBacklog() {
+        return this.backlog;
+    }
+
+    /**
+     * Gets how many connections have been accepted
+     * @return the count
+     */
+    public long getAccepted() {
+        return accepted.sum();
+    }
+
+    /**
+     * Gets how many accepts failed
+     * @return the count
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * Gets the accept rate since the last time this was called, or since the acceptor started
+     * @return accepts per second
+     */
+    public synchronized double sampleRate() {
+        long now = System.nanoTime();
+        long count = accepted.sum();
+        double rate = (count - sampledCount) * 1e9 / Math.max(now - sampledAt, 1);
+        sampledCount = count;
+        sampledAt = now;
+        return rate;
+    }
+
+    @Override
+    public String toString() {
+        return name + ": backlog=" + backlog + " accepted=" + getAccepted() + " failed=" + getFailed();
+    }
+
+    /**
+     * Describes every acceptor's counts, and its accept rate since the last time it was described, for the log
+     * @param metrics the acceptors
+     * @return the line to log
+     */
+    public static String describe(Iterable<AcceptMetrics> metrics) {
+        StringBuilder line = new StringBuilder("Accepts:");
+        for(AcceptMetrics acceptor : metrics) {
+            line.append(' ').append(acceptor).append(String.format(" rate=%.1f/s;", acceptor.sampleRate()));
+        }
+        return line.toString();
+    }
+}
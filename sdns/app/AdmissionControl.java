@@ -0,0 +1,291 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 7
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.app;
+
+import java.net.InetAddress;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The limits a TCP server puts on its clients, shared by every connection of the server.
+ *
+ * A connection is only served if admit() lets it in, which caps the connections open at once and the connections
+ * from any one address. A connection that is turned away should be closed straight away.
+ * Every request takes a permit from tryStartRequest() or startRequest() before it is answered and gives it back with
+ * finishRequest(), which caps the requests in flight across the whole server. A connection that can't get a permit
+ * stops reading until one is handed to it, so the backpressure reaches the client through TCP.
+ * The server also stops reading a connection that has more than maxBufferedBytes waiting to be framed or written.
+ *
+ * Every time a limit turns something away it is counted, along with when it last happened, so the log shows when
+ * and why a server started pushing back. The limits default to the system properties sdns.tcp.maxConnections,
+ * sdns.tcp.maxConnectionsPerAddress, sdns.tcp.maxBufferedBytes and sdns.tcp.maxInFlight.
+ *
+ * @version 1.0
+ */
+public class AdmissionControl {
+    /**
+     * The limits a server can hit
+     */
+    public enum Limit {
+        //connections open at once
+        CONNECTIONS,
+        //connections open at once from one address
+        CONNECTIONS_PER_ADDRESS,
+        //bytes one connection has waiting to be framed or written
+        BUFFERED_BYTES,
+        //requests being answered at once
+        IN_FLIGHT
+    }
+
+    /**
+     * A limit that is never reached
+     */
+    public static final int UNLIMITED = Integer.MAX_VALUE;
+    //buffered bytes per connection by default, room for a few full size frames
+    private static final int DEFAULT_BUFFERED_BYTES = 262144;
+    private final int maxConnections;
+    private final int maxConnectionsPerAddress;
+    private final int maxBufferedBytes;
+    private final int maxInFlight;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final Map<InetAddress, Integer> perAddress = new ConcurrentHashMap<>();
+    private final Semaphore requests;
+    //what is waiting for a request permit, in the order it asked
+    private final Queue<Runnable> waiters = new ConcurrentLinkedQueue<>();
+    private final Map<Limit, LongAdder> trips = new EnumMap<>(Limit.class);
+    //when each limit was last hit, in ms since the epoch. 0 if never
+    private final AtomicLongArray lastTrips = new AtomicLongArray(Limit.values().length);
+
+    /**
+     * Makes the limits. UNLIMITED turns a limit off
+     * @param maxConnections the most connections open at once
+     * @param maxConnectionsPerAddress the most connections open at once from one address
+     * @param maxBufferedBytes the most bytes a connection can have waiting before it stops being read
+     * @param maxInFlight the most requests being answered at once
+     * @throws IllegalArgumentException
+     *      If any limit is less than 1
+     */
+    public AdmissionControl(int maxConnections, int maxConnectionsPerAddress, int maxBufferedBytes,
+                            int maxInFlight) {
+        if(maxConnections < 1 || maxConnectionsPerAddress < 1 || maxBufferedBytes < 1 || maxInFlight < 1) {
+            throw new IllegalArgumentException("Limits must be at least 1");
+        }
+        this.maxConnections = maxConnections;
+        this.maxConnectionsPerAddress = maxConnectionsPerAddress;
+        this.maxBufferedBytes = maxBufferedBytes;
+        this.maxInFlight = maxInFlight;
+        this.requests = new Semaphore(maxInFlight);
+        for(Limit limit : Limit.values()) {
+            trips.put(limit, new LongAdder());
+        }
+    }
+
+    /**
+     * Makes the limits from the system properties. A property that isn't set turns its limit off, except for the
+     * buffered bytes, which default to 256KiB
+     * @return the limits
+     * @throws IllegalArgumentException
+     *      If any limit is less than 1
+     */
+    public static AdmissionControl fromProperties() {
+        return new AdmissionControl(Integer.getInteger("sdns.tcp.maxConnections", UNLIMITED),
+                Integer.getInteger("sdns.tcp.maxConnectionsPerAddress", UNLIMITED),
+                Integer.getInteger("sdns.tcp.maxBufferedBytes", DEFAULT_BUFFERED_BYTES),
+                Integer.getInteger("sdns.tcp.maxInFlight", UNLIMITED));
+    }
+
+    /**
+     * Lets a new connection in if it is under the connection limits. A connection that is let in must be given
+     * back with release() when it closes
+     * @param address the address the connection came from
+     * @return true if it can be served, false if it should be closed
+     * @throws NullPointerException
+     *      If address is null
+     */
+    public boolean admit(InetAddress address) {
+        Objects.requireNonNull(address, "Address cannot be null");
+        if(connections.incrementAndGet() > maxConnections) {
+            connections.decrementAndGet();
+            recordTrip(Limit.CONNECTIONS);
+            return false;
+        }
+        if(maxConnectionsPerAddress != UNLIMITED
+                && perAddress.merge(address, 1, Integer::sum) > maxConnectionsPerAddress) {
+            release(address);
+            recordTrip(Limit.CONNECTIONS_PER_ADDRESS);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Gives back a connection that admit() let in
+     * @param address the address the connection came from
+     */
+    public void release(InetAddress address) {
+        if(maxConnectionsPerAddress != UNLIMITED) {
+            perAddress.computeIfPresent(address, (a, count) -> count == 1 ? null : count - 1);
+        }
+        connections.decrementAndGet();
+    }
+
+    /**
+     * Takes a request permit if there is one. If there isn't, whenStarted is queued and run once a permit is handed
+     * to it, on the thread of whichever request gave it back, so it should only pass the work on
+     * @param whenStarted what to run with the permit if it has to wait
+     * @return true if the permit was taken now, false if whenStarted will get one later
+     */
+    public boolean tryStartRequest(Runnable whenStarted) {
+        if(requests.tryAcquire()) {
+            return true;
+        }
+        recordTrip(Limit.IN_FLIGHT);
+        waiters.add(whenStarted);
+        //a request may have finished between the two without anyone waiting to hand its permit to
+        if(requests.tryAcquire()) {
+            if(waiters.remove(whenStarted)) {
+                return true;
+            }
+            //whenStarted already got one
+            requests.release();
+            handOff();
+        }
+        return false;
+    }
+
+    /**
+     * Takes a request permit, waiting for one if there are none
+     * @throws InterruptedException
+     *      If interrupted while waiting. No permit is taken
+     */
+    public void startRequest() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        Runnable whenStarted = started::countDown;
+        if(tryStartRequest(whenStarted)) {
+            return;
+        }
+        try {
+            started.await();
+        } catch (InterruptedException e) {
+            if(!waiters.remove(whenStarted)) {
+                //it was handed a permit anyway, so pass it on
+                finishRequest();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Gives back a request permit, handing it to the first thing waiting for one
+     */
+    public void finishRequest() {
+        requests.release();
+        handOff();
+    }
+
+    /**
+     * Hands free permits to whatever is waiting for them
+     */
+    private void handOff() {
+        Runnable waiter;
+        while((waiter = waiters.peek()) != null && requests.tryAcquire()) {
+            if(waiters.remove(waiter)) {
+                waiter.run();
+            } else {
+                requests.release();
+            }
+        }
+    }
+
+    /**
+     * Checks if a connection has too much waiting to keep reading from it
+     * @param bufferedBytes the bytes it has waiting to be framed or written
+     * @return true if it is over the limit
+     */
+    public boolean isOverBuffered(long bufferedBytes) {
+        return bufferedBytes > maxBufferedBytes;
+    }
+
+    /**
+     * Counts a limit turning something away. admit() and tryStartRequest() count their own, servers count
+     * BUFFERED_BYTES when they stop reading a connection for it
+     * @param limit the limit that was hit
+     */
+    public void recordTrip(Limit limit) {
+        trips.get(limit).increment();
+        lastTrips.set(limit.ordinal(), System.currentTimeMillis());
+    }
+
+    /**
+     * Gets how many times a limit has turned something away
+     * @param limit the limit
+     * @return the count
+     */
+    public long getTrips(Limit limit) {
+        return trips.get(limit).sum();
+    }
+
+    /**
+     * Gets when a limit last turned something away
+     * @param limit the limit
+     * @return the time, or null if it never has
+     */
+    public Instant getLastTrip(Limit limit) {
+        long at = lastTrips.get(limit.ordinal());
+        return at == 0 ? null : Instant.ofEpochMilli(at);
+    }
+
+    /**
+     * Gets how many connections are open
+     * @return the count
+     */
+    public int getConnections() {
+        return connections.get();
+    }
+
+    /**
+     * Gets how many requests are being answered
+     * @return the count
+     */
+    public int getInFlight() {
+        return maxInFlight - requests.availablePermits();
+    }
+
+    /**
+     * Gets the most bytes a connection can have waiting before it stops being read
+     * @return the limit
+     */
+    public int getMaxBufferedBytes() {
+        return this.maxBufferedBytes;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder line = new StringBuilder("Admission: connections=").append(getConnections())
+                .append(" inFlight=").append(getInFlight());
+        for(Limit limit : Limit.values()) {
+            line.append(' ').append(limit).append('=').append(getTrips(limit));
+            Instant last = getLastTrip(limit);
+            if(last != null) {
+                line.append(" (last ").append(last).append(')');
+            }
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,110 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 7
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.app;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations that any number of threads can record into without locking.
+ *
+ * Durations go into power of 2 buckets of nanoseconds, so a percentile is only known to within a factor of 2.
+ * That is plenty for telling a queue that is keeping up apart from one that isn't.
+ *
+ * @version 1.0
+ */
+public class LatencyHistogram {
+    //bucket i holds durations in [2^(i-1), 2^i) ns. Bucket 0 holds 0
+    private final AtomicLongArray buckets = new AtomicLongArray(64);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a duration
+     * @param nanos the duration in nanoseconds. Negative durations are recorded as 0
+     */
+    public void record(long nanos) {
+        nanos = Math.max(nanos, 0);
+        buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+        count.increment();
+        total.add(nanos);
+        max.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Gets how many durations have been recorded
+     * @return the count
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Gets the mean duration
+     * @return the mean in nanoseconds, 0 if nothing has been recorded
+     */
+    public long getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : total.sum() / n;
+    }
+
+    /**
+     * Gets the longest duration recorded
+     * @return the max in nanoseconds
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Gets an upper bound on a percentile
+     * @param percentile the percentile, 0 to 100
+     * @return the top of the bucket the percentile falls in, in nanoseconds. 0 if nothing has been recorded
+     * @throws IllegalArgumentException
+     *      If percentile is out of range
+     */
+    public long getPercentile(double percentile) {
+        if(percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be 0 to 100: " + percentile);
+        }
+        long[] snapshot = new long[buckets.length()];
+        long n = 0;
+        for(int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = buckets.get(i);
+            n += snapshot[i];
+        }
+        if(n == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(n * percentile / 100));
+        long seen = 0;
+        for(int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if(seen >= rank) {
+                //never report more than the real max
+                return Math.min(i == 0 ? 0 : (1L << i) - 1, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * A summary for logging, in microseconds
+     * @return count, mean, p50, p99, p99.9, and max
+     */
+    @Override
+    public String toString() {
+        return String.format("count=%d mean=%dus p50<=%dus p99<=%dus p99.9<=%dus max=%dus", getCount(),
+                getMean() / 1000, getPercentile(50) / 1000, getPercentile(99) / 1000,
+                getPercentile(99.9) / 1000, getMax() / 1000);
+    }
+}
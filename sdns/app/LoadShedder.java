@@ -0,0 +1,152 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 7
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.app;
+
+import sdns.serialization.RCode;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides which queued requests aren't worth answering any more, with a controlled delay (CoDel) policy.
+ *
+ * A request is stamped with System.nanoTime() when it arrives, and shouldShed is asked when it comes off the
+ * queue. Time is cut into windows of one interval. If every request in the last window waited longer than the
+ * target, the queue never drained, so the server is overloaded: for the next window anything that waited longer
+ * than the target is shed. Otherwise the queue is only a burst, and only what waited longer than a whole interval
+ * is shed. Shedding the backlog while overloaded keeps the requests that are answered fresh instead of letting every
+ * request wait out the whole queue, and a burst still gets through.
+ *
+ * A shed request is answered with getRCode() straight away, or dropped if that is null, which is cheaper than a
+ * search and beats answering after the client has given up. The policy defaults to the system properties
+ * sdns.shed.targetMillis, sdns.shed.intervalMillis and sdns.shed.rcode (an RCode name, or DROP).
+ *
+ * @version 1.0
+ */
+public class LoadShedder {
+    //how long a request can wait while overloaded by default, in ms
+    private static final long DEFAULT_TARGET = 20;
+    //how long a window is, and how long a request can wait during a burst by default, in ms
+    private static final long DEFAULT_INTERVAL = 500;
+    private final long target;
+    private final long interval;
+    private final RCode rCode;
+    //shortest wait seen in the current window, Long.MAX_VALUE if there hasn't been one
+    private final AtomicLong windowMin = new AtomicLong(Long.MAX_VALUE);
+    private volatile long windowEnd;
+    private volatile boolean overloaded = false;
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder kept = new LongAdder();
+
+    /**
+     * Makes a shedder
+     * @param targetMillis how long a request can wait while the server is overloaded
+     * @param intervalMillis how long a window is, which is also how long a request can wait otherwise
+     * @param rCode what to answer shed requests with, null to drop them
+     * @throws IllegalArgumentException
+     *      If targetMillis is less than 1 or intervalMillis is less than targetMillis
+     */
+    public LoadShedder(long targetMillis, long intervalMillis, RCode rCode) {
+        if(targetMillis < 1 || intervalMillis < targetMillis) {
+            throw new IllegalArgumentException("target must be at least 1ms and no longer than the interval");
+        }
+        this.target = TimeUnit.MILLISECONDS.toNanos(targetMillis);
+        this.interval = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.rCode = rCode;
+        this.windowEnd = System.nanoTime() + this.interval;
+    }
+
+    /**
+     * Makes a shedder from the system properties. Anything not set gets a 20ms target, a 500ms interval, and
+     * SERVERFAILURE
+     * @return the shedder
+     * @throws IllegalArgumentException
+     *      If a property isn't valid
+     */
+    public static LoadShedder fromProperties() {
+        String rCode = System.getProperty("sdns.shed.rcode", RCode.SERVERFAILURE.name());
+        return new LoadShedder(Long.getLong("sdns.shed.targetMillis", DEFAULT_TARGET),
+                Long.getLong("sdns.shed.intervalMillis", DEFAULT_INTERVAL),
+                rCode.equalsIgnoreCase("DROP") ? null : RCode.valueOf(rCode.toUpperCase()));
+    }
+
+    /**
+     * Decides if a request that is just coming off the queue should be shed
+     * @param arrival when the request arrived, from System.nanoTime()
+     * @return true if it should be shed instead of answered
+     */
+    public boolean shouldShed(long arrival) {
+        long now = System.nanoTime();
+        long waited = now - arrival;
+        if(now - windowEnd >= 0) {
+            nextWindow(now);
+        }
+        windowMin.accumulateAndGet(waited, Math::min);
+        if(waited > (overloaded ? target : interval)) {
+            shed.increment();
+            return true;
+        }
+        kept.increment();
+        return false;
+    }
+
+    /**
+     * Ends the current window, deciding from it whether the server is overloaded
+     * @param now the time
+     */
+    private synchronized void nextWindow(long now) {
+        if(now - windowEnd < 0) {
+            //another thread got here first
+            return;
+        }
+        long min = windowMin.getAndSet(Long.MAX_VALUE);
+        overloaded = min != Long.MAX_VALUE && min > target;
+        windowEnd = now + interval;
+    }
+
+    /**
+     * Gets what shed requests are answered with
+     * @return the RCode, null if they are dropped
+     */
+    public RCode getRCode() {
+        return this.rCode;
+    }
+
+    /**
+     * Checks if the last window showed the server overloaded
+     * @return true if requests that waited longer than the target are being shed
+     */
+    public boolean isOverloaded() {
+        return this.overloaded;
+    }
+
+    /**
+     * Gets how many requests have been shed
+     * @return the count
+     */
+    public long getShed() {
+        return shed.sum();
+    }
+
+    /**
+     * Gets how many requests came off the queue in time to be answered
+     * @return the count
+     */
+    public long getKept() {
+        return kept.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "Shedding: shed=" + getShed() + " kept=" + getKept() + " overloaded=" + overloaded
+                + " target=" + TimeUnit.NANOSECONDS.toMillis(target) + "ms interval="
+                + TimeUnit.NANOSECONDS.toMillis(interval) + "ms";
+    }
+}
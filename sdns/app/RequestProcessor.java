@@ -0,0 +1,791 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 7
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.app;
+
+import sdns.app.masterfile.AsyncMasterFile;
+import sdns.app.masterfile.Deadline;
+import sdns.app.masterfile.LocalSearch;
+import sdns.app.masterfile.MasterFile;
+import sdns.app.masterfile.NameNotFoundException;
+import sdns.app.masterfile.SearchResult;
+import sdns.app.masterfile.ZoneTransferSource;
+import sdns.serialization.*;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Turns requests into replies without knowing anything about the transport.
+ *
+ * A transport hands it a request, decoded or not, and gets back what to send: one Response, or a ZoneTransfer
+ * to stream out for an AXFR query. Nothing is sent from in here, so a transport is free to write replies whenever
+ * and however it likes, batched, pipelined, or asynchronously. A processor keeps no state between requests, so one
+ * can be shared by every connection and thread that uses the same masterfile.
+ *
+ * The processAsync methods without an executor never block on the masterfile. They use its AsyncMasterFile
+ * searchAsync when it has one, and search inline otherwise, so a search that answers straight away, like a cache
+ * hit, gives back a future that is already done.
+ *
+ * processAsync splits requests into two paths. A masterfile that is a LocalSearch is asked first, on the caller's
+ * thread, and a name it has on hand is answered straight away. Everything else takes the slow path: the masterfile's
+ * full search, which may go to another server. How long each path takes is kept in its own LatencyHistogram, so a
+ * slow upstream shows up in the slow path without hiding what the fast path is doing.
+ *
+ * A processor made with an executor searches a blocking masterfile there. Each request is stamped when it is handed
+ * in, and a LoadShedder decides when it comes off the executor's queue whether it waited too long to be worth
+ * answering. A shed request gets the shedder's fast failure instead of a search.
+ *
+ * Every request has a Deadline, sdns.deadlineMillis (3 seconds by default) after it was received, which is about as
+ * long as a client waits before asking again. It is passed down to the masterfile, which keeps its upstream timeouts
+ * and retries inside it. A request whose deadline passes before its search starts, or during it, is dropped instead
+ * of answered: the client has stopped listening, so neither more work nor a late answer is any use to it.
+ *
+ * @version 1.0
+ */
+public class RequestProcessor {
+    private static final Logger logger = ServerLogger.getLogger();
+    //how long after a request is received its client stops waiting by default, in ms
+    private static final long DEFAULT_DEADLINE = 3000;
+    private static final long DEADLINE = Long.getLong("sdns.deadlineMillis", DEFAULT_DEADLINE);
+    private final MasterFile masterFile;
+    private final AsyncMasterFile asyncMasterFile;
+    private final boolean zoneTransfers;
+    //where a blocking masterfile is searched by processAsync, and what sheds from its queue. Null if searched inline
+    private final Executor executor;
+    private final LoadShedder shedder;
+    //null if the masterfile can't answer anything from what it has on hand
+    private final LocalSearch localSearch;
+    private final LatencyHistogram fastPathTimes = new LatencyHistogram();
+    private final LatencyHistogram slowPathTimes = new LatencyHistogram();
+    private final LongAdder expired = new LongAdder();
+
+    /**
+     * What to send back for a request: one Response, already encoded if it was copied from a cached one, or a
+     * ZoneTransfer
+     */
+    public static final class Reply {
+        private Response response;
+        private final ZoneTransfer transfer;
+        //the response already encoded, null if it has to be encoded from response
+        private final byte[] encoded;
+
+        /**
+         * Makes a reply
+         * @param response the response, null for a transfer
+         * @param transfer the transfer, null for a single response
+         */
+        private Reply(Response response, ZoneTransfer transfer) {
+            this(response, transfer, null);
+        }
+
+        /**
+         * Makes a reply
+         * @param response the response, null for a transfer or if it is only encoded
+         * @param transfer the transfer, null for a single response
+         * @param encoded the response already encoded, null if it isn't. It must not be changed after this
+         */
+        private Reply(Response response, ZoneTransfer transfer, byte[] encoded) {
+            this.response = response;
+            this.transfer = transfer;
+            this.encoded = encoded;
+        }
+
+        /**
+         * Gets the response to send. One that was already encoded is decoded again, so transports should use
+         * encode() or encodeInto() to send it
+         * @return the response, null if this is a zone transfer
+         */
+        public Response getResponse() {
+            if(this.response == null && this.encoded != null) {
+                try {
+                    this.response = (Response) Message.decode(this.encoded);
+                } catch (ValidationException e) {
+                    throw new IllegalStateException("Encoded response can't be decoded", e);
+                }
+            }
+            return this.response;
+        }
+
+        /**
+         * Checks if the response is already encoded, so encode() doesn't have to build it
+         * @return true if it is
+         */
+        public boolean isEncoded() {
+            return this.encoded != null;
+        }
+
+        /**
+         * Gets the zone transfer to send. The transport has to send or close it
+         * @return the transfer, null if this is a single response
+         */
+        public ZoneTransfer getTransfer() {
+            return this.transfer;
+        }
+
+        /**
+         * Checks if this is a zone transfer
+         * @return true if getTransfer() has the reply
+         */
+        public boolean isTransfer() {
+            return this.transfer != null;
+        }
+
+        /**
+         * Encodes the response
+         * @return the encoded response
+         * @throws IllegalStateException
+         *      If this is a zone transfer, which has to be sent one message at a time
+         */
+        public byte[] encode() {
+            if(isTransfer()) {
+                throw new IllegalStateException("A zone transfer is sent one message at a time");
+            }
+            return this.encoded != null ? this.encoded : this.response.encode();
+        }
+
+        /**
+         * Encodes the response straight into a buffer
+         * @param out the buffer to write to, starting at its position
+         * @throws IllegalStateException
+         *      If this is a zone transfer, which has to be sent one message at a time
+         * @throws java.nio.BufferOverflowException
+         *      If the response doesn't fit. The position is left where it was
+         */
+        public void encodeInto(ByteBuffer out) {
+            if(isTransfer()) {
+                throw new IllegalStateException("A zone transfer is sent one message at a time");
+            }
+            if(this.encoded != null) {
+                out.put(this.encoded);
+            } else {
+                this.response.encodeInto(out);
+            }
+        }
+    }
+
+    /**
+     * Makes a processor
+     * @param masterFile the masterfile to search
+     * @param zoneTransfers whether the transport can carry a zone transfer. AXFR is only allowed over TCP
+     */
+    public RequestProcessor(MasterFile masterFile, boolean zoneTransfers) {
+        this.masterFile = Objects.requireNonNull(masterFile, "Masterfile cannot be null");
+        this.asyncMasterFile = AsyncMasterFile.inline(masterFile);
+        this.zoneTransfers = zoneTransfers;
+        this.localSearch = localSearch(masterFile);
+        this.executor = null;
+        this.shedder = null;
+    }
+
+    /**
+     * Makes a processor that searches a blocking masterfile on an executor, so processAsync never blocks on it.
+     * process() still searches on the caller's thread. Requests are shed by a LoadShedder made from the system
+     * properties
+     * @param masterFile the masterfile to search
+     * @param executor where processAsync searches. Not used if the masterfile is already an AsyncMasterFile
+     * @param zoneTransfers whether the transport can carry a zone transfer. AXFR is only allowed over TCP
+     */
+    public RequestProcessor(MasterFile masterFile, Executor executor, boolean zoneTransfers) {
+        this(masterFile, executor, LoadShedder.fromProperties(), zoneTransfers);
+    }
+
+    /**
+     * Makes a processor that searches a blocking masterfile on an executor, so processAsync never blocks on it,
+     * and sheds requests that wait too long in the executor's queue. process() still searches on the caller's thread
+     * @param masterFile the masterfile to search
+     * @param executor where processAsync searches. Not used if the masterfile is already an AsyncMasterFile
+     * @param shedder decides which requests waited too long
+     * @param zoneTransfers whether the transport can carry a zone transfer. AXFR is only allowed over TCP
+     */
+    public RequestProcessor(MasterFile masterFile, Executor executor, LoadShedder shedder, boolean zoneTransfers) {
+        this.masterFile = Objects.requireNonNull(masterFile, "Masterfile cannot be null");
+        this.asyncMasterFile = AsyncMasterFile.of(masterFile, executor);
+        this.zoneTransfers = zoneTransfers;
+        this.localSearch = localSearch(masterFile);
+        boolean queued = !(masterFile instanceof AsyncMasterFile);
+        this.executor = queued ? executor : null;
+        this.shedder = queued ? Objects.requireNonNull(shedder, "Shedder cannot be null") : null;
+    }
+
+    /**
+     * Makes a processor for an async masterfile. process() waits for its searches
+     * @param masterFile the masterfile to search
+     * @param zoneTransfers whether the transport can carry a zone transfer. AXFR is only allowed over TCP
+     */
+    public RequestProcessor(AsyncMasterFile masterFile, boolean zoneTransfers) {
+        this.asyncMasterFile = Objects.requireNonNull(masterFile, "Masterfile cannot be null");
+        this.masterFile = AsyncMasterFile.blocking(masterFile);
+        this.zoneTransfers = zoneTransfers;
+        this.localSearch = localSearch(masterFile);
+        this.executor = null;
+        this.shedder = null;
+    }
+
+    /**
+     * Makes a pool for blocking searches with a bounded queue. A search that doesn't fit in the queue is shed
+     * instead of waiting
+     * @param threads how many searches can run at once
+     * @param queueSize how many searches can wait for a thread
+     * @return the pool
+     */
+    public static ExecutorService newResolverPool(int threads, int queueSize) {
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize),
+                Thread.ofPlatform().name("sdns-resolver-", 0).daemon().factory());
+    }
+
+    /**
+     * Gets the deadline of a request
+     * @param received when the request was received, from System.nanoTime()
+     * @return when its client stops waiting for the answer
+     */
+    public static Deadline deadline(long received) {
+        return Deadline.at(received + TimeUnit.MILLISECONDS.toNanos(DEADLINE));
+    }
+
+    /**
+     * Gets the part of a masterfile that can answer from what it has on hand
+     * @param masterFile the masterfile
+     * @return it as a LocalSearch, or null if it isn't one
+     */
+    private static LocalSearch localSearch(Object masterFile) {
+        return masterFile instanceof LocalSearch ? (LocalSearch) masterFile : null;
+    }
+
+    /**
+     * Gets the masterfile requests are answered from
+     * @return the masterfile
+     */
+    public MasterFile getMasterFile() {
+        return this.masterFile;
+    }
+
+    /**
+     * Gets what sheds requests from the executor's queue
+     * @return the shedder, null if this processor doesn't queue searches on an executor
+     */
+    public LoadShedder getLoadShedder() {
+        return this.shedder;
+    }
+
+    /**
+     * Gets how long processAsync took for requests answered from what the masterfile had on hand
+     * @return the fast path times
+     */
+    public LatencyHistogram getFastPathTimes() {
+        return this.fastPathTimes;
+    }
+
+    /**
+     * Gets how long processAsync took for requests that needed the masterfile's full search, from being handed in
+     * to the reply being ready
+     * @return the slow path times
+     */
+    public LatencyHistogram getSlowPathTimes() {
+        return this.slowPathTimes;
+    }
+
+    /**
+     * Gets how many requests were dropped because their deadline passed
+     * @return the count
+     */
+    public long getExpired() {
+        return expired.sum();
+    }
+
+    /**
+     * Checks if AXFR queries get a transfer instead of NOTIMPLEMENTED
+     * @return true if zone transfers are allowed
+     */
+    public boolean supportsZoneTransfer() {
+        return this.zoneTransfers;
+    }
+
+    /**
+     * Decodes and answers a request
+     * @param request the encoded request
+     * @return the reply, or null if the request couldn't be decoded. Nothing is sent for those
+     */
+    public Reply process(byte[] request) {
+        try {
+            return process(Message.decode(request));
+        } catch (ValidationException e) {
+            logger.log(Level.SEVERE, "Unable to parse message: " + e.getMessage() + ", Bad Token: " + e.getBadToken());
+            return null;
+        }
+    }
+
+    /**
+     * Decodes and answers a request straight out of a buffer
+     * @param request the buffer holding the encoded request, from its position to its limit
+     * @return the reply, or null if the request couldn't be decoded. Nothing is sent for those
+     */
+    public Reply process(ByteBuffer request) {
+        try {
+            return process(Message.decodeFrom(request));
+        } catch (ValidationException e) {
+            logger.log(Level.SEVERE, "Unable to parse message: " + e.getMessage() + ", Bad Token: " + e.getBadToken());
+            return null;
+        }
+    }
+
+    /**
+     * Answers a decoded request that was just received
+     * @param request the request
+     * @return the reply, or null if no response could be made
+     */
+    public Reply process(Message request) {
+        return process(request, deadline(System.nanoTime()));
+    }
+
+    /**
+     * Answers a decoded request
+     * @param request the request
+     * @param deadline when its client stops waiting for the answer
+     * @return the reply, or null if no response could be made or the deadline passed
+     */
+    public Reply process(Message request, Deadline deadline) {
+        try {
+            return answer(request, deadline);
+        } catch (ValidationException e) {
+            logger.log(Level.SEVERE, "Unable to make response: " + e.getMessage() + ", Bad Token: " + e.getBadToken());
+            return null;
+        }
+    }
+
+    /**
+     * Answers a decoded request that was just received without blocking on the masterfile
+     * @param request the request
+     * @return completes with the reply, or null if no response could be made. Already done if the masterfile
+     *      answered straight away
+     */
+    public CompletableFuture<Reply> processAsync(Message request) {
+        return processAsync(request, deadline(System.nanoTime()));
+    }
+
+    /**
+     * Answers a decoded request without blocking on the masterfile
+     * @param request the request
+     * @param deadline when its client stops waiting for the answer
+     * @return completes with the reply, or null if no response could be made or the deadline passed. Already done
+     *      if the masterfile answered straight away
+     */
+    public CompletableFuture<Reply> processAsync(Message request, Deadline deadline) {
+        Reply screened;
+        try {
+            screened = screen(request);
+        } catch (ValidationException e) {
+            logger.log(Level.SEVERE, "Unable to make response: " + e.getMessage() + ", Bad Token: " + e.getBadToken());
+            return CompletableFuture.completedFuture(null);
+        }
+        if(screened != null) {
+            return CompletableFuture.completedFuture(screened);
+        }
+
+        long arrival = System.nanoTime();
+        if(this.localSearch != null) {
+            Reply local = searchLocal(request);
+            if(local != null) {
+                this.fastPathTimes.record(System.nanoTime() - arrival);
+                return CompletableFuture.completedFuture(local);
+            }
+        }
+        CompletableFuture<Reply> reply = searchSlow(request, arrival, deadline);
+        reply.whenComplete((r, failure) -> this.slowPathTimes.record(System.nanoTime() - arrival));
+        return reply;
+    }
+
+    /**
+     * Answers a request from what the masterfile has on hand
+     * @param request the request
+     * @return the reply, or null if it needs the full search
+     */
+    private Reply searchLocal(Message request) {
+        SearchResult result;
+        try {
+            result = this.localSearch.searchLocal(request.getQuery());
+        } catch (ValidationException | RuntimeException e) {
+            return make(() -> searchFailed(request, e));
+        }
+        return result == null ? null : make(() -> found(request, result));
+    }
+
+    /**
+     * Answers a request with the masterfile's full search, on the executor if there is one
+     * @param request the request
+     * @param arrival when the request was handed in, from System.nanoTime()
+     * @param deadline when its client stops waiting for the answer
+     * @return completes with the reply
+     */
+    private CompletableFuture<Reply> searchSlow(Message request, long arrival, Deadline deadline) {
+        if(this.executor != null) {
+            CompletableFuture<Reply> queued;
+            try {
+                queued = CompletableFuture.supplyAsync(() -> this.shedder.shouldShed(arrival)
+                        ? shed(request, this.shedder) : make(() -> search(request, deadline)), this.executor);
+            } catch (RejectedExecutionException e) {
+                //the queue is full, so it would only wait longer than one that is already there
+                return CompletableFuture.completedFuture(shed(request, this.shedder));
+            }
+            return untilDeadline(queued, deadline).handle((reply, failure) -> {
+                if(failure != null && timedOut(failure, deadline)) {
+                    return expired(request);
+                }
+                if(failure != null) {
+                    throw new CompletionException(AsyncMasterFile.unwrap(failure));
+                }
+                return reply;
+            });
+        }
+
+        CompletableFuture<SearchResult> search;
+        try {
+            search = this.asyncMasterFile.searchAsync(request.getQuery(), deadline);
+        } catch (RuntimeException e) {
+            search = CompletableFuture.failedFuture(e);
+        }
+        return untilDeadline(search, deadline).handle((result, failure) -> {
+            if(failure != null && timedOut(failure, deadline)) {
+                return expired(request);
+            }
+            return make(() -> failure != null
+                    ? searchFailed(request, AsyncMasterFile.unwrap(failure)) : found(request, result));
+        });
+    }
+
+    /**
+     * Stops waiting on a search when its deadline passes. A masterfile that never answers would otherwise hold the
+     * request, and whatever the transport holds for it, forever
+     * @param search the search
+     * @param deadline when its client stops waiting for the answer
+     * @return a copy of the search that fails with TimeoutException at the deadline. The search itself isn't
+     *      touched, since it may be shared with other requests
+     */
+    private static <T> CompletableFuture<T> untilDeadline(CompletableFuture<T> search, Deadline deadline) {
+        return search.isDone() ? search : search.copy().orTimeout(deadline.remainingMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Checks if a search failed because its deadline passed
+     * @param failure what it failed with
+     * @param deadline when its client stops waiting for the answer
+     * @return true if the deadline passed or the wait for it timed out
+     */
+    private static boolean timedOut(Throwable failure, Deadline deadline) {
+        return deadline.isExpired() || AsyncMasterFile.unwrap(failure) instanceof TimeoutException;
+    }
+
+    /**
+     * Decodes a request and answers it without blocking on the masterfile
+     * @param request the encoded request
+     * @return completes with the reply, or null if the request couldn't be decoded
+     */
+    public CompletableFuture<Reply> processAsync(byte[] request) {
+        try {
+            return processAsync(Message.decode(request));
+        } catch (ValidationException e) {
+            logger.log(Level.SEVERE, "Unable to parse message: " + e.getMessage() + ", Bad Token: " + e.getBadToken());
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    /**
+     * Decodes a request straight out of a buffer and answers it without blocking on the masterfile. The buffer is
+     * done with when this returns
+     * @param request the buffer holding the encoded request, from its position to its limit
+     * @return completes with the reply, or null if the request couldn't be decoded
+     */
+    public CompletableFuture<Reply> processAsync(ByteBuffer request) {
+        try {
+            return processAsync(Message.decodeFrom(request));
+        } catch (ValidationException e) {
+            logger.log(Level.SEVERE, "Unable to parse message: " + e.getMessage() + ", Bad Token: " + e.getBadToken());
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    /**
+     * Answers a decoded request on an executor
+     * @param request the request
+     * @param executor where the masterfile is searched
+     * @return completes with the reply, or null if no response could be made
+     */
+    public CompletableFuture<Reply> processAsync(Message request, Executor executor) {
+        Deadline deadline = deadline(System.nanoTime());
+        return CompletableFuture.supplyAsync(() -> process(request, deadline), executor);
+    }
+
+    /**
+     * Decodes and answers a request on an executor
+     * @param request the encoded request
+     * @param executor where the request is decoded and the masterfile is searched
+     * @return completes with the reply, or null if the request couldn't be decoded
+     */
+    public CompletableFuture<Reply> processAsync(byte[] request, Executor executor) {
+        Deadline deadline = deadline(System.nanoTime());
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return process(Message.decode(request), deadline);
+            } catch (ValidationException e) {
+                logger.log(Level.SEVERE, "Unable to parse message: " + e.getMessage() + ", Bad Token: "
+                        + e.getBadToken());
+                return null;
+            }
+        }, executor);
+    }
+
+    /**
+     * Makes the reply for a request that is being shed
+     * @param request the request
+     * @param shedder what shed it
+     * @return the shedder's fast failure, or null if shed requests are dropped
+     */
+    public Reply shed(Message request, LoadShedder shedder) {
+        if(shedder.getRCode() == null) {
+            logger.log(Level.FINE, "Dropping request that waited too long: " + request.toString());
+            return null;
+        }
+        return make(() -> error(request, shedder.getRCode()));
+    }
+
+    /**
+     * Something that makes a reply and can fail to
+     */
+    private interface ReplyMaker {
+        /**
+         * Makes the reply
+         * @return the reply
+         * @throws ValidationException
+         *      If a response can't be made
+         */
+        Reply make() throws ValidationException;
+    }
+
+    /**
+     * Makes a reply, logging if it can't be made
+     * @param maker what makes it
+     * @return the reply, or null if no response could be made
+     */
+    private static Reply make(ReplyMaker maker) {
+        try {
+            return maker.make();
+        } catch (ValidationException e) {
+            logger.log(Level.SEVERE, "Unable to make response: " + e.getMessage() + ", Bad Token: " + e.getBadToken());
+            return null;
+        }
+    }
+
+    /**
+     * Works out the reply to a request
+     * @param request the request
+     * @param deadline when its client stops waiting for the answer
+     * @return the reply
+     * @throws ValidationException
+     *      If a response can't be made
+     */
+    private Reply answer(Message request, Deadline deadline) throws ValidationException {
+        Reply screened = screen(request);
+        if(screened != null) {
+            return screened;
+        }
+        return search(request, deadline);
+    }
+
+    /**
+     * Searches the masterfile on this thread for a request that got past screen()
+     * @param request the request
+     * @param deadline when its client stops waiting for the answer
+     * @return the reply, null if the deadline passed
+     * @throws ValidationException
+     *      If a response can't be made
+     */
+    private Reply search(Message request, Deadline deadline) throws ValidationException {
+        if(deadline.isExpired()) {
+            return expired(request);
+        }
+        //The response to send back if successful. uses the same ID as the query
+        Response response = new Response(request.getID(), request.getQuery(), RCode.NOERROR);
+        List<ResourceRecord> answers = response.getAnswerList();
+        List<ResourceRecord> nameServers = response.getNameServerList();
+        List<ResourceRecord> additionals = response.getAdditionalList();
+
+        //attempt getting answers from masterfile
+        try {
+            this.masterFile.search(request.getQuery(), deadline, answers, nameServers, additionals);
+        } catch (ValidationException | RuntimeException e) {
+            return deadline.isExpired() ? expired(request) : searchFailed(request, e);
+        }
+        return found(response);
+    }
+
+    /**
+     * Handles everything that doesn't need a search: responses sent to the server and AXFR queries
+     * @param request the request
+     * @return the reply, or null if the masterfile has to be searched
+     * @throws ValidationException
+     *      If the creation of an error response runs into an error
+     */
+    private Reply screen(Message request) throws ValidationException {
+        if(request instanceof Response) {
+            logger.log(Level.SEVERE, "Unexpected message type: " + request.toString());
+            return error(request, RCode.REFUSED);
+        }
+
+        if(logger.isLoggable(Level.INFO)) {
+            logger.log(Level.INFO, "Query Received: " + request.toString());
+        }
+
+        if(request.getQueryType() == Message.TYPE_AXFR) {
+            return zoneTransfer(request);
+        }
+        return null;
+    }
+
+    /**
+     * Makes the reply for a search that worked. If a response for the same question was already encoded from the
+     * result, it is copied with the request's ID put in instead of being built again
+     * @param request the request
+     * @param result what was found
+     * @return the reply
+     * @throws ValidationException
+     *      If the creation of the response runs into an error
+     */
+    private static Reply found(Message request, SearchResult result) throws ValidationException {
+        byte[] encoded = result.getEncoded(request.getQuery());
+        if(encoded == null) {
+            Response response = new Response(request.getID(), request.getQuery(), RCode.NOERROR);
+            result.addTo(response.getAnswerList(), response.getNameServerList(), response.getAdditionalList());
+            found(response);
+            encoded = response.encode();
+            result.setEncoded(request.getQuery(), encoded);
+            return new Reply(response, null, encoded);
+        }
+        //the ID is the first two bytes of the header, and nothing else in a response depends on the request
+        byte[] copy = encoded.clone();
+        copy[0] = (byte) (request.getID() >> 8);
+        copy[1] = (byte) request.getID();
+        if(logger.isLoggable(Level.INFO)) {
+            logger.log(Level.INFO, "Sending cached response to " + request.getID() + " for " + request.getQuery());
+        }
+        return new Reply(null, null, copy);
+    }
+
+    /**
+     * Makes the reply for a search that worked
+     * @param response the response holding what was found
+     * @return the reply
+     */
+    private static Reply found(Response response) {
+        if(logger.isLoggable(Level.INFO)) {
+            logger.log(Level.INFO, "Sending good response: " + response.toString());
+        }
+        return new Reply(response, null);
+    }
+
+    /**
+     * Drops a request whose deadline passed
+     * @param request the request
+     * @return null, nothing is sent
+     */
+    private Reply expired(Message request) {
+        expired.increment();
+        if(logger.isLoggable(Level.FINE)) {
+            logger.log(Level.FINE, "Dropping request past its deadline: " + request.toString());
+        }
+        return null;
+    }
+
+    /**
+     * Makes the reply for a search that failed
+     * @param request the request
+     * @param failure what the search threw
+     * @return NAMEERROR if there is no such name, SERVERFAILURE for anything else
+     * @throws ValidationException
+     *      If the creation of the response runs into an error
+     */
+    private static Reply searchFailed(Message request, Throwable failure) throws ValidationException {
+        if(failure instanceof NameNotFoundException) {
+            logger.log(Level.SEVERE, "Domain name does not exist: " + request.toString());
+            //the SOA goes back to the client so it can keep the NAMEERROR as long as we do
+            Response response = new Response(request.getID(), request.getQuery(), RCode.NAMEERROR);
+            ((NameNotFoundException) failure).getAuthority().addTo(response.getAnswerList(),
+                    response.getNameServerList(), response.getAdditionalList());
+            if(logger.isLoggable(Level.INFO)) {
+                logger.log(Level.INFO, "Attempting to respond to client with RCode " + RCode.NAMEERROR.getRCodeValue()
+                        + " response: " + response.toString());
+            }
+            return new Reply(response, null);
+        }
+        if(failure instanceof NoSuchElementException) {
+            logger.log(Level.SEVERE, "Domain name does not exist: " + request.toString());
+            return error(request, RCode.NAMEERROR);
+        }
+        logger.log(Level.SEVERE, "Problem resolving: " + request.toString(), failure);
+        return error(request, RCode.SERVERFAILURE);
+    }
+
+    /**
+     * Starts a zone transfer for an AXFR query. The transfer is only started if the transport can stream it and
+     * the masterfile can give out zones, otherwise the client gets NOTIMPLEMENTED.
+     *
+     * @param request the AXFR query
+     * @return the reply
+     * @throws ValidationException
+     *      If the creation of an error response runs into an error
+     */
+    private Reply zoneTransfer(Message request) throws ValidationException {
+        if(!this.zoneTransfers || !(this.masterFile instanceof ZoneTransferSource)) {
+            logger.log(Level.SEVERE, "Not implemented: " + request.toString());
+            return error(request, RCode.NOTIMPLEMENTED);
+        }
+
+        ZoneTransfer transfer;
+        try {
+            transfer = new ZoneTransfer(request, ((ZoneTransferSource) this.masterFile).transfer(request.getQuery()));
+        } catch (NoSuchElementException e) {
+            logger.log(Level.SEVERE, "Domain name does not exist: " + request.toString());
+            return error(request, RCode.NAMEERROR);
+        } catch (ValidationException e) {
+            logger.log(Level.SEVERE, "Problem resolving: " + request.toString(), e);
+            return error(request, RCode.SERVERFAILURE);
+        }
+        logger.log(Level.INFO, "Starting zone transfer: " + request.toString());
+        return new Reply(null, transfer);
+    }
+
+    /**
+     * Makes an error response with no RRs
+     * @param request the request that was made
+     * @param rCode the error
+     * @return the reply
+     * @throws ValidationException
+     *      If the creation of the response runs into an error
+     */
+    private static Reply error(Message request, RCode rCode) throws ValidationException {
+        Response response = new Response(request.getID(), request.getQuery(), rCode);
+        if(logger.isLoggable(Level.INFO)) {
+            logger.log(Level.INFO, "Attempting to respond to client with RCode " + rCode.getRCodeValue()
+                    + " response: " + response.toString());
+        }
+        return new Reply(response, null);
+    }
+}
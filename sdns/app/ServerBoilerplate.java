@@ -7,27 +7,27 @@
  ************************************************/
 package sdns.app;
 
+import sdns.app.masterfile.Deadline;
 import sdns.app.masterfile.MasterFile;
-import sdns.app.masterfile.MasterFileFactory;
-import sdns.serialization.*;
+import sdns.serialization.Message;
+import sdns.serialization.ValidationException;
 
-import java.nio.channels.AsynchronousSocketChannel;
-import java.util.List;
-import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * Boilerplate code for the Blocking IO servers. UDP and TCP.
+ * Boilerplate code for the servers that send one response per request as soon as it is made.
  *
- * This is also used in the case of delegating client handling to task threads.
- * The task thread classes can extend this class to implement proper protocol handling.
+ * The work of answering a request is done by a RequestProcessor. This only adapts it to a transport
+ * by sending whatever it replies with through sendResponse.
  *
  * @version 1.0
  */
 public abstract class ServerBoilerplate {
     private static final Logger logger = ServerLogger.getLogger();
     protected MasterFile masterFile;
+    private RequestProcessor processor;
 
     /**
      * Checks to see if the given port number is a valid port number
@@ -47,115 +47,112 @@ public abstract class ServerBoilerplate {
      */
     protected abstract void sendResponse(byte[] encodedResp);
 
+    /**
+     * Sends a response that hasn't been encoded yet. Encodes it and hands it to sendResponse(byte[]).
+     * Servers that can encode straight into their own send buffer override this to skip the byte array
+     * @param response the response to send
+     */
+    protected void sendResponse(Message response) {
+        this.sendResponse(response.encode());
+    }
+
     /**
      * Sets the masterfile for the server.
      * @param masterFile the masterfile to set
      */
     public void setMasterFile(MasterFile masterFile) {
         this.masterFile = masterFile;
+        this.processor = new RequestProcessor(masterFile, supportsZoneTransfer());
     }
 
     /**
-     * checks if the request was a proper query type
-     * @param request the request to check
-     * @return a bool. true if it wasn't a query.
-     * @throws ValidationException
-     *      - if the error handling function throws an error
+     * Sets what the server hands its requests to, for a server that made its own, like one that searches a blocking
+     * masterfile on a pool of threads. The masterfile is the processor's
+     * @param processor the processor
+     * @throws NullPointerException
+     *      If processor is null
      */
-    protected boolean checkRequestType(Message request) throws ValidationException{
-        if(request instanceof Response) {
-            this.requestWasResponseError(request);
-            return true;
-        }
-        return false;
+    public void setProcessor(RequestProcessor processor) {
+        this.processor = Objects.requireNonNull(processor, "Processor cannot be null");
+        this.masterFile = processor.getMasterFile();
+    }
+
+    /**
+     * Gets what the server hands its requests to
+     * @return the processor, null until a masterfile is set
+     */
+    public RequestProcessor getProcessor() {
+        return this.processor;
     }
 
     /**
      * Handles the packet being received.
-     * New version. Only takes in a decoded request and delegates sends to the relevant
-     * protocol through dispatch
+     * Hands the request to the RequestProcessor and sends back whatever it replies with through dispatch
      *
      * @param request the decoded request
      */
     public void handlePacket(Message request) {
-        try {
-            if(checkRequestType(request)) {
-                return;
-            }
-
-            logger.log(Level.INFO, "Query Received: " + request.toString());
-
-            //The response to send back if successful. uses the same ID as the query
-            Response response = new Response(request.getID(), request.getQuery(), RCode.NOERROR);
-
-            //get the references to the new empty lists in the just created response object
-            List<ResourceRecord> answers = response.getAnswerList();
-            List<ResourceRecord> nameServers = response.getNameServerList();
-            List<ResourceRecord> additionals = response.getAdditionalList();
+        handleReply(this.processor.process(request));
+    }
 
-            //attempt getting answers from masterfile
-            try {
-                this.masterFile.search(request.getQuery(), answers, nameServers, additionals);
-            } catch (Exception e) {
-                if(e instanceof NoSuchElementException) {
-                    nameNotExistError(request);
-                    return;
-                }
-                if(e instanceof NullPointerException || e instanceof ValidationException) {
-                    otherError(request, e);
-                    return;
-                }
-            }
+    /**
+     * Handles a packet that was received a while ago, giving up on it once its client stops waiting
+     *
+     * @param request the decoded request
+     * @param deadline when its client stops waiting for the answer
+     */
+    public void handlePacket(Message request, Deadline deadline) {
+        handleReply(this.processor.process(request, deadline));
+    }
 
-            //if successful, send a good response
-            byte[] encodedResp = response.encode();
-            logger.log(Level.INFO, "Sending good response: " + response.toString());
-            this.sendResponse(encodedResp);
-        } catch (ValidationException e) {
-            logger.log(Level.SEVERE, "Unable to parse message: " + e.getMessage() + ", Bad Token: " + e.getBadToken());
-            //TODO: handle this better, try and process the rest
-        }
+    /**
+     * Handles a packet that waited too long to be answered, by sending the shedder's fast failure or nothing
+     *
+     * @param request the decoded request
+     * @param shedder what shed it
+     */
+    public void shedPacket(Message request, LoadShedder shedder) {
+        handleReply(this.processor.shed(request, shedder));
     }
 
     /**
-     * The handler if an 'other error' comes from the masterfile search
-     * @param request the request that was made
-     * @throws ValidationException
-     *      If the creation of the response to send back runs into an error
+     * Sends a reply the processor made
+     * @param reply the reply, null if there is nothing to send
      */
-    protected void otherError(Message request, Throwable e) throws ValidationException{
-        logger.log(Level.SEVERE, "Problem resolving: " + request.toString(), e);
-        Message response = new Response(request.getID(), request.getQuery(), RCode.SERVERFAILURE);
-        byte[] encodedResp = response.encode();
-        logger.log(Level.INFO, "Attempting to respond to client with RCode 2 response: " + response.toString());
-        this.sendResponse(encodedResp);
+    protected void handleReply(RequestProcessor.Reply reply) {
+        if(reply == null) {
+            return;
+        }
+        if(reply.isTransfer()) {
+            this.sendTransfer(reply.getTransfer());
+        } else if(reply.isEncoded()) {
+            this.sendResponse(reply.encode());
+        } else {
+            this.sendResponse(reply.getResponse());
+        }
     }
 
     /**
-     * The handler if an 'Name not exist' comes from the masterfile search
-     * @param request the request that was made
-     * @throws ValidationException
-     *      If the creation of the response to send back runs into an error
+     * Checks if this server's transport can carry a zone transfer. AXFR is only allowed over TCP
+     * @return false unless overridden by a TCP server
      */
-    protected void nameNotExistError(Message request) throws ValidationException {
-        logger.log(Level.SEVERE, "Domain name does not exist: " + request.toString());
-        Message response = new Response(request.getID(), request.getQuery(), RCode.NAMEERROR);
-        byte[] encodedResp = response.encode();
-        logger.log(Level.INFO, "Attempting to respond to client with RCode 3 response: " + response.toString());
-        this.sendResponse(encodedResp);
+    protected boolean supportsZoneTransfer() {
+        return false;
     }
 
     /**
-     * The handler if a 'query' received from the client is actually a response object
-     * @param request the request that was made
-     * @throws ValidationException
-     *      If the creation of the response to send back runs into an error
+     * Sends every message of a zone transfer. This sends them one at a time through sendResponse, which is only right
+     * for servers whose sendResponse blocks until the message is written. Others should override it.
+     * @param transfer the transfer to send
      */
-    protected void requestWasResponseError(Message request) throws ValidationException{
-        logger.log(Level.SEVERE, "Unexpected message type: " + request.toString());
-        Message response = new Response(request.getID(), request.getQuery(), RCode.REFUSED);
-        byte[] encodedResp = response.encode();
-        logger.log(Level.INFO, "Attempting to respond to client with RCode 5 response: " + response.toString());
-        this.sendResponse(encodedResp);
+    protected void sendTransfer(ZoneTransfer transfer) {
+        try (transfer) {
+            byte[] message;
+            while((message = transfer.nextMessage()) != null) {
+                this.sendResponse(message);
+            }
+        } catch (ValidationException e) {
+            logger.log(Level.SEVERE, "Zone transfer aborted: " + e.getMessage() + ", Bad Token: " + e.getBadToken());
+        }
     }
 }
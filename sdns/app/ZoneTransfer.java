@@ -0,0 +1,194 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 7
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.app;
+
+import sdns.serialization.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Turns a zone into a series of encoded Responses for an AXFR query, one message at a time.
+ *
+ * Every message has the query's ID and question and only answers. The zone's SOA is the first and last answer.
+ * A message is only built when the server is ready to send it, and only one message's worth of RRs is held at a time,
+ * so a zone of any size can be sent. Every message fits in one TCP frame.
+ *
+ * The transfer closes the zone stream once the last message is built or anything goes wrong. close() must be called
+ * if the transfer is abandoned part way through. An RR of an unknown type can't be encoded, and leaving it out would
+ * make an incomplete zone look complete, so it aborts the transfer instead. The closing SOA is never sent after that.
+ *
+ * @version 1.0
+ */
+public class ZoneTransfer implements AutoCloseable {
+    //how big each message is allowed to get. One RR bigger than this still gets a message to itself
+    public static final int DEFAULT_MESSAGE_SIZE = 16384;
+    private static final int MAX_MESSAGE_SIZE = 65535;
+
+    private final Stream<ResourceRecord> zone;
+    private final Iterator<ResourceRecord> records;
+    private final ResourceRecord soa;
+    private final String question;
+    private final int messageSize;
+
+    //the header and question of every message, with ANCOUNT 0
+    private final byte[] template;
+
+    //an RR that didn't fit in the last message
+    private byte[] pending;
+    private boolean soaSent = false;
+    private boolean lastSoaSent = false;
+    private boolean closed = false;
+
+    /**
+     * Starts a transfer with the default message size
+     *
+     * @param request the AXFR query
+     * @param zone the zone's RRs, SOA first
+     * @throws ValidationException
+     *      If the zone doesn't start with an SOA or the response header can't be made
+     */
+    public ZoneTransfer(Message request, Stream<ResourceRecord> zone) throws ValidationException {
+        this(request, zone, DEFAULT_MESSAGE_SIZE);
+    }
+
+    /**
+     * Starts a transfer
+     *
+     * @param request the AXFR query
+     * @param zone the zone's RRs, SOA first
+     * @param messageSize the most bytes to put in one message
+     * @throws ValidationException
+     *      If the zone doesn't start with an SOA or the response header can't be made
+     */
+    public ZoneTransfer(Message request, Stream<ResourceRecord> zone, int messageSize) throws ValidationException {
+        this.zone = zone;
+        this.question = request.getQuery();
+        this.messageSize = Math.min(messageSize, MAX_MESSAGE_SIZE);
+        try {
+            this.records = zone.iterator();
+            this.soa = records.hasNext() ? records.next() : null;
+            if(!(soa instanceof SOA)) {
+                throw new ValidationException("Zone must start with an SOA", question);
+            }
+            Response header = new Response(request.getID(), question, RCode.NOERROR);
+            header.setQueryType(Message.TYPE_AXFR);
+            this.template = header.encode();
+        } catch (ValidationException | RuntimeException e) {
+            zone.close();
+            if(e instanceof ValidationException) {
+                throw (ValidationException) e;
+            }
+            throw new ValidationException("Unable to read zone", e, question);
+        }
+    }
+
+    /**
+     * Builds the next message of the transfer
+     *
+     * @return the encoded message, or null once the whole zone has been sent
+     * @throws ValidationException
+     *      If the zone can't be read, an RR can't be encoded, or an RR can't fit in a message. The transfer is closed
+     */
+    public byte[] nextMessage() throws ValidationException {
+        if(closed) {
+            return null;
+        }
+
+        ByteArrayOutputStream message = new ByteArrayOutputStream(messageSize);
+        message.writeBytes(template);
+        int count = 0;
+        try {
+            if(pending != null) {
+                message.writeBytes(pending);
+                pending = null;
+                count++;
+            }
+            byte[] rr;
+            while((rr = nextRecord()) != null) {
+                if(template.length + rr.length > MAX_MESSAGE_SIZE) {
+                    throw new ValidationException("RR too big for a message", question);
+                }
+                //start a new message unless this is the first RR in it
+                if(message.size() + rr.length > messageSize && count > 0) {
+                    pending = rr;
+                    break;
+                }
+                message.writeBytes(rr);
+                count++;
+            }
+        } catch (ValidationException | RuntimeException e) {
+            close();
+            if(e instanceof ValidationException) {
+                throw (ValidationException) e;
+            }
+            throw new ValidationException("Unable to read zone", e, question);
+        }
+
+        if(pending == null) {
+            close();
+        }
+        byte[] encoded = message.toByteArray();
+        encoded[6] = (byte) (count >> 8);
+        encoded[7] = (byte) count;
+        return encoded;
+    }
+
+    /**
+     * Gets the next RR to send, encoded. The SOA goes first and last
+     *
+     * @return the encoded RR, or null after the closing SOA
+     * @throws ValidationException
+     *      If the RR can't be encoded, like one of an unknown type
+     */
+    private byte[] nextRecord() throws ValidationException {
+        ResourceRecord rr;
+        if(!soaSent) {
+            rr = soa;
+            soaSent = true;
+        } else if(records.hasNext()) {
+            rr = records.next();
+        } else if(!lastSoaSent) {
+            rr = soa;
+            lastSoaSent = true;
+        } else {
+            return null;
+        }
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        try {
+            rr.encode(encoded);
+        } catch (UnsupportedOperationException e) {
+            throw new ValidationException("Zone has an RR that can't be encoded", e, rr.getName());
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to encode " + rr, e);
+        }
+        return encoded.toByteArray();
+    }
+
+    /**
+     * Checks if the transfer is over, either because every message has been built or it was closed
+     *
+     * @return true once nextMessage() has nothing left
+     */
+    public boolean isFinished() {
+        return closed;
+    }
+
+    /**
+     * Stops the transfer and closes the zone stream
+     */
+    @Override
+    public void close() {
+        closed = true;
+        pending = null;
+        zone.close();
+    }
+}
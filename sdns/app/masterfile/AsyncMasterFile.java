@@ -0,0 +1,220 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 7
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.app.masterfile;
+
+import sdns.serialization.ResourceRecord;
+import sdns.serialization.ValidationException;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+/**
+ * A masterfile that answers without making the caller wait.
+ *
+ * A server's I/O threads call searchAsync and carry on. Anything that can answer straight away, like a cache hit,
+ * should hand back a future that is already complete, so the caller can finish the request on the spot.
+ *
+ * The servers treat a MasterFile that doesn't implement this as fast enough to search inline. A MasterFile that
+ * blocks should implement this, or be wrapped with of(masterFile, executor) so its searches run somewhere else.
+ *
+ * A search can be given the Deadline of the request it is for. The wrappers made here pass it on to the MasterFile
+ * they wrap, and one made by of() drops a search whose deadline passed while it was queued.
+ *
+ * A cache refreshing what it has kept calls refreshAsync instead, so a cache behind it doesn't just hand back its own
+ * copy of the same result. Masterfiles that answer from what they have on hand override it to skip that and pass the
+ * refresh on to what they wrap.
+ *
+ * @version 1.0
+ */
+public interface AsyncMasterFile {
+    /**
+     * Looks up a name
+     * @param question the name to look up
+     * @return completes with the RRs found. Completes exceptionally with NoSuchElementException if there is no such
+     *      name, and ValidationException if the search fails
+     */
+    CompletableFuture<SearchResult> searchAsync(String question);
+
+    /**
+     * Looks up a name, giving up once the deadline passes. Masterfiles that wait on anything should override this
+     * to keep every wait inside the deadline. By default the search isn't started if the deadline has already passed
+     * @param question the name to look up
+     * @param deadline when the client stops waiting for the answer
+     * @return completes the same way as searchAsync(question), or exceptionally with ValidationException if the
+     *      deadline passes
+     */
+    default CompletableFuture<SearchResult> searchAsync(String question, Deadline deadline) {
+        try {
+            deadline.check(question);
+        } catch (ValidationException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return searchAsync(question);
+    }
+
+    /**
+     * Looks up a name again, past anything this masterfile keeps on hand. By default the same as
+     * searchAsync(question, deadline), which is right for a masterfile that doesn't keep anything
+     * @param question the name to look up
+     * @param deadline when the client stops waiting for the answer
+     * @return completes the same way as searchAsync(question, deadline)
+     */
+    default CompletableFuture<SearchResult> refreshAsync(String question, Deadline deadline) {
+        return searchAsync(question, deadline);
+    }
+
+    /**
+     * Makes a blocking masterfile async by running every search on an executor
+     * @param masterFile the masterfile to search
+     * @param executor where the searches run
+     * @return the async masterfile. masterFile itself if it is already async
+     */
+    static AsyncMasterFile of(MasterFile masterFile, Executor executor) {
+        Objects.requireNonNull(masterFile, "Masterfile cannot be null");
+        Objects.requireNonNull(executor, "Executor cannot be null");
+        if(masterFile instanceof AsyncMasterFile) {
+            return (AsyncMasterFile) masterFile;
+        }
+        return new AsyncMasterFile() {
+            @Override
+            public CompletableFuture<SearchResult> searchAsync(String question) {
+                return searchAsync(question, Deadline.none());
+            }
+
+            @Override
+            public CompletableFuture<SearchResult> searchAsync(String question, Deadline deadline) {
+                return CompletableFuture.supplyAsync(() -> {
+                    try {
+                        //the deadline may have passed while it was queued
+                        return SearchResult.of(masterFile, question, deadline);
+                    } catch (ValidationException e) {
+                        throw new CompletionException(e);
+                    }
+                }, executor);
+            }
+        };
+    }
+
+    /**
+     * Makes a fast masterfile async by searching it on the caller's thread. Every future comes back complete
+     * @param masterFile the masterfile to search
+     * @return the async masterfile. masterFile itself if it is already async
+     */
+    static AsyncMasterFile inline(MasterFile masterFile) {
+        Objects.requireNonNull(masterFile, "Masterfile cannot be null");
+        if(masterFile instanceof AsyncMasterFile) {
+            return (AsyncMasterFile) masterFile;
+        }
+        return new AsyncMasterFile() {
+            @Override
+            public CompletableFuture<SearchResult> searchAsync(String question) {
+                return searchAsync(question, Deadline.none());
+            }
+
+            @Override
+            public CompletableFuture<SearchResult> searchAsync(String question, Deadline deadline) {
+                try {
+                    return CompletableFuture.completedFuture(SearchResult.of(masterFile, question, deadline));
+                } catch (ValidationException | RuntimeException e) {
+                    return CompletableFuture.failedFuture(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Makes an async masterfile into a MasterFile whose search waits for the answer
+     * @param masterFile the async masterfile
+     * @return the blocking masterfile. masterFile itself if it is already a MasterFile
+     */
+    static MasterFile blocking(AsyncMasterFile masterFile) {
+        Objects.requireNonNull(masterFile, "Masterfile cannot be null");
+        if(masterFile instanceof MasterFile) {
+            return (MasterFile) masterFile;
+        }
+        return new MasterFile() {
+            @Override
+            public void search(String question, List<ResourceRecord> answers, List<ResourceRecord> nameservers,
+                               List<ResourceRecord> additionals) throws ValidationException {
+                search(question, Deadline.none(), answers, nameservers, additionals);
+            }
+
+            @Override
+            public void search(String question, Deadline deadline, List<ResourceRecord> answers,
+                               List<ResourceRecord> nameservers, List<ResourceRecord> additionals)
+                    throws ValidationException {
+                Objects.requireNonNull(answers, "Answers cannot be null");
+                Objects.requireNonNull(nameservers, "Name servers cannot be null");
+                Objects.requireNonNull(additionals, "Additionals cannot be null");
+                await(masterFile.searchAsync(question, deadline), question).addTo(answers, nameservers, additionals);
+            }
+        };
+    }
+
+    /**
+     * Waits for a search to finish, the way MasterFile.search does
+     * @param search the search
+     * @param question the name being looked up
+     * @return what was found
+     * @throws NoSuchElementException
+     *      If no such domain name
+     * @throws ValidationException
+     *      If the search fails or the wait is interrupted
+     */
+    static SearchResult await(CompletableFuture<SearchResult> search, String question)
+            throws NoSuchElementException, ValidationException {
+        try {
+            return search.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ValidationException("Interrupted waiting for search", e, question);
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause(), question);
+        }
+    }
+
+    /**
+     * Gets the reason a search failed out of whatever it was wrapped in
+     * @param failure what the future failed with
+     * @return the NoSuchElementException, NullPointerException, or ValidationException the search failed with
+     */
+    static Throwable unwrap(Throwable failure) {
+        while((failure instanceof CompletionException || failure instanceof ExecutionException)
+                && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        return failure;
+    }
+
+    /**
+     * Turns a failed search back into what MasterFile.search throws
+     * @param failure what the future failed with
+     * @param question the name that was looked up
+     * @return a ValidationException to throw, if the failure isn't already something search throws
+     * @throws NoSuchElementException
+     *      If that is what the search failed with
+     * @throws RuntimeException
+     *      If that is what the search failed with
+     */
+    private static ValidationException rethrow(Throwable failure, String question) {
+        failure = unwrap(failure);
+        if(failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if(failure instanceof ValidationException) {
+            return (ValidationException) failure;
+        }
+        return new ValidationException("Search failed", failure, question);
+    }
+}
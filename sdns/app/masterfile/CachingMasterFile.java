@@ -0,0 +1,797 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 7
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.app.masterfile;
+
+import sdns.serialization.ResourceRecord;
+import sdns.serialization.ValidationException;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A masterfile that keeps what it finds until its TTL runs out.
+ *
+ * Results are kept by name, matched without case. Every query a search can answer asks for every type, so the name
+ * is the whole question. A result is kept for the shortest TTL of its RRs, capped at maxTtlSeconds, and one with no
+ * RRs or a TTL of 0 isn't kept at all. A hit is handed out with every TTL cut by the time the result has been kept,
+ * so a client never keeps it longer than the server it came from said it could. The aged copy is only made again
+ * once a second, and the same copy is handed out in between, so a processor can keep the encoded response on it and
+ * answer the next hit by copying bytes.
+ *
+ * Names that don't exist, and names that exist with no data, are kept too, since a name that isn't there is asked for
+ * again as often as one that is and always costs a trip upstream. These negative results are kept for the shorter of
+ * the TTL and the minimum of the SOA the upstream sent with them (RFC 2308), capped at maxNegativeTtlSeconds. Without
+ * an SOA there is nothing to say how long they can be kept, so they aren't. A kept NAMEERROR is thrown again as a
+ * NameNotFoundException holding the aged SOA.
+ *
+ * A cache is a LocalSearch, so a hit is answered on the thread that read the request and only misses go to the
+ * masterfile it wraps. If that is a LocalSearch too, like an OffHeapMasterFile holding far more names, it is asked
+ * first on the same thread and what it has is kept here.
+ *
+ * It holds at most maxEntries results and maxNegativeEntries negative ones, counted apart so a flood of junk names
+ * can only push out other junk names. Past that the oldest are evicted in the order they were added, except that one
+ * that has been hit since the last time it came up gets another go round (the CLOCK policy), so popular names stay in
+ * while names asked for once are the first to go.
+ *
+ * A popular name would still cost whoever asks for it just after it runs out a trip upstream. So once a result has
+ * been hit prefetchMinHits times, a hit in the last prefetchPercent of its TTL looks it up again in the background
+ * while the result it has keeps being handed out, and the new one takes its place when it comes in. Only one refresh
+ * runs per result, and no more than prefetchPerSecond are started a second, so a burst of names running out together
+ * can't flood the masterfile. A hit on a refreshed result after the old one would have run out is a miss avoided.
+ * Refreshes, and the lookups for stale results below, go through refreshAsync, so a cache behind this one looks the
+ * name up again instead of handing back the copy it kept, which runs out when this one does.
+ *
+ * When the upstream is slow or down, stale data beats SERVERFAILURE (RFC 8767). A result that has run out can still be
+ * handed out for staleSeconds after. A search for it looks the name up again, but if the lookup fails, or hasn't
+ * answered in staleAnswerMillis, the stale result is handed out with every TTL set to staleTtlSeconds while the
+ * lookup carries on in the background and replaces it if it ever comes in. After that, searches for the name get the
+ * stale result straight away for staleTtlSeconds instead of each waiting on the upstream again.
+ *
+ * Hits, misses, evictions, prefetches, and stale answers are counted for the log. The limits default to the system
+ * properties sdns.cache.maxEntries, sdns.cache.maxTtlSeconds, sdns.cache.maxNegativeEntries, and
+ * sdns.cache.maxNegativeTtlSeconds, prefetching to sdns.cache.prefetchPercent, sdns.cache.prefetchMinHits, and
+ * sdns.cache.prefetchPerSecond, and stale answers to sdns.cache.staleSeconds, sdns.cache.staleAnswerMillis, and
+ * sdns.cache.staleTtlSeconds.
+ *
+ * @version 1.0
+ */
+public class CachingMasterFile implements MasterFile, AsyncMasterFile, LocalSearch, MasterFileLayer {
+    //results kept by default
+    private static final int DEFAULT_MAX_ENTRIES = 10000;
+    //longest a result is kept by default, in seconds. A day, like most resolvers
+    private static final long DEFAULT_MAX_TTL = 86400;
+    //negative results kept by default
+    private static final int DEFAULT_MAX_NEGATIVE_ENTRIES = 10000;
+    //longest a negative result is kept by default, in seconds. Three hours, like BIND
+    private static final long DEFAULT_MAX_NEGATIVE_TTL = 10800;
+    //how much of the TTL is left when a hot result is refreshed by default, in percent
+    private static final int DEFAULT_PREFETCH_PERCENT = 10;
+    //hits before a result is hot enough to refresh by default
+    private static final int DEFAULT_PREFETCH_MIN_HITS = 3;
+    //most refreshes started a second by default
+    private static final int DEFAULT_PREFETCH_PER_SECOND = 100;
+    //how long a result that ran out can still be handed out by default, in seconds. A day, inside RFC 8767's 1 to 7
+    private static final long DEFAULT_STALE = 86400;
+    //how long a search waits on the upstream before handing out stale data by default, in ms. RFC 8767's 1.8s
+    private static final long DEFAULT_STALE_ANSWER = 1800;
+    //the TTL stale data is handed out with by default, in seconds. RFC 8767's 30s
+    private static final int DEFAULT_STALE_TTL = 30;
+    private final AsyncMasterFile masterFile;
+    private final long maxTtl;
+    private final long maxNegativeTtl;
+    private final Shelf positive;
+    private final Shelf negative;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private int prefetchPercent = Integer.getInteger("sdns.cache.prefetchPercent", DEFAULT_PREFETCH_PERCENT);
+    private int prefetchMinHits = Integer.getInteger("sdns.cache.prefetchMinHits", DEFAULT_PREFETCH_MIN_HITS);
+    private int prefetchPerSecond = Integer.getInteger("sdns.cache.prefetchPerSecond", DEFAULT_PREFETCH_PER_SECOND);
+    //the second refreshes are being counted for, and how many were started in it
+    private final AtomicLong prefetchSecond = new AtomicLong();
+    private final AtomicInteger prefetchesThisSecond = new AtomicInteger();
+    private final LongAdder prefetches = new LongAdder();
+    private final LongAdder prefetchesLimited = new LongAdder();
+    private final LongAdder missesAvoided = new LongAdder();
+    private long staleSeconds = Long.getLong("sdns.cache.staleSeconds", DEFAULT_STALE);
+    private long staleAnswerMillis = Long.getLong("sdns.cache.staleAnswerMillis", DEFAULT_STALE_ANSWER);
+    private int staleTtl = Integer.getInteger("sdns.cache.staleTtlSeconds", DEFAULT_STALE_TTL);
+    private final LongAdder staleServed = new LongAdder();
+
+    /**
+     * A kept result
+     */
+    private static final class Entry {
+        //the result as it was found, with its RRs frozen
+        private final SearchResult found;
+        //when it was found and when it runs out, from System.nanoTime()
+        private final long stored;
+        private final long expires;
+        //when a hit should start refreshing it, from System.nanoTime()
+        private final long prefetchAt;
+        //the name doesn't exist, and found is what came with the NAMEERROR
+        private final boolean nameError;
+        //when the result this refreshed ran out, from System.nanoTime(). Only set if refreshed is
+        private final long replacedExpires;
+        private final boolean refreshed;
+        //the copy being handed out right now
+        private volatile Served served;
+        //hit since the clock last came round to it
+        private volatile boolean referenced = false;
+        //hits so far, only counted up to the number that makes it hot
+        private final AtomicInteger hits = new AtomicInteger();
+        //a refresh has been started for it
+        private final AtomicBoolean prefetching = new AtomicBoolean();
+        //it has been hit since the result it refreshed would have run out
+        private final AtomicBoolean avoidedMiss = new AtomicBoolean();
+        //the copy handed out once it has run out, made the first time it is needed
+        private volatile SearchResult staleCopy;
+        //until when it is handed out stale without asking the upstream again, from System.nanoTime()
+        private volatile long recheckAt;
+
+        Entry(SearchResult found, long stored, long ttlSeconds, int prefetchPercent, boolean nameError, Entry replacing) {
+            long ttl = TimeUnit.SECONDS.toNanos(ttlSeconds);
+            this.found = found;
+            this.stored = stored;
+            this.expires = stored + ttl;
+            //0 percent puts it past expires, so it is never refreshed
+            this.prefetchAt = prefetchPercent == 0 ? this.expires : this.expires - ttl / 100 * prefetchPercent;
+            this.nameError = nameError;
+            this.refreshed = replacing != null;
+            this.replacedExpires = replacing == null ? 0 : replacing.expires;
+            //already passed, whatever nanoTime's origin is
+            this.recheckAt = stored;
+            this.served = new Served(0, found);
+        }
+
+        /**
+         * Checks if the result has run out
+         * @param now the time, from System.nanoTime()
+         * @return true if it can't be handed out any more
+         */
+        boolean isExpired(long now) {
+            return now - expires >= 0;
+        }
+
+        /**
+         * Gets the result to hand out
+         * @param now the time, from System.nanoTime()
+         * @return the result with its TTLs cut by how long it has been kept
+         * @throws ValidationException
+         *      If an RR can't be copied
+         */
+        SearchResult serve(long now) throws ValidationException {
+            referenced = true;
+            long age = TimeUnit.NANOSECONDS.toSeconds(now - stored);
+            Served current = served;
+            if(current.age != age) {
+                //every thread that gets here makes the same copy, so it doesn't matter which one is kept
+                current = new Served(age, found.aged(age));
+                served = current;
+            }
+            return current.result;
+        }
+
+        /**
+         * Gets the result to hand out once it has run out
+         * @param ttl the TTL every RR is handed out with
+         * @return the result with every TTL set to ttl
+         * @throws ValidationException
+         *      If an RR can't be copied
+         */
+        SearchResult serveStale(int ttl) throws ValidationException {
+            referenced = true;
+            SearchResult current = staleCopy;
+            if(current == null) {
+                current = found.withTTL(ttl);
+                staleCopy = current;
+            }
+            return current;
+        }
+    }
+
+    /**
+     * A copy of a result being handed out, and how old it is
+     */
+    private static final class Served {
+        private final long age;
+        private final SearchResult result;
+
+        Served(long age, SearchResult result) {
+            this.age = age;
+            this.result = result;
+        }
+    }
+
+    /**
+     * Kept results of one kind, with their own limit and their own clock
+     */
+    private static final class Shelf {
+        private final int maxEntries;
+        private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+        //every name in entries once, oldest first. The hand of the clock
+        private final Queue<String> clock = new ConcurrentLinkedQueue<>();
+        private final LongAdder evictions = new LongAdder();
+
+        Shelf(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+
+        /**
+         * Gets what is kept under a key, if it hasn't run out
+         * @param key the key
+         * @param now the time, from System.nanoTime()
+         * @return the entry, or null
+         */
+        Entry get(String key, long now) {
+            Entry entry = entries.get(key);
+            //one that ran out is left for the next put or the clock to replace
+            return entry == null || entry.isExpired(now) ? null : entry;
+        }
+
+        /**
+         * Gets what is kept under a key if it has run out, but not so long ago it can't be handed out stale
+         * @param key the key
+         * @param now the time, from System.nanoTime()
+         * @param staleNanos how long after running out it can still be handed out
+         * @return the entry, or null
+         */
+        Entry getStale(String key, long now, long staleNanos) {
+            Entry entry = entries.get(key);
+            return entry == null || !entry.isExpired(now) || now - entry.expires - staleNanos >= 0 ? null : entry;
+        }
+
+        /**
+         * Keeps an entry, evicting others if the shelf is full
+         * @param key the key
+         * @param entry the entry
+         */
+        void put(String key, Entry entry) {
+            if(entries.put(key, entry) == null) {
+                clock.add(key);
+                evict();
+            }
+        }
+
+        /**
+         * Evicts entries until the shelf is back down to maxEntries. The clock gives each entry that has been hit
+         * since it last came round another go, and evicts the first one that hasn't, or has run out
+         */
+        private void evict() {
+            long now = System.nanoTime();
+            String key;
+            while(entries.size() > maxEntries && (key = clock.poll()) != null) {
+                Entry entry = entries.get(key);
+                if(entry == null) {
+                    continue;
+                }
+                if(entry.referenced && !entry.isExpired(now)) {
+                    entry.referenced = false;
+                    clock.add(key);
+                } else if(entries.remove(key, entry)) {
+                    evictions.increment();
+                } else {
+                    //it was replaced while we looked at it, so look at it again next time round
+                    clock.add(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes a cache
+     * @param masterFile the masterfile misses are searched on
+     * @param maxEntries the most results kept at once
+     * @param maxTtlSeconds the longest a result is kept, whatever its TTL
+     * @param maxNegativeEntries the most negative results kept at once
+     * @param maxNegativeTtlSeconds the longest a negative result is kept, whatever its SOA says
+     * @throws NullPointerException
+     *      If masterFile is null
+     * @throws IllegalArgumentException
+     *      If any limit is less than 1
+     */
+    public CachingMasterFile(AsyncMasterFile masterFile, int maxEntries, long maxTtlSeconds, int maxNegativeEntries,
+                             long maxNegativeTtlSeconds) {
+        this.masterFile = Objects.requireNonNull(masterFile, "Masterfile cannot be null");
+        if(maxEntries < 1 || maxTtlSeconds < 1 || maxNegativeEntries < 1 || maxNegativeTtlSeconds < 1) {
+            throw new IllegalArgumentException("Cache limits must be at least 1");
+        }
+        this.positive = new Shelf(maxEntries);
+        this.maxTtl = maxTtlSeconds;
+        this.negative = new Shelf(maxNegativeEntries);
+        this.maxNegativeTtl = maxNegativeTtlSeconds;
+    }
+
+    /**
+     * Makes a cache with the limits from the system properties. Anything not set gets 10,000 entries and a day,
+     * and 10,000 negative entries and three hours
+     * @param masterFile the masterfile misses are searched on
+     * @throws NullPointerException
+     *      If masterFile is null
+     * @throws IllegalArgumentException
+     *      If a limit isn't valid
+     */
+    public CachingMasterFile(AsyncMasterFile masterFile) {
+        this(masterFile, Integer.getInteger("sdns.cache.maxEntries", DEFAULT_MAX_ENTRIES),
+                Long.getLong("sdns.cache.maxTtlSeconds", DEFAULT_MAX_TTL),
+                Integer.getInteger("sdns.cache.maxNegativeEntries", DEFAULT_MAX_NEGATIVE_ENTRIES),
+                Long.getLong("sdns.cache.maxNegativeTtlSeconds", DEFAULT_MAX_NEGATIVE_TTL));
+    }
+
+    @Override
+    public void search(String question, List<ResourceRecord> answers, List<ResourceRecord> nameservers,
+                       List<ResourceRecord> additionals) throws NoSuchElementException, ValidationException {
+        search(question, Deadline.none(), answers, nameservers, additionals);
+    }
+
+    @Override
+    public void search(String question, Deadline deadline, List<ResourceRecord> answers,
+                       List<ResourceRecord> nameservers, List<ResourceRecord> additionals)
+            throws NoSuchElementException, ValidationException {
+        Objects.requireNonNull(answers, "Answers cannot be null");
+        Objects.requireNonNull(nameservers, "Name servers cannot be null");
+        Objects.requireNonNull(additionals, "Additionals cannot be null");
+        AsyncMasterFile.await(searchAsync(question, deadline), question).addTo(answers, nameservers, additionals);
+    }
+
+    /**
+     * Sets when hot results are refreshed before they run out. Set before the cache is handed to a server
+     * @param percent how much of the TTL is left when a hit starts the refresh, 0 to never refresh
+     * @param minHits how many hits make a result hot
+     * @param perSecond the most refreshes started a second
+     * @return this cache
+     * @throws IllegalArgumentException
+     *      If percent isn't from 0 to 100, or minHits or perSecond is less than 1
+     */
+    public CachingMasterFile setPrefetch(int percent, int minHits, int perSecond) {
+        if(percent < 0 || percent > 100 || minHits < 1 || perSecond < 1) {
+            throw new IllegalArgumentException("Prefetch percent must be from 0 to 100 and the rest at least 1");
+        }
+        this.prefetchPercent = percent;
+        this.prefetchMinHits = minHits;
+        this.prefetchPerSecond = perSecond;
+        return this;
+    }
+
+    /**
+     * Sets how results that have run out are handed out when the upstream can't be reached. Set before the cache is
+     * handed to a server
+     * @param seconds how long after running out a result can be handed out, 0 to never hand one out
+     * @param answerMillis how long a search waits on the upstream before handing out the stale result
+     * @param ttl the TTL stale results are handed out with, and how long to hand them out before trying again
+     * @return this cache
+     * @throws IllegalArgumentException
+     *      If seconds is less than 0, or answerMillis or ttl is less than 1
+     */
+    public CachingMasterFile setServeStale(long seconds, long answerMillis, int ttl) {
+        if(seconds < 0 || answerMillis < 1 || ttl < 1) {
+            throw new IllegalArgumentException("Stale seconds must be at least 0 and the rest at least 1");
+        }
+        this.staleSeconds = seconds;
+        this.staleAnswerMillis = answerMillis;
+        this.staleTtl = ttl;
+        return this;
+    }
+
+    /**
+     * Looks up a name in the cache only
+     * @param question the name to look up
+     * @return what was kept for it, or null if nothing is
+     * @throws NameNotFoundException
+     *      If it was kept that there is no such name
+     * @throws ValidationException
+     *      If the kept result can't be handed out
+     */
+    @Override
+    public SearchResult searchLocal(String question) throws NoSuchElementException, ValidationException {
+        String key = key(Objects.requireNonNull(question, "Question cannot be null"));
+        long now = System.nanoTime();
+        Entry entry = positive.get(key, now);
+        if(entry != null) {
+            hits.increment();
+            return hit(question, entry, now);
+        }
+        //a name is only looked up again when what was kept for it runs out or is refreshed, so it is rarely on both
+        entry = negative.get(key, now);
+        if(entry == null) {
+            return masterFile instanceof LocalSearch ? searchBehind(question) : null;
+        }
+        negativeHits.increment();
+        SearchResult served = hit(question, entry, now);
+        if(entry.nameError) {
+            throw new NameNotFoundException("Name does not exist", served);
+        }
+        return served;
+    }
+
+    /**
+     * Looks up a name in what the wrapped masterfile has on hand, like a bigger cache behind this one, keeping what
+     * it has. Counted as a miss, since this cache didn't have it
+     * @param question the name to look up
+     * @return what the wrapped masterfile had, or null
+     * @throws NoSuchElementException
+     *      If the wrapped masterfile knows there is no such name
+     * @throws ValidationException
+     *      If the wrapped masterfile's search fails
+     */
+    private SearchResult searchBehind(String question) throws NoSuchElementException, ValidationException {
+        SearchResult found;
+        try {
+            found = ((LocalSearch) masterFile).searchLocal(question);
+        } catch (NameNotFoundException e) {
+            misses.increment();
+            SearchResult authority = e.getAuthority();
+            keep(negative, question, authority, Math.min(authority.getNegativeTTL(), maxNegativeTtl), true, null);
+            throw e;
+        }
+        if(found == null) {
+            return null;
+        }
+        misses.increment();
+        return store(question, found, null);
+    }
+
+    @Override
+    public CompletableFuture<SearchResult> searchAsync(String question) {
+        return searchAsync(question, Deadline.none());
+    }
+
+    /**
+     * Looks up a name, in the cache first and then on the wrapped masterfile, keeping what it finds
+     * @param question the name to look up
+     * @param deadline when the client stops waiting for the answer
+     * @return completes with the RRs found, or exceptionally with NoSuchElementException or ValidationException
+     */
+    @Override
+    public CompletableFuture<SearchResult> searchAsync(String question, Deadline deadline) {
+        try {
+            SearchResult hit = searchLocal(question);
+            if(hit != null) {
+                return CompletableFuture.completedFuture(hit);
+            }
+        } catch (ValidationException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        misses.increment();
+        if(staleSeconds > 0) {
+            String key = key(question);
+            long now = System.nanoTime();
+            long staleNanos = TimeUnit.SECONDS.toNanos(staleSeconds);
+            Entry stale = positive.getStale(key, now, staleNanos);
+            if(stale == null) {
+                stale = negative.getStale(key, now, staleNanos);
+            }
+            if(stale != null) {
+                return searchStale(question, deadline, stale, now);
+            }
+        }
+        return fetch(question, deadline, null, false);
+    }
+
+    /**
+     * Looks up a name on the wrapped masterfile without looking in the cache, keeping what it finds
+     * @param question the name to look up
+     * @param deadline when the client stops waiting for the answer
+     * @return completes with the RRs found, or exceptionally with NoSuchElementException or ValidationException
+     */
+    @Override
+    public CompletableFuture<SearchResult> refreshAsync(String question, Deadline deadline) {
+        return fetch(question, deadline, null, true);
+    }
+
+    /**
+     * Looks up a name whose result has run out, handing out the stale result if the upstream fails or is too slow
+     * @param question the name to look up
+     * @param deadline when the client stops waiting for the answer
+     * @param stale what is kept for the name
+     * @param now the time, from System.nanoTime()
+     * @return completes with the RRs found or the stale ones, or exceptionally with NoSuchElementException
+     */
+    private CompletableFuture<SearchResult> searchStale(String question, Deadline deadline, Entry stale, long now) {
+        CompletableFuture<SearchResult> answer = new CompletableFuture<>();
+        if(now - stale.recheckAt < 0) {
+            //the upstream let this name down not long ago, so don't make the client wait on it again
+            serveStale(answer, stale);
+            return answer;
+        }
+        //the lookup carries on after the stale result is handed out, so it isn't held to the client's deadline
+        fetch(question, Deadline.none(), null, true).whenComplete((found, failure) -> {
+            if(failure == null) {
+                answer.complete(found);
+                return;
+            }
+            failure = AsyncMasterFile.unwrap(failure);
+            if(failure instanceof NoSuchElementException) {
+                //the upstream answered, there just isn't such a name any more
+                answer.completeExceptionally(failure);
+            } else {
+                stale.recheckAt = System.nanoTime() + TimeUnit.SECONDS.toNanos(staleTtl);
+                serveStale(answer, stale);
+            }
+        });
+        if(!answer.isDone()) {
+            long wait = Math.min(staleAnswerMillis, deadline.remainingMillis());
+            CompletableFuture.delayedExecutor(wait, TimeUnit.MILLISECONDS).execute(() -> {
+                if(!answer.isDone()) {
+                    stale.recheckAt = System.nanoTime() + TimeUnit.SECONDS.toNanos(staleTtl);
+                    serveStale(answer, stale);
+                }
+            });
+        }
+        return answer;
+    }
+
+    /**
+     * Completes a search with a stale result, unless it has already been answered
+     * @param answer the search
+     * @param stale what is kept for the name
+     */
+    private void serveStale(CompletableFuture<SearchResult> answer, Entry stale) {
+        SearchResult result;
+        try {
+            result = stale.serveStale(staleTtl);
+        } catch (ValidationException e) {
+            answer.completeExceptionally(e);
+            return;
+        }
+        boolean served = stale.nameError
+                ? answer.completeExceptionally(new NameNotFoundException("Name does not exist", result))
+                : answer.complete(result);
+        if(served) {
+            staleServed.increment();
+        }
+    }
+
+    /**
+     * Hands out a kept result, refreshing it in the background if it is hot and about to run out
+     * @param question the name asked for
+     * @param entry what is kept for it
+     * @param now the time, from System.nanoTime()
+     * @return the result to hand out
+     * @throws ValidationException
+     *      If the kept result can't be handed out
+     */
+    private SearchResult hit(String question, Entry entry, long now) throws ValidationException {
+        //past the number that makes it hot the count doesn't matter, so popular names don't fight over it
+        if(entry.hits.get() < prefetchMinHits) {
+            entry.hits.incrementAndGet();
+        }
+        if(entry.refreshed && now - entry.replacedExpires >= 0 && entry.avoidedMiss.compareAndSet(false, true)) {
+            missesAvoided.increment();
+        }
+        if(now - entry.prefetchAt >= 0 && entry.hits.get() >= prefetchMinHits && !entry.prefetching.get()) {
+            if(!takePrefetch(now)) {
+                prefetchesLimited.increment();
+            } else if(entry.prefetching.compareAndSet(false, true)) {
+                prefetches.increment();
+                //nobody waits on it, and a failure leaves the kept result to run out as it would have
+                fetch(question, Deadline.none(), entry, true);
+            }
+        }
+        return entry.serve(now);
+    }
+
+    /**
+     * Takes one of this second's refreshes
+     * @param now the time, from System.nanoTime()
+     * @return false if they have all been taken
+     */
+    private boolean takePrefetch(long now) {
+        long second = TimeUnit.NANOSECONDS.toSeconds(now);
+        long counting = prefetchSecond.get();
+        if(counting != second && prefetchSecond.compareAndSet(counting, second)) {
+            prefetchesThisSecond.set(0);
+        }
+        return prefetchesThisSecond.incrementAndGet() <= prefetchPerSecond;
+    }
+
+    /**
+     * Looks up a name on the wrapped masterfile and keeps what it finds
+     * @param question the name to look up
+     * @param deadline when the client stops waiting for the answer
+     * @param replacing the kept result this refreshes, null for a miss
+     * @param refresh true to look it up past any cache behind this one, which would only have the same result
+     * @return completes with the RRs found, or exceptionally with NoSuchElementException or ValidationException
+     */
+    private CompletableFuture<SearchResult> fetch(String question, Deadline deadline, Entry replacing,
+                                                  boolean refresh) {
+        CompletableFuture<SearchResult> search;
+        try {
+            search = refresh ? masterFile.refreshAsync(question, deadline) : masterFile.searchAsync(question, deadline);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return search.handle((found, failure) -> {
+            try {
+                if(failure == null) {
+                    return store(question, found, replacing);
+                }
+                failure = AsyncMasterFile.unwrap(failure);
+                if(failure instanceof NameNotFoundException) {
+                    SearchResult authority = ((NameNotFoundException) failure).getAuthority();
+                    keep(negative, question, authority, Math.min(authority.getNegativeTTL(), maxNegativeTtl), true,
+                            replacing);
+                }
+            } catch (ValidationException e) {
+                failure = e;
+            }
+            throw new CompletionException(failure);
+        });
+    }
+
+    /**
+     * Keeps a result if its TTL lets it be kept, on the negative shelf if it has no answers and an SOA says how long
+     * that holds
+     * @param question the name it was found for
+     * @param found the result
+     * @param replacing the kept result this refreshes, null for a miss
+     * @return the result to hand out for this search
+     * @throws ValidationException
+     *      If the result's RRs can't be copied
+     */
+    private SearchResult store(String question, SearchResult found, Entry replacing) throws ValidationException {
+        long negativeTtl = found.getAnswers().isEmpty() ? found.getNegativeTTL() : 0;
+        if(negativeTtl > 0) {
+            return keep(negative, question, found, Math.min(negativeTtl, maxNegativeTtl), false, replacing);
+        }
+        return keep(positive, question, found, Math.min(found.getMinTTL(), maxTtl), false, replacing);
+    }
+
+    /**
+     * Keeps a result on a shelf, unless its TTL is 0
+     * @param shelf where it is kept
+     * @param question the name it was found for
+     * @param found the result
+     * @param ttl how long it can be kept, in seconds
+     * @param nameError true if it came with a NAMEERROR
+     * @param replacing the kept result this refreshes, null for a miss
+     * @return the result to hand out for this search
+     * @throws ValidationException
+     *      If the result's RRs can't be copied
+     */
+    private SearchResult keep(Shelf shelf, String question, SearchResult found, long ttl, boolean nameError,
+                              Entry replacing) throws ValidationException {
+        if(ttl <= 0) {
+            return found;
+        }
+        Entry entry = new Entry(found.aged(0), System.nanoTime(), ttl, prefetchPercent, nameError, replacing);
+        shelf.put(key(question), entry);
+        return entry.found;
+    }
+
+    /**
+     * Gets the key a name is kept under
+     * @param question the name
+     * @return the key
+     */
+    private static String key(String question) {
+        return question.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Gets the masterfile misses are searched on
+     * @return the wrapped masterfile
+     */
+    @Override
+    public AsyncMasterFile getMasterFile() {
+        return this.masterFile;
+    }
+
+    /**
+     * Gets how many searches were answered with a kept result
+     * @return the count
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets how many searches were answered with a kept NAMEERROR or no data
+     * @return the count
+     */
+    public long getNegativeHits() {
+        return negativeHits.sum();
+    }
+
+    /**
+     * Gets how many searches went to the wrapped masterfile
+     * @return the count
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Gets how many results were evicted to make room
+     * @return the count
+     */
+    public long getEvictions() {
+        return positive.evictions.sum();
+    }
+
+    /**
+     * Gets how many negative results were evicted to make room for other negative results
+     * @return the count
+     */
+    public long getNegativeEvictions() {
+        return negative.evictions.sum();
+    }
+
+    /**
+     * Gets how many hot results were refreshed before they ran out
+     * @return the count
+     */
+    public long getPrefetches() {
+        return prefetches.sum();
+    }
+
+    /**
+     * Gets how many refreshes weren't started because a second's worth had already been
+     * @return the count
+     */
+    public long getPrefetchesLimited() {
+        return prefetchesLimited.sum();
+    }
+
+    /**
+     * Gets how many searches were hits only because the result was refreshed before it ran out
+     * @return the count
+     */
+    public long getMissesAvoided() {
+        return missesAvoided.sum();
+    }
+
+    /**
+     * Gets how many searches were answered with a result that had run out, because the upstream couldn't answer
+     * @return the count
+     */
+    public long getStaleServed() {
+        return staleServed.sum();
+    }
+
+    /**
+     * Gets how many results are kept, including any that have run out but haven't been replaced yet
+     * @return the count
+     */
+    public int size() {
+        return positive.entries.size();
+    }
+
+    /**
+     * Gets how many negative results are kept, including any that have run out but haven't been replaced yet
+     * @return the count
+     */
+    public int negativeSize() {
+        return negative.entries.size();
+    }
+
+    @Override
+    public String toString() {
+        long answered = getHits() + getNegativeHits();
+        long searches = answered + getMisses();
+        return "Cache: entries=" + size() + " hits=" + getHits() + " misses=" + getMisses() + " ("
+                + (searches == 0 ? 0 : 100 * answered / searches) + "% hit) evictions=" + getEvictions()
+                + " negativeEntries=" + negativeSize() + " negativeHits=" + getNegativeHits()
+                + " negativeEvictions=" + getNegativeEvictions() + " prefetches=" + getPrefetches()
+                + " prefetchesLimited=" + getPrefetchesLimited() + " missesAvoided=" + getMissesAvoided()
+                + " staleServed=" + getStaleServed();
+    }
+}
@@ -0,0 +1,230 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 7
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.app.masterfile;
+
+import sdns.serialization.ResourceRecord;
+import sdns.serialization.ValidationException;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A masterfile that shares one lookup between everyone asking for the same name at the same time.
+ *
+ * The first search for a name starts a lookup on the masterfile it wraps. Any search for the same name that comes
+ * in before that lookup finishes joins it instead of starting another, and gets the same RRs or the same error. Names
+ * are matched without case, the way DNS compares them. When a popular name is first asked for, every request that
+ * piles up behind it costs one upstream lookup instead of one each.
+ *
+ * A lookup is shared, so it doesn't run with the deadline of the search that happened to start it: it runs for up to
+ * maxWaitMillis, and nobody waits on one for longer than that. Past that it fails for everyone and the next search for the name starts a new one. A search that joins a lookup
+ * also stops waiting when its own deadline passes, without cutting the lookup short for the others.
+ *
+ * How many searches started a lookup and how many joined one are counted, so the log shows how much is being
+ * shared. The wait defaults to the system property sdns.coalesce.maxWaitMillis.
+ *
+ * @version 1.0
+ */
+public class CoalescingMasterFile implements MasterFile, AsyncMasterFile, MasterFileLayer {
+    //longest anyone waits on a lookup by default, in ms. Long enough for MasterFileTCP to try twice
+    private static final long DEFAULT_MAX_WAIT = 6000;
+    private final AsyncMasterFile masterFile;
+    private final long maxWaitMillis;
+    //the lookups that haven't finished, by name
+    private final ConcurrentHashMap<String, CompletableFuture<SearchResult>> lookups = new ConcurrentHashMap<>();
+    private final LongAdder started = new LongAdder();
+    private final LongAdder joined = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+
+    /**
+     * Makes a coalescing masterfile
+     * @param masterFile the masterfile lookups are done on
+     * @param maxWaitMillis the longest anyone waits on a lookup
+     * @throws NullPointerException
+     *      If masterFile is null
+     * @throws IllegalArgumentException
+     *      If maxWaitMillis is less than 1
+     */
+    public CoalescingMasterFile(AsyncMasterFile masterFile, long maxWaitMillis) {
+        this.masterFile = Objects.requireNonNull(masterFile, "Masterfile cannot be null");
+        if(maxWaitMillis < 1) {
+            throw new IllegalArgumentException("maxWaitMillis must be at least 1");
+        }
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * Makes a coalescing masterfile that waits as long as the system properties say, 6 seconds if they don't
+     * @param masterFile the masterfile lookups are done on
+     * @throws NullPointerException
+     *      If masterFile is null
+     * @throws IllegalArgumentException
+     *      If the wait isn't valid
+     */
+    public CoalescingMasterFile(AsyncMasterFile masterFile) {
+        this(masterFile, Long.getLong("sdns.coalesce.maxWaitMillis", DEFAULT_MAX_WAIT));
+    }
+
+    @Override
+    public void search(String question, List<ResourceRecord> answers, List<ResourceRecord> nameservers,
+                       List<ResourceRecord> additionals) throws NoSuchElementException, ValidationException {
+        search(question, Deadline.none(), answers, nameservers, additionals);
+    }
+
+    @Override
+    public void search(String question, Deadline deadline, List<ResourceRecord> answers,
+                       List<ResourceRecord> nameservers, List<ResourceRecord> additionals)
+            throws NoSuchElementException, ValidationException {
+        Objects.requireNonNull(answers, "Answers cannot be null");
+        Objects.requireNonNull(nameservers, "Name servers cannot be null");
+        Objects.requireNonNull(additionals, "Additionals cannot be null");
+        AsyncMasterFile.await(searchAsync(question, deadline), question).addTo(answers, nameservers, additionals);
+    }
+
+    @Override
+    public CompletableFuture<SearchResult> searchAsync(String question) {
+        return searchAsync(question, Deadline.none());
+    }
+
+    /**
+     * Looks up a name, joining the lookup for it that is already running if there is one
+     * @param question the name to look up
+     * @param deadline when the client stops waiting for the answer
+     * @return completes with the RRs found, or exceptionally with NoSuchElementException or ValidationException
+     */
+    @Override
+    public CompletableFuture<SearchResult> searchAsync(String question, Deadline deadline) {
+        if(question == null) {
+            return CompletableFuture.failedFuture(new NullPointerException("Question cannot be null"));
+        }
+        if(deadline.isExpired()) {
+            return CompletableFuture.failedFuture(new ValidationException("Deadline passed", question));
+        }
+        String key = question.toLowerCase(Locale.ROOT);
+        CompletableFuture<SearchResult> lookup = new CompletableFuture<>();
+        CompletableFuture<SearchResult> running = lookups.putIfAbsent(key, lookup);
+        if(running != null) {
+            joined.increment();
+            return waitFor(running, question, deadline);
+        }
+        started.increment();
+        start(key, question, lookup);
+        return waitFor(lookup, question, deadline);
+    }
+
+    /**
+     * Starts a lookup on the wrapped masterfile
+     * @param key the name the lookup is kept under
+     * @param question the name to look up
+     * @param lookup completed with what the lookup finds
+     */
+    private void start(String key, String question, CompletableFuture<SearchResult> lookup) {
+        lookup.whenComplete((result, failure) -> lookups.remove(key, lookup));
+        CompletableFuture<SearchResult> search;
+        try {
+            //joiners can have later deadlines than whoever started it, so only the wait bounds it
+            search = masterFile.searchAsync(question, Deadline.after(maxWaitMillis));
+        } catch (RuntimeException e) {
+            search = CompletableFuture.failedFuture(e);
+        }
+        search.whenComplete((result, failure) -> {
+            if(failure != null) {
+                lookup.completeExceptionally(AsyncMasterFile.unwrap(failure));
+            } else {
+                lookup.complete(result);
+            }
+        });
+        //a lookup that never finishes would hold up everyone who asks for the name after it
+        lookup.orTimeout(maxWaitMillis, TimeUnit.MILLISECONDS);
+        //if it timed out, the wrapped masterfile can stop working on it
+        CompletableFuture<SearchResult> upstream = search;
+        lookup.whenComplete((result, failure) -> upstream.cancel(false));
+    }
+
+    /**
+     * Waits on a lookup for one search, for no longer than its deadline
+     * @param lookup the lookup
+     * @param question the name being looked up
+     * @param deadline when the search's client stops waiting
+     * @return completes with what the lookup finds, or exceptionally with ValidationException if the wait ran out
+     */
+    private CompletableFuture<SearchResult> waitFor(CompletableFuture<SearchResult> lookup, String question,
+                                                    Deadline deadline) {
+        //a copy, so giving up on it doesn't end the lookup for anyone else
+        return lookup.copy().orTimeout(Math.min(maxWaitMillis, deadline.remainingMillis()), TimeUnit.MILLISECONDS)
+                .handle((result, failure) -> {
+                    if(failure == null) {
+                        return result;
+                    }
+                    failure = AsyncMasterFile.unwrap(failure);
+                    if(failure instanceof TimeoutException) {
+                        timedOut.increment();
+                        failure = new ValidationException("Timed out waiting for lookup", failure, question);
+                    }
+                    throw new CompletionException(failure);
+                });
+    }
+
+    /**
+     * Gets the masterfile lookups are done on
+     * @return the wrapped masterfile
+     */
+    @Override
+    public AsyncMasterFile getMasterFile() {
+        return this.masterFile;
+    }
+
+    /**
+     * Gets how many searches started a lookup on the wrapped masterfile
+     * @return the count
+     */
+    public long getStarted() {
+        return started.sum();
+    }
+
+    /**
+     * Gets how many searches joined a lookup that was already running
+     * @return the count
+     */
+    public long getJoined() {
+        return joined.sum();
+    }
+
+    /**
+     * Gets how many searches gave up waiting on a lookup
+     * @return the count
+     */
+    public long getTimedOut() {
+        return timedOut.sum();
+    }
+
+    /**
+     * Gets how many lookups are running
+     * @return the count
+     */
+    public int getRunning() {
+        return lookups.size();
+    }
+
+    @Override
+    public String toString() {
+        long searches = getStarted() + getJoined();
+        return "Coalescing: started=" + getStarted() + " joined=" + getJoined() + " ("
+                + (searches == 0 ? 0 : 100 * getJoined() / searches) + "% shared) timedOut=" + getTimedOut()
+                + " running=" + getRunning();
+    }
+}
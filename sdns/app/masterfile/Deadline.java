@@ -0,0 +1,112 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 7
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.app.masterfile;
+
+import sdns.serialization.ValidationException;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * When the client that sent a request stops waiting for the answer.
+ *
+ * A deadline is set when a request is received and carried through every search done for it. A masterfile that asks
+ * another server uses timeout() for its socket timeouts, so it never waits past the deadline, and stops retrying once
+ * it has passed. Work that is still queued when the deadline passes is dropped with check() instead of being done for
+ * a client that has already given up.
+ *
+ * @version 1.0
+ */
+public final class Deadline {
+    //never passes, for searches that aren't answering a client
+    private static final Deadline NONE = new Deadline(0, false);
+    //when the deadline passes, from System.nanoTime()
+    private final long at;
+    private final boolean bounded;
+
+    /**
+     * Makes a deadline
+     * @param at when it passes, from System.nanoTime()
+     * @param bounded false if it never passes
+     */
+    private Deadline(long at, boolean bounded) {
+        this.at = at;
+        this.bounded = bounded;
+    }
+
+    /**
+     * Makes a deadline some time from now
+     * @param millis how long from now it passes, in ms
+     * @return the deadline
+     */
+    public static Deadline after(long millis) {
+        return at(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    /**
+     * Makes a deadline at a set time
+     * @param nanoTime when it passes, from System.nanoTime()
+     * @return the deadline
+     */
+    public static Deadline at(long nanoTime) {
+        return new Deadline(nanoTime, true);
+    }
+
+    /**
+     * Gets a deadline that never passes
+     * @return the deadline
+     */
+    public static Deadline none() {
+        return NONE;
+    }
+
+    /**
+     * Checks if the deadline has passed
+     * @return true if it has
+     */
+    public boolean isExpired() {
+        return bounded && System.nanoTime() - at >= 0;
+    }
+
+    /**
+     * Gets how long is left before the deadline passes
+     * @return the time left in ms, 0 if it has passed, Long.MAX_VALUE if it never does
+     */
+    public long remainingMillis() {
+        if(!bounded) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(at - System.nanoTime()));
+    }
+
+    /**
+     * Gets the timeout to wait on something with, so it doesn't wait past the deadline
+     * @param timeout the longest the wait would be without a deadline, in ms
+     * @return the shorter of timeout and the time left, at least 1ms so it is never read as no timeout
+     */
+    public int timeout(int timeout) {
+        return (int) Math.max(1, Math.min(timeout, remainingMillis()));
+    }
+
+    /**
+     * Throws if the deadline has passed. Called before starting work so none is done for a client that has given up
+     * @param question the name being looked up
+     * @throws ValidationException
+     *      If the deadline has passed
+     */
+    public void check(String question) throws ValidationException {
+        if(isExpired()) {
+            throw new ValidationException("Deadline passed", question);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return bounded ? "Deadline: " + remainingMillis() + "ms left" : "Deadline: none";
+    }
+}
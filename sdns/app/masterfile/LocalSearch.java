@@ -0,0 +1,36 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 7
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.app.masterfile;
+
+import sdns.serialization.ValidationException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * A masterfile that can answer some names from what it has on hand, like a local zone or a cache, without a trip to
+ * another server.
+ *
+ * The servers try searchLocal first, on their I/O threads. Only a name it can't answer goes on to the masterfile's
+ * full search, which a server runs somewhere that can wait for it. So searchLocal must be quick and must never wait
+ * on the network.
+ *
+ * @version 1.0
+ */
+public interface LocalSearch {
+    /**
+     * Looks up a name using only what is on hand
+     * @param question the name to look up
+     * @return the RRs found, or null if answering it needs the full search
+     * @throws NoSuchElementException
+     *      If it is known that there is no such name
+     * @throws ValidationException
+     *      If the search fails
+     */
+    SearchResult searchLocal(String question) throws NoSuchElementException, ValidationException;
+}
@@ -27,4 +27,27 @@ public interface MasterFile {
 	 */
 	void search(final String question, final List<ResourceRecord> answers, final List<ResourceRecord> nameservers,
 			final List<ResourceRecord> additionals) throws NoSuchElementException, NullPointerException, ValidationException;
+
+	/**
+	 * Populate answer, name server, and additional list RRs, giving up once the deadline passes.
+	 * Masterfiles that wait on anything should override this to keep every wait inside the deadline.
+	 * By default the search isn't started if the deadline has already passed.
+	 * 
+	 * @param question query for SDNS query
+	 * @param deadline when the client stops waiting for the answer
+	 * @param answers RR list (allocated) to add answer RRs to
+	 * @param nameservers RR list (allocated) to add name server RRs to
+	 * @param additionals RR list (allocated) to add additional RRs to
+	 * 
+	 * @throws NoSuchElementException if no such domain name
+	 * @throws NullPointerException if any parameters are null
+	 * @throws ValidationException if question is invalid, the deadline passes, or anything else goes wrong while
+	 * trying to resolve question
+	 */
+	default void search(final String question, final Deadline deadline, final List<ResourceRecord> answers,
+			final List<ResourceRecord> nameservers, final List<ResourceRecord> additionals)
+			throws NoSuchElementException, NullPointerException, ValidationException {
+		deadline.check(question);
+		search(question, answers, nameservers, additionals);
+	}
 }
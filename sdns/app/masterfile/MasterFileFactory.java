@@ -1,14 +1,30 @@
 package sdns.app.masterfile;
 
+import java.nio.file.Path;
+
 public class MasterFileFactory {
+    //system property naming a zone file to serve instead of asking the upstream server
+    public static final String ZONE_FILE_PROPERTY = "sdns.zonefile";
+    //system property sizing an off-heap cache to keep answers in behind the heap cache
+    public static final String OFF_HEAP_PROPERTY = "sdns.cache.offHeapMegabytes";
 
     /**
-     * Makes a masterFile
+     * Makes a masterFile. Serves the zone file named by -Dsdns.zonefile if it is set, otherwise asks the upstream server,
+     * keeping its answers until their TTLs run out, and sharing one upstream lookup between every request for the same
+     * name that comes in while it runs. If -Dsdns.cache.offHeapMegabytes is set, the answers are also kept off the
+     * heap behind the heap cache, so millions of names can be held
      * @return a new MasterFile instance
      * @throws Exception
      *      If anything goes wrong on making an instance
      */
     public static MasterFile makeMasterFile() throws Exception{
-        return new MasterFileTCP();
+        String zoneFile = System.getProperty(ZONE_FILE_PROPERTY);
+        if(zoneFile != null) {
+            return new MasterFileZone(Path.of(zoneFile));
+        }
+        if(System.getProperty(OFF_HEAP_PROPERTY) != null) {
+            return new CachingMasterFile(new OffHeapMasterFile(new CoalescingMasterFile(new MasterFileTCP())));
+        }
+        return new CachingMasterFile(new CoalescingMasterFile(new MasterFileTCP()));
     }
 }
@@ -36,9 +36,27 @@ public class MasterFileImp implements MasterFile {
      */
     @Override
     public void search(String question, List<ResourceRecord> answers, List<ResourceRecord> nameservers, List<ResourceRecord> additionals) throws NoSuchElementException, NullPointerException, ValidationException {
-        try {
-            DatagramSocket socket = new DatagramSocket();
-            socket.setSoTimeout(TIMEOUT);
+        search(question, Deadline.none(), answers, nameservers, additionals);
+    }
+
+    /**
+     * Populate answer, name server, and additional list RRs. Every wait for the upstream server's answer is cut short
+     * by the deadline, and a timed out receive isn't retried once it has passed.
+     *
+     * @param question    query for SDNS query
+     * @param deadline    when the client stops waiting for the answer
+     * @param answers     RR list (allocated) to add answer RRs to
+     * @param nameservers RR list (allocated) to add name server RRs to
+     * @param additionals RR list (allocated) to add additional RRs to
+     * @throws NoSuchElementException if no such domain name
+     * @throws NullPointerException   if any parameters are null
+     * @throws ValidationException    if question is invalid, the deadline passes, or anything else goes wrong while
+     *                                trying to resolve question
+     */
+    @Override
+    public void search(String question, Deadline deadline, List<ResourceRecord> answers, List<ResourceRecord> nameservers, List<ResourceRecord> additionals) throws NoSuchElementException, NullPointerException, ValidationException {
+        deadline.check(question);
+        try (DatagramSocket socket = new DatagramSocket()) {
 
             byte[] encoded = new Query(1, question).encode();
             socket.send(new DatagramPacket(encoded, encoded.length, InetAddress.getByName(DNSServerIP), port));
@@ -48,6 +66,7 @@ public class MasterFileImp implements MasterFile {
             Message received = null;
             while(tries < 3) {
                 try {
+                    socket.setSoTimeout(deadline.timeout(TIMEOUT));
                     socket.receive(receivedPacket);
 
                     if(!receivedPacket.getAddress().equals(InetAddress.getByName(DNSServerIP))) {
@@ -63,12 +82,16 @@ public class MasterFileImp implements MasterFile {
 
                     if(received.getRCode() != RCode.NOERROR) {
                         if(received.getRCode() == RCode.NAMEERROR) {
-                            throw new NoSuchElementException("Name does not exist");
+                            Response response = (Response) received;
+                            throw new NameNotFoundException("Name does not exist", new SearchResult(
+                                    response.getAnswerList(), response.getNameServerList(),
+                                    response.getAdditionalList()));
                         }
                         throw new ValidationException("Bad RCode", "");
                     }
                 } catch (InterruptedIOException e) {
                     tries++;
+                    deadline.check(question);
                     continue;
                 }
                 break;
@@ -0,0 +1,41 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 7
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.app.masterfile;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A masterfile that wraps another one to add something to its searches, like a cache. Layers can be stacked, and
+ * each one's toString describes what it has been doing, so a server can log every layer it is searching through.
+ *
+ * @version 1.0
+ */
+public interface MasterFileLayer {
+    /**
+     * Gets the masterfile this one wraps
+     * @return the wrapped masterfile
+     */
+    AsyncMasterFile getMasterFile();
+
+    /**
+     * Gets every layer a masterfile is made of, outermost first
+     * @param masterFile the masterfile
+     * @return the layers, empty if it isn't a layer
+     */
+    static List<MasterFileLayer> layers(Object masterFile) {
+        List<MasterFileLayer> layers = new ArrayList<>();
+        while(masterFile instanceof MasterFileLayer) {
+            MasterFileLayer layer = (MasterFileLayer) masterFile;
+            layers.add(layer);
+            masterFile = layer.getMasterFile();
+        }
+        return layers;
+    }
+}
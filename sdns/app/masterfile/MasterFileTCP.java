@@ -6,16 +6,27 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.InterruptedByTimeoutException;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
-public class MasterFileTCP implements MasterFile{
+public class MasterFileTCP implements MasterFile, AsyncMasterFile {
     private static final String DNSServerIP = "ns3.baylor.edu";
     private static final int port = 53;
     private static final int TIMEOUT = 3000;
+    private static final int BUFSIZE = 512;
+    //looked up the first time an async search needs it, so later searches don't block on it
+    private static volatile InetSocketAddress serverAddress;
 
 
     /**
@@ -32,9 +43,28 @@ public class MasterFileTCP implements MasterFile{
      */
     @Override
     public void search(String question, List<ResourceRecord> answers, List<ResourceRecord> nameservers, List<ResourceRecord> additionals) throws NoSuchElementException, NullPointerException, ValidationException {
-        try {
-            Socket socket = new Socket(InetAddress.getByName(DNSServerIP), port);
-            socket.setSoTimeout(TIMEOUT);
+        search(question, Deadline.none(), answers, nameservers, additionals);
+    }
+
+    /**
+     * Populate answer, name server, and additional list RRs. Every wait on the upstream server is cut short by the
+     * deadline, and a timed out read isn't retried once it has passed.
+     *
+     * @param question    query for SDNS query
+     * @param deadline    when the client stops waiting for the answer
+     * @param answers     RR list (allocated) to add answer RRs to
+     * @param nameservers RR list (allocated) to add name server RRs to
+     * @param additionals RR list (allocated) to add additional RRs to
+     * @throws NoSuchElementException if no such domain name
+     * @throws NullPointerException   if any parameters are null
+     * @throws ValidationException    if question is invalid, the deadline passes, or anything else goes wrong while
+     *                                trying to resolve question
+     */
+    @Override
+    public void search(String question, Deadline deadline, List<ResourceRecord> answers, List<ResourceRecord> nameservers, List<ResourceRecord> additionals) throws NoSuchElementException, NullPointerException, ValidationException {
+        deadline.check(question);
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(InetAddress.getByName(DNSServerIP), port), deadline.timeout(TIMEOUT));
 
             InputStream in = socket.getInputStream();
             OutputStream out = socket.getOutputStream();
@@ -46,6 +76,7 @@ public class MasterFileTCP implements MasterFile{
             int tries = 0;
             while(tries < 2) {
                 try {
+                    socket.setSoTimeout(deadline.timeout(TIMEOUT));
                     byte[] receivedData = Framer.nextMsg(in);
                     if(receivedData == null) {
                         throw new ValidationException("Server connected to masterfile closed the connection", "");
@@ -59,17 +90,20 @@ public class MasterFileTCP implements MasterFile{
 
                     if(received.getRCode() != RCode.NOERROR) {
                         if(received.getRCode() == RCode.NAMEERROR) {
-                            throw new NoSuchElementException("Name does not exist");
+                            throw nameError((Response) received);
                         }
                         throw new ValidationException("Bad RCode", "");
                     }
                 } catch (SocketTimeoutException e) {
                     tries++;
+                    deadline.check(question);
                     continue;
                 }
                 break;
             }
-            socket.close();
+            if(tries == 2) {
+                throw new ValidationException("Maximum retries reached", "");
+            }
 
             assert received instanceof Response;
             Response response = (Response) received; //its stupid i have to do this but I know no better way
@@ -82,4 +116,232 @@ public class MasterFileTCP implements MasterFile{
             throw new ValidationException("Error with masterfile Socket", e, "");
         }
     }
+
+    /**
+     * Looks up a name without blocking. The query goes out over an AsynchronousSocketChannel and the answer is read
+     * in completion handlers, tried the same way as search(). Only the very first search blocks, to look up the
+     * upstream server's address.
+     *
+     * @param question the name to look up
+     * @return completes with the RRs found, or exceptionally with NoSuchElementException or ValidationException
+     */
+    @Override
+    public CompletableFuture<SearchResult> searchAsync(String question) {
+        return searchAsync(question, Deadline.none());
+    }
+
+    /**
+     * Looks up a name without blocking, giving up once the deadline passes. Every read waits no longer than the time
+     * left, and a timed out read isn't retried once it has passed. Completing or cancelling the future from outside
+     * closes the channel, so a search nobody wants any more stops straight away.
+     *
+     * @param question the name to look up
+     * @param deadline when the client stops waiting for the answer
+     * @return completes with the RRs found, or exceptionally with NoSuchElementException or ValidationException
+     */
+    @Override
+    public CompletableFuture<SearchResult> searchAsync(String question, Deadline deadline) {
+        CompletableFuture<SearchResult> result = new CompletableFuture<>();
+        try {
+            Objects.requireNonNull(question, "Question cannot be null");
+            deadline.check(question);
+            ByteBuffer query = ByteBuffer.wrap(Framer.frameMsg(new Query((int) (Math.random() * 65535), question).encode()));
+            InetSocketAddress server = serverAddress;
+            if(server == null) {
+                server = new InetSocketAddress(InetAddress.getByName(DNSServerIP), port);
+                serverAddress = server;
+            }
+            new Lookup(AsynchronousSocketChannel.open(), query, deadline, result).connect(server);
+        } catch (UnknownHostException e) {
+            result.completeExceptionally(new ValidationException("Error creating socket", ""));
+        } catch (IOException e) {
+            result.completeExceptionally(new ValidationException("Error with masterfile Socket", e, ""));
+        } catch (ValidationException | RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * One async search. Connects, writes the query, then reads frames until the response comes
+     */
+    private static class Lookup {
+        private final AsynchronousSocketChannel channel;
+        private final ByteBuffer query;
+        private final Deadline deadline;
+        private final CompletableFuture<SearchResult> result;
+        private final ByteBuffer readBuf = ByteBuffer.allocate(BUFSIZE);
+        private final NIODeframer deframer = new NIODeframer();
+        private int tries = 0;
+
+        /**
+         * Makes a search
+         * @param channel the channel to use. It is closed when the search is done
+         * @param query the framed query
+         * @param deadline when to give up
+         * @param result completed when the search is done
+         */
+        Lookup(AsynchronousSocketChannel channel, ByteBuffer query, Deadline deadline,
+               CompletableFuture<SearchResult> result) {
+            this.channel = channel;
+            this.query = query;
+            this.deadline = deadline;
+            this.result = result;
+            //whatever ends the search, including the caller cancelling it, ends the channel's work
+            result.whenComplete((found, failure) -> close());
+        }
+
+        /**
+         * Connects to the server then writes the query. The connect gets the same timeout as the blocking search's
+         * @param server the server's address
+         */
+        void connect(InetSocketAddress server) {
+            //an async connect takes no timeout, so one that hangs is ended by failing the search, which closes it
+            CompletableFuture<Void> connected = new CompletableFuture<>();
+            connected.orTimeout(deadline.timeout(TIMEOUT), TimeUnit.MILLISECONDS).whenComplete((ignored, failure) -> {
+                if(failure != null) {
+                    fail(new ValidationException(deadline.isExpired() ? "Deadline passed"
+                            : "Timed out connecting to masterfile server", ""));
+                }
+            });
+            channel.connect(server, null, new CompletionHandler<Void, Void>() {
+                @Override
+                public void completed(Void ignored, Void attachment) {
+                    if(connected.complete(null)) {
+                        write();
+                    }
+                }
+
+                @Override
+                public void failed(Throwable exc, Void attachment) {
+                    connected.complete(null);
+                    fail(new ValidationException("Error with masterfile Socket", exc, ""));
+                }
+            });
+        }
+
+        /**
+         * Writes the query, then reads the response
+         */
+        private void write() {
+            channel.write(query, deadline.timeout(TIMEOUT), TimeUnit.MILLISECONDS, null,
+                    new CompletionHandler<Integer, Void>() {
+                @Override
+                public void completed(Integer bytesWritten, Void attachment) {
+                    if(query.hasRemaining()) {
+                        channel.write(query, deadline.timeout(TIMEOUT), TimeUnit.MILLISECONDS, null, this);
+                    } else {
+                        read();
+                    }
+                }
+
+                @Override
+                public void failed(Throwable exc, Void attachment) {
+                    fail(new ValidationException("Error with masterfile Socket", exc, ""));
+                }
+            });
+        }
+
+        /**
+         * Reads until a response is deframed. A read that times out is tried again once, if the deadline hasn't passed
+         */
+        private void read() {
+            readBuf.clear();
+            channel.read(readBuf, deadline.timeout(TIMEOUT), TimeUnit.MILLISECONDS, null,
+                    new CompletionHandler<Integer, Void>() {
+                @Override
+                public void completed(Integer bytesRead, Void attachment) {
+                    if(bytesRead == -1) {
+                        fail(new ValidationException("Server connected to masterfile closed the connection", ""));
+                        return;
+                    }
+                    readBuf.flip();
+                    byte[] read = new byte[readBuf.remaining()];
+                    readBuf.get(read);
+                    byte[] frame = deframer.getMessage(read);
+                    while(frame != null) {
+                        if(handleFrame(frame)) {
+                            return;
+                        }
+                        frame = deframer.getMessage(new byte[0]);
+                    }
+                    read();
+                }
+
+                @Override
+                public void failed(Throwable exc, Void attachment) {
+                    if(exc instanceof InterruptedByTimeoutException && ++tries < 2 && !deadline.isExpired()) {
+                        read();
+                        return;
+                    }
+                    if(deadline.isExpired()) {
+                        fail(new ValidationException("Deadline passed", ""));
+                    } else {
+                        fail(exc instanceof InterruptedByTimeoutException
+                                ? new ValidationException("Maximum retries reached", "")
+                                : new ValidationException("Error with masterfile Socket", exc, ""));
+                    }
+                }
+            });
+        }
+
+        /**
+         * Checks a frame from the server
+         * @param frame the frame
+         * @return true if the search is done
+         */
+        private boolean handleFrame(byte[] frame) {
+            try {
+                Message received = Message.decode(frame);
+                if(received instanceof Query) {
+                    return false;
+                }
+                if(received.getRCode() != RCode.NOERROR) {
+                    if(received.getRCode() == RCode.NAMEERROR) {
+                        fail(nameError((Response) received));
+                    } else {
+                        fail(new ValidationException("Bad RCode", ""));
+                    }
+                    return true;
+                }
+                Response response = (Response) received;
+                close();
+                result.complete(new SearchResult(response.getAnswerList(), response.getNameServerList(),
+                        response.getAdditionalList()));
+            } catch (ValidationException | RuntimeException e) {
+                fail(e);
+            }
+            return true;
+        }
+
+        /**
+         * Ends the search with an error
+         * @param e why it failed
+         */
+        private void fail(Throwable e) {
+            close();
+            result.completeExceptionally(e);
+        }
+
+        /**
+         * Closes the channel
+         */
+        private void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                //the search is over either way
+            }
+        }
+    }
+
+    /**
+     * Makes the error for a NAMEERROR response, keeping the RRs that came with it
+     * @param response the response
+     * @return the error to throw
+     */
+    private static NameNotFoundException nameError(Response response) {
+        return new NameNotFoundException("Name does not exist", new SearchResult(response.getAnswerList(),
+                response.getNameServerList(), response.getAdditionalList()));
+    }
 }
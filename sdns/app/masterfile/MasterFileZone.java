@@ -0,0 +1,205 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 7
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.app.masterfile;
+
+import sdns.serialization.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A MasterFile that serves a single zone out of a file instead of asking another server.
+ *
+ * The file is the zone's RRs encoded back to back the same way they are on the wire, SOA first.
+ * write() makes one. Unknown RR types can't be encoded, so a zone with one can't be written.
+ * The file is read once, when the zone is opened. Its RRs are frozen and kept in memory, indexed by name, so a search
+ * or a transfer never touches the disk. That makes every search a LocalSearch the servers can answer on their I/O
+ * threads, and each name's result is shared between requests so the response encoded for one can be reused.
+ *
+ * @version 1.0
+ */
+public class MasterFileZone implements MasterFile, ZoneTransferSource, LocalSearch {
+    private final Path zoneFile;
+    private final String origin;
+    //every RR in the zone, in file order
+    private final List<ResourceRecord> records;
+    //the RRs for each name in the zone, by lowercase name
+    private final Map<String, SearchResult> names;
+
+    /**
+     * Opens a zone file and reads the whole zone out of it
+     *
+     * @param zoneFile the file to serve
+     * @throws ValidationException
+     *      If the file can't be read or doesn't start with an SOA
+     */
+    public MasterFileZone(Path zoneFile) throws ValidationException {
+        this.zoneFile = Objects.requireNonNull(zoneFile, "Zone file cannot be null");
+        try (Stream<ResourceRecord> records = read()) {
+            this.records = records.map(ResourceRecord::freeze).toList();
+        } catch (UncheckedIOException e) {
+            throw new ValidationException("Unable to read zone file", e, zoneFile.toString());
+        }
+        if(this.records.isEmpty() || !(this.records.get(0) instanceof SOA)) {
+            throw new ValidationException("Zone file must start with an SOA", zoneFile.toString());
+        }
+        this.origin = this.records.get(0).getName();
+
+        Map<String, List<ResourceRecord>> byName = new HashMap<>();
+        for(ResourceRecord rr : this.records) {
+            byName.computeIfAbsent(rr.getName().toLowerCase(Locale.ROOT), k -> new ArrayList<>()).add(rr);
+        }
+        Map<String, SearchResult> names = new HashMap<>();
+        byName.forEach((name, rrs) -> names.put(name, new SearchResult(rrs, List.of(), List.of())));
+        this.names = names;
+    }
+
+    /**
+     * Writes RRs to a zone file in the format this class reads
+     *
+     * @param zoneFile the file to write
+     * @param records the RRs, SOA first
+     * @throws IOException
+     *      If the file can't be written, or an RR can't be encoded. Then the file is left incomplete
+     */
+    public static void write(Path zoneFile, Iterable<? extends ResourceRecord> records) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(zoneFile))) {
+            for(ResourceRecord rr : records) {
+                try {
+                    rr.encode(out);
+                } catch (UnsupportedOperationException e) {
+                    //leaving it out would serve the zone without it
+                    throw new IOException("Unable to write " + rr.getName() + ": " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the name of the zone in the file
+     *
+     * @return the SOA's name
+     */
+    public String getOrigin() {
+        return this.origin;
+    }
+
+    /**
+     * Populate answers with every RR in the zone named question. Name servers and additionals are left empty.
+     *
+     * @param question    query for SDNS query
+     * @param answers     RR list (allocated) to add answer RRs to
+     * @param nameservers RR list (allocated) to add name server RRs to
+     * @param additionals RR list (allocated) to add additional RRs to
+     * @throws NoSuchElementException if no such domain name
+     * @throws NullPointerException   if any parameters are null
+     */
+    @Override
+    public void search(String question, List<ResourceRecord> answers, List<ResourceRecord> nameservers,
+                       List<ResourceRecord> additionals) throws NoSuchElementException, NullPointerException, ValidationException {
+        Objects.requireNonNull(question, "Question cannot be null");
+        Objects.requireNonNull(answers, "Answers cannot be null");
+        Objects.requireNonNull(nameservers, "Name servers cannot be null");
+        Objects.requireNonNull(additionals, "Additionals cannot be null");
+
+        answers.addAll(searchLocal(question).getAnswers());
+    }
+
+    /**
+     * Looks up a name in the zone. The zone has every answer it will ever have, so this never gives back null
+     *
+     * @param question the name to look up
+     * @return every RR in the zone named question
+     * @throws NoSuchElementException if no such domain name
+     * @throws NullPointerException   if question is null
+     */
+    @Override
+    public SearchResult searchLocal(String question) throws NoSuchElementException {
+        SearchResult found = this.names.get(question.toLowerCase(Locale.ROOT));
+        if(found == null) {
+            throw new NoSuchElementException("Name does not exist");
+        }
+        return found;
+    }
+
+    /**
+     * Gets every RR in the zone
+     *
+     * @param zone the name of the zone
+     * @return a stream of the zone's RRs, SOA first
+     * @throws NoSuchElementException
+     *      If zone isn't the zone in this file
+     */
+    @Override
+    public Stream<ResourceRecord> transfer(String zone) throws NoSuchElementException {
+        if(!LabelScanner.getDefault().equalsIgnoreCase(zone, this.origin)) {
+            throw new NoSuchElementException("Not the zone in this file: " + zone);
+        }
+        return this.records.stream();
+    }
+
+    /**
+     * Opens the zone file as a stream of RRs. The RRs are decoded as they are pulled off the stream.
+     * The file was written by us so the RRs are decoded as TRUSTED
+     *
+     * @return the stream of RRs. Closing it closes the file
+     * @throws ValidationException
+     *      If the file can't be opened
+     */
+    private Stream<ResourceRecord> read() throws ValidationException {
+        InputStream in;
+        try {
+            in = new BufferedInputStream(Files.newInputStream(this.zoneFile));
+        } catch (IOException e) {
+            throw new ValidationException("Unable to open zone file", e, this.zoneFile.toString());
+        }
+
+        Iterator<ResourceRecord> records = new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                try {
+                    in.mark(1);
+                    int next = in.read();
+                    in.reset();
+                    return next != -1;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public ResourceRecord next() {
+                if(!hasNext()) {
+                    throw new NoSuchElementException("End of zone file");
+                }
+                try {
+                    return ResourceRecord.decode(in, DecodeProfile.TRUSTED);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } catch (ValidationException e) {
+                    throw new UncheckedIOException(new IOException("Bad RR in zone file: " + e.getMessage(), e));
+                }
+            }
+        };
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(records,
+                Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(() -> {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+}
@@ -0,0 +1,47 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 7
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.app.masterfile;
+
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * Thrown when a server says there is no such name, with the RRs it sent along in its NAMEERROR response.
+ *
+ * The name server RRs usually hold the SOA of the zone the name would be in, whose minimum says how long the answer
+ * can be kept. A cache uses it to keep the NAMEERROR, and a processor puts the RRs back in the response it sends.
+ * It is a NoSuchElementException, so anything that only knows about those still treats it as no such name.
+ *
+ * @version 1.0
+ */
+public class NameNotFoundException extends NoSuchElementException {
+    private static final long serialVersionUID = 1L;
+    //what came with the NAMEERROR. SearchResult isn't Serializable, so a deserialized copy has none
+    private final transient SearchResult authority;
+
+    /**
+     * Makes the exception
+     * @param message the detail message
+     * @param authority the RRs that came with the NAMEERROR
+     * @throws NullPointerException
+     *      If authority is null
+     */
+    public NameNotFoundException(String message, SearchResult authority) {
+        super(message);
+        this.authority = Objects.requireNonNull(authority, "Authority cannot be null");
+    }
+
+    /**
+     * Gets the RRs that came with the NAMEERROR
+     * @return the RRs, usually just the zone's SOA in the name servers. Null if the exception was deserialized
+     */
+    public SearchResult getAuthority() {
+        return this.authority;
+    }
+}
@@ -0,0 +1,419 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 7
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.app.masterfile;
+
+import sdns.serialization.DecodeProfile;
+import sdns.serialization.ResourceRecord;
+import sdns.serialization.ValidationException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A cache that keeps what it finds encoded, outside the Java heap, so it can hold millions of names without the
+ * garbage collector having to walk them.
+ *
+ * A CachingMasterFile keeps every result as RR objects, with their names, addresses, and lists, which is hundreds of
+ * bytes a name that every full collection has to trace. This one keeps each result as the RRs' wire bytes in a
+ * SlabStore, so all that stays on the heap is a few bytes of index a name. A hit decodes the RRs again, with their
+ * TTLs cut by how long they have been kept. That costs more than a CachingMasterFile hit, so the factory puts one of
+ * those in front of this for the names being asked for right now, and this holds the long tail behind it.
+ *
+ * What is kept, and for how long, follows CachingMasterFile: the shortest TTL for results with answers, the SOA for
+ * NAMEERRORs and no-data results, each capped, and nothing without a TTL. Negative results get their own store, so
+ * junk names can't push out real ones. Each store evicts the oldest results first when it is full. Results with RRs
+ * that can't be encoded aren't kept.
+ *
+ * Hits, misses, and evictions are counted for the log. The sizes default to the system properties
+ * sdns.cache.offHeapMegabytes and sdns.cache.offHeapNegativeMegabytes, and the TTL caps to the same properties as
+ * CachingMasterFile. The slabs are direct buffers, so -XX:MaxDirectMemorySize must leave room for both stores.
+ *
+ * @version 1.0
+ */
+public class OffHeapMasterFile implements MasterFile, AsyncMasterFile, LocalSearch, MasterFileLayer {
+    //bytes of slabs for results by default
+    private static final long DEFAULT_MEGABYTES = 1024;
+    //bytes of slabs for negative results by default
+    private static final long DEFAULT_NEGATIVE_MEGABYTES = 64;
+    private static final long DEFAULT_MAX_TTL = 86400;
+    private static final long DEFAULT_MAX_NEGATIVE_TTL = 10800;
+    //when it was stored and when it runs out, a NAMEERROR flag, and the count of each kind of RR
+    private static final int HEADER_BYTES = 8 + 8 + 1 + 3 * 2;
+    //biggest encoded result kept. The most a DNS message can be
+    private static final int MAX_VALUE_BYTES = 65535;
+    private final AsyncMasterFile masterFile;
+    private final long maxTtl;
+    private final long maxNegativeTtl;
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder negativeEvictions = new LongAdder();
+    private final SlabStore positive;
+    private final SlabStore negative;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Makes a cache
+     * @param masterFile the masterfile misses are searched on
+     * @param capacityBytes the bytes of slabs results are kept in
+     * @param maxTtlSeconds the longest a result is kept, whatever its TTL
+     * @param negativeCapacityBytes the bytes of slabs negative results are kept in
+     * @param maxNegativeTtlSeconds the longest a negative result is kept, whatever its SOA says
+     * @throws NullPointerException
+     *      If masterFile is null
+     * @throws IllegalArgumentException
+     *      If a capacity is too small for the store's slabs, or a TTL cap is less than 1
+     */
+    public OffHeapMasterFile(AsyncMasterFile masterFile, long capacityBytes, long maxTtlSeconds,
+                             long negativeCapacityBytes, long maxNegativeTtlSeconds) {
+        this.masterFile = Objects.requireNonNull(masterFile, "Masterfile cannot be null");
+        if(maxTtlSeconds < 1 || maxNegativeTtlSeconds < 1) {
+            throw new IllegalArgumentException("maxTtlSeconds and maxNegativeTtlSeconds must be at least 1");
+        }
+        this.positive = new SlabStore(capacityBytes, evictions);
+        this.maxTtl = maxTtlSeconds;
+        this.negative = new SlabStore(negativeCapacityBytes, negativeEvictions);
+        this.maxNegativeTtl = maxNegativeTtlSeconds;
+    }
+
+    /**
+     * Makes a cache with the sizes from the system properties. Anything not set gets 1GB for results and 64MB for
+     * negative results, kept for no more than a day and three hours
+     * @param masterFile the masterfile misses are searched on
+     * @throws NullPointerException
+     *      If masterFile is null
+     * @throws IllegalArgumentException
+     *      If a size isn't valid
+     */
+    public OffHeapMasterFile(AsyncMasterFile masterFile) {
+        this(masterFile, Long.getLong("sdns.cache.offHeapMegabytes", DEFAULT_MEGABYTES) << 20,
+                Long.getLong("sdns.cache.maxTtlSeconds", DEFAULT_MAX_TTL),
+                Long.getLong("sdns.cache.offHeapNegativeMegabytes", DEFAULT_NEGATIVE_MEGABYTES) << 20,
+                Long.getLong("sdns.cache.maxNegativeTtlSeconds", DEFAULT_MAX_NEGATIVE_TTL));
+    }
+
+    @Override
+    public void search(String question, List<ResourceRecord> answers, List<ResourceRecord> nameservers,
+                       List<ResourceRecord> additionals) throws NoSuchElementException, ValidationException {
+        search(question, Deadline.none(), answers, nameservers, additionals);
+    }
+
+    @Override
+    public void search(String question, Deadline deadline, List<ResourceRecord> answers,
+                       List<ResourceRecord> nameservers, List<ResourceRecord> additionals)
+            throws NoSuchElementException, ValidationException {
+        Objects.requireNonNull(answers, "Answers cannot be null");
+        Objects.requireNonNull(nameservers, "Name servers cannot be null");
+        Objects.requireNonNull(additionals, "Additionals cannot be null");
+        AsyncMasterFile.await(searchAsync(question, deadline), question).addTo(answers, nameservers, additionals);
+    }
+
+    /**
+     * Looks up a name in the cache only
+     * @param question the name to look up
+     * @return what was kept for it, or null if nothing is
+     * @throws NameNotFoundException
+     *      If it was kept that there is no such name
+     * @throws ValidationException
+     *      If the kept result can't be decoded
+     */
+    @Override
+    public SearchResult searchLocal(String question) throws NoSuchElementException, ValidationException {
+        byte[] key = key(Objects.requireNonNull(question, "Question cannot be null"));
+        long now = System.nanoTime();
+        byte[] value = positive.get(key);
+        if(value != null && !isExpired(value, now)) {
+            hits.increment();
+            return decode(value, now, question);
+        }
+        value = negative.get(key);
+        if(value == null || isExpired(value, now)) {
+            return null;
+        }
+        negativeHits.increment();
+        SearchResult kept = decode(value, now, question);
+        if(value[16] != 0) {
+            throw new NameNotFoundException("Name does not exist", kept);
+        }
+        return kept;
+    }
+
+    @Override
+    public CompletableFuture<SearchResult> searchAsync(String question) {
+        return searchAsync(question, Deadline.none());
+    }
+
+    /**
+     * Looks up a name, in the cache first and then on the wrapped masterfile, keeping what it finds
+     * @param question the name to look up
+     * @param deadline when the client stops waiting for the answer
+     * @return completes with the RRs found, or exceptionally with NoSuchElementException or ValidationException
+     */
+    @Override
+    public CompletableFuture<SearchResult> searchAsync(String question, Deadline deadline) {
+        try {
+            SearchResult hit = searchLocal(question);
+            if(hit != null) {
+                return CompletableFuture.completedFuture(hit);
+            }
+        } catch (ValidationException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        misses.increment();
+        return fetch(question, deadline, false);
+    }
+
+    /**
+     * Looks up a name on the wrapped masterfile without looking in the cache, keeping what it finds. A cache in
+     * front of this one refreshes its results this way, since the copy kept here runs out when its own does
+     * @param question the name to look up
+     * @param deadline when the client stops waiting for the answer
+     * @return completes with the RRs found, or exceptionally with NoSuchElementException or ValidationException
+     */
+    @Override
+    public CompletableFuture<SearchResult> refreshAsync(String question, Deadline deadline) {
+        return fetch(question, deadline, true);
+    }
+
+    /**
+     * Looks up a name on the wrapped masterfile and keeps what it finds
+     * @param question the name to look up
+     * @param deadline when the client stops waiting for the answer
+     * @param refresh true to refresh it on the wrapped masterfile too
+     * @return completes with the RRs found, or exceptionally with NoSuchElementException or ValidationException
+     */
+    private CompletableFuture<SearchResult> fetch(String question, Deadline deadline, boolean refresh) {
+        CompletableFuture<SearchResult> search;
+        try {
+            search = refresh ? masterFile.refreshAsync(question, deadline) : masterFile.searchAsync(question, deadline);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return search.handle((found, failure) -> {
+            if(failure == null) {
+                store(question, found);
+                return found;
+            }
+            failure = AsyncMasterFile.unwrap(failure);
+            if(failure instanceof NameNotFoundException) {
+                SearchResult authority = ((NameNotFoundException) failure).getAuthority();
+                keep(negative, question, authority, Math.min(authority.getNegativeTTL(), maxNegativeTtl), true);
+            }
+            throw new CompletionException(failure);
+        });
+    }
+
+    /**
+     * Keeps a result if its TTL lets it be kept, in the negative store if it has no answers and an SOA says how long
+     * that holds
+     * @param question the name it was found for
+     * @param found the result
+     */
+    private void store(String question, SearchResult found) {
+        long negativeTtl = found.getAnswers().isEmpty() ? found.getNegativeTTL() : 0;
+        if(negativeTtl > 0) {
+            keep(negative, question, found, Math.min(negativeTtl, maxNegativeTtl), false);
+        } else {
+            keep(positive, question, found, Math.min(found.getMinTTL(), maxTtl), false);
+        }
+    }
+
+    /**
+     * Encodes a result into a store, unless its TTL is 0 or it can't be encoded. Whatever the other store kept for
+     * the name is removed either way, since it is no longer the answer
+     * @param store where it is kept
+     * @param question the name it was found for
+     * @param found the result
+     * @param ttl how long it can be kept, in seconds
+     * @param nameError true if it came with a NAMEERROR
+     */
+    private void keep(SlabStore store, String question, SearchResult found, long ttl, boolean nameError) {
+        byte[] key = key(question);
+        //a name that went from found to not found, or back, must not be answered the old way
+        (store == positive ? negative : positive).remove(key);
+        if(ttl <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        for(int size = 512; size <= MAX_VALUE_BYTES; size *= 2) {
+            ByteBuffer out = ByteBuffer.allocate(size);
+            try {
+                out.putLong(now).putLong(now + TimeUnit.SECONDS.toNanos(ttl)).put((byte) (nameError ? 1 : 0));
+                out.putShort((short) found.getAnswers().size()).putShort((short) found.getNameServers().size())
+                        .putShort((short) found.getAdditionals().size());
+                for(List<ResourceRecord> list : List.of(found.getAnswers(), found.getNameServers(),
+                        found.getAdditionals())) {
+                    for(ResourceRecord rr : list) {
+                        rr.encodeInto(out);
+                    }
+                }
+            } catch (BufferOverflowException e) {
+                continue;
+            } catch (UnsupportedOperationException e) {
+                //a type we can't encode, so it can't be kept
+                return;
+            }
+            store.put(key, Arrays.copyOf(out.array(), out.position()));
+            return;
+        }
+    }
+
+    /**
+     * Checks if a kept result has run out
+     * @param value the kept result
+     * @param now the time, from System.nanoTime()
+     * @return true if it can't be handed out any more
+     */
+    private static boolean isExpired(byte[] value, long now) {
+        return now - ByteBuffer.wrap(value).getLong(8) >= 0;
+    }
+
+    /**
+     * Decodes a kept result
+     * @param value the kept result
+     * @param now the time, from System.nanoTime()
+     * @param question the name it was kept for
+     * @return the RRs, frozen, with their TTLs cut by how long they have been kept
+     * @throws ValidationException
+     *      If the RRs can't be decoded
+     */
+    private static SearchResult decode(byte[] value, long now, String question) throws ValidationException {
+        ByteBuffer header = ByteBuffer.wrap(value);
+        long age = TimeUnit.NANOSECONDS.toSeconds(now - header.getLong(0));
+        ByteArrayInputStream in = new ByteArrayInputStream(value, HEADER_BYTES, value.length - HEADER_BYTES);
+        try {
+            List<ResourceRecord> answers = decode(in, header.getShort(17), age);
+            List<ResourceRecord> nameServers = decode(in, header.getShort(19), age);
+            List<ResourceRecord> additionals = decode(in, header.getShort(21), age);
+            return new SearchResult(answers, nameServers, additionals);
+        } catch (IOException e) {
+            throw new ValidationException("Kept result could not be decoded", e, question);
+        }
+    }
+
+    /**
+     * Decodes some RRs
+     * @param in where they are
+     * @param count how many there are
+     * @param age how long they have been kept, in seconds
+     * @return the RRs, frozen, with their TTLs cut by age but not below 0
+     * @throws ValidationException
+     *      If an RR can't be decoded
+     * @throws IOException
+     *      If the RRs run out early
+     */
+    private static List<ResourceRecord> decode(ByteArrayInputStream in, int count, long age)
+            throws ValidationException, IOException {
+        List<ResourceRecord> rrs = new ArrayList<>(count);
+        for(int i = 0; i < count; i++) {
+            //these are bytes this cache encoded from RRs that were checked when they came in
+            ResourceRecord rr = ResourceRecord.decode(in, DecodeProfile.TRUSTED);
+            rr.setTTL((int) Math.max(0, rr.getTTL() - age));
+            rrs.add(rr.freeze());
+        }
+        return rrs;
+    }
+
+    /**
+     * Gets the key a name is kept under
+     * @param question the name
+     * @return the key
+     */
+    private static byte[] key(String question) {
+        return question.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets the masterfile misses are searched on
+     * @return the wrapped masterfile
+     */
+    @Override
+    public AsyncMasterFile getMasterFile() {
+        return this.masterFile;
+    }
+
+    /**
+     * Gets how many searches were answered with a kept result
+     * @return the count
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets how many searches were answered with a kept NAMEERROR or no data
+     * @return the count
+     */
+    public long getNegativeHits() {
+        return negativeHits.sum();
+    }
+
+    /**
+     * Gets how many searches went to the wrapped masterfile
+     * @return the count
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Gets how many results were evicted to make room
+     * @return the count
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Gets how many negative results were evicted to make room for other negative results
+     * @return the count
+     */
+    public long getNegativeEvictions() {
+        return negativeEvictions.sum();
+    }
+
+    /**
+     * Gets how many results are kept, including any that have run out but haven't been evicted yet
+     * @return the count
+     */
+    public long size() {
+        return positive.size();
+    }
+
+    /**
+     * Gets how many negative results are kept, including any that have run out but haven't been evicted yet
+     * @return the count
+     */
+    public long negativeSize() {
+        return negative.size();
+    }
+
+    @Override
+    public String toString() {
+        long answered = getHits() + getNegativeHits();
+        long searches = answered + getMisses();
+        return "Off-heap cache: entries=" + size() + " hits=" + getHits() + " misses=" + getMisses() + " ("
+                + (searches == 0 ? 0 : 100 * answered / searches) + "% hit) evictions=" + getEvictions()
+                + " negativeEntries=" + negativeSize() + " negativeHits=" + getNegativeHits()
+                + " negativeEvictions=" + getNegativeEvictions();
+    }
+}
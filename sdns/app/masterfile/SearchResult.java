@@ -0,0 +1,254 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 7
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.app.masterfile;
+
+import sdns.serialization.ResourceRecord;
+import sdns.serialization.SOA;
+import sdns.serialization.ValidationException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * The RRs a masterfile search found, split up the same way as a Response. The lists can't be changed.
+ *
+ * A result that is handed out more than once, like a cache hit, can keep the last response encoded from it with
+ * setEncoded, so the next request for the same name only has to copy it and put its own ID on.
+ *
+ * @version 1.0
+ */
+public final class SearchResult {
+    private final List<ResourceRecord> answers;
+    private final List<ResourceRecord> nameServers;
+    private final List<ResourceRecord> additionals;
+    //the last response encoded from this result, null if there hasn't been one
+    private volatile Encoded encoded;
+
+    /**
+     * An encoded response and the question it answered
+     */
+    private static final class Encoded {
+        private final String question;
+        private final byte[] response;
+
+        Encoded(String question, byte[] response) {
+            this.question = question;
+            this.response = response;
+        }
+    }
+
+    /**
+     * Makes a result out of copies of the lists
+     * @param answers the answer RRs
+     * @param nameServers the name server RRs
+     * @param additionals the additional RRs
+     * @throws NullPointerException
+     *      If any list or RR is null
+     */
+    public SearchResult(List<ResourceRecord> answers, List<ResourceRecord> nameServers,
+                        List<ResourceRecord> additionals) {
+        this.answers = List.copyOf(answers);
+        this.nameServers = List.copyOf(nameServers);
+        this.additionals = List.copyOf(additionals);
+    }
+
+    /**
+     * Runs a search on a masterfile and keeps what it found
+     * @param masterFile the masterfile to search
+     * @param question the name to look up
+     * @return what was found
+     * @throws NoSuchElementException
+     *      If no such domain name
+     * @throws NullPointerException
+     *      If any parameters are null
+     * @throws ValidationException
+     *      If the search fails
+     */
+    public static SearchResult of(MasterFile masterFile, String question)
+            throws NoSuchElementException, NullPointerException, ValidationException {
+        Objects.requireNonNull(masterFile, "Masterfile cannot be null");
+        List<ResourceRecord> answers = new ArrayList<>();
+        List<ResourceRecord> nameServers = new ArrayList<>();
+        List<ResourceRecord> additionals = new ArrayList<>();
+        masterFile.search(question, answers, nameServers, additionals);
+        return new SearchResult(answers, nameServers, additionals);
+    }
+
+    /**
+     * Runs a search on a masterfile that gives up once the deadline passes, and keeps what it found
+     * @param masterFile the masterfile to search
+     * @param question the name to look up
+     * @param deadline when the client stops waiting for the answer
+     * @return what was found
+     * @throws NoSuchElementException
+     *      If no such domain name
+     * @throws NullPointerException
+     *      If any parameters are null
+     * @throws ValidationException
+     *      If the search fails or the deadline passes
+     */
+    public static SearchResult of(MasterFile masterFile, String question, Deadline deadline)
+            throws NoSuchElementException, NullPointerException, ValidationException {
+        Objects.requireNonNull(masterFile, "Masterfile cannot be null");
+        Objects.requireNonNull(deadline, "Deadline cannot be null");
+        List<ResourceRecord> answers = new ArrayList<>();
+        List<ResourceRecord> nameServers = new ArrayList<>();
+        List<ResourceRecord> additionals = new ArrayList<>();
+        masterFile.search(question, deadline, answers, nameServers, additionals);
+        return new SearchResult(answers, nameServers, additionals);
+    }
+
+    /**
+     * Gets the answer RRs
+     * @return the answers
+     */
+    public List<ResourceRecord> getAnswers() {
+        return this.answers;
+    }
+
+    /**
+     * Gets the name server RRs
+     * @return the name servers
+     */
+    public List<ResourceRecord> getNameServers() {
+        return this.nameServers;
+    }
+
+    /**
+     * Gets the additional RRs
+     * @return the additionals
+     */
+    public List<ResourceRecord> getAdditionals() {
+        return this.additionals;
+    }
+
+    /**
+     * Gets the shortest TTL of all the RRs, which is how long the result as a whole can be kept
+     * @return the TTL in seconds, 0 if there are no RRs
+     */
+    public int getMinTTL() {
+        int min = Integer.MAX_VALUE;
+        for(List<ResourceRecord> list : List.of(answers, nameServers, additionals)) {
+            for(ResourceRecord rr : list) {
+                min = Math.min(min, rr.getTTL());
+            }
+        }
+        return min == Integer.MAX_VALUE ? 0 : min;
+    }
+
+    /**
+     * Gets how long this result can be kept if it says the name or its data doesn't exist: the shorter of the TTL
+     * and the minimum of the SOA in the name servers, as RFC 2308 says
+     * @return the TTL in seconds, 0 if there is no SOA to take it from
+     */
+    public long getNegativeTTL() {
+        for(ResourceRecord rr : nameServers) {
+            if(rr instanceof SOA) {
+                return Math.min(rr.getTTL(), ((SOA) rr).getMinimum());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Gets a copy of this result the way it should be handed out some time after it was found: every RR frozen,
+     * with its TTL cut by the time that has passed, but not below 0
+     * @param seconds how long ago the result was found
+     * @return the copy
+     * @throws ValidationException
+     *      If an RR can't be copied
+     */
+    public SearchResult aged(long seconds) throws ValidationException {
+        return new SearchResult(aged(answers, seconds), aged(nameServers, seconds), aged(additionals, seconds));
+    }
+
+    /**
+     * Gets a copy of this result with every RR frozen and its TTL set, for handing out data that has already run out
+     * @param ttl the TTL every RR gets, in seconds
+     * @return the copy
+     * @throws ValidationException
+     *      If an RR can't be copied
+     */
+    public SearchResult withTTL(int ttl) throws ValidationException {
+        return new SearchResult(withTTL(answers, ttl), withTTL(nameServers, ttl), withTTL(additionals, ttl));
+    }
+
+    /**
+     * Sets the TTL of a list of RRs
+     * @param rrs the RRs
+     * @param ttl the TTL they get
+     * @return frozen copies with the TTL
+     * @throws ValidationException
+     *      If an RR can't be copied
+     */
+    private static List<ResourceRecord> withTTL(List<ResourceRecord> rrs, int ttl) throws ValidationException {
+        List<ResourceRecord> copies = new ArrayList<>(rrs.size());
+        for(ResourceRecord rr : rrs) {
+            copies.add(rr.frozenCopy(ttl));
+        }
+        return copies;
+    }
+
+    /**
+     * Ages a list of RRs
+     * @param rrs the RRs
+     * @param seconds how long ago they were found
+     * @return frozen copies with their TTLs cut
+     * @throws ValidationException
+     *      If an RR can't be copied
+     */
+    private static List<ResourceRecord> aged(List<ResourceRecord> rrs, long seconds) throws ValidationException {
+        List<ResourceRecord> copies = new ArrayList<>(rrs.size());
+        for(ResourceRecord rr : rrs) {
+            copies.add(rr.frozenCopy((int) Math.max(0, rr.getTTL() - seconds)));
+        }
+        return copies;
+    }
+
+    /**
+     * Gets the response last encoded from this result, if it answered the same question
+     * @param question the name asked for, exactly as it was asked
+     * @return the encoded response, which must not be changed, or null if there isn't one for the question
+     */
+    public byte[] getEncoded(String question) {
+        Encoded last = this.encoded;
+        return last != null && last.question.equals(question) ? last.response : null;
+    }
+
+    /**
+     * Keeps a response encoded from this result, in place of any kept before
+     * @param question the name asked for, exactly as it was asked
+     * @param response the encoded response. It must not be changed after this
+     */
+    public void setEncoded(String question, byte[] response) {
+        this.encoded = new Encoded(Objects.requireNonNull(question, "Question cannot be null"),
+                Objects.requireNonNull(response, "Response cannot be null"));
+    }
+
+    /**
+     * Adds the RRs to lists, the way MasterFile.search fills them
+     * @param answers RR list to add answer RRs to
+     * @param nameServers RR list to add name server RRs to
+     * @param additionals RR list to add additional RRs to
+     */
+    public void addTo(List<ResourceRecord> answers, List<ResourceRecord> nameServers,
+                      List<ResourceRecord> additionals) {
+        answers.addAll(this.answers);
+        nameServers.addAll(this.nameServers);
+        additionals.addAll(this.additionals);
+    }
+
+    @Override
+    public String toString() {
+        return "SearchResult: answers=" + answers.size() + " nameServers=" + nameServers.size()
+                + " additionals=" + additionals.size();
+    }
+}
@@ -0,0 +1,359 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 7
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.app.masterfile;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keys and values of bytes kept outside the Java heap, so millions of them cost the garbage collector nothing.
+ *
+ * The bytes go in slabs, direct buffers of slabBytes each, that are written front to back like a log. A record is
+ * its key's hash, the key and value lengths, the key, and the value. When the slab being written fills up the next
+ * one is started, and once every slab has been used the oldest is emptied: every record still in it is dropped from
+ * the index, and it is written over from the front. So eviction is in the order records were written, and frees a
+ * whole slab at once. Putting a key again writes a new record and leaves the old one as dead space until its slab
+ * comes round.
+ *
+ * The index is open addressed, with linear probing, in two arrays: where each record is, and its key's hash. That is
+ * all that is on the heap, 12 bytes a slot whatever the record holds. Removing from it shifts the probe run back
+ * rather than leaving tombstones, so lookups never slow down as records come and go.
+ *
+ * The keys are split over segments by hash, each with its own slabs, index, and lock, so threads using different
+ * keys rarely wait on each other. Slabs are only allocated once they are first written to.
+ *
+ * @version 1.0
+ */
+public final class SlabStore {
+    //segments the keys are split over. A power of two
+    private static final int SEGMENTS = 16;
+    //biggest a slab is
+    private static final int MAX_SLAB_BYTES = 1 << 20;
+    //hash, key length, value length
+    private static final int HEADER_BYTES = 12;
+    //index slots a segment starts with. A power of two
+    private static final int INITIAL_SLOTS = 1024;
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final int slabBytes;
+
+    /**
+     * One segment's slabs and index. Every method holds its lock
+     */
+    private static final class Segment {
+        private final ByteBuffer[] slabs;
+        //how far each slab has been written
+        private final int[] used;
+        private final int slabBytes;
+        //the slab being written
+        private int current = 0;
+        //where each record is, as slab + 1 in the high half and offset in the low half. 0 is an empty slot
+        private long[] slots = new long[INITIAL_SLOTS];
+        //the hash of each slot's key
+        private int[] hashes = new int[INITIAL_SLOTS];
+        private int size = 0;
+        private final LongAdder evictions;
+
+        Segment(int slabCount, int slabBytes, LongAdder evictions) {
+            this.slabs = new ByteBuffer[slabCount];
+            this.used = new int[slabCount];
+            this.slabBytes = slabBytes;
+            this.evictions = evictions;
+        }
+
+        /**
+         * Gets a copy of a key's value
+         * @param key the key
+         * @param hash the key's hash
+         * @return the value, or null if the key isn't kept
+         */
+        synchronized byte[] get(byte[] key, int hash) {
+            int slot = find(key, hash);
+            if(slot < 0) {
+                return null;
+            }
+            ByteBuffer slab = slabs[slabOf(slots[slot])];
+            int offset = offsetOf(slots[slot]);
+            byte[] value = new byte[slab.getInt(offset + 8)];
+            slab.get(offset + HEADER_BYTES + key.length, value);
+            return value;
+        }
+
+        /**
+         * Keeps a value for a key, in place of any kept before
+         * @param key the key
+         * @param hash the key's hash
+         * @param value the value
+         */
+        synchronized void put(byte[] key, int hash, byte[] value) {
+            int length = HEADER_BYTES + key.length + value.length;
+            if(used[current] + length > slabBytes) {
+                advance();
+            }
+            ByteBuffer slab = slabs[current];
+            if(slab == null) {
+                slab = ByteBuffer.allocateDirect(slabBytes);
+                slabs[current] = slab;
+            }
+            int offset = used[current];
+            slab.putInt(offset, hash);
+            slab.putInt(offset + 4, key.length);
+            slab.putInt(offset + 8, value.length);
+            slab.put(offset + HEADER_BYTES, key);
+            slab.put(offset + HEADER_BYTES + key.length, value);
+            used[current] = offset + length;
+
+            //found after writing, since starting a new slab can evict and move slots
+            long location = ((long) (current + 1) << 32) | offset;
+            int slot = find(key, hash);
+            if(slot >= 0) {
+                slots[slot] = location;
+                return;
+            }
+            if(size + 1 > slots.length / 4 * 3) {
+                grow();
+            }
+            slot = hash & (slots.length - 1);
+            while(slots[slot] != 0) {
+                slot = (slot + 1) & (slots.length - 1);
+            }
+            slots[slot] = location;
+            hashes[slot] = hash;
+            size++;
+        }
+
+        /**
+         * Drops a key
+         * @param key the key
+         * @param hash the key's hash
+         */
+        synchronized void remove(byte[] key, int hash) {
+            int slot = find(key, hash);
+            if(slot >= 0) {
+                delete(slot);
+            }
+        }
+
+        /**
+         * Gets how many keys are kept
+         * @return the count
+         */
+        synchronized int size() {
+            return size;
+        }
+
+        /**
+         * Moves on to the next slab, emptying it first if it has been used
+         */
+        private void advance() {
+            current = (current + 1) % slabs.length;
+            ByteBuffer slab = slabs[current];
+            int offset = 0;
+            while(offset < used[current]) {
+                int hash = slab.getInt(offset);
+                int length = HEADER_BYTES + slab.getInt(offset + 4) + slab.getInt(offset + 8);
+                //only records the index still points at are live, the rest were put again or removed
+                long location = ((long) (current + 1) << 32) | offset;
+                int slot = hash & (slots.length - 1);
+                while(slots[slot] != 0) {
+                    if(slots[slot] == location) {
+                        delete(slot);
+                        evictions.increment();
+                        break;
+                    }
+                    slot = (slot + 1) & (slots.length - 1);
+                }
+                offset += length;
+            }
+            used[current] = 0;
+        }
+
+        /**
+         * Finds the slot a key is in
+         * @param key the key
+         * @param hash the key's hash
+         * @return the slot, or -1 if the key isn't kept
+         */
+        private int find(byte[] key, int hash) {
+            int slot = hash & (slots.length - 1);
+            while(slots[slot] != 0) {
+                if(hashes[slot] == hash && keyEquals(slots[slot], key)) {
+                    return slot;
+                }
+                slot = (slot + 1) & (slots.length - 1);
+            }
+            return -1;
+        }
+
+        /**
+         * Checks if the record at a location has a key
+         * @param location where the record is
+         * @param key the key
+         * @return true if it is the record's key
+         */
+        private boolean keyEquals(long location, byte[] key) {
+            ByteBuffer slab = slabs[slabOf(location)];
+            int offset = offsetOf(location);
+            if(slab.getInt(offset + 4) != key.length) {
+                return false;
+            }
+            offset += HEADER_BYTES;
+            for(int i = 0; i < key.length; i++) {
+                if(slab.get(offset + i) != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Empties a slot, moving later slots in its probe run back so none of them are cut off from where they hash
+         * @param slot the slot
+         */
+        private void delete(int slot) {
+            int mask = slots.length - 1;
+            int next = slot;
+            while(true) {
+                next = (next + 1) & mask;
+                if(slots[next] == 0) {
+                    break;
+                }
+                int home = hashes[next] & mask;
+                //it can move back unless its home is after the gap, going round from the gap to where it is
+                boolean stays = slot <= next ? slot < home && home <= next : slot < home || home <= next;
+                if(!stays) {
+                    slots[slot] = slots[next];
+                    hashes[slot] = hashes[next];
+                    slot = next;
+                }
+            }
+            slots[slot] = 0;
+            size--;
+        }
+
+        /**
+         * Doubles the index
+         */
+        private void grow() {
+            long[] oldSlots = slots;
+            int[] oldHashes = hashes;
+            slots = new long[oldSlots.length * 2];
+            hashes = new int[oldSlots.length * 2];
+            int mask = slots.length - 1;
+            for(int i = 0; i < oldSlots.length; i++) {
+                if(oldSlots[i] != 0) {
+                    int slot = oldHashes[i] & mask;
+                    while(slots[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    slots[slot] = oldSlots[i];
+                    hashes[slot] = oldHashes[i];
+                }
+            }
+        }
+
+        private static int slabOf(long location) {
+            return (int) (location >>> 32) - 1;
+        }
+
+        private static int offsetOf(long location) {
+            return (int) location;
+        }
+    }
+
+    /**
+     * Makes a store
+     * @param capacityBytes how many bytes of slabs it may use in all
+     * @param evictions counted up for every record evicted to make room
+     * @throws IllegalArgumentException
+     *      If capacityBytes is too small to give every segment two slabs of 4KB
+     */
+    public SlabStore(long capacityBytes, LongAdder evictions) {
+        long perSegment = capacityBytes / SEGMENTS;
+        if(perSegment < 2 * 4096) {
+            throw new IllegalArgumentException("Capacity must be at least " + 2 * 4096 * SEGMENTS + " bytes");
+        }
+        //at least two slabs, so there is always one to write while the oldest is emptied
+        this.slabBytes = (int) Math.min(MAX_SLAB_BYTES, perSegment / 2);
+        int slabCount = (int) Math.min(Integer.MAX_VALUE - 8, perSegment / slabBytes);
+        for(int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(slabCount, slabBytes, evictions);
+        }
+    }
+
+    /**
+     * Gets a copy of a key's value
+     * @param key the key
+     * @return the value, or null if the key isn't kept
+     */
+    public byte[] get(byte[] key) {
+        int hash = hash(key);
+        return segmentFor(hash).get(key, hash);
+    }
+
+    /**
+     * Keeps a value for a key, in place of any kept before. The oldest records are evicted if there isn't room
+     * @param key the key
+     * @param value the value
+     * @return false if the record is too big for a slab, and so isn't kept
+     */
+    public boolean put(byte[] key, byte[] value) {
+        if(HEADER_BYTES + key.length + value.length > slabBytes) {
+            return false;
+        }
+        int hash = hash(key);
+        segmentFor(hash).put(key, hash, value);
+        return true;
+    }
+
+    /**
+     * Drops a key. Its record stays as dead space until its slab is emptied
+     * @param key the key
+     */
+    public void remove(byte[] key) {
+        int hash = hash(key);
+        segmentFor(hash).remove(key, hash);
+    }
+
+    /**
+     * Gets how many keys are kept
+     * @return the count
+     */
+    public long size() {
+        long size = 0;
+        for(Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Gets the segment a hash belongs to. The top bits pick it, since the bottom ones pick the slot
+     * @param hash the hash
+     * @return the segment
+     */
+    private Segment segmentFor(int hash) {
+        return segments[hash >>> (Integer.SIZE - Integer.numberOfTrailingZeros(SEGMENTS))];
+    }
+
+    /**
+     * Hashes a key, FNV-1a with the bits mixed at the end so both ends of the hash are spread out
+     * @param key the key
+     * @return the hash
+     */
+    private static int hash(byte[] key) {
+        int hash = 0x811c9dc5;
+        for(byte b : key) {
+            hash = (hash ^ b) * 0x01000193;
+        }
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return hash;
+    }
+}
@@ -0,0 +1,37 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 7
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.app.masterfile;
+
+import sdns.serialization.ResourceRecord;
+import sdns.serialization.ValidationException;
+
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+
+/**
+ * A MasterFile that can hand out a whole zone for a zone transfer.
+ * Master files that don't implement this get NOTIMPLEMENTED for AXFR queries.
+ *
+ * @version 1.0
+ */
+public interface ZoneTransferSource {
+    /**
+     * Gets every RR in a zone. The first RR must be the zone's SOA. The stream should produce the RRs lazily,
+     * the zone is never expected to fit in memory at once. Problems reading the zone part way through are thrown
+     * out of the stream as unchecked exceptions. The caller closes the stream.
+     *
+     * @param zone the name of the zone
+     * @return a stream of the zone's RRs, SOA first
+     * @throws NoSuchElementException
+     *      If this source doesn't have the zone
+     * @throws ValidationException
+     *      If the zone can't be read
+     */
+    Stream<ResourceRecord> transfer(String zone) throws NoSuchElementException, ValidationException;
+}
@@ -0,0 +1,618 @@
+//Contains the CachingMasterFileTest class (see comments below)
+package sdns.app.masterfile.test;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import sdns.app.masterfile.AsyncMasterFile;
+import sdns.app.masterfile.CachingMasterFile;
+import sdns.app.masterfile.NameNotFoundException;
+import sdns.app.masterfile.SearchResult;
+import sdns.serialization.ValidationException;
+
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static sdns.app.masterfile.test.Upstream.a;
+import static sdns.app.masterfile.test.Upstream.answers;
+import static sdns.app.masterfile.test.Upstream.authority;
+import static sdns.app.masterfile.test.Upstream.soa;
+
+/**
+ * @author Harrison Rogers
+ * Tests what the cache keeps, how long it keeps it, and what it evicts
+ */
+class CachingMasterFileTest {
+    /**
+     * Makes a cache that neither prefetches nor serves stale results, so only what is kept decides a search
+     * @param upstream what misses are searched on
+     * @param maxEntries the most results kept
+     * @param maxTtl the longest a result is kept
+     * @return the cache
+     */
+    static CachingMasterFile cache(Upstream upstream, int maxEntries, long maxTtl) {
+        return new CachingMasterFile(upstream, maxEntries, maxTtl, 100, 3600).setPrefetch(0, 1, 1)
+                .setServeStale(0, 1, 1);
+    }
+
+    /**
+     * Searches a cache and waits for the answer
+     * @param cache the cache
+     * @param question the name to look up
+     * @return what was found
+     * @throws ValidationException
+     *      If the search fails
+     */
+    static SearchResult search(CachingMasterFile cache, String question) throws ValidationException {
+        return AsyncMasterFile.await(cache.searchAsync(question), question);
+    }
+
+    /**
+     * Waits until a TTL of some seconds has run out, and a little more
+     * @param seconds the TTL
+     * @throws InterruptedException
+     *      If the wait is interrupted
+     */
+    static void waitPast(long seconds) throws InterruptedException {
+        Thread.sleep(seconds * 1000 + 100);
+    }
+
+    /**
+     * A search is looked up once and then answered from the cache
+     */
+    @Test @DisplayName("Miss then hit")
+    void missThenHit() throws ValidationException {
+        Upstream upstream = new Upstream().answer("foo.com.", answers(a("foo.com.", 100)));
+        CachingMasterFile cache = cache(upstream, 10, 3600);
+        assertEquals(100, search(cache, "foo.com.").getAnswers().get(0).getTTL());
+        assertEquals(100, search(cache, "foo.com.").getAnswers().get(0).getTTL());
+        assertEquals(1, upstream.lookups("foo.com."));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.size());
+    }
+
+    /**
+     * Names are matched without case
+     */
+    @Test @DisplayName("Case insensitive")
+    void caseInsensitive() throws ValidationException {
+        Upstream upstream = new Upstream().answer("foo.com.", answers(a("foo.com.", 100)));
+        CachingMasterFile cache = cache(upstream, 10, 3600);
+        search(cache, "foo.com.");
+        assertNotNull(cache.searchLocal("FOO.Com."));
+        assertEquals(1, upstream.lookups("foo.com."));
+    }
+
+    /**
+     * Hits are handed out with their TTLs cut by how long they have been kept, and the same copy is handed out
+     * until a second has gone by
+     */
+    @Test @DisplayName("TTL aging")
+    void ttlAging() throws ValidationException, InterruptedException {
+        Upstream upstream = new Upstream().answer("foo.com.", answers(a("foo.com.", 100)));
+        CachingMasterFile cache = cache(upstream, 10, 3600);
+        search(cache, "foo.com.");
+        SearchResult first = cache.searchLocal("foo.com.");
+        assertSame(first, cache.searchLocal("foo.com."));
+        waitPast(1);
+        SearchResult aged = cache.searchLocal("foo.com.");
+        assertNotSame(first, aged);
+        assertEquals(99, aged.getAnswers().get(0).getTTL());
+        assertEquals(1, upstream.lookups("foo.com."));
+    }
+
+    /**
+     * Results run out with their shortest TTL, or maxTtlSeconds if that is shorter, and are looked up again
+     */
+    @Test @DisplayName("Expiry and TTL cap")
+    void expiry() throws ValidationException, InterruptedException {
+        Upstream upstream = new Upstream().answer("short.com.", answers(a("short.com.", 1), a("short.com.", 100)))
+                .answer("capped.com.", answers(a("capped.com.", 100)));
+        CachingMasterFile cache = cache(upstream, 10, 3600);
+        CachingMasterFile capped = cache(upstream, 10, 1);
+        search(cache, "short.com.");
+        search(capped, "capped.com.");
+        waitPast(1);
+        assertNull(cache.searchLocal("short.com."));
+        assertNull(capped.searchLocal("capped.com."));
+        search(cache, "short.com.");
+        search(capped, "capped.com.");
+        assertEquals(2, upstream.lookups("short.com."));
+        assertEquals(2, upstream.lookups("capped.com."));
+    }
+
+    /**
+     * A result with a TTL of 0 is handed out but not kept
+     */
+    @Test @DisplayName("TTL 0 not kept")
+    void zeroTtl() throws ValidationException {
+        Upstream upstream = new Upstream().answer("foo.com.", answers(a("foo.com.", 0)));
+        CachingMasterFile cache = cache(upstream, 10, 3600);
+        assertEquals(1, search(cache, "foo.com.").getAnswers().size());
+        search(cache, "foo.com.");
+        assertEquals(2, upstream.lookups("foo.com."));
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * A failed lookup isn't kept
+     */
+    @Test @DisplayName("Failure not kept")
+    void failureNotKept() {
+        Upstream upstream = new Upstream().fail("foo.com.", new ValidationException("Upstream down", "foo.com."));
+        CachingMasterFile cache = cache(upstream, 10, 3600);
+        assertThrows(ValidationException.class, () -> search(cache, "foo.com."));
+        assertThrows(ValidationException.class, () -> search(cache, "foo.com."));
+        assertEquals(2, upstream.lookups("foo.com."));
+    }
+
+    /**
+     * Bad limits
+     */
+    @Test @DisplayName("Bad limits")
+    void badLimits() {
+        Upstream upstream = new Upstream();
+        assertThrows(NullPointerException.class, () -> new CachingMasterFile(null, 1, 1, 1, 1));
+        assertThrows(IllegalArgumentException.class, () -> new CachingMasterFile(upstream, 0, 1, 1, 1));
+        assertThrows(IllegalArgumentException.class, () -> new CachingMasterFile(upstream, 1, 0, 1, 1));
+        assertThrows(IllegalArgumentException.class, () -> new CachingMasterFile(upstream, 1, 1, 0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new CachingMasterFile(upstream, 1, 1, 1, 0));
+    }
+
+    /**
+     * Eviction once the cache is full
+     */
+    @Nested
+    class Eviction {
+        /**
+         * Makes an upstream that answers each name given
+         * @param names the names
+         * @return the upstream
+         * @throws ValidationException
+         *      If a name isn't valid
+         */
+        private Upstream upstream(String... names) throws ValidationException {
+            Upstream upstream = new Upstream();
+            for(String name : names) {
+                upstream.answer(name, answers(a(name, 100)));
+            }
+            return upstream;
+        }
+
+        /**
+         * With no hits, the oldest result goes first
+         */
+        @Test @DisplayName("Oldest first")
+        void oldestFirst() throws ValidationException {
+            CachingMasterFile cache = cache(upstream("a.com.", "b.com.", "c.com."), 2, 3600);
+            search(cache, "a.com.");
+            search(cache, "b.com.");
+            search(cache, "c.com.");
+            assertNull(cache.searchLocal("a.com."));
+            assertNotNull(cache.searchLocal("b.com."));
+            assertNotNull(cache.searchLocal("c.com."));
+            assertEquals(2, cache.size());
+            assertEquals(1, cache.getEvictions());
+        }
+
+        /**
+         * A result hit since the clock last came round gets another go, and the next one is evicted instead
+         */
+        @Test @DisplayName("Hit gets another go")
+        void secondChance() throws ValidationException {
+            Upstream upstream = upstream("a.com.", "b.com.", "c.com.");
+            CachingMasterFile cache = cache(upstream, 2, 3600);
+            search(cache, "a.com.");
+            search(cache, "b.com.");
+            search(cache, "a.com.");
+            search(cache, "c.com.");
+            assertNotNull(cache.searchLocal("a.com."));
+            assertNull(cache.searchLocal("b.com."));
+            assertEquals(1, upstream.lookups("a.com."));
+            assertEquals(1, cache.getEvictions());
+        }
+
+        /**
+         * Putting a name again replaces it without evicting anything
+         */
+        @Test @DisplayName("Replace does not evict")
+        void replace() throws ValidationException, InterruptedException {
+            Upstream upstream = new Upstream().answer("a.com.", answers(a("a.com.", 1)))
+                    .answer("b.com.", answers(a("b.com.", 100)));
+            CachingMasterFile cache = cache(upstream, 2, 3600);
+            search(cache, "a.com.");
+            search(cache, "b.com.");
+            waitPast(1);
+            search(cache, "a.com.");
+            assertEquals(2, upstream.lookups("a.com."));
+            assertEquals(2, cache.size());
+            assertEquals(0, cache.getEvictions());
+        }
+    }
+
+    /**
+     * NAMEERRORs and no-data results
+     */
+    @Nested
+    class Negative {
+        /**
+         * Makes an upstream that sends a NAMEERROR for a name
+         * @param upstream the upstream
+         * @param name the name
+         * @param soaTtl the TTL of the SOA sent with it
+         * @param minimum the minimum of the SOA sent with it
+         * @throws ValidationException
+         *      If the name or a value isn't valid
+         */
+        private void nameError(Upstream upstream, String name, int soaTtl, long minimum) throws ValidationException {
+            upstream.fail(name, new NameNotFoundException("Name does not exist",
+                    authority(soa("com.", soaTtl, minimum))));
+        }
+
+        /**
+         * A NAMEERROR is kept and thrown again, with its SOA
+         */
+        @Test @DisplayName("NAMEERROR kept")
+        void nameErrorKept() throws ValidationException {
+            Upstream upstream = new Upstream();
+            nameError(upstream, "no.com.", 300, 60);
+            CachingMasterFile cache = cache(upstream, 10, 3600);
+            assertThrows(NameNotFoundException.class, () -> search(cache, "no.com."));
+            NameNotFoundException kept = assertThrows(NameNotFoundException.class, () -> search(cache, "no.com."));
+            assertEquals("com.", kept.getAuthority().getNameServers().get(0).getName());
+            assertThrows(NameNotFoundException.class, () -> cache.searchLocal("no.com."));
+            assertEquals(1, upstream.lookups("no.com."));
+            assertEquals(2, cache.getNegativeHits());
+            assertEquals(1, cache.negativeSize());
+            assertEquals(0, cache.size());
+        }
+
+        /**
+         * A name with no data is kept on the negative shelf and handed out without throwing
+         */
+        @Test @DisplayName("No data kept")
+        void noDataKept() throws ValidationException {
+            Upstream upstream = new Upstream().answer("empty.com.", authority(soa("com.", 300, 60)));
+            CachingMasterFile cache = cache(upstream, 10, 3600);
+            search(cache, "empty.com.");
+            SearchResult kept = search(cache, "empty.com.");
+            assertTrue(kept.getAnswers().isEmpty());
+            assertEquals(1, kept.getNameServers().size());
+            assertEquals(1, upstream.lookups("empty.com."));
+            assertEquals(1, cache.negativeSize());
+            assertEquals(0, cache.size());
+        }
+
+        /**
+         * Without an SOA nothing says how long a negative result holds, so it isn't kept
+         */
+        @Test @DisplayName("No SOA not kept")
+        void noSoa() {
+            Upstream upstream = new Upstream().fail("bare.com.", new NoSuchElementException("No such name"))
+                    .fail("nosoa.com.", new NameNotFoundException("Name does not exist", authority()))
+                    .answer("nodata.com.", authority());
+            CachingMasterFile cache = cache(upstream, 10, 3600);
+            for(int i = 0; i < 2; i++) {
+                assertThrows(NoSuchElementException.class, () -> search(cache, "bare.com."));
+                assertThrows(NameNotFoundException.class, () -> search(cache, "nosoa.com."));
+                assertDoesNotThrow(() -> search(cache, "nodata.com."));
+            }
+            assertEquals(2, upstream.lookups("bare.com."));
+            assertEquals(2, upstream.lookups("nosoa.com."));
+            assertEquals(2, upstream.lookups("nodata.com."));
+            assertEquals(0, cache.negativeSize());
+        }
+
+        /**
+         * A negative result holds for the shorter of the SOA's TTL and its minimum (RFC 2308)
+         */
+        @Test @DisplayName("Negative TTL")
+        void negativeTtl() throws ValidationException {
+            assertEquals(60, authority(soa("com.", 300, 60)).getNegativeTTL());
+            assertEquals(60, authority(soa("com.", 60, 300)).getNegativeTTL());
+            assertEquals(0, authority().getNegativeTTL());
+        }
+
+        /**
+         * Negative results run out with the shorter of the SOA's TTL and minimum, or maxNegativeTtlSeconds
+         */
+        @Test @DisplayName("Negative expiry")
+        void negativeExpiry() throws ValidationException, InterruptedException {
+            Upstream upstream = new Upstream();
+            nameError(upstream, "ttl.com.", 1, 3600);
+            nameError(upstream, "minimum.com.", 3600, 1);
+            nameError(upstream, "long.com.", 3600, 3600);
+            nameError(upstream, "capped.com.", 3600, 3600);
+            CachingMasterFile cache = cache(upstream, 10, 3600);
+            CachingMasterFile capped = new CachingMasterFile(upstream, 10, 3600, 10, 1).setPrefetch(0, 1, 1)
+                    .setServeStale(0, 1, 1);
+            for(int i = 0; i < 2; i++) {
+                for(String name : new String[] {"ttl.com.", "minimum.com.", "long.com."}) {
+                    assertThrows(NameNotFoundException.class, () -> search(cache, name));
+                }
+                assertThrows(NameNotFoundException.class, () -> search(capped, "capped.com."));
+                if(i == 0) {
+                    waitPast(1);
+                }
+            }
+            assertEquals(2, upstream.lookups("ttl.com."));
+            assertEquals(2, upstream.lookups("minimum.com."));
+            assertEquals(1, upstream.lookups("long.com."));
+            assertEquals(2, upstream.lookups("capped.com."));
+        }
+
+        /**
+         * Negative results have their own limit, so they only push out other negative results
+         */
+        @Test @DisplayName("Negative limit")
+        void negativeLimit() throws ValidationException {
+            Upstream upstream = new Upstream().answer("real.com.", answers(a("real.com.", 100)));
+            CachingMasterFile cache = new CachingMasterFile(upstream, 10, 3600, 2, 3600).setPrefetch(0, 1, 1)
+                    .setServeStale(0, 1, 1);
+            search(cache, "real.com.");
+            for(int i = 0; i < 5; i++) {
+                String name = "junk" + i + ".com.";
+                nameError(upstream, name, 300, 60);
+                assertThrows(NameNotFoundException.class, () -> search(cache, name));
+            }
+            assertEquals(2, cache.negativeSize());
+            assertEquals(3, cache.getNegativeEvictions());
+            assertEquals(1, cache.size());
+            assertEquals(0, cache.getEvictions());
+            assertNotNull(cache.searchLocal("real.com."));
+        }
+    }
+
+    /**
+     * Refreshing hot results before they run out
+     */
+    @Nested
+    class Prefetch {
+        /**
+         * Makes a cache that prefetches but doesn't serve stale results
+         * @param upstream what misses are searched on
+         * @param percent how much of the TTL is left when a hit starts the refresh
+         * @param minHits how many hits make a result hot
+         * @param perSecond the most refreshes started a second
+         * @return the cache
+         */
+        private CachingMasterFile prefetching(Upstream upstream, int percent, int minHits, int perSecond) {
+            return new CachingMasterFile(upstream, 10, 3600, 10, 3600).setPrefetch(percent, minHits, perSecond)
+                    .setServeStale(0, 1, 1);
+        }
+
+        /**
+         * Only a hit on a result that has been hit minHits times starts a refresh
+         */
+        @Test @DisplayName("Hit threshold")
+        void hitThreshold() throws ValidationException {
+            Upstream upstream = new Upstream().answer("hot.com.", answers(a("hot.com.", 100)));
+            CachingMasterFile cache = prefetching(upstream, 100, 3, 100);
+            search(cache, "hot.com.");
+            search(cache, "hot.com.");
+            search(cache, "hot.com.");
+            assertEquals(1, upstream.lookups("hot.com."));
+            assertEquals(0, cache.getPrefetches());
+            search(cache, "hot.com.");
+            assertEquals(2, upstream.lookups("hot.com."));
+            assertEquals(1, cache.getPrefetches());
+        }
+
+        /**
+         * A hit before the last prefetchPercent of the TTL doesn't refresh, and 0 percent never does
+         */
+        @Test @DisplayName("Outside the window")
+        void outsideWindow() throws ValidationException {
+            Upstream upstream = new Upstream().answer("hot.com.", answers(a("hot.com.", 100)));
+            CachingMasterFile early = prefetching(upstream, 10, 1, 100);
+            CachingMasterFile never = prefetching(upstream, 0, 1, 100);
+            for(int i = 0; i < 3; i++) {
+                search(early, "hot.com.");
+                search(never, "hot.com.");
+            }
+            assertEquals(2, upstream.lookups("hot.com."));
+            assertEquals(0, early.getPrefetches() + never.getPrefetches());
+        }
+
+        /**
+         * The refreshed result takes the old one's place
+         */
+        @Test @DisplayName("Refresh replaces")
+        void refreshReplaces() throws ValidationException {
+            Upstream upstream = new Upstream().answer("hot.com.", answers(a("hot.com.", 100)));
+            CachingMasterFile cache = prefetching(upstream, 100, 1, 100);
+            search(cache, "hot.com.");
+            upstream.answer("hot.com.", answers(a("hot.com.", 200)));
+            //this hit starts the refresh and still gets the old result
+            assertEquals(100, search(cache, "hot.com.").getAnswers().get(0).getTTL());
+            assertEquals(200, cache.searchLocal("hot.com.").getAnswers().get(0).getTTL());
+            assertEquals(1, cache.size());
+        }
+
+        /**
+         * Only one refresh runs for a result at a time
+         */
+        @Test @DisplayName("One refresh at a time")
+        void oneAtATime() throws ValidationException {
+            Upstream upstream = new Upstream().answer("hot.com.", answers(a("hot.com.", 100)));
+            CachingMasterFile cache = prefetching(upstream, 100, 1, 100);
+            search(cache, "hot.com.");
+            upstream.hang("hot.com.");
+            for(int i = 0; i < 5; i++) {
+                assertEquals(100, search(cache, "hot.com.").getAnswers().get(0).getTTL());
+            }
+            assertEquals(2, upstream.lookups("hot.com."));
+            assertEquals(1, cache.getPrefetches());
+        }
+
+        /**
+         * No more than prefetchPerSecond refreshes are started a second
+         */
+        @Test @DisplayName("Per second limit")
+        void perSecond() throws ValidationException {
+            Upstream upstream = new Upstream();
+            CachingMasterFile cache = prefetching(upstream, 100, 1, 1);
+            for(int i = 0; i < 3; i++) {
+                String name = "hot" + i + ".com.";
+                upstream.answer(name, answers(a(name, 100)));
+                search(cache, name);
+                search(cache, name);
+            }
+            //the three could straddle a second, which lets one more through
+            assertTrue(cache.getPrefetchesLimited() >= 1);
+            assertEquals(3, cache.getPrefetches() + cache.getPrefetchesLimited());
+        }
+
+        /**
+         * A hit on a refreshed result after the old one would have run out is a miss avoided
+         */
+        @Test @DisplayName("Miss avoided")
+        void missAvoided() throws ValidationException, InterruptedException {
+            Upstream upstream = new Upstream().answer("hot.com.", answers(a("hot.com.", 1)));
+            CachingMasterFile cache = prefetching(upstream, 100, 1, 100);
+            search(cache, "hot.com.");
+            upstream.answer("hot.com.", answers(a("hot.com.", 100)));
+            search(cache, "hot.com.");
+            assertEquals(0, cache.getMissesAvoided());
+            waitPast(1);
+            //the old result ran out, so this is answered with the refreshed one, a second older
+            assertEquals(99, search(cache, "hot.com.").getAnswers().get(0).getTTL());
+            //only counted once for each refresh
+            search(cache, "hot.com.");
+            assertEquals(1, cache.getMissesAvoided());
+        }
+
+        /**
+         * Bad settings
+         */
+        @Test @DisplayName("Bad settings")
+        void badSettings() {
+            CachingMasterFile cache = new CachingMasterFile(new Upstream());
+            assertThrows(IllegalArgumentException.class, () -> cache.setPrefetch(-1, 1, 1));
+            assertThrows(IllegalArgumentException.class, () -> cache.setPrefetch(101, 1, 1));
+            assertThrows(IllegalArgumentException.class, () -> cache.setPrefetch(10, 0, 1));
+            assertThrows(IllegalArgumentException.class, () -> cache.setPrefetch(10, 1, 0));
+        }
+    }
+
+    /**
+     * Handing out results that have run out when the upstream fails or is slow
+     */
+    @Nested
+    class ServeStale {
+        //the TTL stale results are handed out with
+        private static final int STALE_TTL = 7;
+
+        /**
+         * Makes a cache that serves stale results but doesn't prefetch, with a name kept for a second
+         * @param upstream what misses are searched on
+         * @param seconds how long after running out a result can be handed out
+         * @param answerMillis how long a search waits on the upstream before handing out the stale result
+         * @return the cache
+         * @throws ValidationException
+         *      If the name can't be looked up
+         */
+        private CachingMasterFile staleCache(Upstream upstream, long seconds, long answerMillis)
+                throws ValidationException {
+            upstream.answer("old.com.", answers(a("old.com.", 1)));
+            CachingMasterFile cache = new CachingMasterFile(upstream, 10, 3600, 10, 3600).setPrefetch(0, 1, 1)
+                    .setServeStale(seconds, answerMillis, STALE_TTL);
+            search(cache, "old.com.");
+            return cache;
+        }
+
+        /**
+         * When the upstream fails the stale result is handed out, and for STALE_TTL after without asking again
+         */
+        @Test @DisplayName("Upstream down")
+        void upstreamDown() throws ValidationException, InterruptedException {
+            Upstream upstream = new Upstream();
+            CachingMasterFile cache = staleCache(upstream, 60, 5000);
+            upstream.fail("old.com.", new ValidationException("Upstream down", "old.com."));
+            waitPast(1);
+            assertEquals(STALE_TTL, search(cache, "old.com.").getAnswers().get(0).getTTL());
+            assertEquals(2, upstream.lookups("old.com."));
+            assertEquals(STALE_TTL, search(cache, "old.com.").getAnswers().get(0).getTTL());
+            assertEquals(2, upstream.lookups("old.com."));
+            assertEquals(2, cache.getStaleServed());
+        }
+
+        /**
+         * When the upstream is slow the stale result is handed out after answerMillis
+         */
+        @Test @DisplayName("Upstream slow")
+        void upstreamSlow() throws ValidationException, InterruptedException {
+            Upstream upstream = new Upstream();
+            CachingMasterFile cache = staleCache(upstream, 60, 200);
+            upstream.hang("old.com.");
+            waitPast(1);
+            long start = System.nanoTime();
+            assertEquals(STALE_TTL, search(cache, "old.com.").getAnswers().get(0).getTTL());
+            assertTrue(System.nanoTime() - start >= 150_000_000L);
+            //the timer thread counts it just after handing it out
+            for(int i = 0; i < 100 && cache.getStaleServed() == 0; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, cache.getStaleServed());
+        }
+
+        /**
+         * When the upstream answers in time its answer is handed out, and a NAMEERROR isn't covered up
+         */
+        @Test @DisplayName("Upstream answers")
+        void upstreamAnswers() throws ValidationException, InterruptedException {
+            Upstream upstream = new Upstream().answer("gone.com.", answers(a("gone.com.", 1)));
+            CachingMasterFile cache = staleCache(upstream, 60, 5000);
+            search(cache, "gone.com.");
+            upstream.answer("old.com.", answers(a("old.com.", 50)));
+            upstream.fail("gone.com.", new NameNotFoundException("Name does not exist", authority()));
+            waitPast(1);
+            assertEquals(50, search(cache, "old.com.").getAnswers().get(0).getTTL());
+            assertThrows(NameNotFoundException.class, () -> search(cache, "gone.com."));
+            assertEquals(0, cache.getStaleServed());
+        }
+
+        /**
+         * A kept NAMEERROR is thrown stale, with its SOA at STALE_TTL
+         */
+        @Test @DisplayName("Stale NAMEERROR")
+        void staleNameError() throws ValidationException, InterruptedException {
+            Upstream upstream = new Upstream().fail("no.com.",
+                    new NameNotFoundException("Name does not exist", authority(soa("com.", 1, 1))));
+            CachingMasterFile cache = staleCache(upstream, 60, 5000);
+            assertThrows(NameNotFoundException.class, () -> search(cache, "no.com."));
+            upstream.fail("no.com.", new ValidationException("Upstream down", "no.com."));
+            waitPast(1);
+            NameNotFoundException stale = assertThrows(NameNotFoundException.class, () -> search(cache, "no.com."));
+            assertEquals(STALE_TTL, stale.getAuthority().getNameServers().get(0).getTTL());
+            assertEquals(1, cache.getStaleServed());
+        }
+
+        /**
+         * Past staleSeconds, or with serving stale turned off, the upstream's failure is handed out
+         */
+        @Test @DisplayName("Too old or off")
+        void tooOldOrOff() throws ValidationException, InterruptedException {
+            Upstream upstream = new Upstream();
+            CachingMasterFile tooOld = staleCache(upstream, 1, 5000);
+            CachingMasterFile off = staleCache(upstream, 0, 5000);
+            upstream.fail("old.com.", new ValidationException("Upstream down", "old.com."));
+            waitPast(2);
+            assertThrows(ValidationException.class, () -> search(tooOld, "old.com."));
+            assertThrows(ValidationException.class, () -> search(off, "old.com."));
+            assertEquals(0, tooOld.getStaleServed() + off.getStaleServed());
+        }
+
+        /**
+         * Bad settings
+         */
+        @Test @DisplayName("Bad settings")
+        void badSettings() {
+            CachingMasterFile cache = new CachingMasterFile(new Upstream());
+            assertThrows(IllegalArgumentException.class, () -> cache.setServeStale(-1, 1, 1));
+            assertThrows(IllegalArgumentException.class, () -> cache.setServeStale(1, 0, 1));
+            assertThrows(IllegalArgumentException.class, () -> cache.setServeStale(1, 1, 0));
+        }
+    }
+}
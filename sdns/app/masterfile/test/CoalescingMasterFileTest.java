@@ -0,0 +1,77 @@
+//Contains the CoalescingMasterFileTest class (see comments below)
+package sdns.app.masterfile.test;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import sdns.app.masterfile.AsyncMasterFile;
+import sdns.app.masterfile.CoalescingMasterFile;
+import sdns.app.masterfile.Deadline;
+import sdns.app.masterfile.SearchResult;
+import sdns.serialization.ValidationException;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static sdns.app.masterfile.test.Upstream.a;
+import static sdns.app.masterfile.test.Upstream.answers;
+
+/**
+ * @author Harrison Rogers
+ * Tests that searches for the same name share one lookup, and how long that lookup is waited on
+ */
+class CoalescingMasterFileTest {
+    /**
+     * Searches for the same name, in any case, while a lookup runs all get its answer from one trip upstream
+     */
+    @Test @DisplayName("One lookup shared")
+    void shared() throws ValidationException {
+        CompletableFuture<SearchResult> later = new CompletableFuture<>();
+        Upstream upstream = new Upstream().later("foo.com.", later);
+        CoalescingMasterFile coalescing = new CoalescingMasterFile(upstream, 5000);
+        CompletableFuture<SearchResult> first = coalescing.searchAsync("foo.com.");
+        CompletableFuture<SearchResult> second = coalescing.searchAsync("FOO.com.");
+        SearchResult found = answers(a("foo.com.", 100));
+        later.complete(found);
+        assertSame(found, AsyncMasterFile.await(first, "foo.com."));
+        assertSame(found, AsyncMasterFile.await(second, "FOO.com."));
+        assertEquals(1, upstream.lookups("foo.com."));
+        assertEquals(1, coalescing.getStarted());
+        assertEquals(1, coalescing.getJoined());
+    }
+
+    /**
+     * The search that started a lookup giving up doesn't end it for one that joined with a later deadline
+     */
+    @Test @DisplayName("Joiner outlives the starter")
+    void joinerOutlivesStarter() throws ValidationException, InterruptedException {
+        CompletableFuture<SearchResult> later = new CompletableFuture<>();
+        Upstream upstream = new Upstream().later("foo.com.", later);
+        CoalescingMasterFile coalescing = new CoalescingMasterFile(upstream, 5000);
+        CompletableFuture<SearchResult> first = coalescing.searchAsync("foo.com.", Deadline.after(50));
+        CompletableFuture<SearchResult> second = coalescing.searchAsync("foo.com.", Deadline.after(5000));
+        assertThrows(ValidationException.class, () -> AsyncMasterFile.await(first, "foo.com."));
+        Thread.sleep(50);
+        SearchResult found = answers(a("foo.com.", 100));
+        later.complete(found);
+        assertSame(found, AsyncMasterFile.await(second, "foo.com."));
+        assertEquals(1, upstream.lookups("foo.com."));
+    }
+
+    /**
+     * A lookup that never finishes fails for everyone after the longest wait, and the next search starts a new one
+     */
+    @Test @DisplayName("Longest wait")
+    void maxWait() throws InterruptedException {
+        Upstream upstream = new Upstream().hang("foo.com.");
+        CoalescingMasterFile coalescing = new CoalescingMasterFile(upstream, 100);
+        CompletableFuture<SearchResult> first = coalescing.searchAsync("foo.com.", Deadline.none());
+        CompletableFuture<SearchResult> second = coalescing.searchAsync("foo.com.", Deadline.none());
+        assertThrows(ValidationException.class, () -> AsyncMasterFile.await(first, "foo.com."));
+        assertThrows(ValidationException.class, () -> AsyncMasterFile.await(second, "foo.com."));
+        //the waits and the lookup run out on their own timers, so give the lookup's a moment to go off
+        Thread.sleep(50);
+        assertThrows(ValidationException.class, () -> AsyncMasterFile.await(coalescing.searchAsync("foo.com."),
+                "foo.com."));
+        assertEquals(2, upstream.lookups("foo.com."));
+    }
+}
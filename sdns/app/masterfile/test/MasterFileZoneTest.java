@@ -0,0 +1,100 @@
+//Contains the MasterFileZoneTest class (see comments below)
+package sdns.app.masterfile.test;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import sdns.app.masterfile.MasterFileZone;
+import sdns.app.masterfile.SearchResult;
+import sdns.serialization.NS;
+import sdns.serialization.ResourceRecord;
+import sdns.serialization.ValidationException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static sdns.app.masterfile.test.Upstream.a;
+import static sdns.app.masterfile.test.Upstream.soa;
+
+/**
+ * @author Harrison Rogers
+ * Tests that a zone is read once into memory and answered from there
+ */
+class MasterFileZoneTest {
+    /**
+     * Writes a small zone and opens it
+     * @param dir where to put the file
+     * @return the zone
+     * @throws IOException
+     *      If the file can't be written
+     * @throws ValidationException
+     *      If an RR or the file isn't valid
+     */
+    private static MasterFileZone zone(Path dir) throws IOException, ValidationException {
+        Path file = dir.resolve("foo.zone");
+        MasterFileZone.write(file, List.of(soa("foo.com.", 3600, 60), new NS("foo.com.", 3600, "ns1.foo.com."),
+                a("www.foo.com.", 300), a("WWW.foo.com.", 300), a("ns1.foo.com.", 300)));
+        return new MasterFileZone(file);
+    }
+
+    /**
+     * Every RR with the name, in any case, is found, frozen, and the same result is handed out every time
+     */
+    @Test @DisplayName("Search")
+    void search(@TempDir Path dir) throws IOException, ValidationException {
+        MasterFileZone zone = zone(dir);
+        assertEquals("foo.com.", zone.getOrigin());
+        SearchResult found = zone.searchLocal("www.FOO.com.");
+        assertEquals(2, found.getAnswers().size());
+        assertTrue(found.getAnswers().stream().allMatch(ResourceRecord::isFrozen));
+        assertSame(found, zone.searchLocal("WWW.foo.com."));
+        List<ResourceRecord> answers = new ArrayList<>();
+        zone.search("www.foo.com.", answers, new ArrayList<>(), new ArrayList<>());
+        assertEquals(found.getAnswers(), answers);
+        assertThrows(NoSuchElementException.class, () -> zone.searchLocal("mail.foo.com."));
+    }
+
+    /**
+     * Once opened, the zone is answered without the file
+     */
+    @Test @DisplayName("Read once")
+    void readOnce(@TempDir Path dir) throws IOException, ValidationException {
+        MasterFileZone zone = zone(dir);
+        Files.delete(dir.resolve("foo.zone"));
+        assertEquals(1, zone.searchLocal("ns1.foo.com.").getAnswers().size());
+        try (Stream<ResourceRecord> records = zone.transfer("FOO.com.")) {
+            assertEquals(5, records.count());
+        }
+    }
+
+    /**
+     * A transfer has the whole zone in file order, and only the zone in the file can be transferred
+     */
+    @Test @DisplayName("Transfer")
+    void transfer(@TempDir Path dir) throws IOException, ValidationException {
+        MasterFileZone zone = zone(dir);
+        List<ResourceRecord> records = zone.transfer("foo.com.").toList();
+        assertEquals(soa("foo.com.", 3600, 60), records.get(0));
+        assertEquals(a("ns1.foo.com.", 300), records.get(4));
+        assertThrows(NoSuchElementException.class, () -> zone.transfer("bar.com."));
+    }
+
+    /**
+     * A file that doesn't start with an SOA isn't a zone
+     */
+    @Test @DisplayName("No SOA")
+    void noSoa(@TempDir Path dir) throws IOException, ValidationException {
+        Path file = dir.resolve("bad.zone");
+        MasterFileZone.write(file, List.of(a("www.foo.com.", 300)));
+        assertThrows(ValidationException.class, () -> new MasterFileZone(file));
+        Files.write(file, new byte[0]);
+        assertThrows(ValidationException.class, () -> new MasterFileZone(file));
+        assertThrows(ValidationException.class, () -> new MasterFileZone(dir.resolve("missing.zone")));
+    }
+}
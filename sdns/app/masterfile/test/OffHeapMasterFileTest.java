@@ -0,0 +1,238 @@
+//Contains the OffHeapMasterFileTest class (see comments below)
+package sdns.app.masterfile.test;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import sdns.app.masterfile.AsyncMasterFile;
+import sdns.app.masterfile.CachingMasterFile;
+import sdns.app.masterfile.CoalescingMasterFile;
+import sdns.app.masterfile.Deadline;
+import sdns.app.masterfile.NameNotFoundException;
+import sdns.app.masterfile.OffHeapMasterFile;
+import sdns.app.masterfile.SearchResult;
+import sdns.serialization.AAAA;
+import sdns.serialization.CName;
+import sdns.serialization.MX;
+import sdns.serialization.NS;
+import sdns.serialization.ResourceRecord;
+import sdns.serialization.ValidationException;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static sdns.app.masterfile.test.CachingMasterFileTest.waitPast;
+import static sdns.app.masterfile.test.Upstream.a;
+import static sdns.app.masterfile.test.Upstream.answers;
+import static sdns.app.masterfile.test.Upstream.authority;
+import static sdns.app.masterfile.test.Upstream.soa;
+
+/**
+ * @author Harrison Rogers
+ * Tests the off-heap cache on its own and behind a CachingMasterFile, the way the factory stacks them
+ */
+class OffHeapMasterFileTest {
+    //bytes of slabs for each store. The least a store can have is 128KB
+    private static final long CAPACITY = 1 << 20;
+
+    /**
+     * Makes an off-heap cache
+     * @param masterFile what misses are searched on
+     * @return the cache
+     */
+    private static OffHeapMasterFile offHeap(AsyncMasterFile masterFile) {
+        return new OffHeapMasterFile(masterFile, CAPACITY, 3600, CAPACITY, 3600);
+    }
+
+    /**
+     * Searches an off-heap cache and waits for the answer
+     * @param cache the cache
+     * @param question the name to look up
+     * @return what was found
+     * @throws ValidationException
+     *      If the search fails
+     */
+    private static SearchResult search(OffHeapMasterFile cache, String question) throws ValidationException {
+        return AsyncMasterFile.await(cache.searchAsync(question), question);
+    }
+
+    /**
+     * Checks that RRs came back the same, and frozen
+     * @param expected the RRs that were kept
+     * @param actual the RRs handed out
+     */
+    private static void assertSameRRs(List<ResourceRecord> expected, List<ResourceRecord> actual) {
+        assertEquals(expected, actual);
+        for(int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getTTL(), actual.get(i).getTTL());
+            assertTrue(actual.get(i).isFrozen());
+        }
+    }
+
+    /**
+     * Every kind of RR, in every section, comes back as it was kept
+     */
+    @Test @DisplayName("Round trip")
+    void roundTrip() throws ValidationException, UnknownHostException {
+        SearchResult found = new SearchResult(
+                List.of(new CName("www.foo.com.", 300, "foo.com."), a("foo.com.", 100),
+                        new AAAA("foo.com.", 200, (Inet6Address) InetAddress.getByName("2001:db8::1")),
+                        new MX("foo.com.", 400, "mail.foo.com.", 10)),
+                List.of(new NS("foo.com.", 500, "ns1.foo.com."), soa("foo.com.", 600, 60)),
+                List.of(a("ns1.foo.com.", 700)));
+        Upstream upstream = new Upstream().answer("www.foo.com.", found);
+        OffHeapMasterFile cache = offHeap(upstream);
+        search(cache, "www.foo.com.");
+        SearchResult kept = cache.searchLocal("WWW.foo.com.");
+        assertNotNull(kept);
+        assertSameRRs(found.getAnswers(), kept.getAnswers());
+        assertSameRRs(found.getNameServers(), kept.getNameServers());
+        assertSameRRs(found.getAdditionals(), kept.getAdditionals());
+        assertEquals(1, upstream.lookups("www.foo.com."));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.size());
+    }
+
+    /**
+     * Kept RRs are handed out with their TTLs cut by how long they have been kept, and run out with the shortest
+     */
+    @Test @DisplayName("Aging and expiry")
+    void agingAndExpiry() throws ValidationException, InterruptedException {
+        Upstream upstream = new Upstream().answer("foo.com.", answers(a("foo.com.", 100)))
+                .answer("short.com.", answers(a("short.com.", 1), a("short.com.", 100)));
+        OffHeapMasterFile cache = offHeap(upstream);
+        search(cache, "foo.com.");
+        search(cache, "short.com.");
+        waitPast(1);
+        assertEquals(99, cache.searchLocal("foo.com.").getAnswers().get(0).getTTL());
+        assertNull(cache.searchLocal("short.com."));
+        search(cache, "short.com.");
+        assertEquals(2, upstream.lookups("short.com."));
+    }
+
+    /**
+     * A result with a TTL of 0 is handed out but not kept
+     */
+    @Test @DisplayName("TTL 0 not kept")
+    void zeroTtl() throws ValidationException {
+        Upstream upstream = new Upstream().answer("foo.com.", answers(a("foo.com.", 0)));
+        OffHeapMasterFile cache = offHeap(upstream);
+        search(cache, "foo.com.");
+        assertNull(cache.searchLocal("foo.com."));
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * A NAMEERROR is kept in the negative store and thrown again with its SOA
+     */
+    @Test @DisplayName("NAMEERROR kept")
+    void nameError() throws ValidationException {
+        SearchResult authority = authority(soa("com.", 300, 60));
+        Upstream upstream = new Upstream().fail("no.com.", new NameNotFoundException("Name does not exist", authority));
+        OffHeapMasterFile cache = offHeap(upstream);
+        assertThrows(NameNotFoundException.class, () -> search(cache, "no.com."));
+        NameNotFoundException kept = assertThrows(NameNotFoundException.class, () -> search(cache, "no.com."));
+        assertSameRRs(authority.getNameServers(), kept.getAuthority().getNameServers());
+        assertEquals(1, upstream.lookups("no.com."));
+        assertEquals(1, cache.getNegativeHits());
+        assertEquals(1, cache.negativeSize());
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * A name with no data is kept in the negative store and handed out without throwing. Without an SOA nothing is
+     * kept
+     */
+    @Test @DisplayName("No data")
+    void noData() throws ValidationException {
+        Upstream upstream = new Upstream().answer("empty.com.", authority(soa("com.", 300, 60)))
+                .answer("bare.com.", authority())
+                .fail("nosoa.com.", new NameNotFoundException("Name does not exist", authority()));
+        OffHeapMasterFile cache = offHeap(upstream);
+        for(int i = 0; i < 2; i++) {
+            assertEquals(1, search(cache, "empty.com.").getNameServers().size());
+            assertTrue(search(cache, "bare.com.").getNameServers().isEmpty());
+            assertThrows(NameNotFoundException.class, () -> search(cache, "nosoa.com."));
+        }
+        assertEquals(1, upstream.lookups("empty.com."));
+        assertEquals(2, upstream.lookups("bare.com."));
+        assertEquals(2, upstream.lookups("nosoa.com."));
+        assertEquals(1, cache.negativeSize());
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * A negative result runs out with the shorter of the SOA's TTL and minimum
+     */
+    @Test @DisplayName("Negative expiry")
+    void negativeExpiry() throws ValidationException, InterruptedException {
+        Upstream upstream = new Upstream().fail("no.com.",
+                new NameNotFoundException("Name does not exist", authority(soa("com.", 3600, 1))));
+        OffHeapMasterFile cache = offHeap(upstream);
+        assertThrows(NameNotFoundException.class, () -> search(cache, "no.com."));
+        assertThrows(NameNotFoundException.class, () -> cache.searchLocal("no.com."));
+        waitPast(1);
+        assertNull(cache.searchLocal("no.com."));
+    }
+
+    /**
+     * A prefetch in the cache in front goes past the off-heap copy, which runs out when the front one does, all the
+     * way to the upstream, and the refreshed result is kept in both caches
+     */
+    @Test @DisplayName("Prefetch reaches the upstream")
+    void prefetchThroughStack() throws ValidationException {
+        Upstream upstream = new Upstream().answer("hot.com.", answers(a("hot.com.", 100)));
+        OffHeapMasterFile offHeap = offHeap(new CoalescingMasterFile(upstream, 5000));
+        CachingMasterFile cache = new CachingMasterFile(offHeap, 10, 3600, 10, 3600).setPrefetch(100, 1, 100)
+                .setServeStale(0, 1, 1);
+        CachingMasterFileTest.search(cache, "hot.com.");
+        upstream.answer("hot.com.", answers(a("hot.com.", 200)));
+        CachingMasterFileTest.search(cache, "hot.com.");
+        assertEquals(1, cache.getPrefetches());
+        assertEquals(2, upstream.lookups("hot.com."));
+        assertEquals(200, cache.searchLocal("hot.com.").getAnswers().get(0).getTTL());
+        assertEquals(200, offHeap.searchLocal("hot.com.").getAnswers().get(0).getTTL());
+    }
+
+    /**
+     * A name that stops existing, then comes back, is only ever kept in one store, so the old answer is never
+     * handed out again
+     */
+    @Test @DisplayName("Found, then not found, then found")
+    void flip() throws ValidationException {
+        Upstream upstream = new Upstream().answer("flip.com.", answers(a("flip.com.", 100)));
+        OffHeapMasterFile cache = offHeap(upstream);
+        search(cache, "flip.com.");
+        upstream.fail("flip.com.", new NameNotFoundException("Name does not exist", authority(soa("com.", 300, 60))));
+        assertThrows(NameNotFoundException.class,
+                () -> AsyncMasterFile.await(cache.refreshAsync("flip.com.", Deadline.none()), "flip.com."));
+        assertThrows(NameNotFoundException.class, () -> cache.searchLocal("flip.com."));
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.negativeSize());
+        upstream.answer("flip.com.", answers(a("flip.com.", 200)));
+        AsyncMasterFile.await(cache.refreshAsync("flip.com.", Deadline.none()), "flip.com.");
+        assertEquals(200, cache.searchLocal("flip.com.").getAnswers().get(0).getTTL());
+        assertEquals(1, cache.size());
+        assertEquals(0, cache.negativeSize());
+    }
+
+    /**
+     * A refresh of the off-heap cache itself goes past what it has kept
+     */
+    @Test @DisplayName("Refresh skips the kept result")
+    void refresh() throws ValidationException {
+        Upstream upstream = new Upstream().answer("foo.com.", answers(a("foo.com.", 100)));
+        OffHeapMasterFile cache = offHeap(upstream);
+        search(cache, "foo.com.");
+        search(cache, "foo.com.");
+        assertEquals(1, upstream.lookups("foo.com."));
+        upstream.answer("foo.com.", answers(a("foo.com.", 200)));
+        assertEquals(200, AsyncMasterFile.await(cache.refreshAsync("foo.com.", Deadline.none()), "foo.com.")
+                .getAnswers().get(0).getTTL());
+        assertEquals(2, upstream.lookups("foo.com."));
+        assertEquals(200, search(cache, "foo.com.").getAnswers().get(0).getTTL());
+    }
+}
@@ -0,0 +1,214 @@
+//Contains the SlabStoreTest class (see comments below)
+package sdns.app.masterfile.test;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import sdns.app.masterfile.SlabStore;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Harrison Rogers
+ * Tests the off-heap store's index, its removals, and how it evicts when its slabs fill up
+ */
+class SlabStoreTest {
+    //the smallest a store can be: two 4KB slabs for each of its 16 segments
+    private static final long MIN_CAPACITY = 2 * 4096 * 16;
+
+    /**
+     * Makes a key
+     * @param i which key
+     * @return the key
+     */
+    private static byte[] key(int i) {
+        return ("key" + i + ".com.").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Makes a value that says which key and which put it came from
+     * @param i which key
+     * @param version which put
+     * @param length how long the value is
+     * @return the value
+     */
+    private static byte[] value(int i, int version, int length) {
+        byte[] value = new byte[length];
+        for(int j = 0; j < length; j++) {
+            value[j] = (byte) (i * 31 + version * 7 + j);
+        }
+        return value;
+    }
+
+    /**
+     * Values come back as they were put, and putting a key again replaces its value
+     */
+    @Test @DisplayName("Put and get")
+    void putGet() {
+        SlabStore store = new SlabStore(MIN_CAPACITY, new LongAdder());
+        assertNull(store.get(key(1)));
+        assertTrue(store.put(key(1), value(1, 0, 20)));
+        assertArrayEquals(value(1, 0, 20), store.get(key(1)));
+        assertTrue(store.put(key(1), value(1, 1, 40)));
+        assertArrayEquals(value(1, 1, 40), store.get(key(1)));
+        assertTrue(store.put(key(2), new byte[0]));
+        assertArrayEquals(new byte[0], store.get(key(2)));
+        assertEquals(2, store.size());
+    }
+
+    /**
+     * Removing keys from the middle of probe runs leaves every other key findable
+     */
+    @Test @DisplayName("Backward shift delete")
+    void backwardShiftDelete() {
+        SlabStore store = new SlabStore(16 << 20, new LongAdder());
+        int count = 8000;
+        for(int i = 0; i < count; i++) {
+            store.put(key(i), value(i, 0, 8));
+        }
+        for(int i = 0; i < count; i += 3) {
+            store.remove(key(i));
+        }
+        for(int i = 0; i < count; i++) {
+            if(i % 3 == 0) {
+                assertNull(store.get(key(i)), "removed key " + i);
+            } else {
+                assertArrayEquals(value(i, 0, 8), store.get(key(i)), "kept key " + i);
+            }
+        }
+        assertEquals(count - (count + 2) / 3, store.size());
+        //removing a key that isn't there changes nothing
+        store.remove(key(0));
+        store.remove(key(count));
+        assertEquals(count - (count + 2) / 3, store.size());
+    }
+
+    /**
+     * Random puts and removes agree with a map
+     */
+    @Test @DisplayName("Agrees with a map")
+    void agreesWithMap() {
+        SlabStore store = new SlabStore(16 << 20, new LongAdder());
+        Map<Integer, byte[]> expected = new HashMap<>();
+        Random rand = new Random(50);
+        for(int op = 0; op < 100_000; op++) {
+            int i = rand.nextInt(3000);
+            if(rand.nextInt(3) == 0) {
+                store.remove(key(i));
+                expected.remove(i);
+            } else {
+                byte[] value = value(i, op, 1 + rand.nextInt(30));
+                store.put(key(i), value);
+                expected.put(i, value);
+            }
+        }
+        for(int i = 0; i < 3000; i++) {
+            assertArrayEquals(expected.get(i), store.get(key(i)), "key " + i);
+        }
+        assertEquals(expected.size(), store.size());
+    }
+
+    /**
+     * The index grows past the slots it starts with, and every key is still found
+     */
+    @Test @DisplayName("Index growth")
+    void indexGrowth() {
+        LongAdder evictions = new LongAdder();
+        SlabStore store = new SlabStore(16 << 20, evictions);
+        //over 3000 keys a segment, where each starts with 1024 slots
+        int count = 50_000;
+        for(int i = 0; i < count; i++) {
+            store.put(key(i), value(i, 0, 4));
+        }
+        assertEquals(count, store.size());
+        assertEquals(0, evictions.sum());
+        for(int i = 0; i < count; i++) {
+            assertArrayEquals(value(i, 0, 4), store.get(key(i)), "key " + i);
+        }
+    }
+
+    /**
+     * Once every slab is used the oldest is emptied. What was in it is evicted, and the newest keys stay
+     */
+    @Test @DisplayName("Slab rollover")
+    void slabRollover() {
+        LongAdder evictions = new LongAdder();
+        SlabStore store = new SlabStore(MIN_CAPACITY, evictions);
+        int count = 2000;
+        for(int i = 0; i < count; i++) {
+            assertTrue(store.put(key(i), value(i, 0, 200)));
+        }
+        assertTrue(evictions.sum() > 0);
+        assertEquals(count, store.size() + evictions.sum());
+        assertNull(store.get(key(0)));
+        assertArrayEquals(value(count - 1, 0, 200), store.get(key(count - 1)));
+        long found = 0;
+        for(int i = 0; i < count; i++) {
+            byte[] kept = store.get(key(i));
+            if(kept != null) {
+                assertArrayEquals(value(i, 0, 200), kept, "key " + i);
+                found++;
+            }
+        }
+        assertEquals(store.size(), found);
+    }
+
+    /**
+     * Keys put again and removed leave dead space. Emptying its slab doesn't evict or lose anything still kept
+     */
+    @Test @DisplayName("Rollover with dead space")
+    void rolloverDeadSpace() {
+        LongAdder evictions = new LongAdder();
+        SlabStore store = new SlabStore(MIN_CAPACITY, evictions);
+        Map<Integer, byte[]> latest = new HashMap<>();
+        Random rand = new Random(48);
+        for(int op = 0; op < 20_000; op++) {
+            int i = rand.nextInt(500);
+            if(rand.nextInt(4) == 0) {
+                store.remove(key(i));
+                latest.remove(i);
+            } else {
+                byte[] value = value(i, op, 1 + rand.nextInt(100));
+                store.put(key(i), value);
+                latest.put(i, value);
+            }
+        }
+        long found = 0;
+        for(int i = 0; i < 500; i++) {
+            byte[] kept = store.get(key(i));
+            if(kept != null) {
+                //an evicted key is gone, but a kept one is never an old value
+                assertArrayEquals(latest.get(i), kept, "key " + i);
+                found++;
+            }
+        }
+        assertEquals(store.size(), found);
+    }
+
+    /**
+     * A record bigger than a slab isn't kept
+     */
+    @Test @DisplayName("Too big")
+    void tooBig() {
+        SlabStore store = new SlabStore(MIN_CAPACITY, new LongAdder());
+        assertFalse(store.put(key(1), new byte[4096]));
+        assertNull(store.get(key(1)));
+        assertEquals(0, store.size());
+        byte[] fits = value(1, 0, 4096 - 12 - key(1).length);
+        assertTrue(store.put(key(1), fits));
+        assertArrayEquals(fits, store.get(key(1)));
+    }
+
+    /**
+     * Too little capacity
+     */
+    @Test @DisplayName("Too small")
+    void tooSmall() {
+        assertThrows(IllegalArgumentException.class, () -> new SlabStore(MIN_CAPACITY - 1, new LongAdder()));
+    }
+}
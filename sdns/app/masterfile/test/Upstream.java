@@ -0,0 +1,141 @@
+//Contains the Upstream class (see comments below)
+package sdns.app.masterfile.test;
+
+import sdns.app.masterfile.AsyncMasterFile;
+import sdns.app.masterfile.SearchResult;
+import sdns.serialization.A;
+import sdns.serialization.ResourceRecord;
+import sdns.serialization.SOA;
+import sdns.serialization.ValidationException;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * @author Harrison Rogers
+ * A masterfile for the caches to wrap. It answers each name the way it is told to and counts how often each name
+ * was looked up, so a test can tell a hit from a trip upstream
+ */
+class Upstream implements AsyncMasterFile {
+    //how to answer each name
+    private final Map<String, Supplier<CompletableFuture<SearchResult>>> answers = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> lookups = new ConcurrentHashMap<>();
+
+    /**
+     * Answers a name with a result
+     * @param name the name
+     * @param found what to answer with
+     * @return this upstream
+     */
+    Upstream answer(String name, SearchResult found) {
+        answers.put(name, () -> CompletableFuture.completedFuture(found));
+        return this;
+    }
+
+    /**
+     * Fails every lookup of a name
+     * @param name the name
+     * @param failure what to fail with
+     * @return this upstream
+     */
+    Upstream fail(String name, Throwable failure) {
+        answers.put(name, () -> CompletableFuture.failedFuture(failure));
+        return this;
+    }
+
+    /**
+     * Never answers a name
+     * @param name the name
+     * @return this upstream
+     */
+    Upstream hang(String name) {
+        answers.put(name, CompletableFuture::new);
+        return this;
+    }
+
+    /**
+     * Answers every lookup of a name with the same future, so a test can finish it when it likes
+     * @param name the name
+     * @param later what to answer with
+     * @return this upstream
+     */
+    Upstream later(String name, CompletableFuture<SearchResult> later) {
+        answers.put(name, () -> later);
+        return this;
+    }
+
+    /**
+     * Gets how many times a name was looked up
+     * @param name the name
+     * @return the count
+     */
+    int lookups(String name) {
+        AtomicInteger count = lookups.get(name);
+        return count == null ? 0 : count.get();
+    }
+
+    @Override
+    public CompletableFuture<SearchResult> searchAsync(String question) {
+        lookups.computeIfAbsent(question, k -> new AtomicInteger()).incrementAndGet();
+        Supplier<CompletableFuture<SearchResult>> answer = answers.get(question);
+        if(answer == null) {
+            return CompletableFuture.failedFuture(new NoSuchElementException("No answer set for " + question));
+        }
+        return answer.get();
+    }
+
+    /**
+     * Makes an A RR
+     * @param name the name
+     * @param ttl the TTL
+     * @return the RR
+     * @throws ValidationException
+     *      If the name or TTL isn't valid
+     */
+    static A a(String name, int ttl) throws ValidationException {
+        try {
+            return new A(name, ttl, (Inet4Address) InetAddress.getByAddress(new byte[] {10, 0, 0, 1}));
+        } catch (UnknownHostException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Makes a zone's SOA RR
+     * @param zone the zone
+     * @param ttl the TTL
+     * @param minimum the minimum, how long a negative answer in the zone holds
+     * @return the RR
+     * @throws ValidationException
+     *      If the zone or a value isn't valid
+     */
+    static SOA soa(String zone, int ttl, long minimum) throws ValidationException {
+        return new SOA(zone, ttl, "ns1." + zone, "admin." + zone, 1, 3600, 600, 86400, minimum);
+    }
+
+    /**
+     * Makes a result with only answers
+     * @param answers the answers
+     * @return the result
+     */
+    static SearchResult answers(ResourceRecord... answers) {
+        return new SearchResult(List.of(answers), List.of(), List.of());
+    }
+
+    /**
+     * Makes a result with only name servers, like the SOA sent with a NAMEERROR or no data
+     * @param nameServers the name servers
+     * @return the result
+     */
+    static SearchResult authority(ResourceRecord... nameServers) {
+        return new SearchResult(List.of(), List.of(nameServers), List.of());
+    }
+}
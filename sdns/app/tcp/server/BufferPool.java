@@ -0,0 +1,56 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 7
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.app.tcp.server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Direct buffers of one size that are handed out and given back, so a selector loop doesn't allocate for every read
+ * and response. Connections only hold a buffer while they are using it, so an idle connection holds none.
+ *
+ * Not thread safe. It belongs to one selector loop.
+ *
+ * @version 1.0
+ */
+final class BufferPool {
+    private final int bufferSize;
+    private final int maxFree;
+    private final Deque<ByteBuffer> free = new ArrayDeque<>();
+
+    /**
+     * Makes a pool
+     * @param bufferSize how big each buffer is
+     * @param maxFree how many given back buffers to keep. Past that they are left to the garbage collector
+     */
+    BufferPool(int bufferSize, int maxFree) {
+        this.bufferSize = bufferSize;
+        this.maxFree = maxFree;
+    }
+
+    /**
+     * Gets a cleared buffer
+     * @return the buffer
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        return buffer == null ? ByteBuffer.allocateDirect(bufferSize) : buffer.clear();
+    }
+
+    /**
+     * Gives a buffer back. Buffers that didn't come from this pool are ignored
+     * @param buffer the buffer
+     */
+    void release(ByteBuffer buffer) {
+        if(buffer.isDirect() && buffer.capacity() == bufferSize && free.size() < maxFree) {
+            free.push(buffer);
+        }
+    }
+}
@@ -7,25 +7,72 @@
  ************************************************/
 package sdns.app.tcp.server;
 
+import sdns.app.AcceptMetrics;
+import sdns.app.AdmissionControl;
+import sdns.app.RequestProcessor;
 import sdns.app.ServerBoilerplate;
 import sdns.app.ServerLogger;
+import sdns.app.masterfile.MasterFile;
+import sdns.app.masterfile.MasterFileFactory;
 
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * The TCP server
  *
+ * Every connection is served for its whole lifetime by one requestHandlingTask. By default the tasks run on a fixed
+ * thread pool, so once every thread is held by a connection, even an idle one, new connections wait for a thread.
+ * In virtual thread mode every connection gets its own virtual thread instead, and an idle connection only costs
+ * its socket. At most maxConnections are served at once. Past that the server stops accepting until one closes,
+ * so the rest wait in the listen backlog, which the kernel bounds.
+ *
+ * The server can run more than one acceptor. Each one has its own listening socket on the port, bound with
+ * SO_REUSEPORT so the kernel spreads new connections across their backlogs, its own accept thread, and its own
+ * share of the thread pool. A storm of connections then isn't queued behind one accept loop. If the platform doesn't
+ * have SO_REUSEPORT every acceptor accepts from one shared socket. What each acceptor accepted is in its
+ * AcceptMetrics, and is logged every minute.
+ *
+ * Every connection is checked against the server's AdmissionControl as soon as it is accepted, and closed straight
+ * away if the server is at its connection limit or its limit for that client's address. In thread pool mode that
+ * also bounds how many connections can queue up for a thread. The limit counts are logged with the accept counts.
+ *
+ * Every connection shares one masterfile, so it has to be safe to search from many threads at once.
+ *
  * @version 1.0
  */
 public class Server {
     private static final Logger logger = ServerLogger.getLogger();
-    private ServerSocket serverSocket;
-    private ExecutorService threadPool;
+    //how many connections can wait to be accepted on each listening socket by default
+    private static final int BACKLOG = 20000;
+    //how often the accept counts are logged, in ms
+    private static final long STATS_INTERVAL = 60000;
+    private final List<ServerSocket> serverSockets = new ArrayList<>();
+    private final List<ExecutorService> threadPools = new ArrayList<>();
+    private final List<Thread> acceptLoops = new ArrayList<>();
+    private final List<AcceptMetrics> acceptMetrics = new ArrayList<>();
+    private volatile boolean closed = false;
+    private int threadPoolSize = Runtime.getRuntime().availableProcessors();
+    private int acceptorCount = 1;
+    private int backlog = BACKLOG;
+    private AdmissionControl admission = AdmissionControl.fromProperties();
+    //null unless in virtual thread mode
+    private Semaphore connections;
+    private int maxConnections;
 
 
     public static void main(String[] args) {
@@ -39,32 +86,321 @@ public class Server {
      */
     public void init(String[] args) {
         try {
-            if (args.length != 2) {
+            //the acceptor arguments come after the mode's arguments
+            int optional = args.length >= 2 && args[1].equals("virtual") ? 3 : 2;
+            if (args.length < optional || args.length > optional + 2) {
                 logger.log(Level.SEVERE, "Unable to start: bad param");
-                throw new IllegalArgumentException("Parameter: <portNumber> <threadPoolSize>");
+                throw new IllegalArgumentException("Parameter: <portNumber> <threadPoolSize> [<acceptors> [<backlog>]]"
+                        + " | <portNumber> virtual <maxConnections> [<acceptors> [<backlog>]]");
             }
 
             //Get the port. Handle if bad
             int listeningPort = Integer.parseInt(args[0]);
-            int threadPoolSize = Integer.parseInt(args[1]);
             ServerBoilerplate.checkPort(listeningPort);
+            if(optional == 3) {
+                setVirtualThreads(Integer.parseInt(args[2]));
+            } else {
+                setThreadPoolSize(Integer.parseInt(args[1]));
+            }
+            if(args.length > optional) {
+                setAcceptors(Integer.parseInt(args[optional]),
+                        args.length > optional + 1 ? Integer.parseInt(args[optional + 1]) : BACKLOG);
+            }
+
+            start(listeningPort, MasterFileFactory.makeMasterFile());
+            join();
+        } catch(Exception e) {
+            logger.log(Level.SEVERE, "Unable to start: " + e.getMessage());
+            close();
+        }
+    }
+
+    /**
+     * Sets how many threads serve connections. They are split evenly between the acceptors. Must be called before
+     * start()
+     *
+     * @param threadPoolSize the number of threads
+     * @return this
+     * @throws IllegalArgumentException
+     *      If threadPoolSize is less than 1
+     * @throws IllegalStateException
+     *      If the server has already started
+     */
+    public Server setThreadPoolSize(int threadPoolSize) {
+        if(threadPoolSize < 1) {
+            throw new IllegalArgumentException("threadPoolSize must be at least 1");
+        }
+        checkNotStarted();
+        this.threadPoolSize = threadPoolSize;
+        return this;
+    }
+
+    /**
+     * Turns on virtual thread mode. Must be called before start()
+     *
+     * @param maxConnections the most connections to serve at once, across every acceptor
+     * @return this
+     * @throws IllegalArgumentException
+     *      If maxConnections is less than 1
+     * @throws IllegalStateException
+     *      If the server has already started
+     */
+    public Server setVirtualThreads(int maxConnections) {
+        if(maxConnections < 1) {
+            throw new IllegalArgumentException("maxConnections must be at least 1");
+        }
+        checkNotStarted();
+        this.connections = new Semaphore(maxConnections);
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    /**
+     * Sets how many acceptors to run and the backlog of each one's listening socket. Must be called before start()
+     *
+     * @param acceptorCount how many acceptors
+     * @param backlog how many connections can wait to be accepted on each listening socket
+     * @return this
+     * @throws IllegalArgumentException
+     *      If acceptorCount or backlog is less than 1
+     * @throws IllegalStateException
+     *      If the server has already started
+     */
+    public Server setAcceptors(int acceptorCount, int backlog) {
+        if(acceptorCount < 1 || backlog < 1) {
+            throw new IllegalArgumentException("acceptorCount and backlog must be at least 1");
+        }
+        checkNotStarted();
+        this.acceptorCount = acceptorCount;
+        this.backlog = backlog;
+        return this;
+    }
+
+    /**
+     * Sets the limits connections and requests are held to. Must be called before start()
+     *
+     * @param admission the limits
+     * @return this
+     * @throws NullPointerException
+     *      If admission is null
+     * @throws IllegalStateException
+     *      If the server has already started
+     */
+    public Server setAdmissionControl(AdmissionControl admission) {
+        Objects.requireNonNull(admission, "Admission control cannot be null");
+        checkNotStarted();
+        this.admission = admission;
+        return this;
+    }
+
+    /**
+     * Gets the limits connections and requests are held to, and how often each has been hit
+     * @return the admission control
+     */
+    public AdmissionControl getAdmissionControl() {
+        return this.admission;
+    }
+
+    /**
+     * Opens the listening sockets and starts accepting connections
+     *
+     * @param port the port to listen on. 0 picks a free one, see getLocalPort()
+     * @param masterFile the masterfile every connection searches
+     * @throws IOException
+     *      If a listening socket can't be opened or bound
+     */
+    public void start(int port, MasterFile masterFile) throws IOException {
+        RequestProcessor processor = new RequestProcessor(Objects.requireNonNull(masterFile,
+                "Masterfile cannot be null"), true);
+
+        ServerSocket first = new ServerSocket();
+        serverSockets.add(first);
+        boolean reusePort = acceptorCount > 1 && first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        if(reusePort) {
+            first.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        } else if(acceptorCount > 1) {
+            logger.log(Level.WARNING, "SO_REUSEPORT is not supported, all acceptors will share one socket");
+        }
+        first.bind(new InetSocketAddress(port), backlog);
+
+        //the rest of the sockets have to bind to the port the first one got
+        while(reusePort && serverSockets.size() < acceptorCount) {
+            ServerSocket serverSocket = new ServerSocket();
+            serverSockets.add(serverSocket);
+            serverSocket.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            serverSocket.bind(new InetSocketAddress(first.getLocalPort()), backlog);
+        }
+
+        //create the threads connections are served on, split between the acceptors
+        int poolSize = (threadPoolSize + acceptorCount - 1) / acceptorCount;
+        for(int i = 0; i < acceptorCount; i++) {
+            ServerSocket serverSocket = serverSockets.get(i % serverSockets.size());
+            ExecutorService threadPool = connections == null ? Executors.newFixedThreadPool(poolSize)
+                    : Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("sdns-tcp-" + i + "-", 0).factory());
+            AcceptMetrics metrics = new AcceptMetrics("acceptor-" + i, backlog);
+            threadPools.add(threadPool);
+            acceptMetrics.add(metrics);
+            Thread acceptLoop = new Thread(() -> acceptLoop(serverSocket, threadPool, metrics, processor),
+                    "sdns-tcp-accept-" + i);
+            acceptLoops.add(acceptLoop);
+            acceptLoop.start();
+        }
+        Thread.ofVirtual().name("sdns-tcp-stats").start(this::logAccepts);
 
-            //create thread pool
-            threadPool = Executors.newFixedThreadPool(threadPoolSize);
+        logger.log(Level.INFO, "Server started...");
+        logger.log(Level.INFO, "Running on: " + first.getLocalSocketAddress().toString() + " with "
+                + acceptorCount + " acceptors over " + serverSockets.size() + " sockets"
+                + (connections == null ? " and " + poolSize + " threads each" :
+                " and up to " + maxConnections + " connections on virtual threads"));
+    }
+
+    /**
+     * Gets the port the server is bound to
+     * @return the port, or -1 if it isn't started
+     */
+    public int getLocalPort() {
+        return serverSockets.isEmpty() ? -1 : serverSockets.get(0).getLocalPort();
+    }
 
-            serverSocket = new ServerSocket(listeningPort, 20000);
-            logger.log(Level.INFO, "Server started...");
-            logger.log(Level.INFO, "Running on: " + serverSocket.getLocalSocketAddress().toString());
+    /**
+     * Gets what each acceptor has accepted
+     * @return the metrics, one per acceptor
+     */
+    public List<AcceptMetrics> getAcceptMetrics() {
+        return Collections.unmodifiableList(acceptMetrics);
+    }
+
+    /**
+     * Waits for the server to stop accepting
+     * @throws InterruptedException
+     *      If interrupted while waiting
+     */
+    public void join() throws InterruptedException {
+        for(Thread acceptLoop : acceptLoops) {
+            acceptLoop.join();
+        }
+    }
 
-            //Listen for connection requests. If a connection is made, create a socket hand it to a task that is
-            // submitted to the threadpool queue.
-            while(true) {
-                Socket clientConnection = this.serverSocket.accept();
-                this.threadPool.execute(new requestHandlingTask(clientConnection));
+    /**
+     * Stops accepting connections. Connections already open are served until they close
+     */
+    public void close() {
+        if(closed) {
+            return;
+        }
+        closed = true;
+        for(ServerSocket serverSocket : serverSockets) {
+            try {
+                serverSocket.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Problem closing server socket: " + e.getMessage());
             }
-        } catch(Exception e) {
-            logger.log(Level.SEVERE, "Unable to start: " + e.getMessage());
+        }
+        for(ExecutorService threadPool : threadPools) {
             threadPool.shutdown();
         }
+        if(!acceptMetrics.isEmpty()) {
+            logger.log(Level.INFO, AcceptMetrics.describe(acceptMetrics));
+            logger.log(Level.INFO, admission.toString());
+        }
+    }
+
+    /**
+     * Listen for connection requests. If a connection is made, hand its socket to a task that is run on the
+     * acceptor's thread pool, or on its own virtual thread
+     * @param serverSocket the socket to accept from
+     * @param threadPool where the connections are served
+     * @param metrics where the accepts are counted
+     * @param processor the processor every connection shares
+     */
+    private void acceptLoop(ServerSocket serverSocket, ExecutorService threadPool, AcceptMetrics metrics,
+                            RequestProcessor processor) {
+        while(!closed) {
+            try {
+                //at the cap, leave connections in the backlog until one closes
+                if(connections != null && !connections.tryAcquire()) {
+                    logger.log(Level.FINE, "At " + maxConnections + " connections, waiting for one to close");
+                    connections.acquire();
+                }
+                Socket clientConnection;
+                try {
+                    clientConnection = serverSocket.accept();
+                } catch (IOException e) {
+                    release();
+                    if(!closed) {
+                        metrics.recordFailure();
+                    }
+                    throw e;
+                }
+                metrics.recordAccept();
+                InetAddress address = clientConnection.getInetAddress();
+                if(!admission.admit(address)) {
+                    release();
+                    clientConnection.close();
+                    continue;
+                }
+                try {
+                    threadPool.execute(() -> {
+                        try {
+                            new requestHandlingTask(clientConnection, processor, admission).run();
+                        } finally {
+                            admission.release(address);
+                            release();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    //closed between the accept and now
+                    admission.release(address);
+                    release();
+                    clientConnection.close();
+                }
+            } catch (InterruptedException e) {
+                logger.log(Level.WARNING, "Accept loop interrupted");
+                close();
+            } catch (IOException e) {
+                if(!closed) {
+                    logger.log(Level.SEVERE, "Communication Problem: " + e.getMessage());
+                    close();
+                }
+            }
+        }
+        logger.info("Server shutting down");
+    }
+
+    /**
+     * Gives back a connection's permit in virtual thread mode
+     */
+    private void release() {
+        if(connections != null) {
+            connections.release();
+        }
+    }
+
+    /**
+     * Makes sure settings are only changed before the server starts
+     * @throws IllegalStateException
+     *      If the server has already started
+     */
+    private void checkNotStarted() {
+        if(!serverSockets.isEmpty()) {
+            throw new IllegalStateException("Server already started");
+        }
+    }
+
+    /**
+     * Logs the accept counts and rates every STATS_INTERVAL until the server closes
+     */
+    private void logAccepts() {
+        try {
+            while(!closed) {
+                Thread.sleep(STATS_INTERVAL);
+                if(!closed) {
+                    logger.log(Level.INFO, AcceptMetrics.describe(acceptMetrics));
+                    logger.log(Level.INFO, admission.toString());
+                }
+            }
+        } catch (InterruptedException e) {
+            //stop logging
+        }
     }
 }
@@ -8,19 +8,33 @@
 
 package sdns.app.tcp.server;
 
-import sdns.app.ServerBoilerplate;
+import sdns.app.AcceptMetrics;
+import sdns.app.AdmissionControl;
+import sdns.app.RequestProcessor;
 import sdns.app.ServerLogger;
+import sdns.app.ZoneTransfer;
+import sdns.app.masterfile.AsyncMasterFile;
 import sdns.app.masterfile.MasterFile;
 import sdns.app.masterfile.MasterFileFactory;
+import sdns.app.masterfile.MasterFileLayer;
 import sdns.serialization.Framer;
-import sdns.serialization.Message;
 import sdns.serialization.NIODeframer;
 import sdns.serialization.ValidationException;
 
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
 import java.nio.channels.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -28,6 +42,31 @@ import java.util.logging.Logger;
 /**
  * The TCP Asynchronous server implementation
  *
+ * Requests are answered by a RequestProcessor shared by every connection. Requests on a connection are pipelined:
+ * every complete frame is handed to the processor as soon as it is read, without waiting for the answers before it,
+ * and each response is queued as soon as it is ready, so one slow lookup doesn't hold up the answers behind it.
+ * DNS over TCP lets responses go out in any order, the client matches them up by ID.
+ * At most maxInFlight requests per connection are being answered at once. Past that the connection isn't read until
+ * one finishes, so a client can't queue up unbounded work.
+ *
+ * Each connection has one write queue, and only one write at a time. Every response that is ready when a write
+ * starts goes out in that one gathering write. A zone transfer is written one message at a time, each one built
+ * after the last write completes, and the responses queued behind it wait until it is done.
+ *
+ * The server can run more than one acceptor. Each one has its own listen channel on the port, bound with
+ * SO_REUSEPORT so the kernel spreads new connections across their backlogs, in its own channel group, so the
+ * connections it accepts are served by its own threads. If the platform doesn't have SO_REUSEPORT there is only one
+ * acceptor. What each acceptor accepted is in its AcceptMetrics, and is logged every minute.
+ *
+ * Connections and requests are held to the server's AdmissionControl. A connection over the connection limits is
+ * closed as soon as it is accepted. A frame that can't get an in-flight permit is held, and the connection isn't
+ * read again until a permit is handed to it. A connection with more than the buffered bytes limit of responses
+ * waiting to be written isn't read until they are written, and one sending a frame bigger than the limit is closed.
+ *
+ * A masterfile that is a LocalSearch answers what it has on hand on the thread that read the frame. Anything else
+ * that isn't an AsyncMasterFile is searched on a bounded pool of resolver threads, so a slow search never ties up
+ * the channel group's threads, and a search that doesn't fit in the pool's queue or waits in it too long is shed.
+ *
  * @version 1.0
  */
 //Credit given to Dr. Donahoo's 'BasicTCPEchoAIO' example.
@@ -35,7 +74,26 @@ public class ServerAIO {
     public static final Logger logger = ServerLogger.getLogger();
     private static final int TIMEOUT = 20;
     private static final int BUFSIZE = 256;
-    private static MasterFile masterFile;
+    private static final byte[] NO_BYTES = new byte[0];
+    //how many requests a connection can have in flight by default
+    private static final int DEFAULT_IN_FLIGHT = 32;
+    //how many connections can wait to be accepted on each listen channel by default
+    private static final int BACKLOG = 20000;
+    //how often the accept counts are logged, in ms
+    private static final long STATS_INTERVAL = 60000;
+    //how many searches can wait for a resolver thread before more are shed
+    private static final int RESOLVER_QUEUE = 10000;
+    private final List<AsynchronousServerSocketChannel> listenChannels = new ArrayList<>();
+    private final List<AsynchronousChannelGroup> groups = new ArrayList<>();
+    private final List<AcceptMetrics> acceptMetrics = new ArrayList<>();
+    private volatile boolean closed = false;
+    private RequestProcessor processor;
+    private ExecutorService resolvers;
+    private int resolverCount = 4 * Runtime.getRuntime().availableProcessors();
+    private int maxInFlight = DEFAULT_IN_FLIGHT;
+    private int acceptorCount = 1;
+    private int backlog = BACKLOG;
+    private AdmissionControl admission = AdmissionControl.fromProperties();
 
     public static void main(String[] args) {
         ServerAIO server = new ServerAIO();
@@ -47,221 +105,667 @@ public class ServerAIO {
      * @param args the args passed in
      */
     public void init(String[] args) {
-        if(args.length != 1) {
-            throw new IllegalArgumentException("Parameters: <Port>");
+        if(args.length < 1 || args.length > 4) {
+            throw new IllegalArgumentException("Parameters: <Port> [<maxInFlight> [<acceptors> [<backlog>]]]");
+        }
+        if(args.length >= 2) {
+            maxInFlight = Integer.parseInt(args[1]);
+            if(maxInFlight < 1) {
+                throw new IllegalArgumentException("maxInFlight must be at least 1");
+            }
+        }
+        if(args.length >= 3) {
+            setAcceptors(Integer.parseInt(args[2]), args.length == 4 ? Integer.parseInt(args[3]) : BACKLOG);
         }
 
         //only continue initializing if the listenChannel could be opened.
-        try(AsynchronousServerSocketChannel listenChannel = AsynchronousServerSocketChannel.open()) {
-            listenChannel.bind(new InetSocketAddress(Integer.parseInt(args[0])), 100);
-            masterFile = MasterFileFactory.makeMasterFile();
-            listenChannel.accept(null, new CompletionHandler<AsynchronousSocketChannel, Void>() {
-                @Override
-                public void completed(AsynchronousSocketChannel clientChan, Void attachment) {
-                    listenChannel.accept(null, this);
-                    try {
-                        handleAccept(clientChan);
-                    } catch(IOException e) {
-                        failed(e,null);
-                    }
-                }
-
-                @Override
-                public void failed(Throwable exc, Void attachment) {
-                    logger.log(Level.WARNING, "Close Failed", exc);
-                }
-            });
+        try {
+            start(Integer.parseInt(args[0]), MasterFileFactory.makeMasterFile());
             Thread.currentThread().join();
         } catch (InterruptedException e) {
             logger.log(Level.SEVERE, "Main thread failed to join", e);
         } catch(Exception e) {
             logger.log(Level.SEVERE, "Unable to start: " + e.getMessage(), e);
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Sets how many acceptors to run and the backlog of each one's listen channel. Must be called before start()
+     *
+     * @param acceptorCount how many acceptors
+     * @param backlog how many connections can wait to be accepted on each listen channel
+     * @return this
+     * @throws IllegalArgumentException
+     *      If acceptorCount or backlog is less than 1
+     * @throws IllegalStateException
+     *      If the server has already started
+     */
+    public ServerAIO setAcceptors(int acceptorCount, int backlog) {
+        if(acceptorCount < 1 || backlog < 1) {
+            throw new IllegalArgumentException("acceptorCount and backlog must be at least 1");
+        }
+        if(!listenChannels.isEmpty()) {
+            throw new IllegalStateException("Server already started");
+        }
+        this.acceptorCount = acceptorCount;
+        this.backlog = backlog;
+        return this;
+    }
+
+    /**
+     * Sets how many threads search a masterfile that isn't an AsyncMasterFile. Must be called before start()
+     *
+     * @param resolverCount how many resolver threads
+     * @return this
+     * @throws IllegalArgumentException
+     *      If resolverCount is less than 1
+     * @throws IllegalStateException
+     *      If the server has already started
+     */
+    public ServerAIO setResolverThreads(int resolverCount) {
+        if(resolverCount < 1) {
+            throw new IllegalArgumentException("resolverCount must be at least 1");
         }
+        if(!listenChannels.isEmpty()) {
+            throw new IllegalStateException("Server already started");
+        }
+        this.resolverCount = resolverCount;
+        return this;
+    }
+
+    /**
+     * Sets the limits connections and requests are held to. Must be called before start()
+     *
+     * @param admission the limits
+     * @return this
+     * @throws NullPointerException
+     *      If admission is null
+     * @throws IllegalStateException
+     *      If the server has already started
+     */
+    public ServerAIO setAdmissionControl(AdmissionControl admission) {
+        Objects.requireNonNull(admission, "Admission control cannot be null");
+        if(!listenChannels.isEmpty()) {
+            throw new IllegalStateException("Server already started");
+        }
+        this.admission = admission;
+        return this;
     }
 
     /**
-     * Executes after completion of accept. Sets up the read buffer, the deframer and the protocol handler for the socket channel
+     * Gets the limits connections and requests are held to, and how often each has been hit
+     * @return the admission control
+     */
+    public AdmissionControl getAdmissionControl() {
+        return this.admission;
+    }
+
+    /**
+     * Opens the listen channels and starts accepting connections
+     * @param port the port to listen on. 0 picks a free one, see getLocalPort()
+     * @param masterFile the masterfile every connection searches
+     * @throws IOException
+     *      If a listen channel can't be opened or bound
+     */
+    public void start(int port, MasterFile masterFile) throws IOException {
+        if(masterFile instanceof AsyncMasterFile) {
+            processor = new RequestProcessor(masterFile, true);
+        } else {
+            resolvers = RequestProcessor.newResolverPool(resolverCount, RESOLVER_QUEUE);
+            processor = new RequestProcessor(masterFile, resolvers, true);
+        }
+        //a single acceptor keeps the default group
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / acceptorCount);
+        AsynchronousServerSocketChannel first = openListenChannel(0, threads);
+        boolean reusePort = acceptorCount > 1
+                && first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        if(reusePort) {
+            first.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        } else if(acceptorCount > 1) {
+            logger.log(Level.WARNING, "SO_REUSEPORT is not supported, only one acceptor will run");
+        }
+        first.bind(new InetSocketAddress(port), backlog);
+        accept(first, 0);
+
+        //the rest of the channels have to bind to the port the first one got
+        while(reusePort && listenChannels.size() < acceptorCount) {
+            AsynchronousServerSocketChannel listenChannel = openListenChannel(listenChannels.size(), threads);
+            listenChannel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            listenChannel.bind(new InetSocketAddress(getLocalPort()), backlog);
+            accept(listenChannel, listenChannels.size() - 1);
+        }
+        Thread.ofVirtual().name("sdns-aio-stats").start(this::logAccepts);
+        logger.log(Level.INFO, "Running on: " + first.getLocalAddress() + " with " + listenChannels.size()
+                + " acceptors" + (resolvers == null ? "" : " and " + resolverCount + " resolver threads"));
+    }
+
+    /**
+     * Opens a listen channel, in its own channel group if there is more than one acceptor
+     * @param index which acceptor it is for
+     * @param threads how many threads its group gets
+     * @return the channel
+     * @throws IOException
+     *      If the channel or group can't be made
+     */
+    private AsynchronousServerSocketChannel openListenChannel(int index, int threads) throws IOException {
+        AsynchronousChannelGroup group = null;
+        if(acceptorCount > 1) {
+            group = AsynchronousChannelGroup.withFixedThreadPool(threads,
+                    Thread.ofPlatform().name("sdns-aio-" + index + "-", 0).daemon().factory());
+            groups.add(group);
+        }
+        AsynchronousServerSocketChannel listenChannel = AsynchronousServerSocketChannel.open(group);
+        listenChannels.add(listenChannel);
+        return listenChannel;
+    }
+
+    /**
+     * Starts accepting connections on a listen channel
+     * @param listenChannel the channel
+     * @param index which acceptor it is
+     */
+    private void accept(AsynchronousServerSocketChannel listenChannel, int index) {
+        AcceptMetrics metrics = new AcceptMetrics("acceptor-" + index, backlog);
+        acceptMetrics.add(metrics);
+        listenChannel.accept(null, new CompletionHandler<AsynchronousSocketChannel, Void>() {
+            @Override
+            public void completed(AsynchronousSocketChannel clientChan, Void attachment) {
+                metrics.recordAccept();
+                try {
+                    handleAccept(clientChan);
+                } catch(IOException e) {
+                    failed(e,null);
+                }
+                //accept the next one after this one is admitted, so connections are admitted in the order they came
+                listenChannel.accept(null, this);
+            }
+
+            @Override
+            public void failed(Throwable exc, Void attachment) {
+                if(listenChannel.isOpen()) {
+                    metrics.recordFailure();
+                    logger.log(Level.WARNING, "Close Failed", exc);
+                }
+            }
+        });
+    }
+
+    /**
+     * Gets the port the server is bound to
+     * @return the port, or -1 if it isn't started
+     */
+    public int getLocalPort() {
+        try {
+            return listenChannels.isEmpty() ? -1
+                    : ((InetSocketAddress) listenChannels.get(0).getLocalAddress()).getPort();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Gets what each acceptor has accepted
+     * @return the metrics, one per acceptor
+     */
+    public List<AcceptMetrics> getAcceptMetrics() {
+        return Collections.unmodifiableList(acceptMetrics);
+    }
+
+    /**
+     * Stops accepting connections. Connections already open are served until they close
+     */
+    public void close() {
+        if(closed) {
+            return;
+        }
+        closed = true;
+        for(AsynchronousServerSocketChannel listenChannel : listenChannels) {
+            try {
+                listenChannel.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Problem closing listen channel: " + e.getMessage());
+            }
+        }
+        for(AsynchronousChannelGroup group : groups) {
+            group.shutdown();
+        }
+        if(resolvers != null) {
+            resolvers.shutdown();
+        }
+        if(!acceptMetrics.isEmpty()) {
+            logger.log(Level.INFO, AcceptMetrics.describe(acceptMetrics));
+            logger.log(Level.INFO, admission.toString());
+            logProcessor();
+        }
+    }
+
+    /**
+     * Logs how long the fast and slow paths are taking, what each layer of the masterfile has been doing, and what
+     * the resolver pool's shedder has shed if there is a resolver pool
+     */
+    private void logProcessor() {
+        logger.log(Level.INFO, "Fast path: " + processor.getFastPathTimes() + ", slow path: "
+                + processor.getSlowPathTimes() + ", expired: " + processor.getExpired());
+        for(MasterFileLayer layer : MasterFileLayer.layers(processor.getMasterFile())) {
+            logger.log(Level.INFO, layer.toString());
+        }
+        if(processor.getLoadShedder() != null) {
+            logger.log(Level.INFO, processor.getLoadShedder().toString());
+        }
+    }
+
+    /**
+     * Logs the accept counts and rates every STATS_INTERVAL until the server closes
+     */
+    private void logAccepts() {
+        try {
+            while(!closed) {
+                Thread.sleep(STATS_INTERVAL);
+                if(!closed) {
+                    logger.log(Level.INFO, AcceptMetrics.describe(acceptMetrics));
+                    logger.log(Level.INFO, admission.toString());
+                    logProcessor();
+                }
+            }
+        } catch (InterruptedException e) {
+            //stop logging
+        }
+    }
+
+    /**
+     * The state of one client connection. The deframer is only used by whoever is reading. Everything else is
+     * guarded by the connection's lock, since responses finish on whatever thread completed their search
+     */
+    private static class Connection {
+        private final AsynchronousSocketChannel channel;
+        private final AdmissionControl admission;
+        private final InetAddress address;
+        private final ByteBuffer readBuf = ByteBuffer.allocateDirect(BUFSIZE);
+        private final NIODeframer deframer = new NIODeframer();
+        //framed responses as ByteBuffers, and zone transfers, in the order they are written
+        private final Deque<Object> writeQueue = new ArrayDeque<>();
+        private int inFlight = 0;
+        //bytes of responses queued or being written
+        private long queuedBytes = 0;
+        private boolean writing = false;
+        //set when reading stopped at the in-flight or buffered bytes limit
+        private boolean paused = false;
+        //set when there is nothing more to read. The connection closes once everything is written
+        private boolean inputDone = false;
+        private boolean closed = false;
+
+        /**
+         * Makes the state for a connection that was let in
+         * @param channel the client channel
+         * @param admission the limits it was let in under. It is released from them when it closes
+         * @param address the address it came from
+         */
+        Connection(AsynchronousSocketChannel channel, AdmissionControl admission, InetAddress address) {
+            this.channel = channel;
+            this.admission = admission;
+            this.address = address;
+        }
+
+        /**
+         * Checks if the connection has nothing left to do
+         * @return true if the input is done and every response is written
+         */
+        boolean finished() {
+            return inputDone && inFlight == 0 && !writing && writeQueue.isEmpty();
+        }
+
+        /**
+         * Closes the connection, logging if that fails. Any transfers still queued are dropped
+         */
+        void close() {
+            synchronized(this) {
+                if(closed) {
+                    return;
+                }
+                closed = true;
+                admission.release(address);
+                for(Object queued : writeQueue) {
+                    if(queued instanceof ZoneTransfer) {
+                        ((ZoneTransfer) queued).close();
+                    }
+                }
+                writeQueue.clear();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to close connection with client");
+            }
+        }
+    }
+
+    /**
+     * Executes after completion of accept. Sets up the read buffer and the deframer for the socket channel
      * @param clientChan the client socket channel
      * @throws IOException -
      *      If there is an error closing the socket
      */
     public void handleAccept(final AsynchronousSocketChannel clientChan) throws IOException {
-        ByteBuffer readBuf = ByteBuffer.allocateDirect(BUFSIZE);
-        NIODeframer nioDeframer = new NIODeframer();
-        ServerBoilerplate protocolHandler = this.getProtocolHandler(clientChan, readBuf, nioDeframer);
-        try {
-            protocolHandler.setMasterFile(masterFile);
-            executeRead(clientChan, readBuf, nioDeframer, protocolHandler);
-        } catch (Exception e) {
-            logger.log(Level.SEVERE, "Masterfile failed to initialize");
+        //pipelined responses go out as they finish, so don't let Nagle hold them for an ACK
+        clientChan.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        InetAddress address = ((InetSocketAddress) clientChan.getRemoteAddress()).getAddress();
+        if(!admission.admit(address)) {
             clientChan.close();
+            return;
         }
-
+        executeRead(new Connection(clientChan, admission, address));
     }
 
     /**
      * Executes after completion of a read.
      *
      * If no full frame is provided after processing the data that was read, it will read again.
-     * If a full frame is provided, it will deserialize it and pass it to the protocol handler.
-     * If the protocol handler fails, It will attempt to read for another request.
-     * @param clientChan the socket channel
-     * @param readBuf the buffer that was read into
+     * If a full frame is provided, it starts it and every other frame that is ready.
+     * @param connection the connection that was read from
      * @param bytesRead the bytes read
-     * @param nioDeframer the deframer
-     * @throws IOException -
-     *      If the socket fails to close.
-     *
      */
-    public void handleRead(final AsynchronousSocketChannel clientChan, ByteBuffer readBuf, int bytesRead, NIODeframer nioDeframer, ServerBoilerplate protocolHandler) throws IOException {
-        byte[] frame;
-        //if the client has disconnected, close the channel
+    private void handleRead(Connection connection, int bytesRead) {
+        //if the client has disconnected, finish what is in flight and then close
         if(bytesRead == -1) {
-            clientChan.close();
-        } else if (bytesRead > 0) {
-            //get what was read, then try to get a frame
-            readBuf.flip();
-            byte[] read = new byte[readBuf.remaining()];
-            readBuf.get(read);
-            frame = nioDeframer.getMessage(read);
-
-            //if not frame available, try and read again
-            if(frame == null) {
-                executeRead(clientChan, readBuf, nioDeframer, protocolHandler);
-            } else {
-                //handlePacket will eventually call the anonymous ServerBoilerplate class's sendResponse which will call
-                // a write to the client socket channel.
-                try {
-                    Message request = Message.decode(frame);
-                    protocolHandler.handlePacket(request);
-                } catch (ValidationException e) {
-                    logger.log(Level.SEVERE, "Unable to parse message: ", e);
-                    //if an exception was thrown handling the previous packet, read again to check for another packet.
-                    handleWrite(clientChan, ByteBuffer.allocateDirect(0).limit(0), readBuf, nioDeframer, protocolHandler);
-                }
+            endInput(connection);
+            return;
+        }
+
+        //get what was read, then try to get a frame
+        ByteBuffer readBuf = connection.readBuf;
+        readBuf.flip();
+        byte[] read = new byte[readBuf.remaining()];
+        readBuf.get(read);
+        readBuf.clear();
+        startFrames(connection, connection.deframer.getMessage(read));
+    }
+
+    /**
+     * Starts answering a frame and every frame after it the deframer already has, then reads again.
+     * Stops early if the connection reaches its in-flight or buffered bytes limit, and reading picks up again when
+     * it is back under them. Also stops if the server is at its in-flight limit, and the frame it was on is started
+     * once a permit is handed to the connection
+     * @param connection the connection the frames came in on
+     * @param frame the first frame, null if there isn't one
+     */
+    private void startFrames(Connection connection, byte[] frame) {
+        for(; frame != null; frame = connection.deframer.getMessage(NO_BYTES)) {
+            byte[] held = frame;
+            if(!admission.tryStartRequest(() -> Thread.ofVirtual().name("sdns-aio-admit")
+                    .start(() -> startAdmitted(connection, held)))) {
+                return;
+            }
+            if(!startRequest(connection, frame)) {
+                return;
             }
         }
+        //what is left is part of a frame, which has to fit
+        if(admission.isOverBuffered(connection.deframer.getBufferedSize())) {
+            admission.recordTrip(AdmissionControl.Limit.BUFFERED_BYTES);
+            logger.log(Level.WARNING, "Closing connection sending a frame over the buffered bytes limit");
+            connection.close();
+            return;
+        }
+        executeRead(connection);
     }
 
     /**
-     * Handles after a write. In the event of there being more frames possible to deal with, deal with them.
-     *
-     * @param clientChan the client channel to use
-     * @param buf the buffer to write from
-     * @param readBuf the buffer to read into later
-     * @param nioDeframer the deframer for the given channel
-     * @param protocolHandler the protocol handler
+     * Starts a frame that had to wait for an in-flight permit, and carries on with the frames after it
+     * @param connection the connection the frame came in on
+     * @param frame the frame
      */
-    public void handleWrite(final AsynchronousSocketChannel clientChan, ByteBuffer buf, ByteBuffer readBuf, NIODeframer nioDeframer, ServerBoilerplate protocolHandler) {
-        byte[] frame = nioDeframer.getMessage(new byte[0]); //check if there is already another frame ready to work with.
-        //if not all bytes have been written, write again.
-        if(buf.hasRemaining()) {
-            clientChan.write(buf, buf, new CompletionHandler<Integer, ByteBuffer>() {
-                @Override
-                public void completed(Integer bytesWritten, ByteBuffer buf) {
-                    handleWrite(clientChan, buf, readBuf, nioDeframer, protocolHandler);
-                }
+    private void startAdmitted(Connection connection, byte[] frame) {
+        synchronized(connection) {
+            if(connection.closed) {
+                admission.finishRequest();
+                return;
+            }
+        }
+        if(startRequest(connection, frame)) {
+            startFrames(connection, connection.deframer.getMessage(NO_BYTES));
+        }
+    }
 
-                @Override
-                public void failed(Throwable exc, ByteBuffer attachment) {
-                    try {
-                        logger.log(Level.SEVERE, "Write failed, client side has most likely terminated their connection");
-                        clientChan.close();
-                    } catch (IOException e) {
-                        logger.log(Level.WARNING, "Close failed");
-                    }
-                }
-            });
-        } else if (frame != null){ //if there is another frame ready, process the request and write a result back
+    /**
+     * Starts answering a request that has its in-flight permit
+     * @param connection the connection the request came in on
+     * @param frame the request
+     * @return true if the connection can keep reading, false if it stopped at one of its limits
+     */
+    private boolean startRequest(Connection connection, byte[] frame) {
+        synchronized(connection) {
+            connection.inFlight++;
+        }
+        CompletableFuture<RequestProcessor.Reply> reply = processor.processAsync(frame);
+        if(reply.isDone()) {
+            finishRequest(connection, reply.join());
+        } else {
+            reply.whenComplete((r, failure) -> finishRequest(connection, r));
+        }
+        synchronized(connection) {
+            if(connection.inFlight >= maxInFlight) {
+                connection.paused = true;
+            } else if(admission.isOverBuffered(connection.queuedBytes)) {
+                admission.recordTrip(AdmissionControl.Limit.BUFFERED_BYTES);
+                connection.paused = true;
+            }
+            return !connection.paused;
+        }
+    }
+
+    /**
+     * Picks reading up again if it stopped at one of the connection's limits and it is back under them
+     * @param connection the connection
+     */
+    private void resume(Connection connection) {
+        synchronized(connection) {
+            if(!connection.paused || connection.closed || connection.inFlight >= maxInFlight
+                    || admission.isOverBuffered(connection.queuedBytes)) {
+                return;
+            }
+            connection.paused = false;
+        }
+        startFrames(connection, connection.deframer.getMessage(NO_BYTES));
+    }
+
+    /**
+     * Queues the reply to a request and starts writing it, and gives back its in-flight permit. If the connection
+     * stopped reading at one of its limits, picks up reading again
+     * @param connection the connection the request came in on
+     * @param reply the reply, null if there is nothing to send
+     */
+    private void finishRequest(Connection connection, RequestProcessor.Reply reply) {
+        Object queued = null;
+        if(reply != null && reply.isTransfer()) {
+            queued = reply.getTransfer();
+        } else if(reply != null) {
             try {
-                Message request = Message.decode(frame);
-                protocolHandler.handlePacket(request); //this will resolve the request and eventually write it.
+                queued = ByteBuffer.wrap(Framer.frameMsg(reply.encode()));
             } catch (ValidationException e) {
-                //if this frame is malformed or something, log the error and then run handle write again to try and write whatever might be next in the niodeframer
-                logger.log(Level.SEVERE, "Unable to parse message: ", e);
-                handleWrite(clientChan, buf, readBuf, nioDeframer, protocolHandler);
+                logger.log(Level.SEVERE, "Unable to frame message: ", e);
+            }
+        }
+
+        synchronized(connection) {
+            connection.inFlight--;
+            if(queued != null) {
+                connection.writeQueue.add(queued);
             }
+            if(queued instanceof ByteBuffer) {
+                connection.queuedBytes += ((ByteBuffer) queued).remaining();
+            }
+        }
+        admission.finishRequest();
+        flush(connection);
+        resume(connection);
+    }
+
+    /**
+     * Stops reading from a connection. It closes once what is in flight is written
+     * @param connection the connection
+     */
+    private void endInput(Connection connection) {
+        synchronized(connection) {
+            connection.inputDone = true;
+        }
+        flush(connection);
+    }
 
+    /**
+     * Starts writing the write queue unless a write is already going. Every response at the head of the queue goes
+     * out in one gathering write, and a zone transfer at the head is written on its own. Closes the connection if
+     * it has nothing left to do
+     * @param connection the connection to write to
+     */
+    private void flush(Connection connection) {
+        ZoneTransfer transfer = null;
+        List<ByteBuffer> responses = new ArrayList<>();
+        long bytes = 0;
+        synchronized(connection) {
+            if(connection.closed || connection.writing) {
+                return;
+            }
+            if(connection.writeQueue.isEmpty()) {
+                if(!connection.finished()) {
+                    return;
+                }
+            } else {
+                connection.writing = true;
+                if(connection.writeQueue.peek() instanceof ZoneTransfer) {
+                    transfer = (ZoneTransfer) connection.writeQueue.poll();
+                } else {
+                    while(connection.writeQueue.peek() instanceof ByteBuffer) {
+                        ByteBuffer response = (ByteBuffer) connection.writeQueue.poll();
+                        bytes += response.remaining();
+                        responses.add(response);
+                    }
+                }
+            }
+        }
+
+        if(transfer != null) {
+            writeTransfer(connection, transfer);
+        } else if(!responses.isEmpty()) {
+            long written = bytes;
+            write(connection, responses, () -> writeDone(connection, written));
         } else {
-            //gets ready for another read. Instantiates a new protocol handler to use for the next read.
-            readBuf.clear();
-            executeRead(clientChan, readBuf, nioDeframer, protocolHandler);
+            connection.close();
         }
     }
 
     /**
-     * Executes a read using the given protocol handler
-     * @param clientChan the client socket channel
-     * @param readBuf the buff to read into
-     * @param nioDeframer the deframer for this channel
-     * @param protocolHandler the protocol handler
+     * Lets the next write start once one finishes. If the connection stopped reading with too many bytes waiting
+     * to be written, picks up reading again
+     * @param connection the connection that was written to
+     * @param written how many bytes of responses were written
      */
-    private void executeRead(final AsynchronousSocketChannel clientChan, ByteBuffer readBuf, NIODeframer nioDeframer, ServerBoilerplate protocolHandler) {
-        clientChan.read(readBuf, TIMEOUT, TimeUnit.SECONDS, readBuf, new CompletionHandler<Integer, ByteBuffer>() {
+    private void writeDone(Connection connection, long written) {
+        synchronized(connection) {
+            connection.writing = false;
+            connection.queuedBytes -= written;
+        }
+        flush(connection);
+        resume(connection);
+    }
+
+    /**
+     * Writes buffers to a connection with as few writes as it takes, then runs what comes next.
+     * If the write fails the connection is closed
+     * @param connection the connection to write to
+     * @param buffers what to write
+     * @param next what to do once every buffer is written
+     */
+    private void write(Connection connection, List<ByteBuffer> buffers, Runnable next) {
+        ByteBuffer[] srcs = buffers.toArray(new ByteBuffer[0]);
+        connection.channel.write(srcs, 0, srcs.length, TIMEOUT, TimeUnit.SECONDS, srcs,
+                new CompletionHandler<Long, ByteBuffer[]>() {
             @Override
-            public void completed(Integer bytesRead, ByteBuffer buf) {
-                try {
-                    handleRead(clientChan, buf, bytesRead, nioDeframer, protocolHandler);
-                } catch (IOException e) {
-                    logger.log(Level.WARNING, "Handle read failed", e);
+            public void completed(Long bytesWritten, ByteBuffer[] srcs) {
+                //if not all bytes have been written, write again.
+                if(srcs[srcs.length - 1].hasRemaining()) {
+                    connection.channel.write(srcs, 0, srcs.length, TIMEOUT, TimeUnit.SECONDS, srcs, this);
+                } else {
+                    next.run();
                 }
             }
 
             @Override
-            public void failed(Throwable exc, ByteBuffer attachment) {
-                //If failure due to timeout, log error and close connection with client.
-                if(exc instanceof InterruptedByTimeoutException) {
-                    logger.log(Level.SEVERE, "Communication Problem:", exc);
-                    try {
-                        //in case the client doesn't shutdown their write end
-                        clientChan.close();
-                    } catch (IOException e) {
-                        logger.log(Level.WARNING, "Failed to Close connection with client");
-                    }
+            public void failed(Throwable exc, ByteBuffer[] srcs) {
+                logger.log(Level.SEVERE, "Write failed, client side has most likely terminated their connection");
+                connection.close();
+            }
+        });
+    }
+
+    /**
+     * Writes the next message of a zone transfer. The message after it is only built once this write completes,
+     * so the transfer goes as fast as the client reads and only one frame is buffered at a time.
+     * When the transfer is done, goes back to the write queue like after any other write.
+     * If the transfer can't finish, the connection is closed so the client doesn't mistake what it got for the whole zone.
+     * @param connection the connection to write to
+     * @param transfer the transfer being sent
+     */
+    private void writeTransfer(Connection connection, ZoneTransfer transfer) {
+        byte[] message;
+        try {
+            message = transfer.nextMessage();
+            if(message == null) {
+                writeDone(connection, 0);
+                return;
+            }
+            message = Framer.frameMsg(message);
+        } catch (ValidationException e) {
+            logger.log(Level.SEVERE, "Zone transfer aborted: ", e);
+            transfer.close();
+            connection.close();
+            return;
+        }
+
+        ByteBuffer buf = ByteBuffer.wrap(message);
+        connection.channel.write(buf, TIMEOUT, TimeUnit.SECONDS, buf, new CompletionHandler<Integer, ByteBuffer>() {
+            @Override
+            public void completed(Integer bytesWritten, ByteBuffer buf) {
+                if(buf.hasRemaining()) {
+                    connection.channel.write(buf, TIMEOUT, TimeUnit.SECONDS, buf, this);
+                } else {
+                    writeTransfer(connection, transfer);
                 }
             }
+
+            @Override
+            public void failed(Throwable exc, ByteBuffer attachment) {
+                transfer.close();
+                logger.log(Level.WARNING, "Zone transfer write failed", exc);
+                connection.close();
+            }
         });
     }
 
     /**
-     * Gets a protocol handler anon class instance that uses the client socket channel, read buffer, and deframer provided.
-     * I needed this because in the case that I need to continue reading after handling a write, handleWrite can't take a
-     * protocolHandler anon class instance because it is always initially called within the sendResponse of the anon class being instantiated and I can't pass the instance
-     * of the class to a method being called within it. I don't know how to fix this as of now
-     * @param clientChan the channel to use
-     * @param buf the buffer to read into
-     * @param nioDeframer the deframer for this channel
-     * @return an instance of a ServerBoilerplate anon class tied to the parameters given
+     * Reads from a connection
+     * @param connection the connection to read from
      */
-    private ServerBoilerplate getProtocolHandler(final AsynchronousSocketChannel clientChan, ByteBuffer buf, NIODeframer nioDeframer) {
-        return new ServerBoilerplate() {
+    private void executeRead(Connection connection) {
+        connection.channel.read(connection.readBuf, TIMEOUT, TimeUnit.SECONDS, connection,
+                new CompletionHandler<Integer, Connection>() {
             @Override
-            protected void sendResponse(byte[] encodedResp) {
-                try {
-                    //frame the response, wrap in a buffer, write to the channel
-                    encodedResp = Framer.frameMsg(encodedResp);
-                    ByteBuffer bufAnon = ByteBuffer.wrap(encodedResp);
-                    ServerBoilerplate jank = this; //this is really hacky, but I don't know a better way. So for now, it is jank
-                    clientChan.write(bufAnon, bufAnon, new CompletionHandler<Integer, ByteBuffer>() {
-                        @Override
-                        public void completed(Integer bytesWritten, ByteBuffer bufAnon) {
-                            handleWrite(clientChan, bufAnon, buf, nioDeframer, jank);
-                        }
-
-                        @Override
-                        public void failed(Throwable exc, ByteBuffer attachment) {
-                            try {
-                                logger.log(Level.WARNING,"Write failed", exc);
-                                clientChan.close();
-                            } catch (IOException e) {
-                                logger.log(Level.WARNING, "Failed to close socket");
-                            }
-                        }
-                    });
-                } catch (ValidationException e) {
-                    logger.log(Level.SEVERE, "Unable to parse message:", e);
+            public void completed(Integer bytesRead, Connection connection) {
+                handleRead(connection, bytesRead);
+            }
+
+            @Override
+            public void failed(Throwable exc, Connection connection) {
+                //If failure due to timeout, log error and stop reading. What is in flight still gets written
+                if(exc instanceof InterruptedByTimeoutException) {
+                    logger.log(Level.SEVERE, "Communication Problem:", exc);
+                    endInput(connection);
+                    return;
                 }
+                //in case the client doesn't shutdown their write end
+                connection.close();
             }
-        };
+        });
     }
 }
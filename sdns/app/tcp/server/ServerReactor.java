@@ -0,0 +1,907 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 7
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.app.tcp.server;
+
+import sdns.app.AcceptMetrics;
+import sdns.app.AdmissionControl;
+import sdns.app.RequestProcessor;
+import sdns.app.ServerBoilerplate;
+import sdns.app.ServerLogger;
+import sdns.app.ZoneTransfer;
+import sdns.app.masterfile.AsyncMasterFile;
+import sdns.app.masterfile.MasterFile;
+import sdns.app.masterfile.MasterFileFactory;
+import sdns.app.masterfile.MasterFileLayer;
+import sdns.serialization.Framer;
+import sdns.serialization.NIODeframer;
+import sdns.serialization.ValidationException;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The reactor TCP server.
+ *
+ * Runs one selector loop per core over non-blocking SocketChannels. Each loop has its own listen channel on the
+ * port, bound with SO_REUSEPORT, so the kernel spreads new connections across the loops' backlogs and a loop serves
+ * what it accepts itself. Without SO_REUSEPORT there is one listen channel, the first loop accepts on it and hands
+ * new connections to the loops in turn. What each listen channel accepted is in its AcceptMetrics, and is logged
+ * every minute. Everything about a connection happens on its loop's thread, so connections
+ * need no locks. Reads are level-triggered: a readable connection gets one read into a pooled buffer, the bytes are
+ * handed to its deframer, and the buffer goes straight back, so an idle connection holds no buffer.
+ *
+ * Requests are pipelined the same way as ServerAIO, with at most maxInFlight per connection. Responses waiting to
+ * be written count too, so a client that doesn't read its answers stops being read. Connections and requests are
+ * held to the server's AdmissionControl the same way as ServerAIO: a frame that can't get an in-flight permit is
+ * held and the connection isn't read until its loop is handed one. A masterfile that isn't
+ * an AsyncMasterFile is searched on a bounded pool of resolver threads so the loops never block on it, and requests
+ * that wait in the pool's queue longer than its LoadShedder allows, or don't fit in it, get a fast failure instead of
+ * a search. An AsyncMasterFile is asked directly, and an answer it has straight away is written inline without
+ * leaving the loop. Either way, a masterfile that is a LocalSearch answers what it has on hand inline too, so only
+ * misses leave the loop, and the stats show how long each path takes.
+ * Answers that finish on other threads are passed back to the connection's loop to be written.
+ *
+ * Responses are encoded into pooled buffers and every one that is ready goes out in one gathering write. A write
+ * the socket can't take all of waits for OP_WRITE. Idle connections are closed by a timer wheel per loop instead of
+ * a timeout on every read: each connection has one timeout, which is only moved when it comes due.
+ *
+ * @version 1.0
+ */
+public class ServerReactor {
+    private static final Logger logger = ServerLogger.getLogger();
+    //how long a connection can go without reading or writing anything, in ms
+    private static final long IDLE_TIMEOUT = 20000;
+    //how long a tick of the timer wheel is, in ms. It is also the longest a loop sleeps
+    private static final long TICK = 100;
+    private static final int WHEEL_SLOTS = 512;
+    //size of the pooled read and response buffers. Bigger responses get their own buffer
+    private static final int BUFSIZE = 4096;
+    //how many free buffers a loop keeps
+    private static final int POOL_MAX = 256;
+    //most responses in one gathering write
+    private static final int GATHER_MAX = 64;
+    private static final int DEFAULT_IN_FLIGHT = 32;
+    private static final int BACKLOG = 20000;
+    //how often the accept counts are logged, in ms
+    private static final long STATS_INTERVAL = 60000;
+    //how many searches can wait for a resolver thread before more are shed
+    private static final int RESOLVER_QUEUE = 10000;
+    private static final byte[] NO_BYTES = new byte[0];
+    private final List<Loop> loops = new ArrayList<>();
+    private final List<ServerSocketChannel> listenChannels = new ArrayList<>();
+    private final List<AcceptMetrics> acceptMetrics = new ArrayList<>();
+    private ExecutorService resolvers;
+    private RequestProcessor processor;
+    private int maxInFlight = DEFAULT_IN_FLIGHT;
+    private int backlog = BACKLOG;
+    private AdmissionControl admission = AdmissionControl.fromProperties();
+    private volatile boolean closed = false;
+
+    public static void main(String[] args) {
+        ServerReactor server = new ServerReactor();
+        server.init(args);
+    }
+
+    /**
+     * Initializes the server and runs it until every loop stops.
+     * @param args the input parameters. The number of loops defaults to the number of cores, and the number of
+     *      resolver threads to four per core
+     */
+    public void init(String[] args) {
+        try {
+            if(args.length < 1 || args.length > 4) {
+                logger.log(Level.SEVERE, "Unable to start: bad param");
+                throw new IllegalArgumentException(
+                        "Parameter: <portNumber> [<selectorLoops> [<resolverThreads> [<backlog>]]]");
+            }
+
+            //Get the port and the thread counts. Handle if bad
+            int listeningPort = Integer.parseInt(args[0]);
+            ServerBoilerplate.checkPort(listeningPort);
+            int cores = Runtime.getRuntime().availableProcessors();
+            int loopCount = args.length >= 2 ? Integer.parseInt(args[1]) : cores;
+            int resolverCount = args.length >= 3 ? Integer.parseInt(args[2]) : 4 * cores;
+            if(args.length == 4) {
+                setBacklog(Integer.parseInt(args[3]));
+            }
+
+            start(listeningPort, loopCount, resolverCount, MasterFileFactory.makeMasterFile());
+            join();
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Unable to start: " + e.getMessage());
+            close();
+        }
+        logger.info("Server shutting down");
+    }
+
+    /**
+     * Sets how many requests a connection can have in flight. Must be called before start()
+     *
+     * @param maxInFlight the most requests a connection can have in flight
+     * @return this
+     * @throws IllegalArgumentException
+     *      If maxInFlight is less than 1
+     * @throws IllegalStateException
+     *      If the server has already started
+     */
+    public ServerReactor setMaxInFlight(int maxInFlight) {
+        if(maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1");
+        }
+        if(!listenChannels.isEmpty()) {
+            throw new IllegalStateException("Server already started");
+        }
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
+    /**
+     * Sets the backlog of each listen channel. Must be called before start()
+     *
+     * @param backlog how many connections can wait to be accepted on each listen channel
+     * @return this
+     * @throws IllegalArgumentException
+     *      If backlog is less than 1
+     * @throws IllegalStateException
+     *      If the server has already started
+     */
+    public ServerReactor setBacklog(int backlog) {
+        if(backlog < 1) {
+            throw new IllegalArgumentException("backlog must be at least 1");
+        }
+        if(!listenChannels.isEmpty()) {
+            throw new IllegalStateException("Server already started");
+        }
+        this.backlog = backlog;
+        return this;
+    }
+
+    /**
+     * Sets the limits connections and requests are held to. Must be called before start()
+     *
+     * @param admission the limits
+     * @return this
+     * @throws NullPointerException
+     *      If admission is null
+     * @throws IllegalStateException
+     *      If the server has already started
+     */
+    public ServerReactor setAdmissionControl(AdmissionControl admission) {
+        Objects.requireNonNull(admission, "Admission control cannot be null");
+        if(!listenChannels.isEmpty()) {
+            throw new IllegalStateException("Server already started");
+        }
+        this.admission = admission;
+        return this;
+    }
+
+    /**
+     * Gets the limits connections and requests are held to, and how often each has been hit
+     * @return the admission control
+     */
+    public AdmissionControl getAdmissionControl() {
+        return this.admission;
+    }
+
+    /**
+     * Opens the listen channels and starts the loops
+     *
+     * @param port the port to listen on. 0 picks a free one, see getLocalPort()
+     * @param loopCount how many selector loops to run
+     * @param resolverCount how many threads search a masterfile that isn't an AsyncMasterFile
+     * @param masterFile the masterfile every connection searches
+     * @throws IOException
+     *      If a listen channel or a selector can't be opened
+     */
+    public void start(int port, int loopCount, int resolverCount, MasterFile masterFile) throws IOException {
+        if(loopCount < 1 || resolverCount < 1) {
+            throw new IllegalArgumentException("There must be at least one loop and one resolver");
+        }
+        if(masterFile instanceof AsyncMasterFile) {
+            processor = new RequestProcessor(masterFile, true);
+        } else {
+            resolvers = RequestProcessor.newResolverPool(resolverCount, RESOLVER_QUEUE);
+            processor = new RequestProcessor(masterFile, resolvers, true);
+        }
+
+        for(int i = 0; i < loopCount; i++) {
+            loops.add(new Loop(i));
+        }
+        ServerSocketChannel first = ServerSocketChannel.open();
+        boolean reusePort = loopCount > 1 && first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        if(reusePort) {
+            first.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        } else if(loopCount > 1) {
+            logger.log(Level.WARNING, "SO_REUSEPORT is not supported, the first loop will accept for all of them");
+        }
+        listen(first, port, loops.get(0));
+        //the rest of the channels have to bind to the port the first one got
+        for(int i = 1; reusePort && i < loopCount; i++) {
+            ServerSocketChannel listenChannel = ServerSocketChannel.open();
+            listenChannel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            listen(listenChannel, getLocalPort(), loops.get(i));
+        }
+        for(Loop loop : loops) {
+            loop.thread.start();
+        }
+        Thread.ofVirtual().name("sdns-reactor-stats").start(this::logAccepts);
+        logger.log(Level.INFO, "Running on: " + first.getLocalAddress() + " with " + loopCount
+                + " selector loops, " + listenChannels.size() + " accepting"
+                + (resolvers == null ? "" : " and " + resolverCount + " resolver threads"));
+    }
+
+    /**
+     * Binds a listen channel and has a loop accept on it
+     * @param listenChannel the channel
+     * @param port the port to bind to
+     * @param loop the loop that accepts on it
+     * @throws IOException
+     *      If the channel can't be bound
+     */
+    private void listen(ServerSocketChannel listenChannel, int port, Loop loop) throws IOException {
+        listenChannels.add(listenChannel);
+        listenChannel.bind(new InetSocketAddress(port), backlog);
+        listenChannel.configureBlocking(false);
+        AcceptMetrics metrics = new AcceptMetrics("loop-" + loop.index, backlog);
+        acceptMetrics.add(metrics);
+        listenChannel.register(loop.selector, SelectionKey.OP_ACCEPT, metrics);
+    }
+
+    /**
+     * Gets the port the server is bound to
+     * @return the port, or -1 if it isn't started
+     */
+    public int getLocalPort() {
+        try {
+            return listenChannels.isEmpty() ? -1
+                    : ((InetSocketAddress) listenChannels.get(0).getLocalAddress()).getPort();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Gets what each listen channel has accepted
+     * @return the metrics, one per listen channel
+     */
+    public List<AcceptMetrics> getAcceptMetrics() {
+        return Collections.unmodifiableList(acceptMetrics);
+    }
+
+    /**
+     * Waits for every loop to stop
+     * @throws InterruptedException
+     *      If interrupted while waiting
+     */
+    public void join() throws InterruptedException {
+        for(Loop loop : loops) {
+            loop.thread.join();
+        }
+    }
+
+    /**
+     * Stops accepting and closes every connection
+     */
+    public void close() {
+        if(closed) {
+            return;
+        }
+        closed = true;
+        for(ServerSocketChannel listenChannel : listenChannels) {
+            try {
+                listenChannel.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Problem closing server socket: " + e.getMessage());
+            }
+        }
+        for(Loop loop : loops) {
+            loop.selector.wakeup();
+        }
+        if(resolvers != null) {
+            resolvers.shutdown();
+        }
+        if(!acceptMetrics.isEmpty()) {
+            logger.log(Level.INFO, AcceptMetrics.describe(acceptMetrics));
+            logger.log(Level.INFO, admission.toString());
+            logProcessor();
+        }
+    }
+
+    /**
+     * Logs how long the fast and slow paths are taking, what each layer of the masterfile has been doing, and what
+     * the resolver pool's shedder has shed if there is a resolver pool
+     */
+    private void logProcessor() {
+        if(processor == null) {
+            return;
+        }
+        logger.log(Level.INFO, "Fast path: " + processor.getFastPathTimes() + ", slow path: "
+                + processor.getSlowPathTimes() + ", expired: " + processor.getExpired());
+        for(MasterFileLayer layer : MasterFileLayer.layers(processor.getMasterFile())) {
+            logger.log(Level.INFO, layer.toString());
+        }
+        if(processor.getLoadShedder() != null) {
+            logger.log(Level.INFO, processor.getLoadShedder().toString());
+        }
+    }
+
+    /**
+     * Logs the accept counts and rates every STATS_INTERVAL until the server closes
+     */
+    private void logAccepts() {
+        try {
+            while(!closed) {
+                Thread.sleep(STATS_INTERVAL);
+                if(!closed) {
+                    logger.log(Level.INFO, AcceptMetrics.describe(acceptMetrics));
+                    logger.log(Level.INFO, admission.toString());
+                    logProcessor();
+                }
+            }
+        } catch (InterruptedException e) {
+            //stop logging
+        }
+    }
+
+    /**
+     * One selector loop and the connections it owns
+     */
+    private final class Loop implements Runnable {
+        private final int index;
+        private final Selector selector;
+        private final Thread thread;
+        //work handed to this loop by other threads
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final BufferPool buffers = new BufferPool(BUFSIZE, POOL_MAX);
+        private final ByteBuffer[] gather = new ByteBuffer[GATHER_MAX];
+        private final TimerWheel wheel;
+        //the time as of the last wake up, in ms
+        private long now;
+        //which loop the next accepted connection goes to, when this loop accepts for all of them
+        private int nextLoop = 0;
+
+        /**
+         * Makes a loop
+         * @param index which loop this is
+         * @throws IOException
+         *      If the selector can't be opened
+         */
+        Loop(int index) throws IOException {
+            this.index = index;
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "sdns-tcp-reactor-" + index);
+            this.now = millis();
+            this.wheel = new TimerWheel(TICK, WHEEL_SLOTS, now);
+        }
+
+        /**
+         * Runs a task on this loop's thread
+         * @param task the task
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        /**
+         * Waits for ready channels and handles them until the server closes
+         */
+        @Override
+        public void run() {
+            try {
+                while(!closed) {
+                    selector.select(TICK);
+                    now = millis();
+                    for(SelectionKey key : selector.selectedKeys()) {
+                        handle(key);
+                    }
+                    selector.selectedKeys().clear();
+                    Runnable task;
+                    while((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    wheel.advance(now);
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                if(!closed) {
+                    logger.log(Level.SEVERE, "Selector loop stopped: " + e.getMessage());
+                }
+            } finally {
+                for(SelectionKey key : selector.keys()) {
+                    if(key.attachment() instanceof Connection) {
+                        ((Connection) key.attachment()).close();
+                    }
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Problem closing selector: " + e.getMessage());
+                }
+            }
+        }
+
+        /**
+         * Handles a ready key
+         * @param key the key
+         */
+        private void handle(SelectionKey key) {
+            if(!key.isValid()) {
+                return;
+            }
+            if(key.isAcceptable()) {
+                accept((ServerSocketChannel) key.channel(), (AcceptMetrics) key.attachment());
+                return;
+            }
+            Connection connection = (Connection) key.attachment();
+            try {
+                if(key.isWritable()) {
+                    connection.flush();
+                    connection.resume();
+                }
+                if(key.isValid() && key.isReadable()) {
+                    connection.read();
+                }
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Communication Problem: " + e.getMessage());
+                connection.close();
+            }
+        }
+
+        /**
+         * Accepts every waiting connection. If every loop has its own listen channel they are served here, otherwise
+         * each one is handed to the next loop in turn
+         * @param listenChannel the listen channel that is ready
+         * @param metrics its accept counts
+         */
+        private void accept(ServerSocketChannel listenChannel, AcceptMetrics metrics) {
+            try {
+                SocketChannel channel;
+                while((channel = listenChannel.accept()) != null) {
+                    metrics.recordAccept();
+                    InetAddress address = ((InetSocketAddress) channel.getRemoteAddress()).getAddress();
+                    if(!admission.admit(address)) {
+                        channel.close();
+                        continue;
+                    }
+                    channel.configureBlocking(false);
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    Loop loop = listenChannels.size() == loops.size() ? this : loops.get(nextLoop++ % loops.size());
+                    SocketChannel accepted = channel;
+                    if(loop == this) {
+                        loop.register(accepted, address);
+                    } else {
+                        loop.execute(() -> loop.register(accepted, address));
+                    }
+                }
+            } catch (IOException e) {
+                if(!closed) {
+                    metrics.recordFailure();
+                    logger.log(Level.SEVERE, "Accept failed: " + e.getMessage());
+                }
+            }
+        }
+
+        /**
+         * Starts serving a connection on this loop
+         * @param channel the connection
+         * @param address the address it came from
+         */
+        private void register(SocketChannel channel, InetAddress address) {
+            try {
+                Connection connection = new Connection(this, channel, address);
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Unable to register connection: " + e.getMessage());
+                admission.release(address);
+                try {
+                    channel.close();
+                } catch (IOException closeFailed) {
+                    logger.log(Level.WARNING, "Failed to close connection with client");
+                }
+            }
+        }
+    }
+
+    /**
+     * The state of one client connection. Only ever used on its loop's thread
+     */
+    private final class Connection {
+        private final Loop loop;
+        private final SocketChannel channel;
+        private final InetAddress address;
+        private final NIODeframer deframer = new NIODeframer();
+        //framed responses as ByteBuffers, and zone transfers, in the order they are written
+        private final Deque<Object> writeQueue = new ArrayDeque<>();
+        private SelectionKey key;
+        //the transfer being written and its current message
+        private ZoneTransfer transfer;
+        private ByteBuffer transferMessage;
+        private int inFlight = 0;
+        //bytes of responses queued and not written yet
+        private long queuedBytes = 0;
+        //set when reading stopped at the in-flight or buffered bytes limit
+        private boolean paused = false;
+        //set while a frame waits for the server to have room for another request
+        private boolean admitting = false;
+        //set when there is nothing more to read. The connection closes once everything is written
+        private boolean inputDone = false;
+        private boolean waitingToWrite = false;
+        private boolean closed = false;
+        private long lastActive;
+
+        /**
+         * Makes the state for a connection that was let in and starts its idle timeout
+         * @param loop the loop that owns it
+         * @param channel the client channel
+         * @param address the address it came from. It is released from the admission control when it closes
+         */
+        Connection(Loop loop, SocketChannel channel, InetAddress address) {
+            this.loop = loop;
+            this.channel = channel;
+            this.address = address;
+            this.lastActive = loop.now;
+            loop.wheel.schedule(this::checkIdle, IDLE_TIMEOUT, loop.now);
+        }
+
+        /**
+         * Reads what is waiting and starts every complete frame
+         * @throws IOException
+         *      If the read fails
+         */
+        void read() throws IOException {
+            ByteBuffer readBuf = loop.buffers.acquire();
+            byte[] frame;
+            try {
+                int bytesRead = channel.read(readBuf);
+                //if the client has disconnected, finish what is in flight and then close
+                if(bytesRead == -1) {
+                    inputDone = true;
+                    updateInterest();
+                    closeIfFinished();
+                    return;
+                }
+                lastActive = loop.now;
+                frame = deframer.getMessage(readBuf.flip());
+            } finally {
+                loop.buffers.release(readBuf);
+            }
+            startFrames(frame);
+        }
+
+        /**
+         * Starts answering a frame and every frame after it the deframer already has. Stops reading if the
+         * connection reaches one of its limits, or holds the frame it is on and stops reading if the server is at
+         * its in-flight limit
+         * @param frame the first frame, null if there isn't one
+         */
+        private void startFrames(byte[] frame) {
+            for(; frame != null && !closed; frame = deframer.getMessage(NO_BYTES)) {
+                byte[] held = frame;
+                if(!admission.tryStartRequest(() -> loop.execute(() -> startAdmitted(held)))) {
+                    admitting = true;
+                    break;
+                }
+                startRequest(frame);
+                if(atLimit()) {
+                    paused = true;
+                    if(admission.isOverBuffered(queuedBytes)) {
+                        admission.recordTrip(AdmissionControl.Limit.BUFFERED_BYTES);
+                    }
+                    break;
+                }
+            }
+            //unless it stopped early, what is left is part of a frame, which has to fit
+            if(!paused && !admitting && !closed && admission.isOverBuffered(deframer.getBufferedSize())) {
+                admission.recordTrip(AdmissionControl.Limit.BUFFERED_BYTES);
+                logger.log(Level.WARNING, "Closing connection sending a frame over the buffered bytes limit");
+                close();
+                return;
+            }
+            updateInterest();
+        }
+
+        /**
+         * Starts a frame that had to wait for an in-flight permit, and carries on with the frames after it
+         * @param frame the frame
+         */
+        private void startAdmitted(byte[] frame) {
+            if(closed) {
+                admission.finishRequest();
+                return;
+            }
+            admitting = false;
+            startRequest(frame);
+            if(atLimit()) {
+                paused = true;
+                updateInterest();
+                return;
+            }
+            startFrames(deframer.getMessage(NO_BYTES));
+        }
+
+        /**
+         * Starts answering a request that has its in-flight permit
+         * @param frame the request
+         */
+        private void startRequest(byte[] frame) {
+            inFlight++;
+            CompletableFuture<RequestProcessor.Reply> reply = processor.processAsync(frame);
+            if(reply.isDone()) {
+                finishRequest(reply.join());
+            } else {
+                reply.whenComplete((r, failure) -> loop.execute(() -> finishRequest(r)));
+            }
+        }
+
+        /**
+         * Queues the reply to a request, writes what it can, and gives back its in-flight permit. If reading
+         * stopped at one of the connection's limits, picks reading up again
+         * @param reply the reply, null if there is nothing to send
+         */
+        private void finishRequest(RequestProcessor.Reply reply) {
+            inFlight--;
+            admission.finishRequest();
+            if(closed) {
+                if(reply != null && reply.isTransfer()) {
+                    reply.getTransfer().close();
+                }
+                return;
+            }
+            if(reply != null && reply.isTransfer()) {
+                writeQueue.add(reply.getTransfer());
+            } else if(reply != null) {
+                ByteBuffer response = encodeResponse(reply);
+                queuedBytes += response.remaining();
+                writeQueue.add(response);
+            }
+
+            try {
+                flush();
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Write failed, client side has most likely terminated their connection");
+                close();
+                return;
+            }
+            resume();
+        }
+
+        /**
+         * Checks if the connection has as many requests as it can take
+         * @return true if the requests in flight and the responses waiting to be written add up to the limit, or
+         *      the responses are over the buffered bytes limit
+         */
+        private boolean atLimit() {
+            return inFlight + writeQueue.size() >= maxInFlight || admission.isOverBuffered(queuedBytes);
+        }
+
+        /**
+         * Picks reading up again if it stopped at one of the connection's limits and it is back under them
+         */
+        void resume() {
+            if(paused && !closed && !atLimit()) {
+                paused = false;
+                startFrames(deframer.getMessage(NO_BYTES));
+            }
+        }
+
+        /**
+         * Encodes and frames a response into a pooled buffer, or its own buffer if it doesn't fit
+         * @param reply the reply
+         * @return the framed response, ready to write
+         */
+        private ByteBuffer encodeResponse(RequestProcessor.Reply reply) {
+            ByteBuffer out = loop.buffers.acquire();
+            try {
+                out.position(2);
+                reply.encodeInto(out);
+                out.putShort(0, (short) (out.position() - 2));
+                return out.flip();
+            } catch (BufferOverflowException e) {
+                loop.buffers.release(out);
+            }
+            try {
+                return ByteBuffer.wrap(Framer.frameMsg(reply.encode()));
+            } catch (ValidationException e) {
+                logger.log(Level.SEVERE, "Unable to frame message: ", e);
+                return ByteBuffer.allocate(0);
+            }
+        }
+
+        /**
+         * Writes as much of the write queue as the socket takes. Every response at the head of the queue goes out
+         * in one gathering write, and a zone transfer is written one message at a time, each one built once the
+         * last is written. Whatever the socket doesn't take waits for OP_WRITE
+         * @throws IOException
+         *      If a write fails
+         */
+        void flush() throws IOException {
+            while(!closed) {
+                if(transfer != null) {
+                    if(transferMessage == null || !transferMessage.hasRemaining()) {
+                        transferMessage = nextTransferMessage();
+                        if(transferMessage == null) {
+                            continue;
+                        }
+                    }
+                    if(channel.write(transferMessage) > 0) {
+                        lastActive = loop.now;
+                    }
+                    if(transferMessage.hasRemaining()) {
+                        setWaitingToWrite(true);
+                        return;
+                    }
+                    continue;
+                }
+
+                Object head = writeQueue.peek();
+                if(head == null) {
+                    setWaitingToWrite(false);
+                    closeIfFinished();
+                    return;
+                }
+                if(head instanceof ZoneTransfer) {
+                    transfer = (ZoneTransfer) writeQueue.poll();
+                    continue;
+                }
+
+                //gather every response before the next transfer
+                ByteBuffer[] srcs = loop.gather;
+                int count = 0;
+                for(Object queued : writeQueue) {
+                    if(count == srcs.length || !(queued instanceof ByteBuffer)) {
+                        break;
+                    }
+                    srcs[count++] = (ByteBuffer) queued;
+                }
+                long written = channel.write(srcs, 0, count);
+                Arrays.fill(srcs, 0, count, null);
+                if(written > 0) {
+                    lastActive = loop.now;
+                    queuedBytes -= written;
+                }
+                while(writeQueue.peek() instanceof ByteBuffer && !((ByteBuffer) writeQueue.peek()).hasRemaining()) {
+                    loop.buffers.release((ByteBuffer) writeQueue.poll());
+                }
+                if(writeQueue.peek() instanceof ByteBuffer) {
+                    setWaitingToWrite(true);
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Builds the next message of the transfer being written
+         * @return the framed message, or null if the transfer is done
+         * @throws IOException
+         *      If the transfer can't finish. The connection is closed so the client doesn't mistake what it got for
+         *      the whole zone
+         */
+        private ByteBuffer nextTransferMessage() throws IOException {
+            try {
+                byte[] message = transfer.nextMessage();
+                if(message == null) {
+                    transfer.close();
+                    transfer = null;
+                    return null;
+                }
+                return ByteBuffer.wrap(Framer.frameMsg(message));
+            } catch (ValidationException e) {
+                throw new IOException("Zone transfer aborted: " + e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Turns OP_WRITE on or off
+         * @param waiting true if there is more to write than the socket took
+         */
+        private void setWaitingToWrite(boolean waiting) {
+            if(waitingToWrite != waiting) {
+                waitingToWrite = waiting;
+                updateInterest();
+            }
+        }
+
+        /**
+         * Sets which operations the selector watches for, from whether the connection is reading and writing
+         */
+        private void updateInterest() {
+            if(closed || !key.isValid()) {
+                return;
+            }
+            int ops = (paused || admitting || inputDone ? 0 : SelectionKey.OP_READ) | (waitingToWrite ? SelectionKey.OP_WRITE : 0);
+            if(key.interestOps() != ops) {
+                key.interestOps(ops);
+            }
+        }
+
+        /**
+         * Closes the connection if the input is done and every response is written
+         */
+        private void closeIfFinished() {
+            if(inputDone && inFlight == 0 && transfer == null && writeQueue.isEmpty()) {
+                close();
+            }
+        }
+
+        /**
+         * Runs when the idle timeout comes due. If the connection has done something since the timeout was set, it
+         * is set again for the rest of the time. A connection only waiting on the masterfile isn't idle
+         */
+        private void checkIdle() {
+            if(closed) {
+                return;
+            }
+            long idleFor = loop.now - lastActive;
+            if(idleFor < IDLE_TIMEOUT || admitting
+                    || (inFlight > 0 && writeQueue.isEmpty() && transfer == null)) {
+                loop.wheel.schedule(this::checkIdle, Math.max(IDLE_TIMEOUT - idleFor, TICK), loop.now);
+                return;
+            }
+            logger.log(Level.SEVERE, "Communication Problem: connection idle for " + idleFor + "ms, closing");
+            close();
+        }
+
+        /**
+         * Closes the connection and gives back its buffers. Any transfers still queued are dropped
+         */
+        void close() {
+            if(closed) {
+                return;
+            }
+            closed = true;
+            admission.release(address);
+            if(transfer != null) {
+                transfer.close();
+            }
+            for(Object queued : writeQueue) {
+                if(queued instanceof ZoneTransfer) {
+                    ((ZoneTransfer) queued).close();
+                } else {
+                    loop.buffers.release((ByteBuffer) queued);
+                }
+            }
+            writeQueue.clear();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to close connection with client");
+            }
+        }
+    }
+
+    /**
+     * Gets a clock for the timer wheels that never goes backwards
+     * @return the time in ms
+     */
+    private static long millis() {
+        return System.nanoTime() / 1000000;
+    }
+}
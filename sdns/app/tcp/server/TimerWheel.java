@@ -0,0 +1,125 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 7
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.app.tcp.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hashed timer wheel for the idle timeouts of one selector loop.
+ *
+ * Time is cut into ticks, and a timeout goes in the slot for the tick it is due on. Scheduling and cancelling are
+ * constant time, and advancing only looks at the slots for the ticks that went by, so it stays cheap with tens of
+ * thousands of connections. Timeouts fire up to one tick late. A timeout due more than one turn of the wheel away
+ * sits in its slot until its turn comes around.
+ *
+ * Not thread safe. It belongs to the loop that advances it.
+ *
+ * @version 1.0
+ */
+public final class TimerWheel {
+    private final long tickMillis;
+    private final int mask;
+    private final List<Timeout>[] slots;
+    //the last tick that has been run
+    private long currentTick;
+
+    /**
+     * A scheduled task
+     */
+    public static final class Timeout {
+        private final Runnable task;
+        private final long tick;
+        private boolean cancelled = false;
+
+        /**
+         * Makes a timeout
+         * @param task what to run
+         * @param tick the tick it is due on
+         */
+        private Timeout(Runnable task, long tick) {
+            this.task = task;
+            this.tick = tick;
+        }
+
+        /**
+         * Stops the task from running. It is dropped from its slot the next time the slot comes around
+         */
+        public void cancel() {
+            this.cancelled = true;
+        }
+    }
+
+    /**
+     * Makes a wheel
+     * @param tickMillis how long a tick is, in ms
+     * @param slotCount how many slots the wheel has. Rounded up to a power of 2
+     * @param nowMillis the time right now, in ms
+     * @throws IllegalArgumentException
+     *      If tickMillis or slotCount is less than 1
+     */
+    public TimerWheel(long tickMillis, int slotCount, long nowMillis) {
+        if(tickMillis < 1 || slotCount < 1) {
+            throw new IllegalArgumentException("The tick and slot count must be at least 1");
+        }
+        int size = slotCount == 1 ? 1 : Integer.highestOneBit(slotCount - 1) << 1;
+        this.tickMillis = tickMillis;
+        this.mask = size - 1;
+        //generic arrays can't be made directly, and every slot is filled with a List<Timeout> right below
+        @SuppressWarnings("unchecked")
+        List<Timeout>[] made = (List<Timeout>[]) new List<?>[size];
+        for(int i = 0; i < size; i++) {
+            made[i] = new ArrayList<>();
+        }
+        this.slots = made;
+        this.currentTick = nowMillis / tickMillis;
+    }
+
+    /**
+     * Schedules a task
+     * @param task what to run
+     * @param delayMillis how long from now to run it, in ms
+     * @param nowMillis the time right now, in ms
+     * @return the timeout, which can be cancelled
+     */
+    public Timeout schedule(Runnable task, long delayMillis, long nowMillis) {
+        long tick = Math.max((nowMillis + delayMillis + tickMillis - 1) / tickMillis, currentTick + 1);
+        Timeout timeout = new Timeout(task, tick);
+        slots[(int) (tick & mask)].add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Runs every task that is due. A task can schedule more timeouts
+     * @param nowMillis the time right now, in ms
+     */
+    public void advance(long nowMillis) {
+        long target = nowMillis / tickMillis;
+        //after a long stall every slot is due, but each only needs looking at once
+        long last = Math.min(target, currentTick + slots.length);
+        while(currentTick < last) {
+            currentTick++;
+            int slot = (int) (currentTick & mask);
+            List<Timeout> due = slots[slot];
+            //tasks that schedule again can land in this same slot
+            slots[slot] = new ArrayList<>();
+            for(Timeout timeout : due) {
+                if(timeout.cancelled) {
+                    continue;
+                }
+                if(timeout.tick <= target) {
+                    timeout.task.run();
+                } else {
+                    slots[slot].add(timeout);
+                }
+            }
+        }
+        currentTick = Math.max(currentTick, target);
+    }
+}
@@ -1,39 +1,82 @@
 package sdns.app.tcp.server;
 
-import sdns.app.ServerBoilerplate;
+import sdns.app.AdmissionControl;
+import sdns.app.RequestProcessor;
 import sdns.app.ServerLogger;
-import sdns.app.masterfile.MasterFileFactory;
+import sdns.app.ZoneTransfer;
 import sdns.serialization.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * Does almost all of the work for the server so it extends the boilerplate
+ * Serves one client connection. Reads frames, hands them to a RequestProcessor, and writes back the replies.
+ *
+ * Requests are pipelined: the next frame is read as soon as the last one is handed off, and each response is
+ * written when it is ready, so a slow lookup doesn't hold up the answers behind it. At most MAX_IN_FLIGHT requests
+ * are being answered at once, past that the next frame isn't read until one finishes. Responses that are ready at
+ * the same time go out in one write.
+ *
+ * Every request also takes a permit from the server's AdmissionControl, so a thread waits for one before reading
+ * the next frame when the whole server is at its in-flight limit. The next frame isn't read either while more than
+ * the limit's buffered bytes of responses are waiting to be written to a client that isn't reading them.
  */
-public class requestHandlingTask extends ServerBoilerplate implements Runnable {
+public class requestHandlingTask implements Runnable {
     private static final Logger logger = ServerLogger.getLogger();
     private static final int TIMEOUT = 20000;
+    //how many requests can be in flight at once
+    private static final int MAX_IN_FLIGHT = 32;
     private Socket client;
     private OutputStream toClient;
     private InputStream fromClient;
+    private RequestProcessor processor;
+    private final AdmissionControl admission;
+    private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+    //framed responses as byte arrays, and zone transfers, in the order they are written
+    private final Deque<Object> writeQueue = new ArrayDeque<>();
+    //guarded by writeQueue. Only one thread writes at a time
+    private boolean writing = false;
+    //guarded by writeQueue. Bytes of responses queued or being written
+    private int queuedBytes = 0;
 
     /**
      * Constructor for this runnable task
      *
      * @param client the socket to communicate with
+     * @param processor the processor to answer requests with. It can be shared with other tasks
      */
-    public requestHandlingTask(Socket client) {
+    public requestHandlingTask(Socket client, RequestProcessor processor) {
+        this(client, processor, AdmissionControl.fromProperties());
+    }
+
+    /**
+     * Constructor for this runnable task
+     *
+     * @param client the socket to communicate with
+     * @param processor the processor to answer requests with. It can be shared with other tasks
+     * @param admission the limits of the server the connection came in on
+     */
+    public requestHandlingTask(Socket client, RequestProcessor processor, AdmissionControl admission) {
+        this.admission = admission;
         try {
-            setMasterFile(MasterFileFactory.makeMasterFile());
+            this.processor = processor;
             this.client = client;
             client.setSoTimeout(TIMEOUT);
+            //pipelined responses go out as they finish, so don't let Nagle hold them for an ACK
+            client.setTcpNoDelay(true);
             toClient = client.getOutputStream();
             fromClient = client.getInputStream();
         } catch (Exception e) {
@@ -42,62 +85,211 @@ public class requestHandlingTask extends ServerBoilerplate implements Runnable {
     }
 
     /**
-     * Runs the task. Handles the request.
+     * Runs the task. Handles the requests.
      */
     @Override
     public void run() {
         //Keep reading requests from the client until client closes or timeout occurs.
-        while(true) {
-            try {
+        try {
+            if(readRequests()) {
+                awaitWrites();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        close();
+    }
+
+    /**
+     * Reads requests and starts answering them until there are no more
+     * @return true if the client finished or went idle and what is in flight should still be written, false if the
+     *      connection broke
+     * @throws InterruptedException
+     *      If interrupted while waiting for a request to finish
+     */
+    private boolean readRequests() throws InterruptedException {
+        try {
+            while(true) {
+                awaitRoom();
                 //de-frame the TCP message
                 byte[] receivedData = Framer.nextMsg(fromClient);
 
-                //if the client has terminated, log it, close the socket, break the loop, and finish the task.
+                //if the client has terminated, log it and finish what is in flight
                 if (receivedData == null) {
                     logger.log(Level.INFO, "Client at: " + client.getRemoteSocketAddress().toString() + " has closed the connection.");
-                    client.close();
-                    break;
+                    return true;
                 }
 
-                Message request = Message.decode(receivedData);
-                this.handlePacket(request);
-            } catch (ValidationException e) {
+                //wait for one to finish if the client already has the most requests in flight
+                inFlight.acquire();
+                try {
+                    admission.startRequest();
+                } catch (InterruptedException e) {
+                    inFlight.release();
+                    throw e;
+                }
+                CompletableFuture<RequestProcessor.Reply> reply = processor.processAsync(receivedData);
+                if(reply.isDone()) {
+                    finishRequest(reply.join(), false);
+                } else {
+                    reply.whenComplete((r, failure) -> finishRequest(r, true));
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            //an idle connection would hold its thread forever, so it is closed once what is in flight is written
+            logger.log(Level.SEVERE, "Communication problem: " + e.getMessage());
+            return true;
+        } catch (IOException e) {
+            if (e instanceof EOFException) {
                 logger.log(Level.SEVERE, "Unable to parse message: " + e.getMessage());
-            } catch (SocketTimeoutException e) {
-                logger.log(Level.SEVERE, "Communication problem: " + e.getMessage());
-            } catch (IOException e) {
-                if (e instanceof EOFException) {
-                    logger.log(Level.SEVERE, "Unable to parse message: " + e.getMessage());
+            }
+            logger.log(Level.SEVERE, "Communication problem: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Queues the reply to a request and writes it, unless another thread is already writing.
+     * A search that finished on another thread gets a virtual thread to write on, so a slow client never holds up
+     * the thread that completed the search
+     * @param reply the reply, null if there is nothing to send
+     * @param async true if this isn't the connection's own thread
+     */
+    private void finishRequest(RequestProcessor.Reply reply, boolean async) {
+        Object queued = null;
+        if(reply != null && reply.isTransfer()) {
+            queued = reply.getTransfer();
+        } else if(reply != null) {
+            try {
+                queued = Framer.frameMsg(reply.encode());
+            } catch (ValidationException e) {
+                logger.log(Level.SEVERE, "unable to frame message");
+            }
+        }
+
+        boolean write;
+        synchronized(writeQueue) {
+            if(queued != null) {
+                writeQueue.add(queued);
+            }
+            if(queued instanceof byte[]) {
+                queuedBytes += ((byte[]) queued).length;
+            }
+            write = !writing && !writeQueue.isEmpty();
+            writing |= write;
+        }
+        inFlight.release();
+        admission.finishRequest();
+        if(write && async) {
+            Thread.ofVirtual().name("sdns-tcp-write").start(this::drain);
+        } else if(write) {
+            drain();
+        }
+    }
+
+    /**
+     * Writes the write queue until it is empty. Every response waiting when a write starts goes out in that write.
+     * If a write fails the connection is closed, which stops the reads too
+     */
+    private void drain() {
+        int written = 0;
+        while(true) {
+            List<Object> queued;
+            synchronized(writeQueue) {
+                queuedBytes -= written;
+                written = 0;
+                writeQueue.notifyAll();
+                if(writeQueue.isEmpty()) {
+                    writing = false;
+                    writeQueue.notifyAll();
+                    return;
                 }
-                logger.log(Level.SEVERE, "Communication problem: " + e.getMessage());
-                try {
-                    client.close();
-                    break;
-                } catch (IOException ioException) {
-                    ioException.printStackTrace();
+                queued = new ArrayList<>(writeQueue);
+                writeQueue.clear();
+            }
+
+            ByteArrayOutputStream responses = new ByteArrayOutputStream();
+            try {
+                for(Object next : queued) {
+                    if(next instanceof ZoneTransfer) {
+                        //what was queued before the transfer goes first
+                        responses.writeTo(toClient);
+                        responses.reset();
+                        sendTransfer((ZoneTransfer) next);
+                    } else {
+                        responses.write((byte[]) next);
+                        written += ((byte[]) next).length;
+                    }
                 }
+                responses.writeTo(toClient);
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Communication problem: " + e.getMessage());
+                close();
             }
         }
     }
 
     /**
-     * Sends a TCP response with the given encoded Message
-     * @param encodedResp the encoded response to send back to the client.
+     * Waits until the responses waiting to be written are back under the buffered bytes limit, so a client that
+     * doesn't read its answers stops being read
+     * @throws InterruptedException
+     *      If interrupted while waiting
      */
-    @Override
-    protected void sendResponse(byte[] encodedResp) {
-        try {
-            encodedResp = Framer.frameMsg(encodedResp);
-            toClient.write(encodedResp);
+    private void awaitRoom() throws InterruptedException {
+        synchronized(writeQueue) {
+            if(!admission.isOverBuffered(queuedBytes)) {
+                return;
+            }
+            admission.recordTrip(AdmissionControl.Limit.BUFFERED_BYTES);
+            while(admission.isOverBuffered(queuedBytes) && !client.isClosed()) {
+                writeQueue.wait();
+            }
         }
-        catch (ValidationException e) {
-            logger.log(Level.SEVERE, "unable to frame message");
+    }
+
+    /**
+     * Waits for every request in flight to be answered and written
+     * @throws InterruptedException
+     *      If interrupted while waiting
+     */
+    private void awaitWrites() throws InterruptedException {
+        inFlight.acquire(MAX_IN_FLIGHT);
+        synchronized(writeQueue) {
+            while(writing) {
+                writeQueue.wait();
+            }
         }
-        catch (SocketTimeoutException e) {
-            logger.log(Level.SEVERE, "Communication problem: " + e.getMessage());
+    }
+
+    /**
+     * Closes the connection
+     */
+    private void close() {
+        try {
+            client.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to close connection with client");
         }
-        catch (IOException e) {
+    }
+
+    /**
+     * Sends a zone transfer one frame at a time. The write blocks until the socket takes the frame, so the next
+     * message isn't built until the client has made room for it. If the transfer can't finish, the connection is closed
+     * so the client doesn't mistake what it got for the whole zone.
+     * @param transfer the transfer to send
+     */
+    private void sendTransfer(ZoneTransfer transfer) {
+        try (transfer) {
+            byte[] message;
+            while((message = transfer.nextMessage()) != null) {
+                toClient.write(Framer.frameMsg(message));
+            }
+            return;
+        } catch (ValidationException e) {
+            logger.log(Level.SEVERE, "Zone transfer aborted: " + e.getMessage());
+        } catch (IOException e) {
             logger.log(Level.SEVERE, "Communication problem: " + e.getMessage());
         }
+        close();
     }
 }
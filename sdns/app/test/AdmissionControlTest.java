@@ -0,0 +1,211 @@
+//Contains the AdmissionControlTest class (see comments below)
+package sdns.app.test;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import sdns.app.AdmissionControl;
+import sdns.app.AdmissionControl.Limit;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static sdns.app.AdmissionControl.UNLIMITED;
+
+/**
+ * @author Harrison Rogers
+ * Tests the connection limits, including giving connections back per address, and how request permits are handed
+ * to what is waiting for them
+ */
+class AdmissionControlTest {
+    /**
+     * Makes a client address
+     * @param last the last byte of the address
+     * @return the address
+     * @throws UnknownHostException
+     *      Never, the address is given as bytes
+     */
+    private static InetAddress address(int last) throws UnknownHostException {
+        return InetAddress.getByAddress(new byte[] {10, 0, 0, (byte) last});
+    }
+
+    /**
+     * Connections past the limit are turned away until one is given back
+     */
+    @Test @DisplayName("Connection limit")
+    void connections() throws UnknownHostException {
+        AdmissionControl control = new AdmissionControl(2, UNLIMITED, 1024, UNLIMITED);
+        assertNull(control.getLastTrip(Limit.CONNECTIONS));
+        assertTrue(control.admit(address(1)));
+        assertTrue(control.admit(address(2)));
+        assertFalse(control.admit(address(3)));
+        assertEquals(2, control.getConnections());
+        assertEquals(1, control.getTrips(Limit.CONNECTIONS));
+        assertNotNull(control.getLastTrip(Limit.CONNECTIONS));
+        control.release(address(1));
+        assertTrue(control.admit(address(3)));
+    }
+
+    /**
+     * Each address has its own count, and giving a connection back only frees a place for its own address
+     */
+    @Test @DisplayName("Per address release")
+    void perAddress() throws UnknownHostException {
+        AdmissionControl control = new AdmissionControl(UNLIMITED, 2, 1024, UNLIMITED);
+        assertTrue(control.admit(address(1)));
+        assertTrue(control.admit(address(1)));
+        assertFalse(control.admit(address(1)));
+        assertTrue(control.admit(address(2)));
+        assertEquals(3, control.getConnections());
+        assertEquals(1, control.getTrips(Limit.CONNECTIONS_PER_ADDRESS));
+        control.release(address(2));
+        assertFalse(control.admit(address(1)));
+        control.release(address(1));
+        assertTrue(control.admit(address(1)));
+        //emptying an address and filling it again starts its count over
+        control.release(address(1));
+        control.release(address(1));
+        assertEquals(0, control.getConnections());
+        assertTrue(control.admit(address(1)));
+        assertTrue(control.admit(address(1)));
+        assertFalse(control.admit(address(1)));
+        assertEquals(3, control.getTrips(Limit.CONNECTIONS_PER_ADDRESS));
+    }
+
+    /**
+     * A request that can't get a permit is handed the next one given back, which never goes back to the pool
+     */
+    @Test @DisplayName("Permit handoff")
+    void handoff() {
+        AdmissionControl control = new AdmissionControl(UNLIMITED, UNLIMITED, 1024, 1);
+        AtomicInteger started = new AtomicInteger();
+        assertTrue(control.tryStartRequest(started::incrementAndGet));
+        assertFalse(control.tryStartRequest(started::incrementAndGet));
+        assertFalse(control.tryStartRequest(started::incrementAndGet));
+        assertEquals(0, started.get());
+        assertEquals(2, control.getTrips(Limit.IN_FLIGHT));
+        control.finishRequest();
+        assertEquals(1, started.get());
+        assertEquals(1, control.getInFlight());
+        control.finishRequest();
+        assertEquals(2, started.get());
+        control.finishRequest();
+        assertEquals(0, control.getInFlight());
+    }
+
+    /**
+     * A request that finishes after another fails to get a permit, but before that one is queued, has no one to hand
+     * its permit to. The one queuing has to take it itself rather than wait for a permit that never comes
+     */
+    @Test @DisplayName("Finish while queuing")
+    void finishWhileQueuing() {
+        AtomicBoolean finishNext = new AtomicBoolean();
+        //the trip is counted between the failed try and the queuing, so finishing there lands in the gap
+        AdmissionControl control = new AdmissionControl(UNLIMITED, UNLIMITED, 1024, 1) {
+            @Override
+            public void recordTrip(Limit limit) {
+                super.recordTrip(limit);
+                if(limit == Limit.IN_FLIGHT && finishNext.getAndSet(false)) {
+                    finishRequest();
+                }
+            }
+        };
+        AtomicInteger handed = new AtomicInteger();
+        assertTrue(control.tryStartRequest(handed::incrementAndGet));
+        finishNext.set(true);
+        assertTrue(control.tryStartRequest(handed::incrementAndGet));
+        assertEquals(0, handed.get());
+        assertEquals(1, control.getInFlight());
+        control.finishRequest();
+        assertEquals(0, control.getInFlight());
+    }
+
+    /**
+     * Requests finishing while others ask for permits never strand one that is waiting, and never let more run
+     * than the limit
+     */
+    @Test @DisplayName("Handoff race")
+    void handoffRace() throws InterruptedException {
+        int limit = 2;
+        int threads = 4;
+        int perThread = 5000;
+        AdmissionControl control = new AdmissionControl(UNLIMITED, UNLIMITED, 1024, limit);
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        CountDownLatch done = new CountDownLatch(threads * perThread);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger mostRunning = new AtomicInteger();
+        Runnable request = () -> {
+            mostRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            running.decrementAndGet();
+            done.countDown();
+            control.finishRequest();
+        };
+        List<Thread> clients = new ArrayList<>();
+        for(int t = 0; t < threads; t++) {
+            clients.add(Thread.ofPlatform().start(() -> {
+                for(int i = 0; i < perThread; i++) {
+                    //a handed permit only passes the work on, like a server does
+                    if(control.tryStartRequest(() -> workers.execute(request))) {
+                        workers.execute(request);
+                    }
+                }
+            }));
+        }
+        for(Thread client : clients) {
+            client.join();
+        }
+        try {
+            assertTrue(done.await(30, TimeUnit.SECONDS), done.getCount() + " requests never got a permit");
+        } finally {
+            workers.shutdown();
+        }
+        assertTrue(workers.awaitTermination(5, TimeUnit.SECONDS));
+        assertTrue(mostRunning.get() <= limit, mostRunning.get() + " ran at once");
+        assertEquals(0, control.getInFlight());
+    }
+
+    /**
+     * A request waiting for a permit that is interrupted gives up without keeping one
+     */
+    @Test @DisplayName("Interrupted wait")
+    void interrupted() throws InterruptedException {
+        AdmissionControl control = new AdmissionControl(UNLIMITED, UNLIMITED, 1024, 1);
+        control.startRequest();
+        AtomicInteger failures = new AtomicInteger();
+        Thread waiter = Thread.ofPlatform().start(() -> {
+            try {
+                control.startRequest();
+            } catch (InterruptedException e) {
+                failures.incrementAndGet();
+            }
+        });
+        while(control.getTrips(Limit.IN_FLIGHT) == 0) {
+            Thread.sleep(1);
+        }
+        waiter.interrupt();
+        waiter.join();
+        assertEquals(1, failures.get());
+        control.finishRequest();
+        assertEquals(0, control.getInFlight());
+        assertTrue(control.tryStartRequest(() -> fail("should not wait")));
+    }
+
+    /**
+     * Only the buffered bytes over the limit stop a connection being read
+     */
+    @Test @DisplayName("Buffered bytes")
+    void buffered() {
+        AdmissionControl control = new AdmissionControl(UNLIMITED, UNLIMITED, 1024, UNLIMITED);
+        assertFalse(control.isOverBuffered(1024));
+        assertTrue(control.isOverBuffered(1025));
+        assertThrows(IllegalArgumentException.class, () -> new AdmissionControl(0, 1, 1, 1));
+    }
+}
@@ -0,0 +1,170 @@
+//Contains the AsyncMasterFileTest class (see comments below)
+package sdns.app.test;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import sdns.app.masterfile.AsyncMasterFile;
+import sdns.app.masterfile.Deadline;
+import sdns.app.masterfile.MasterFile;
+import sdns.app.masterfile.SearchResult;
+import sdns.serialization.A;
+import sdns.serialization.ResourceRecord;
+import sdns.serialization.ValidationException;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Harrison Rogers
+ * Tests the wrappers between blocking and async masterfiles, and how each passes the deadline on
+ */
+class AsyncMasterFileTest {
+    /**
+     * Makes the A RR every test answers with
+     * @return the RR
+     * @throws ValidationException
+     *      Never, the RR is valid
+     * @throws UnknownHostException
+     *      Never, the address is given as bytes
+     */
+    private static A answer() throws ValidationException, UnknownHostException {
+        return new A("foo.com.", 300, (Inet4Address) InetAddress.getByAddress(new byte[] {10, 0, 0, 1}));
+    }
+
+    /**
+     * Makes a blocking masterfile that knows only foo.com. and counts its searches
+     * @param searches where the searches are counted
+     * @return the masterfile
+     */
+    private static MasterFile fooOnly(AtomicInteger searches) {
+        return (question, answers, nameservers, additionals) -> {
+            searches.incrementAndGet();
+            if(!"foo.com.".equals(question)) {
+                throw new NoSuchElementException("No such name");
+            }
+            try {
+                answers.add(answer());
+            } catch (UnknownHostException e) {
+                throw new AssertionError(e);
+            }
+        };
+    }
+
+    /**
+     * A masterfile that is both blocking and async, like the caches. Neither search is ever called
+     */
+    private static final class Both implements MasterFile, AsyncMasterFile {
+        @Override
+        public void search(String question, List<ResourceRecord> answers, List<ResourceRecord> nameservers,
+                           List<ResourceRecord> additionals) {
+            throw new AssertionError("Not searched");
+        }
+
+        @Override
+        public CompletableFuture<SearchResult> searchAsync(String question) {
+            throw new AssertionError("Not searched");
+        }
+    }
+
+    /**
+     * Gets what a failed future failed with
+     * @param future the future
+     * @return the cause
+     */
+    private static Throwable failure(CompletableFuture<SearchResult> future) {
+        assertTrue(future.isCompletedExceptionally());
+        return AsyncMasterFile.unwrap(assertThrows(ExecutionException.class, future::get));
+    }
+
+    /**
+     * An inline search is done on the caller's thread, so the future is already done when it comes back
+     */
+    @Test @DisplayName("Inline answers")
+    void inline() throws ValidationException, UnknownHostException {
+        AtomicInteger searches = new AtomicInteger();
+        AsyncMasterFile async = AsyncMasterFile.inline(fooOnly(searches));
+        CompletableFuture<SearchResult> found = async.searchAsync("foo.com.");
+        assertTrue(found.isDone());
+        assertEquals(List.of(answer()), found.join().getAnswers());
+        assertInstanceOf(NoSuchElementException.class, failure(async.searchAsync("bar.com.")));
+        assertEquals(2, searches.get());
+    }
+
+    /**
+     * An inline search whose deadline has passed fails without searching
+     */
+    @Test @DisplayName("Inline deadline")
+    void inlineDeadline() {
+        AtomicInteger searches = new AtomicInteger();
+        AsyncMasterFile async = AsyncMasterFile.inline(fooOnly(searches));
+        assertInstanceOf(ValidationException.class,
+                failure(async.searchAsync("foo.com.", Deadline.at(System.nanoTime()))));
+        assertEquals(0, searches.get());
+    }
+
+    /**
+     * A blocking search waits for an answer that comes later from another thread, and adds it to the lists
+     */
+    @Test @DisplayName("Blocking waits")
+    void blocking() throws ValidationException, UnknownHostException {
+        A answer = answer();
+        AsyncMasterFile async = question -> CompletableFuture.supplyAsync(() -> {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new SearchResult(List.of(answer), List.of(), List.of());
+        });
+        List<ResourceRecord> answers = new ArrayList<>();
+        AsyncMasterFile.blocking(async).search("foo.com.", answers, new ArrayList<>(), new ArrayList<>());
+        assertEquals(List.of(answer), answers);
+    }
+
+    /**
+     * A blocking search throws what the async one failed with, and a passed deadline stops it before it starts
+     */
+    @Test @DisplayName("Blocking failures")
+    void blockingFailures() {
+        AtomicInteger searches = new AtomicInteger();
+        MasterFile blocking = AsyncMasterFile.blocking(question -> {
+            searches.incrementAndGet();
+            return "bad.com.".equals(question)
+                    ? CompletableFuture.failedFuture(new ValidationException("Upstream failed", question))
+                    : CompletableFuture.failedFuture(new NoSuchElementException("No such name"));
+        });
+        List<ResourceRecord> rrs = new ArrayList<>();
+        assertThrows(NoSuchElementException.class, () -> blocking.search("no.com.", rrs, rrs, rrs));
+        assertThrows(ValidationException.class, () -> blocking.search("bad.com.", rrs, rrs, rrs));
+        assertThrows(ValidationException.class,
+                () -> blocking.search("no.com.", Deadline.at(System.nanoTime()), rrs, rrs, rrs));
+        assertEquals(2, searches.get());
+        assertThrows(NullPointerException.class, () -> blocking.search("no.com.", null, rrs, rrs));
+    }
+
+    /**
+     * Wrapping what is already the right kind hands back the same masterfile, and wrapping both ways still searches
+     * the blocking one
+     */
+    @Test @DisplayName("No double wrapping")
+    void noDoubleWrapping() throws ValidationException, UnknownHostException {
+        Both both = new Both();
+        assertSame(both, AsyncMasterFile.inline(both));
+        assertSame(both, AsyncMasterFile.blocking(both));
+        AtomicInteger searches = new AtomicInteger();
+        AsyncMasterFile async = AsyncMasterFile.inline(fooOnly(searches));
+        List<ResourceRecord> answers = new ArrayList<>();
+        AsyncMasterFile.blocking(async).search("foo.com.", answers, new ArrayList<>(), new ArrayList<>());
+        assertEquals(List.of(answer()), answers);
+        assertEquals(1, searches.get());
+    }
+}
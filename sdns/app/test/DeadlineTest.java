@@ -0,0 +1,57 @@
+//Contains the DeadlineTest class (see comments below)
+package sdns.app.test;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import sdns.app.masterfile.Deadline;
+import sdns.serialization.ValidationException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Harrison Rogers
+ * Tests when a deadline passes, and the time left and timeouts it hands out before and after
+ */
+class DeadlineTest {
+    /**
+     * A deadline that never passes never cuts a wait short
+     */
+    @Test @DisplayName("None")
+    void none() throws ValidationException {
+        Deadline deadline = Deadline.none();
+        assertFalse(deadline.isExpired());
+        assertEquals(Long.MAX_VALUE, deadline.remainingMillis());
+        assertEquals(500, deadline.timeout(500));
+        assertEquals(Integer.MAX_VALUE, deadline.timeout(Integer.MAX_VALUE));
+        deadline.check("foo.com.");
+        assertEquals("Deadline: none", deadline.toString());
+    }
+
+    /**
+     * Before it passes, a wait is cut to the time left
+     */
+    @Test @DisplayName("Time left")
+    void timeLeft() throws ValidationException {
+        Deadline deadline = Deadline.after(5000);
+        assertFalse(deadline.isExpired());
+        long left = deadline.remainingMillis();
+        assertTrue(left > 0 && left <= 5000, left + "ms left");
+        assertEquals(10, deadline.timeout(10));
+        assertTrue(deadline.timeout(60_000) <= 5000);
+        deadline.check("foo.com.");
+    }
+
+    /**
+     * Once it passes there is no time left, but a timeout is still at least 1ms so it is never read as no timeout
+     */
+    @Test @DisplayName("Passed")
+    void passed() throws InterruptedException {
+        Deadline deadline = Deadline.after(20);
+        Thread.sleep(30);
+        assertTrue(deadline.isExpired());
+        assertEquals(0, deadline.remainingMillis());
+        assertEquals(1, deadline.timeout(1000));
+        assertThrows(ValidationException.class, () -> deadline.check("foo.com."));
+        assertTrue(Deadline.at(System.nanoTime()).isExpired());
+    }
+}
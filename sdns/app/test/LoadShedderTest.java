@@ -0,0 +1,115 @@
+//Contains the LoadShedderTest class (see comments below)
+package sdns.app.test;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import sdns.app.LoadShedder;
+import sdns.serialization.RCode;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Harrison Rogers
+ * Tests the CoDel windows of the load shedder: what a burst gets through, and how the shedder goes into and out of
+ * overload
+ */
+class LoadShedderTest {
+    //how long a request can wait while overloaded, in ms
+    private static final long TARGET = 10;
+    //how long a window is, in ms
+    private static final long INTERVAL = 100;
+
+    /**
+     * Gets an arrival time for a request that has waited a while
+     * @param millis how long it has waited
+     * @return when it arrived, from System.nanoTime()
+     */
+    private static long waited(long millis) {
+        return System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Waits until the current window is over
+     * @throws InterruptedException
+     *      If interrupted while waiting
+     */
+    private static void nextWindow() throws InterruptedException {
+        Thread.sleep(INTERVAL + 20);
+    }
+
+    /**
+     * Before any overload, only what waited longer than a whole interval is shed
+     */
+    @Test @DisplayName("Burst gets through")
+    void burst() {
+        LoadShedder shedder = new LoadShedder(TARGET, INTERVAL, RCode.SERVERFAILURE);
+        assertFalse(shedder.shouldShed(System.nanoTime()));
+        assertFalse(shedder.shouldShed(waited(INTERVAL / 2)));
+        assertTrue(shedder.shouldShed(waited(INTERVAL * 2)));
+        assertFalse(shedder.isOverloaded());
+        assertEquals(1, shedder.getShed());
+        assertEquals(2, shedder.getKept());
+    }
+
+    /**
+     * A window where every request waited past the target makes the next one shed anything past the target, and a
+     * window where one didn't ends the overload
+     */
+    @Test @DisplayName("Overload and recovery")
+    void overload() throws InterruptedException {
+        LoadShedder shedder = new LoadShedder(TARGET, INTERVAL, RCode.SERVERFAILURE);
+        for(int i = 0; i < 3; i++) {
+            assertFalse(shedder.shouldShed(waited(INTERVAL / 2)));
+        }
+        assertFalse(shedder.isOverloaded());
+        nextWindow();
+        assertTrue(shedder.shouldShed(waited(INTERVAL / 2)));
+        assertTrue(shedder.isOverloaded());
+        //a request that hardly waited is still answered, and shows the queue drained
+        assertFalse(shedder.shouldShed(System.nanoTime()));
+        nextWindow();
+        assertFalse(shedder.shouldShed(waited(INTERVAL / 2)));
+        assertFalse(shedder.isOverloaded());
+        assertEquals(1, shedder.getShed());
+        assertEquals(5, shedder.getKept());
+    }
+
+    /**
+     * A window with no requests in it isn't an overload
+     */
+    @Test @DisplayName("Empty window")
+    void emptyWindow() throws InterruptedException {
+        LoadShedder shedder = new LoadShedder(TARGET, INTERVAL, RCode.SERVERFAILURE);
+        nextWindow();
+        assertFalse(shedder.shouldShed(waited(INTERVAL / 2)));
+        assertFalse(shedder.isOverloaded());
+    }
+
+    /**
+     * The target can't be under 1ms or longer than the interval
+     */
+    @Test @DisplayName("Bad policy")
+    void badPolicy() {
+        assertThrows(IllegalArgumentException.class, () -> new LoadShedder(0, INTERVAL, RCode.SERVERFAILURE));
+        assertThrows(IllegalArgumentException.class, () -> new LoadShedder(INTERVAL + 1, INTERVAL, null));
+        assertNull(new LoadShedder(TARGET, TARGET, null).getRCode());
+    }
+
+    /**
+     * The properties set the RCode, and DROP means no answer at all
+     */
+    @Test @DisplayName("From properties")
+    void fromProperties() {
+        try {
+            System.setProperty("sdns.shed.rcode", "refused");
+            assertEquals(RCode.REFUSED, LoadShedder.fromProperties().getRCode());
+            System.setProperty("sdns.shed.rcode", "DROP");
+            assertNull(LoadShedder.fromProperties().getRCode());
+        } finally {
+            System.clearProperty("sdns.shed.rcode");
+        }
+        assertEquals(RCode.SERVERFAILURE, LoadShedder.fromProperties().getRCode());
+    }
+}
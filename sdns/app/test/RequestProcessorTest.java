@@ -0,0 +1,184 @@
+//Contains the RequestProcessorTest class (see comments below)
+package sdns.app.test;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import sdns.app.LoadShedder;
+import sdns.app.RequestProcessor;
+import sdns.app.RequestProcessor.Reply;
+import sdns.app.masterfile.AsyncMasterFile;
+import sdns.app.masterfile.Deadline;
+import sdns.app.masterfile.MasterFile;
+import sdns.app.masterfile.SearchResult;
+import sdns.serialization.A;
+import sdns.serialization.Message;
+import sdns.serialization.Query;
+import sdns.serialization.RCode;
+import sdns.serialization.Response;
+import sdns.serialization.ValidationException;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Harrison Rogers
+ * Tests how the processor copies an encoded response for a new request, drops requests past their deadline, and
+ * sheds requests that waited too long for a search
+ */
+class RequestProcessorTest {
+    /**
+     * Makes the A RR every search answers with
+     * @return the RR
+     * @throws ValidationException
+     *      Never, the RR is valid
+     * @throws UnknownHostException
+     *      Never, the address is given as bytes
+     */
+    private static A answer() throws ValidationException, UnknownHostException {
+        return new A("foo.com.", 300, (Inet4Address) InetAddress.getByAddress(new byte[] {10, 0, 0, 1}));
+    }
+
+    /**
+     * Makes a blocking masterfile that answers every name with answer() and counts its searches
+     * @param searches where the searches are counted
+     * @return the masterfile
+     */
+    private static MasterFile counting(AtomicInteger searches) {
+        return (question, answers, nameservers, additionals) -> {
+            searches.incrementAndGet();
+            try {
+                answers.add(answer());
+            } catch (UnknownHostException e) {
+                throw new AssertionError(e);
+            }
+        };
+    }
+
+    /**
+     * Gets the response a reply sends, the way a transport would see it on the wire
+     * @param reply the reply
+     * @return the response
+     * @throws ValidationException
+     *      If the reply doesn't decode
+     */
+    private static Response sent(Reply reply) throws ValidationException {
+        assertNotNull(reply);
+        return (Response) Message.decode(reply.encode());
+    }
+
+    /**
+     * A result that was already encoded for one request is copied for the next with only the ID changed, and the
+     * first reply is left alone
+     */
+    @Test @DisplayName("ID patching")
+    void idPatching() throws ValidationException, UnknownHostException {
+        SearchResult result = new SearchResult(List.of(answer()), List.of(), List.of());
+        RequestProcessor processor = new RequestProcessor(
+                (AsyncMasterFile) question -> CompletableFuture.completedFuture(result), false);
+        Reply first = processor.processAsync(new Query(0x0102, "foo.com.")).join();
+        assertNotNull(result.getEncoded("foo.com."));
+        Reply second = processor.processAsync(new Query(0xABCD, "foo.com.")).join();
+        assertTrue(second.isEncoded());
+        Response patched = sent(second);
+        assertEquals(0xABCD, patched.getID());
+        assertEquals(List.of(answer()), patched.getAnswerList());
+        assertEquals(0xABCD, second.getResponse().getID());
+        assertEquals(0x0102, sent(first).getID());
+        byte[] bytes = second.encode();
+        assertEquals((byte) 0xAB, bytes[0]);
+        assertEquals((byte) 0xCD, bytes[1]);
+    }
+
+    /**
+     * A request whose deadline passed before its search started is dropped without searching
+     */
+    @Test @DisplayName("Expired before search")
+    void expiredBeforeSearch() throws ValidationException {
+        AtomicInteger searches = new AtomicInteger();
+        RequestProcessor processor = new RequestProcessor(counting(searches), false);
+        assertNull(processor.process(new Query(1, "foo.com."), Deadline.at(System.nanoTime())));
+        assertNull(processor.processAsync(new Query(2, "foo.com."), Deadline.at(System.nanoTime())).join());
+        assertEquals(0, searches.get());
+        assertEquals(2, processor.getExpired());
+        assertNotNull(processor.process(new Query(3, "foo.com."), Deadline.after(5000)));
+        assertEquals(1, searches.get());
+    }
+
+    /**
+     * A search that never answers is given up on at the deadline, and the request is dropped
+     */
+    @Test @DisplayName("Hung search dropped at the deadline")
+    void hungSearch() throws Exception {
+        CompletableFuture<SearchResult> hung = new CompletableFuture<>();
+        RequestProcessor processor = new RequestProcessor((AsyncMasterFile) question -> hung, false);
+        long start = System.nanoTime();
+        CompletableFuture<Reply> reply = processor.processAsync(new Query(1, "foo.com."), Deadline.after(100));
+        assertFalse(reply.isDone());
+        assertNull(reply.get(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(1, processor.getExpired());
+        //the search itself is left for whoever else may be waiting on it
+        assertFalse(hung.isDone());
+    }
+
+    /**
+     * A request that waited too long in the executor's queue gets the shedder's RCode instead of a search, or
+     * nothing if the shedder drops
+     */
+    @Test @DisplayName("Shed from the queue")
+    void shedFromQueue() throws ValidationException, InterruptedException {
+        for(RCode rCode : new RCode[] {RCode.REFUSED, null}) {
+            AtomicInteger searches = new AtomicInteger();
+            List<Runnable> queue = new ArrayList<>();
+            LoadShedder shedder = new LoadShedder(1, 1, rCode);
+            RequestProcessor processor = new RequestProcessor(counting(searches), queue::add, shedder, false);
+            CompletableFuture<Reply> reply = processor.processAsync(new Query(7, "foo.com."));
+            Thread.sleep(20);
+            queue.forEach(Runnable::run);
+            if(rCode == null) {
+                assertNull(reply.join());
+            } else {
+                Response response = sent(reply.join());
+                assertEquals(RCode.REFUSED, response.getRCode());
+                assertEquals(7, response.getID());
+                assertTrue(response.getAnswerList().isEmpty());
+            }
+            assertEquals(0, searches.get());
+            assertEquals(1, shedder.getShed());
+            assertSame(shedder, processor.getLoadShedder());
+        }
+    }
+
+    /**
+     * A request that comes off the queue in time is searched, and one the queue has no room for is shed on the spot
+     */
+    @Test @DisplayName("Kept and rejected")
+    void keptAndRejected() throws ValidationException, UnknownHostException {
+        AtomicInteger searches = new AtomicInteger();
+        LoadShedder shedder = new LoadShedder(1000, 1000, RCode.SERVERFAILURE);
+        RequestProcessor kept = new RequestProcessor(counting(searches), Runnable::run, shedder, false);
+        Response answered = sent(kept.processAsync(new Query(1, "foo.com.")).join());
+        assertEquals(RCode.NOERROR, answered.getRCode());
+        assertEquals(List.of(answer()), answered.getAnswerList());
+        assertEquals(1, shedder.getKept());
+
+        Executor full = task -> {
+            throw new RejectedExecutionException("Queue full");
+        };
+        RequestProcessor rejected = new RequestProcessor(counting(searches), full, shedder, false);
+        CompletableFuture<Reply> reply = rejected.processAsync(new Query(2, "foo.com."));
+        assertTrue(reply.isDone());
+        assertEquals(RCode.SERVERFAILURE, sent(reply.join()).getRCode());
+        assertEquals(1, searches.get());
+    }
+}
@@ -0,0 +1,124 @@
+//Contains the TimerWheelTest class (see comments below)
+package sdns.app.test;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import sdns.app.tcp.server.TimerWheel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Harrison Rogers
+ * Tests when the timer wheel runs its timeouts, including ones further off than a turn of the wheel, after a stall
+ * longer than a turn, and ones a task schedules again
+ */
+class TimerWheelTest {
+    //how long a tick is, in ms
+    private static final long TICK = 10;
+    //slots in the wheel, so one turn is 80ms
+    private static final int SLOTS = 8;
+
+    /**
+     * A timeout runs on the first advance at or past its tick, and only once
+     */
+    @Test @DisplayName("Runs when due")
+    void due() {
+        TimerWheel wheel = new TimerWheel(TICK, SLOTS, 0);
+        AtomicInteger runs = new AtomicInteger();
+        wheel.schedule(runs::incrementAndGet, 25, 0);
+        wheel.advance(20);
+        assertEquals(0, runs.get());
+        wheel.advance(30);
+        assertEquals(1, runs.get());
+        wheel.advance(100);
+        assertEquals(1, runs.get());
+    }
+
+    /**
+     * A cancelled timeout never runs
+     */
+    @Test @DisplayName("Cancel")
+    void cancel() {
+        TimerWheel wheel = new TimerWheel(TICK, SLOTS, 0);
+        AtomicInteger runs = new AtomicInteger();
+        wheel.schedule(runs::incrementAndGet, 10, 0).cancel();
+        wheel.advance(100);
+        assertEquals(0, runs.get());
+    }
+
+    /**
+     * A timeout more than a turn away stays in its slot as the wheel passes it, until its own turn
+     */
+    @Test @DisplayName("Further than one turn")
+    void furtherThanOneTurn() {
+        TimerWheel wheel = new TimerWheel(TICK, SLOTS, 0);
+        AtomicInteger runs = new AtomicInteger();
+        wheel.schedule(runs::incrementAndGet, 200, 0);
+        for(long now = 10; now < 200; now += 10) {
+            wheel.advance(now);
+        }
+        assertEquals(0, runs.get());
+        wheel.advance(200);
+        assertEquals(1, runs.get());
+    }
+
+    /**
+     * A stall longer than a turn runs everything due once, in one advance, and leaves alone what is still to come
+     */
+    @Test @DisplayName("Stall longer than one turn")
+    void stall() {
+        TimerWheel wheel = new TimerWheel(TICK, SLOTS, 0);
+        List<Long> ran = new ArrayList<>();
+        for(long delay : new long[] {10, 50, 70, 500}) {
+            wheel.schedule(() -> ran.add(delay), delay, 0);
+        }
+        wheel.schedule(() -> ran.add(2000L), 2000, 0);
+        wheel.advance(1000);
+        assertEquals(List.of(10L, 50L, 70L, 500L), ran.stream().sorted().toList());
+        //the wheel picks up where the stall left it
+        wheel.schedule(() -> ran.add(1010L), 10, 1000);
+        wheel.advance(1010);
+        assertEquals(5, ran.size());
+        assertEquals(1010L, ran.get(4));
+        wheel.advance(1990);
+        assertEquals(5, ran.size());
+        wheel.advance(2000);
+        assertEquals(2000L, ran.get(5));
+    }
+
+    /**
+     * A task can schedule itself again, even for right away and into the slot being run, and runs once per tick
+     */
+    @Test @DisplayName("Rescheduling")
+    void reschedule() {
+        for(int slots : new int[] {1, SLOTS}) {
+            TimerWheel wheel = new TimerWheel(TICK, slots, 0);
+            AtomicInteger runs = new AtomicInteger();
+            Runnable again = new Runnable() {
+                @Override
+                public void run() {
+                    runs.incrementAndGet();
+                    wheel.schedule(this, 0, runs.get() * TICK);
+                }
+            };
+            wheel.schedule(again, 0, 0);
+            for(int tick = 1; tick <= 20; tick++) {
+                wheel.advance(tick * TICK);
+                assertEquals(tick, runs.get(), slots + " slots");
+            }
+        }
+    }
+
+    /**
+     * A tick or slot count under 1
+     */
+    @Test @DisplayName("Bad wheel")
+    void badWheel() {
+        assertThrows(IllegalArgumentException.class, () -> new TimerWheel(0, SLOTS, 0));
+        assertThrows(IllegalArgumentException.class, () -> new TimerWheel(TICK, 0, 0));
+    }
+}
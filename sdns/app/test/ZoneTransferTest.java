@@ -0,0 +1,220 @@
+//Contains the ZoneTransferTest class (see comments below)
+package sdns.app.test;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import sdns.app.ZoneTransfer;
+import sdns.serialization.A;
+import sdns.serialization.Message;
+import sdns.serialization.Query;
+import sdns.serialization.ResourceRecord;
+import sdns.serialization.Response;
+import sdns.serialization.SOA;
+import sdns.serialization.ValidationException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Harrison Rogers
+ * Tests how a zone is split into messages for an AXFR, and how a transfer ends when it can't finish
+ */
+class ZoneTransferTest {
+    private static final int ID = 4321;
+
+    /**
+     * Makes the AXFR query for foo.com.
+     * @return the query
+     * @throws ValidationException
+     *      If the query can't be made
+     */
+    private static Message axfr() throws ValidationException {
+        return new Query(ID, "foo.com.").setQueryType(Message.TYPE_AXFR);
+    }
+
+    /**
+     * Makes the zone's SOA
+     * @return the SOA
+     * @throws ValidationException
+     *      If the SOA can't be made
+     */
+    private static SOA soa() throws ValidationException {
+        return new SOA("foo.com.", 3600, "ns1.foo.com.", "admin.foo.com.", 1, 3600, 600, 86400, 60);
+    }
+
+    /**
+     * Makes a zone
+     * @param hosts how many A RRs come after the SOA
+     * @return the zone's RRs, SOA first
+     * @throws Exception
+     *      If an RR can't be made
+     */
+    private static List<ResourceRecord> zone(int hosts) throws Exception {
+        List<ResourceRecord> zone = new ArrayList<>();
+        zone.add(soa());
+        for(int i = 0; i < hosts; i++) {
+            zone.add(new A("host" + i + ".foo.com.", 300,
+                    (Inet4Address) InetAddress.getByAddress(new byte[] {10, 0, (byte) (i >> 8), (byte) i})));
+        }
+        return zone;
+    }
+
+    /**
+     * Makes an RR of a type this server doesn't know, which can't be encoded
+     * @return the RR
+     * @throws Exception
+     *      If it can't be decoded
+     */
+    private static ResourceRecord unknown() throws Exception {
+        byte[] encoded = {3, 'f', 'o', 'o', 3, 'c', 'o', 'm', 0, 0, 99, 0, 1, 0, 0, 0, 60, 0, 2, 1, 2};
+        return ResourceRecord.decode(new ByteArrayInputStream(encoded));
+    }
+
+    /**
+     * Sends every message of a transfer
+     * @param transfer the transfer
+     * @return the messages
+     * @throws ValidationException
+     *      If the transfer can't finish
+     */
+    private static List<byte[]> drain(ZoneTransfer transfer) throws ValidationException {
+        List<byte[]> messages = new ArrayList<>();
+        byte[] message;
+        while((message = transfer.nextMessage()) != null) {
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    /**
+     * Gets every answer out of the messages, checking that each one is an answer to the query
+     * @param messages the encoded messages
+     * @return the answers, in order
+     * @throws ValidationException
+     *      If a message can't be decoded
+     */
+    private static List<ResourceRecord> answers(List<byte[]> messages) throws ValidationException {
+        List<ResourceRecord> answers = new ArrayList<>();
+        for(byte[] encoded : messages) {
+            Response response = (Response) Message.decode(encoded);
+            assertEquals(ID, response.getID());
+            assertEquals("foo.com.", response.getQuery());
+            assertEquals(Message.TYPE_AXFR, response.getQueryType());
+            answers.addAll(response.getAnswerList());
+        }
+        return answers;
+    }
+
+    /**
+     * The whole zone is sent in order, with the SOA first and last
+     */
+    @Test @DisplayName("SOA first and last")
+    void soaFirstAndLast() throws Exception {
+        List<ResourceRecord> zone = zone(3);
+        ZoneTransfer transfer = new ZoneTransfer(axfr(), zone.stream());
+        List<byte[]> messages = drain(transfer);
+        assertEquals(1, messages.size());
+        List<ResourceRecord> expected = new ArrayList<>(zone);
+        expected.add(zone.get(0));
+        assertEquals(expected, answers(messages));
+        assertTrue(transfer.isFinished());
+        assertNull(transfer.nextMessage());
+    }
+
+    /**
+     * A big zone is split into messages of at most 16KB, each as full as the next RR allows
+     */
+    @Test @DisplayName("16KB messages")
+    void splitting() throws Exception {
+        List<ResourceRecord> zone = zone(3000);
+        List<byte[]> messages = drain(new ZoneTransfer(axfr(), zone.stream()));
+        assertTrue(messages.size() > 3);
+        for(int i = 0; i < messages.size(); i++) {
+            int size = messages.get(i).length;
+            assertTrue(size <= ZoneTransfer.DEFAULT_MESSAGE_SIZE, "message " + i + " is " + size + " bytes");
+            if(i < messages.size() - 1) {
+                //the RRs here are all under 64 bytes, so only the last message has room for another
+                assertTrue(size > ZoneTransfer.DEFAULT_MESSAGE_SIZE - 64, "message " + i + " is " + size + " bytes");
+            }
+        }
+        List<ResourceRecord> answers = answers(messages);
+        assertEquals(zone.size() + 1, answers.size());
+        assertEquals(zone, answers.subList(0, zone.size()));
+        assertEquals(zone.get(0), answers.get(zone.size()));
+    }
+
+    /**
+     * An RR bigger than the message size still goes out, in a message of its own
+     */
+    @Test @DisplayName("One RR per message")
+    void smallMessages() throws Exception {
+        List<ResourceRecord> zone = zone(4);
+        List<byte[]> messages = drain(new ZoneTransfer(axfr(), zone.stream(), 1));
+        assertEquals(zone.size() + 1, messages.size());
+        for(byte[] message : messages) {
+            assertEquals(1, ((Response) Message.decode(message)).getAnswerList().size());
+        }
+    }
+
+    /**
+     * An RR that can't be encoded aborts the transfer before the closing SOA, instead of being left out of a zone
+     * that still looks complete
+     */
+    @Test @DisplayName("Unknown RR aborts")
+    void unknownAborts() throws Exception {
+        List<ResourceRecord> zone = zone(3000);
+        zone.add(2000, unknown());
+        AtomicBoolean closed = new AtomicBoolean();
+        ZoneTransfer transfer = new ZoneTransfer(axfr(), zone.stream().onClose(() -> closed.set(true)));
+        List<byte[]> sent = new ArrayList<>();
+        ValidationException e = assertThrows(ValidationException.class, () -> {
+            byte[] message;
+            while((message = transfer.nextMessage()) != null) {
+                sent.add(message);
+            }
+        });
+        assertEquals("foo.com.", e.getBadToken());
+        assertTrue(transfer.isFinished());
+        assertTrue(closed.get());
+        assertNull(transfer.nextMessage());
+        List<ResourceRecord> answers = answers(sent);
+        assertTrue(answers.size() < 2001);
+        assertEquals(1, answers.stream().filter(rr -> rr instanceof SOA).count());
+    }
+
+    /**
+     * Closing a transfer part way through ends it and closes the zone
+     */
+    @Test @DisplayName("Close part way")
+    void closePartWay() throws Exception {
+        AtomicBoolean closed = new AtomicBoolean();
+        ZoneTransfer transfer = new ZoneTransfer(axfr(), zone(10).stream().onClose(() -> closed.set(true)), 1);
+        assertNotNull(transfer.nextMessage());
+        assertFalse(transfer.isFinished());
+        assertFalse(closed.get());
+        transfer.close();
+        assertTrue(transfer.isFinished());
+        assertTrue(closed.get());
+        assertNull(transfer.nextMessage());
+    }
+
+    /**
+     * A zone that doesn't start with an SOA can't be transferred, and is closed
+     */
+    @Test @DisplayName("No SOA")
+    void noSoa() throws Exception {
+        AtomicBoolean closed = new AtomicBoolean();
+        Stream<ResourceRecord> zone = zone(2).stream().skip(1).onClose(() -> closed.set(true));
+        assertThrows(ValidationException.class, () -> new ZoneTransfer(axfr(), zone));
+        assertTrue(closed.get());
+        assertThrows(ValidationException.class, () -> new ZoneTransfer(axfr(), Stream.empty()));
+    }
+}
@@ -0,0 +1,91 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 7
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.app.udp.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A UDP socket that receives and sends datagrams a batch at a time.
+ *
+ * Every datagram in a batch has a slot. receive() fills request slots 0 to n-1 and clears their response slots.
+ * Whatever is written into a response slot, up to its position, is sent back to the sender of that slot's request
+ * by the next send(). A response slot left empty sends nothing.
+ *
+ * Only one thread at a time may receive and send on a batch socket. close() is called by that thread too,
+ * once it is done with the socket. The exception is sendTo(), which any thread may call to send a response that
+ * wasn't ready when its batch went out.
+ *
+ * @version 1.0
+ */
+interface DatagramBatchSocket extends AutoCloseable {
+    //the most datagrams in a batch
+    int BATCH_MAX = 64;
+    //Max buffer size for the UDP packet
+    int REQUEST_MAX = 512;
+    //the biggest payload a UDP datagram can carry
+    int RESPONSE_MAX = 65507;
+
+    /**
+     * Waits for at least one datagram, then takes every waiting datagram up to BATCH_MAX
+     * @return how many datagrams were received. 0 if none came before the socket's receive timeout
+     * @throws IOException
+     *      If the receive fails
+     */
+    int receive() throws IOException;
+
+    /**
+     * Gets a received datagram
+     * @param slot which datagram of the last batch
+     * @return the datagram, from position to limit. The buffer is reused by the next receive()
+     */
+    ByteBuffer request(int slot);
+
+    /**
+     * Gets the buffer to write the response to a datagram into
+     * @param slot which datagram of the last batch
+     * @return the response buffer
+     */
+    ByteBuffer response(int slot);
+
+    /**
+     * Gets the address a datagram came from, so a response that isn't ready in time for the batch can be sent later
+     * @param slot which datagram of the last batch
+     * @return a copy of the sender's address
+     */
+    byte[] sender(int slot);
+
+    /**
+     * Sends one response on its own, outside of any batch. Unlike the other methods, any thread may call this
+     * @param response the response, from position to limit
+     * @param sender the address from sender() to send it to
+     * @throws IOException
+     *      If the send fails or the socket is closed
+     */
+    void sendTo(ByteBuffer response, byte[] sender) throws IOException;
+
+    /**
+     * Sends every response written since the last receive()
+     * @throws IOException
+     *      If the send fails. Responses that weren't sent are dropped
+     */
+    void send() throws IOException;
+
+    /**
+     * Gets the port the socket is bound to
+     * @return the port
+     */
+    int getLocalPort();
+
+    /**
+     * Closes the socket and frees its buffers
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,97 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 7
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.app.udp.server;
+
+import sdns.app.LoadShedder;
+import sdns.app.RequestProcessor;
+import sdns.app.ServerLogger;
+import sdns.app.masterfile.Deadline;
+import sdns.serialization.Message;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Objects;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Answers UDP requests for one receive loop. The client's address is passed in with each request instead of living
+ * in the responder, so one responder can answer any number of requests at once over the same channel, and the
+ * processor and its metrics live as long as the loop does instead of one request.
+ *
+ * @version 1.0
+ */
+public class DatagramResponder {
+    private static final Logger logger = ServerLogger.getLogger();
+    private final DatagramChannel channel;
+    private final RequestProcessor processor;
+
+    /**
+     * Makes a responder for a receive loop
+     *
+     * @param channel the channel the loop receives on
+     * @param processor what the requests are handed to
+     * @throws NullPointerException
+     *      If channel or processor is null
+     */
+    public DatagramResponder(DatagramChannel channel, RequestProcessor processor) {
+        this.channel = Objects.requireNonNull(channel, "Channel cannot be null");
+        this.processor = Objects.requireNonNull(processor, "Processor cannot be null");
+    }
+
+    /**
+     * Gets what the requests are handed to
+     * @return the processor
+     */
+    public RequestProcessor getProcessor() {
+        return this.processor;
+    }
+
+    /**
+     * Answers a request, giving up on it once its client stops waiting
+     *
+     * @param request the decoded request
+     * @param client the address to send the response to
+     * @param deadline when the client stops waiting for the answer
+     */
+    public void respond(Message request, SocketAddress client, Deadline deadline) {
+        send(this.processor.process(request, deadline), client);
+    }
+
+    /**
+     * Answers a request that waited too long, with the shedder's fast failure or nothing
+     *
+     * @param request the decoded request
+     * @param client the address to send the response to
+     * @param shedder what shed it
+     */
+    public void shed(Message request, SocketAddress client, LoadShedder shedder) {
+        send(this.processor.shed(request, shedder), client);
+    }
+
+    /**
+     * UDP:
+     * Sends a reply back to the client that made the request
+     *
+     * @param reply the reply, null if there is nothing to send
+     * @param client the address to send it to
+     */
+    private void send(RequestProcessor.Reply reply, SocketAddress client) {
+        if(reply == null) {
+            return;
+        }
+        try {
+            this.channel.send(ByteBuffer.wrap(reply.encode()), client);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Communication Problem: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,376 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 7
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.app.udp.server;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+import static java.lang.foreign.ValueLayout.JAVA_SHORT;
+
+/**
+ * A Linux UDP socket that receives and sends whole batches with one recvmmsg or sendmmsg call each.
+ *
+ * The socket is made and driven through java.lang.foreign, so this class is a preview feature on Java 21. It is
+ * compiled on its own with --enable-preview and only loaded by name from ServerMMsg, which falls back to
+ * ServerNIO when the JVM wasn't started with --enable-preview or this isn't 64 bit Linux.
+ *
+ * Every buffer lives off heap in one arena: BATCH_MAX request slots, BATCH_MAX response slots, the sender address
+ * of each request, and the mmsghdr arrays that point at them. The arrays for receiving are filled in once, so
+ * a receive only resets the address lengths. Requests are handed out as ByteBuffer views of their slots, so the
+ * decoder reads the datagram where the kernel put it. Only IPv4 is supported.
+ *
+ * @version 1.0
+ */
+final class MMsgSocket implements DatagramBatchSocket {
+    //the constants and struct layouts below are the same on x86_64 and aarch64 Linux
+    private static final int AF_INET = 2;
+    private static final int SOCK_DGRAM = 2;
+    private static final int SOL_SOCKET = 1;
+    private static final int SO_REUSEPORT = 15;
+    private static final int SO_RCVTIMEO = 20;
+    private static final int MSG_WAITFORONE = 0x10000;
+    private static final int EINTR = 4;
+    private static final int EAGAIN = 11;
+
+    //struct sockaddr_in
+    private static final int SOCKADDR_SIZE = 16;
+    //struct iovec { void *iov_base; size_t iov_len; }
+    private static final int IOVEC_SIZE = 16;
+    //struct mmsghdr { struct msghdr msg_hdr; unsigned int msg_len; }
+    private static final int MMSGHDR_SIZE = 64;
+    private static final int MSG_NAME = 0;
+    private static final int MSG_NAMELEN = 8;
+    private static final int MSG_IOV = 16;
+    private static final int MSG_IOVLEN = 24;
+    private static final int MSG_LEN = 56;
+    private static final ValueLayout.OfShort NETWORK_SHORT = JAVA_SHORT.withOrder(ByteOrder.BIG_ENDIAN);
+
+    //how long a receive waits before giving the caller a chance to stop, in ms
+    private static final int RECEIVE_TIMEOUT = 250;
+
+    private static final StructLayout CALL_STATE = Linker.Option.captureStateLayout();
+    private static final long ERRNO = CALL_STATE.byteOffset(MemoryLayout.PathElement.groupElement("errno"));
+
+    private static final MethodHandle SOCKET = downcall("socket",
+            FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_INT, JAVA_INT));
+    private static final MethodHandle SETSOCKOPT = downcall("setsockopt",
+            FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_INT, JAVA_INT, ADDRESS, JAVA_INT));
+    private static final MethodHandle BIND = downcall("bind",
+            FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS, JAVA_INT));
+    private static final MethodHandle GETSOCKNAME = downcall("getsockname",
+            FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS, ADDRESS));
+    private static final MethodHandle RECVMMSG = downcall("recvmmsg",
+            FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS, JAVA_INT, JAVA_INT, ADDRESS));
+    private static final MethodHandle SENDMMSG = downcall("sendmmsg",
+            FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS, JAVA_INT, JAVA_INT));
+    private static final MethodHandle SENDTO = downcall("sendto",
+            FunctionDescriptor.of(JAVA_LONG, JAVA_INT, ADDRESS, JAVA_LONG, JAVA_INT, ADDRESS, JAVA_INT));
+    private static final MethodHandle CLOSE = downcall("close",
+            FunctionDescriptor.of(JAVA_INT, JAVA_INT));
+
+    private final Arena arena = Arena.ofShared();
+    private final MemorySegment callState = arena.allocate(CALL_STATE);
+    private final MemorySegment names = arena.allocate((long) SOCKADDR_SIZE * BATCH_MAX, 8);
+    private final MemorySegment receiveVec = arena.allocate((long) MMSGHDR_SIZE * BATCH_MAX, 8);
+    private final MemorySegment receiveIovs = arena.allocate((long) IOVEC_SIZE * BATCH_MAX, 8);
+    private final MemorySegment sendVec = arena.allocate((long) MMSGHDR_SIZE * BATCH_MAX, 8);
+    private final MemorySegment sendIovs = arena.allocate((long) IOVEC_SIZE * BATCH_MAX, 8);
+    private final MemorySegment requestData = arena.allocate((long) REQUEST_MAX * BATCH_MAX, 8);
+    private final MemorySegment responseData = arena.allocate((long) RESPONSE_MAX * BATCH_MAX, 8);
+    private final MemorySegment[] nameSlots = new MemorySegment[BATCH_MAX];
+    private final MemorySegment[] responseSlots = new MemorySegment[BATCH_MAX];
+    private final ByteBuffer[] requests = new ByteBuffer[BATCH_MAX];
+    private final ByteBuffer[] responses = new ByteBuffer[BATCH_MAX];
+    //read by sendTo() on other threads
+    private volatile int fd = -1;
+    private int localPort;
+    private int received;
+
+    /**
+     * Opens a socket bound to every IPv4 address on a port
+     *
+     * @param port the port to bind to, 0 picks a free one
+     * @param reusePort whether to set SO_REUSEPORT so other sockets can bind the same port
+     * @return the socket
+     * @throws UnsupportedOperationException
+     *      If this isn't 64 bit Linux or the C library doesn't have recvmmsg and sendmmsg
+     * @throws IOException
+     *      If the socket can't be made or bound
+     */
+    static MMsgSocket open(int port, boolean reusePort) throws IOException {
+        if(!System.getProperty("os.name").equals("Linux") || !(System.getProperty("os.arch").equals("amd64")
+                || System.getProperty("os.arch").equals("aarch64"))) {
+            throw new UnsupportedOperationException("recvmmsg needs x86_64 or aarch64 Linux");
+        }
+        if(RECVMMSG == null || SENDMMSG == null || SENDTO == null) {
+            throw new UnsupportedOperationException("C library doesn't have recvmmsg, sendmmsg, and sendto");
+        }
+        MMsgSocket socket = new MMsgSocket();
+        try {
+            socket.bind(port, reusePort);
+        } catch (IOException | RuntimeException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
+
+    /**
+     * Lays out the buffers and fills in everything in the mmsghdr arrays that doesn't change between batches
+     */
+    private MMsgSocket() {
+        for(int i = 0; i < BATCH_MAX; i++) {
+            nameSlots[i] = names.asSlice((long) i * SOCKADDR_SIZE, SOCKADDR_SIZE);
+            responseSlots[i] = responseData.asSlice((long) i * RESPONSE_MAX, RESPONSE_MAX);
+            MemorySegment request = requestData.asSlice((long) i * REQUEST_MAX, REQUEST_MAX);
+            MemorySegment iov = receiveIovs.asSlice((long) i * IOVEC_SIZE, IOVEC_SIZE);
+            iov.set(ADDRESS, 0, request);
+            iov.set(JAVA_LONG, 8, REQUEST_MAX);
+
+            MemorySegment header = receiveVec.asSlice((long) i * MMSGHDR_SIZE, MMSGHDR_SIZE);
+            header.set(ADDRESS, MSG_NAME, nameSlots[i]);
+            header.set(JAVA_INT, MSG_NAMELEN, SOCKADDR_SIZE);
+            header.set(ADDRESS, MSG_IOV, iov);
+            header.set(JAVA_LONG, MSG_IOVLEN, 1);
+
+            sendVec.set(ADDRESS, (long) i * MMSGHDR_SIZE + MSG_IOV, sendIovs.asSlice((long) i * IOVEC_SIZE, IOVEC_SIZE));
+            sendVec.set(JAVA_LONG, (long) i * MMSGHDR_SIZE + MSG_IOVLEN, 1);
+
+            requests[i] = request.asByteBuffer();
+            responses[i] = responseSlots[i].asByteBuffer();
+        }
+    }
+
+    /**
+     * Makes the socket and binds it
+     * @param port the port to bind to
+     * @param reusePort whether to set SO_REUSEPORT
+     * @throws IOException
+     *      If a call fails
+     */
+    private void bind(int port, boolean reusePort) throws IOException {
+        try (Arena scratch = Arena.ofConfined()) {
+            fd = check("socket", (int) SOCKET.invokeExact(callState, AF_INET, SOCK_DGRAM, 0));
+
+            MemorySegment option = scratch.allocate(JAVA_INT);
+            option.set(JAVA_INT, 0, 1);
+            if(reusePort) {
+                check("setsockopt", (int) SETSOCKOPT.invokeExact(callState, fd, SOL_SOCKET, SO_REUSEPORT,
+                        option, (int) JAVA_INT.byteSize()));
+            }
+            //struct timeval { long tv_sec; long tv_usec; }
+            MemorySegment timeout = scratch.allocate(16, 8);
+            timeout.set(JAVA_LONG, 0, RECEIVE_TIMEOUT / 1000);
+            timeout.set(JAVA_LONG, 8, (RECEIVE_TIMEOUT % 1000) * 1000L);
+            check("setsockopt", (int) SETSOCKOPT.invokeExact(callState, fd, SOL_SOCKET, SO_RCVTIMEO,
+                    timeout, (int) timeout.byteSize()));
+
+            //sin_family is in host order, sin_port in network order, sin_addr is INADDR_ANY
+            MemorySegment address = scratch.allocate(SOCKADDR_SIZE, 8);
+            address.set(JAVA_SHORT, 0, (short) AF_INET);
+            address.set(NETWORK_SHORT, 2, (short) port);
+            check("bind", (int) BIND.invokeExact(callState, fd, address, SOCKADDR_SIZE));
+
+            MemorySegment length = scratch.allocate(JAVA_INT);
+            length.set(JAVA_INT, 0, SOCKADDR_SIZE);
+            check("getsockname", (int) GETSOCKNAME.invokeExact(callState, fd, address, length));
+            localPort = address.get(NETWORK_SHORT, 2) & 0xFFFF;
+        } catch (IOException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public int receive() throws IOException {
+        //the kernel overwrote the address lengths of the last batch
+        for(int i = 0; i < received; i++) {
+            receiveVec.set(JAVA_INT, (long) i * MMSGHDR_SIZE + MSG_NAMELEN, SOCKADDR_SIZE);
+        }
+
+        int count;
+        try {
+            count = (int) RECVMMSG.invokeExact(callState, fd, receiveVec, BATCH_MAX, MSG_WAITFORONE,
+                    MemorySegment.NULL);
+        } catch (Throwable e) {
+            throw new IOException(e);
+        }
+        if(count < 0) {
+            int errno = callState.get(JAVA_INT, ERRNO);
+            if(errno == EAGAIN || errno == EINTR) {
+                received = 0;
+                return 0;
+            }
+            throw new IOException("recvmmsg failed, errno " + errno);
+        }
+
+        received = count;
+        for(int i = 0; i < count; i++) {
+            requests[i].clear().limit(receiveVec.get(JAVA_INT, (long) i * MMSGHDR_SIZE + MSG_LEN));
+            responses[i].clear();
+        }
+        return count;
+    }
+
+    @Override
+    public ByteBuffer request(int slot) {
+        return requests[checkSlot(slot)];
+    }
+
+    @Override
+    public ByteBuffer response(int slot) {
+        return responses[checkSlot(slot)];
+    }
+
+    @Override
+    public byte[] sender(int slot) {
+        return nameSlots[checkSlot(slot)].toArray(ValueLayout.JAVA_BYTE);
+    }
+
+    @Override
+    public void sendTo(ByteBuffer response, byte[] sender) throws IOException {
+        int socket = fd;
+        if(socket < 0) {
+            throw new IOException("Socket is closed");
+        }
+        //other threads call this, so it can't touch the batch's buffers or call state
+        try (Arena scratch = Arena.ofConfined()) {
+            MemorySegment state = scratch.allocate(CALL_STATE);
+            MemorySegment data = scratch.allocate(response.remaining(), 8);
+            data.asByteBuffer().put(response);
+            MemorySegment address = scratch.allocate(SOCKADDR_SIZE, 8);
+            address.copyFrom(MemorySegment.ofArray(sender));
+            long result;
+            do {
+                result = (long) SENDTO.invokeExact(state, socket, data, data.byteSize(), 0, address, SOCKADDR_SIZE);
+            } while(result < 0 && state.get(JAVA_INT, ERRNO) == EINTR);
+            if(result < 0) {
+                throw new IOException("sendto failed, errno " + state.get(JAVA_INT, ERRNO));
+            }
+        } catch (IOException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void send() throws IOException {
+        //only the slots with a response go out, each to the address its request came from
+        int count = 0;
+        for(int i = 0; i < received; i++) {
+            int length = responses[i].position();
+            if(length == 0) {
+                continue;
+            }
+            long header = (long) count * MMSGHDR_SIZE;
+            sendVec.set(ADDRESS, header + MSG_NAME, nameSlots[i]);
+            sendVec.set(JAVA_INT, header + MSG_NAMELEN, SOCKADDR_SIZE);
+            sendIovs.set(ADDRESS, (long) count * IOVEC_SIZE, responseSlots[i]);
+            sendIovs.set(JAVA_LONG, (long) count * IOVEC_SIZE + 8, length);
+            responses[i].clear();
+            count++;
+        }
+
+        //sendmmsg can stop short, so keep going from where it stopped
+        int sent = 0;
+        while(sent < count) {
+            int result;
+            try {
+                result = (int) SENDMMSG.invokeExact(callState, fd,
+                        sendVec.asSlice((long) sent * MMSGHDR_SIZE), count - sent, 0);
+            } catch (Throwable e) {
+                throw new IOException(e);
+            }
+            if(result < 0) {
+                int errno = callState.get(JAVA_INT, ERRNO);
+                if(errno == EINTR) {
+                    continue;
+                }
+                throw new IOException("sendmmsg failed, errno " + errno + ", dropped " + (count - sent) + " responses");
+            }
+            sent += result;
+        }
+    }
+
+    @Override
+    public int getLocalPort() {
+        return localPort;
+    }
+
+    @Override
+    public void close() {
+        int socket = fd;
+        if(socket >= 0) {
+            //cleared first, so a late sendTo() doesn't send on the fd after it is closed
+            fd = -1;
+            try {
+                int ignored = (int) CLOSE.invokeExact(callState, socket);
+            } catch (Throwable e) {
+                //nothing else can be done with the fd
+            }
+        }
+        arena.close();
+    }
+
+    /**
+     * Checks that a slot is part of the last batch
+     * @param slot the slot
+     * @return the slot
+     * @throws IndexOutOfBoundsException
+     *      If it isn't
+     */
+    private int checkSlot(int slot) {
+        if(slot < 0 || slot >= received) {
+            throw new IndexOutOfBoundsException("Slot " + slot + " not in a batch of " + received);
+        }
+        return slot;
+    }
+
+    /**
+     * Checks the result of a call that returns -1 on failure
+     * @param call the name of the call
+     * @param result what it returned
+     * @return the result
+     * @throws IOException
+     *      If it failed
+     */
+    private int check(String call, int result) throws IOException {
+        if(result < 0) {
+            throw new IOException(call + " failed, errno " + callState.get(JAVA_INT, ERRNO));
+        }
+        return result;
+    }
+
+    /**
+     * Looks up a C library function and makes a handle that also captures errno
+     * @param name the function
+     * @param descriptor its signature
+     * @return the handle, which takes the call state segment first. null if the function isn't there
+     */
+    private static MethodHandle downcall(String name, FunctionDescriptor descriptor) {
+        Linker linker = Linker.nativeLinker();
+        return linker.defaultLookup().find(name)
+                .map(symbol -> linker.downcallHandle(symbol, descriptor, Linker.Option.captureCallState("errno")))
+                .orElse(null);
+    }
+}
@@ -0,0 +1,359 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 7
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.app.udp.server;
+
+import sdns.app.RequestProcessor;
+import sdns.app.ServerBoilerplate;
+import sdns.app.ServerLogger;
+import sdns.app.masterfile.AsyncMasterFile;
+import sdns.app.masterfile.MasterFile;
+import sdns.app.masterfile.MasterFileFactory;
+import sdns.serialization.Message;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The batched UDP server for Linux.
+ *
+ * Every loop has its own thread and socket, the sockets sharing the port with SO_REUSEPORT, and all of them search one
+ * masterfile. A loop
+ * takes up to 64 datagrams with one recvmmsg call, decodes each one straight out of the off-heap slot it landed in,
+ * encodes each response into an off-heap slot, and sends them all with one sendmmsg call. At high packet rates this
+ * spends a fraction of the syscalls ServerNIO does.
+ *
+ * A masterfile that isn't an AsyncMasterFile is searched on a bounded pool of resolver threads, the same as
+ * ServerReactor. Names that are answered straight away go out with the batch. A name that has to be looked up is left
+ * out of it, and its response is sent on its own from whichever thread finishes the search.
+ *
+ * The sockets are driven through java.lang.foreign, which is a preview API on Java 21. The JVM needs
+ * --enable-preview (and --enable-native-access=ALL-UNNAMED to keep it quiet). When it doesn't have them, or this
+ * isn't 64 bit Linux, the server logs why and runs ServerNIO on the same port instead.
+ *
+ * @version 1.0
+ */
+public class ServerMMsg {
+    private static final Logger logger = ServerLogger.getLogger();
+    //compiled with --enable-preview, so it is only ever loaded by name
+    private static final String BATCH_SOCKET_CLASS = "sdns.app.udp.server.MMsgSocket";
+    //how many searches can wait for a resolver thread before more are shed
+    private static final int RESOLVER_QUEUE = 10000;
+    private final List<DatagramBatchSocket> sockets = new ArrayList<>();
+    private final List<Thread> loops = new ArrayList<>();
+    //set when the batch sockets aren't available
+    private ServerNIO fallback;
+    //null until started
+    private RequestProcessor processor;
+    //null unless the masterfile has to be searched off the loops
+    private ExecutorService resolvers;
+    private volatile boolean closed = false;
+
+    public static void main(String[] args) {
+        ServerMMsg server = new ServerMMsg();
+        server.init(args);
+    }
+
+    /**
+     * Initializes the server and runs it until every loop stops.
+     * @param args the input parameters. The number of loops defaults to the number of cores, and the number of
+     *      resolver threads to four per core
+     */
+    public void init(String[] args) {
+        try {
+            if(args.length < 1 || args.length > 3) {
+                logger.log(Level.SEVERE, "Unable to start: bad param");
+                throw new IllegalArgumentException("Parameter: <portNumber> [<loops> [<resolverThreads>]]");
+            }
+
+            //Get the port and the loop and resolver counts. Handle if bad
+            int listeningPort = Integer.parseInt(args[0]);
+            ServerBoilerplate.checkPort(listeningPort);
+            int cores = Runtime.getRuntime().availableProcessors();
+            int loopCount = args.length >= 2 ? Integer.parseInt(args[1]) : cores;
+            int resolverCount = args.length == 3 ? Integer.parseInt(args[2]) : 4 * cores;
+
+            start(listeningPort, loopCount, resolverCount, MasterFileFactory.makeMasterFile());
+            join();
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Unable to start: " + e.getMessage());
+            close();
+        }
+        logger.info("Server shutting down");
+    }
+
+    /**
+     * Opens the sockets and starts the loops, with four resolver threads per core, or starts ServerNIO if batch
+     * sockets aren't available
+     *
+     * @param port the port to listen on. 0 picks a free one, see getLocalPort()
+     * @param loopCount how many loops to run
+     * @throws IOException
+     *      If a socket can't be opened or bound
+     * @throws Exception
+     *      If a masterfile can't be made
+     */
+    public void start(int port, int loopCount) throws Exception {
+        start(port, loopCount, 4 * Runtime.getRuntime().availableProcessors(), MasterFileFactory.makeMasterFile());
+    }
+
+    /**
+     * Opens the sockets and starts the loops, all searching one masterfile.
+     * Starts ServerNIO instead if batch sockets aren't available
+     *
+     * @param port the port to listen on. 0 picks a free one, see getLocalPort()
+     * @param loopCount how many loops to run
+     * @param resolverCount how many threads search a masterfile that isn't an AsyncMasterFile
+     * @param masterFile the masterfile every loop searches
+     * @throws IOException
+     *      If a socket can't be opened or bound
+     */
+    public void start(int port, int loopCount, int resolverCount, MasterFile masterFile) throws IOException {
+        if(loopCount < 1 || resolverCount < 1) {
+            throw new IllegalArgumentException("There must be at least one loop and one resolver");
+        }
+
+        DatagramBatchSocket first;
+        try {
+            first = openBatchSocket(port, loopCount > 1);
+        } catch (UnsupportedOperationException e) {
+            logger.log(Level.WARNING, "Batched UDP is unavailable, falling back to ServerNIO: " + e.getMessage());
+            fallback = new ServerNIO();
+            fallback.start(port, loopCount, resolverCount, masterFile);
+            return;
+        }
+        sockets.add(first);
+
+        //the rest of the sockets have to bind to the port the first one got
+        try {
+            while(sockets.size() < loopCount) {
+                sockets.add(openBatchSocket(first.getLocalPort(), true));
+            }
+        } catch (IOException | RuntimeException e) {
+            for(DatagramBatchSocket socket : sockets) {
+                socket.close();
+            }
+            sockets.clear();
+            throw e;
+        }
+
+        if(masterFile instanceof AsyncMasterFile) {
+            processor = new RequestProcessor(masterFile, false);
+        } else {
+            resolvers = RequestProcessor.newResolverPool(resolverCount, RESOLVER_QUEUE);
+            processor = new RequestProcessor(masterFile, resolvers, false);
+        }
+        for(int i = 0; i < loopCount; i++) {
+            DatagramBatchSocket socket = sockets.get(i);
+            BatchResponder responder = new BatchResponder(socket, processor);
+            Thread loop = new Thread(() -> batchLoop(socket, responder), "sdns-udp-mmsg-" + i);
+            loops.add(loop);
+            loop.start();
+        }
+        logger.log(Level.INFO, "Running on port " + first.getLocalPort() + " with " + loopCount
+                + " batched loops" + (resolvers == null ? "" : " and " + resolverCount + " resolver threads"));
+    }
+
+    /**
+     * Gets what every loop hands its requests to
+     * @return the processor, null until the server is started
+     */
+    public RequestProcessor getProcessor() {
+        return fallback != null ? fallback.getProcessor() : this.processor;
+    }
+
+    /**
+     * Checks if the server is using batch sockets or fell back to ServerNIO
+     * @return true if it is started and using batch sockets
+     */
+    public boolean isBatched() {
+        return !sockets.isEmpty();
+    }
+
+    /**
+     * Waits for every loop to stop
+     * @throws InterruptedException
+     *      If interrupted while waiting
+     */
+    public void join() throws InterruptedException {
+        if(fallback != null) {
+            fallback.join();
+        }
+        for(Thread loop : loops) {
+            loop.join();
+        }
+    }
+
+    /**
+     * Gets the port the server is bound to
+     * @return the port, or -1 if it isn't started
+     */
+    public int getLocalPort() {
+        if(fallback != null) {
+            return fallback.getLocalPort();
+        }
+        return sockets.isEmpty() ? -1 : sockets.get(0).getLocalPort();
+    }
+
+    /**
+     * Stops the loops and the resolver threads. Each loop closes its own socket once its current receive times out
+     */
+    public void close() {
+        closed = true;
+        if(resolvers != null) {
+            resolvers.shutdown();
+        }
+        if(fallback != null) {
+            fallback.close();
+        }
+    }
+
+    /**
+     * Opens a batch socket
+     * @param port the port to bind
+     * @param reusePort whether to set SO_REUSEPORT
+     * @return the socket
+     * @throws UnsupportedOperationException
+     *      If batch sockets can't be used in this JVM or on this platform
+     * @throws IOException
+     *      If the socket can't be opened or bound
+     */
+    private static DatagramBatchSocket openBatchSocket(int port, boolean reusePort) throws IOException {
+        try {
+            Method open = Class.forName(BATCH_SOCKET_CLASS).getDeclaredMethod("open", int.class, boolean.class);
+            return (DatagramBatchSocket) open.invoke(null, port, reusePort);
+        } catch (InvocationTargetException e) {
+            if(e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if(e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new UnsupportedOperationException(e.getCause());
+        } catch (ReflectiveOperationException | LinkageError e) {
+            //without --enable-preview the class can't even be loaded
+            throw new UnsupportedOperationException(e.toString(), e);
+        }
+    }
+
+    /**
+     * Receives, answers, and sends batches until the server is closed, then closes the socket
+     * @param socket this loop's socket
+     * @param responder this loop's responder
+     */
+    private void batchLoop(DatagramBatchSocket socket, BatchResponder responder) {
+        try (socket) {
+            while(!closed) {
+                try {
+                    int received = socket.receive();
+                    if(received > 0 && logger.isLoggable(Level.INFO)) {
+                        logger.log(Level.INFO, "Serving a batch of " + received + " requests");
+                    }
+                    for(int i = 0; i < received; i++) {
+                        responder.handle(i);
+                    }
+                    socket.send();
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Communication Problem: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Answers requests for one loop. It is used for every request in every batch the loop receives, one at a time,
+     * and writes each response that is ready straight away into the slot of the request it answers.
+     */
+    private static class BatchResponder extends ServerBoilerplate {
+        private final DatagramBatchSocket socket;
+        private ByteBuffer response;
+
+        /**
+         * Makes a responder for a loop
+         * @param socket the loop's socket
+         * @param processor what the requests are handed to
+         */
+        BatchResponder(DatagramBatchSocket socket, RequestProcessor processor) {
+            this.socket = socket;
+            setProcessor(processor);
+        }
+
+        /**
+         * Decodes and answers one request. If the masterfile can't answer straight away the loop moves on, and the
+         * response is sent on its own from whichever thread completes the search
+         * @param slot the request's slot in the last batch
+         */
+        void handle(int slot) {
+            CompletableFuture<RequestProcessor.Reply> reply = getProcessor().processAsync(socket.request(slot));
+            if(reply.isDone()) {
+                this.response = socket.response(slot);
+                handleReply(reply.join());
+                return;
+            }
+            byte[] sender = socket.sender(slot);
+            reply.thenAccept(r -> sendLater(r, sender));
+        }
+
+        /**
+         * Sends a reply that was finished after its batch went out
+         * @param reply the reply, null if there is nothing to send
+         * @param sender the address of the client that made the request
+         */
+        private void sendLater(RequestProcessor.Reply reply, byte[] sender) {
+            if(reply == null || reply.isTransfer()) {
+                return;
+            }
+            try {
+                socket.sendTo(ByteBuffer.wrap(reply.encode()), sender);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Communication Problem: " + e.getMessage());
+            }
+        }
+
+        /**
+         * UDP:
+         * Encodes the response into the request's response slot. It goes out with the rest of the batch
+         *
+         * @param response the response to send
+         */
+        @Override
+        protected void sendResponse(Message response) {
+            this.response.clear();
+            try {
+                response.encodeInto(this.response);
+            } catch (BufferOverflowException e) {
+                logger.log(Level.WARNING, "Response too big for a datagram: " + response);
+            }
+        }
+
+        /**
+         * UDP:
+         * Copies an already encoded response into the request's response slot
+         *
+         * @param encodedResp the encoded response to send
+         */
+        @Override
+        protected void sendResponse(byte[] encodedResp) {
+            this.response.clear();
+            if(encodedResp.length > this.response.remaining()) {
+                logger.log(Level.WARNING, "Response too big for a datagram: " + encodedResp.length + " bytes");
+                return;
+            }
+            this.response.put(encodedResp);
+        }
+    }
+}
@@ -0,0 +1,371 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 7
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.app.udp.server;
+
+import sdns.app.RequestProcessor;
+import sdns.app.ServerBoilerplate;
+import sdns.app.ServerLogger;
+import sdns.app.masterfile.AsyncMasterFile;
+import sdns.app.masterfile.MasterFile;
+import sdns.app.masterfile.MasterFileFactory;
+import sdns.serialization.Message;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The non-blocking UDP server.
+ *
+ * Every loop has its own thread, Selector, and non-blocking DatagramChannel, and all of them search one masterfile, so
+ * its cache is shared instead of split between the loops. When there is more than one
+ * loop the channels share the port with SO_REUSEPORT, the same as ServerReusePort. If the platform doesn't have it,
+ * every loop selects on one shared channel instead.
+ *
+ * Each loop owns one direct receive buffer and one direct send buffer and uses them for every packet. A request is
+ * decoded straight out of the receive buffer and its response is encoded straight into the send buffer, so no
+ * DatagramPacket or byte array is made per packet. After each wakeup a loop drains up to DRAIN_MAX datagrams
+ * before going back to select.
+ *
+ * A masterfile that isn't an AsyncMasterFile is searched on a bounded pool of resolver threads, the same as
+ * ServerReactor, so a name that has to be looked up never holds up a loop. Names a LocalSearch has on hand are still
+ * answered on the loop's thread, and a search that doesn't fit in the pool's queue is shed.
+ *
+ * @version 1.0
+ */
+public class ServerNIO {
+    private static final Logger logger = ServerLogger.getLogger();
+    //Max buffer size for the UDP packet
+    private static final int BUFFER_MAX = 512;
+    //the biggest payload a UDP datagram can carry
+    private static final int SEND_MAX = 65507;
+    //the most datagrams to handle per wakeup before selecting again
+    private static final int DRAIN_MAX = 64;
+    //how many searches can wait for a resolver thread before more are shed
+    private static final int RESOLVER_QUEUE = 10000;
+    private final List<DatagramChannel> channels = new ArrayList<>();
+    private final List<Selector> selectors = new ArrayList<>();
+    private final List<Thread> loops = new ArrayList<>();
+    //null until started
+    private RequestProcessor processor;
+    //null unless the masterfile has to be searched off the loops
+    private ExecutorService resolvers;
+
+    public static void main(String[] args) {
+        ServerNIO server = new ServerNIO();
+        server.init(args);
+    }
+
+    /**
+     * Initializes the server and runs it until every loop stops.
+     * @param args the input parameters. The number of loops defaults to the number of cores, and the number of
+     *      resolver threads to four per core
+     */
+    public void init(String[] args) {
+        try {
+            if(args.length < 1 || args.length > 3) {
+                logger.log(Level.SEVERE, "Unable to start: bad param");
+                throw new IllegalArgumentException("Parameter: <portNumber> [<loops> [<resolverThreads>]]");
+            }
+
+            //Get the port and the loop and resolver counts. Handle if bad
+            int listeningPort = Integer.parseInt(args[0]);
+            ServerBoilerplate.checkPort(listeningPort);
+            int cores = Runtime.getRuntime().availableProcessors();
+            int loopCount = args.length >= 2 ? Integer.parseInt(args[1]) : cores;
+            int resolverCount = args.length == 3 ? Integer.parseInt(args[2]) : 4 * cores;
+
+            start(listeningPort, loopCount, resolverCount, MasterFileFactory.makeMasterFile());
+            join();
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Unable to start: " + e.getMessage());
+            close();
+        }
+        logger.info("Server shutting down");
+    }
+
+    /**
+     * Opens the channels and selectors and starts the loops, with four resolver threads per core
+     *
+     * @param port the port to listen on. 0 picks a free one, see getLocalPort()
+     * @param loopCount how many loops to run
+     * @throws IOException
+     *      If a channel or selector can't be opened or bound
+     * @throws Exception
+     *      If a masterfile can't be made
+     */
+    public void start(int port, int loopCount) throws Exception {
+        start(port, loopCount, 4 * Runtime.getRuntime().availableProcessors(), MasterFileFactory.makeMasterFile());
+    }
+
+    /**
+     * Opens the channels and selectors and starts the loops
+     *
+     * @param port the port to listen on. 0 picks a free one, see getLocalPort()
+     * @param loopCount how many loops to run
+     * @param resolverCount how many threads search a masterfile that isn't an AsyncMasterFile
+     * @param masterFile the masterfile every loop searches
+     * @throws IOException
+     *      If a channel or selector can't be opened or bound
+     */
+    public void start(int port, int loopCount, int resolverCount, MasterFile masterFile) throws IOException {
+        if(loopCount < 1 || resolverCount < 1) {
+            throw new IllegalArgumentException("There must be at least one loop and one resolver");
+        }
+        if(masterFile instanceof AsyncMasterFile) {
+            processor = new RequestProcessor(masterFile, false);
+        } else {
+            resolvers = RequestProcessor.newResolverPool(resolverCount, RESOLVER_QUEUE);
+            processor = new RequestProcessor(masterFile, resolvers, false);
+        }
+
+        DatagramChannel first = DatagramChannel.open();
+        channels.add(first);
+        boolean reusePort = loopCount > 1 && first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        if(reusePort) {
+            first.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        } else if(loopCount > 1) {
+            logger.log(Level.WARNING, "SO_REUSEPORT is not supported, all loops will share one channel");
+        }
+        first.bind(new InetSocketAddress(port));
+
+        //the rest of the channels have to bind to the port the first one got
+        int boundPort = ((InetSocketAddress) first.getLocalAddress()).getPort();
+        while(reusePort && channels.size() < loopCount) {
+            DatagramChannel channel = DatagramChannel.open();
+            channels.add(channel);
+            channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            channel.bind(new InetSocketAddress(boundPort));
+        }
+        for(DatagramChannel channel : channels) {
+            channel.configureBlocking(false);
+        }
+
+        for(int i = 0; i < loopCount; i++) {
+            DatagramChannel channel = channels.get(i % channels.size());
+            Selector selector = Selector.open();
+            selectors.add(selector);
+            channel.register(selector, SelectionKey.OP_READ);
+            NIOResponder responder = new NIOResponder(channel, processor);
+            Thread loop = new Thread(() -> selectLoop(selector, responder), "sdns-udp-nio-" + i);
+            loops.add(loop);
+            loop.start();
+        }
+        logger.log(Level.INFO, "Running on port " + boundPort + " with " + loopCount + " loops over "
+                + channels.size() + " channels" + (resolvers == null ? "" : " and " + resolverCount
+                + " resolver threads"));
+    }
+
+    /**
+     * Gets what every loop hands its requests to
+     * @return the processor, null until the server is started
+     */
+    public RequestProcessor getProcessor() {
+        return this.processor;
+    }
+
+    /**
+     * Waits for every loop to stop
+     * @throws InterruptedException
+     *      If interrupted while waiting
+     */
+    public void join() throws InterruptedException {
+        for(Thread loop : loops) {
+            loop.join();
+        }
+    }
+
+    /**
+     * Gets the port the server is bound to
+     * @return the port, or -1 if it isn't started
+     */
+    public int getLocalPort() {
+        try {
+            return channels.isEmpty() ? -1 : ((InetSocketAddress) channels.get(0).getLocalAddress()).getPort();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Closes every selector and channel, which stops the loops, and stops the resolver threads
+     */
+    public void close() {
+        if(resolvers != null) {
+            resolvers.shutdown();
+        }
+        for(Selector selector : selectors) {
+            try {
+                selector.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Problem closing selector: " + e.getMessage());
+            }
+        }
+        for(DatagramChannel channel : channels) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Problem closing channel: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Waits for datagrams and answers them until the selector or channel is closed
+     * @param selector this loop's selector
+     * @param responder this loop's responder
+     */
+    private static void selectLoop(Selector selector, NIOResponder responder) {
+        while(selector.isOpen() && responder.channel.isOpen()) {
+            try {
+                selector.select();
+                selector.selectedKeys().clear();
+                //a wakeup usually means more than one datagram is waiting
+                for(int i = 0; i < DRAIN_MAX && responder.receive(); i++) {
+                    responder.handleReceived();
+                }
+            } catch (ClosedSelectorException | ClosedChannelException e) {
+                //close() was called
+                break;
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Communication Problem: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Answers requests for one loop. It is used for every request the loop receives, one at a time,
+     * so the client it answers changes with every datagram.
+     */
+    private static class NIOResponder extends ServerBoilerplate {
+        private final DatagramChannel channel;
+        private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(BUFFER_MAX);
+        private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(SEND_MAX);
+        private SocketAddress client;
+
+        /**
+         * Makes a responder for a loop
+         * @param channel the channel the loop receives on
+         * @param processor what the requests are handed to
+         */
+        NIOResponder(DatagramChannel channel, RequestProcessor processor) {
+            this.channel = channel;
+            setProcessor(processor);
+        }
+
+        /**
+         * Receives the next waiting datagram into the receive buffer
+         * @return false if nothing was waiting
+         * @throws IOException
+         *      If the receive fails
+         */
+        boolean receive() throws IOException {
+            receiveBuffer.clear();
+            this.client = channel.receive(receiveBuffer);
+            receiveBuffer.flip();
+            return this.client != null;
+        }
+
+        /**
+         * Decodes and answers the datagram in the receive buffer. If the masterfile can't answer straight away the
+         * loop moves on, and the response is sent from whichever thread completes the search
+         */
+        void handleReceived() {
+            if(logger.isLoggable(Level.INFO)) {
+                logger.log(Level.INFO, "Serving a request from " + client);
+            }
+            CompletableFuture<RequestProcessor.Reply> reply = getProcessor().processAsync(receiveBuffer);
+            if(reply.isDone()) {
+                handleReply(reply.join());
+                return;
+            }
+            SocketAddress waiting = this.client;
+            reply.thenAccept(r -> sendLater(r, waiting));
+        }
+
+        /**
+         * Sends a reply that was finished off the loop's thread. The loop owns the send buffer, so this one gets
+         * its own
+         * @param reply the reply, null if there is nothing to send
+         * @param to the client that made the request
+         */
+        private void sendLater(RequestProcessor.Reply reply, SocketAddress to) {
+            if(reply == null || reply.isTransfer()) {
+                return;
+            }
+            try {
+                if(channel.send(ByteBuffer.wrap(reply.encode()), to) == 0) {
+                    logger.log(Level.FINE, "Send buffer full, dropped response to " + to);
+                }
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Communication Problem: " + e.getMessage());
+            }
+        }
+
+        /**
+         * UDP:
+         * Encodes the response into the send buffer and sends it to the client that made the request
+         *
+         * @param response the response to send
+         */
+        @Override
+        protected void sendResponse(Message response) {
+            sendBuffer.clear();
+            try {
+                response.encodeInto(sendBuffer);
+            } catch (BufferOverflowException e) {
+                logger.log(Level.WARNING, "Response too big for a datagram: " + response);
+                return;
+            }
+            sendBuffer.flip();
+            send();
+        }
+
+        /**
+         * UDP:
+         * Sends an already encoded response to the client that made the request
+         *
+         * @param encodedResp the encoded response to send
+         */
+        @Override
+        protected void sendResponse(byte[] encodedResp) {
+            sendBuffer.clear();
+            sendBuffer.put(encodedResp).flip();
+            send();
+        }
+
+        /**
+         * Sends what is in the send buffer. The channel is non-blocking, so if the socket's send buffer is full
+         * the response is dropped, the same as if the network had lost it
+         */
+        private void send() {
+            try {
+                if(channel.send(sendBuffer, client) == 0) {
+                    logger.log(Level.FINE, "Send buffer full, dropped response to " + client);
+                }
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Communication Problem: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,352 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 7
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.app.udp.server;
+
+import sdns.app.LatencyHistogram;
+import sdns.app.LoadShedder;
+import sdns.app.RequestProcessor;
+import sdns.app.ServerBoilerplate;
+import sdns.app.ServerLogger;
+import sdns.app.masterfile.Deadline;
+import sdns.app.masterfile.MasterFile;
+import sdns.app.masterfile.MasterFileFactory;
+import sdns.serialization.Message;
+import sdns.serialization.ValidationException;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The UDP server for machines with more than one core.
+ *
+ * Opens one DatagramChannel per receive loop, all bound to the same port with SO_REUSEPORT, so the kernel spreads
+ * clients across the channels. Every loop has its own thread, receive buffer, and DatagramResponder, which answers
+ * every request the loop receives. All of the loops hand their requests to one RequestProcessor searching one
+ * masterfile, so its cache is shared instead of split between them.
+ * If the platform doesn't have SO_REUSEPORT, every loop receives from one shared channel instead.
+ *
+ * By default a loop answers each request itself before receiving the next one. In virtual thread mode the loop only
+ * receives, and each request is decoded, searched, and answered on its own virtual thread, so one slow masterfile
+ * search doesn't hold up the requests behind it.
+ * At most maxInFlight requests are handled at once. Past that the loop stops receiving until one finishes,
+ * so a burst waits in the socket's receive buffer, which the kernel bounds, instead of in memory.
+ * How long requests wait between being received and being started is kept in a LatencyHistogram, and a LoadShedder
+ * decides as each one starts whether it waited too long to be worth answering.
+ *
+ * @version 1.0
+ */
+public class ServerReusePort {
+    private static final Logger logger = ServerLogger.getLogger();
+    //Max buffer size for the UDP packet
+    private static final int BUFFER_MAX = 512;
+    //how often the queue times are logged in virtual thread mode, in ms
+    private static final long STATS_INTERVAL = 60000;
+    private final List<DatagramChannel> channels = new ArrayList<>();
+    private final List<Thread> receiveLoops = new ArrayList<>();
+    private final LatencyHistogram queueTimes = new LatencyHistogram();
+    private LoadShedder shedder = LoadShedder.fromProperties();
+    //null until started
+    private RequestProcessor processor;
+    private final ThreadFactory requestThreads = Thread.ofVirtual().name("sdns-udp-request-", 0).factory();
+    //null unless in virtual thread mode
+    private Semaphore inFlight;
+    private int maxInFlight;
+
+    public static void main(String[] args) {
+        ServerReusePort server = new ServerReusePort();
+        server.init(args);
+    }
+
+    /**
+     * Initializes the server and runs it until every receive loop stops.
+     * @param args the input parameters. The number of receive loops defaults to the number of cores
+     */
+    public void init(String[] args) {
+        try {
+            if(args.length < 1 || args.length > 3) {
+                logger.log(Level.SEVERE, "Unable to start: bad param");
+                throw new IllegalArgumentException("Parameter: <portNumber> [<receiveLoops> [<maxInFlight>]]");
+            }
+
+            //Get the port and the loop count. Handle if bad
+            int listeningPort = Integer.parseInt(args[0]);
+            ServerBoilerplate.checkPort(listeningPort);
+            int loopCount = args.length >= 2 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+            if(args.length == 3) {
+                setVirtualThreads(Integer.parseInt(args[2]));
+            }
+
+            start(listeningPort, loopCount);
+            for(Thread loop : receiveLoops) {
+                loop.join();
+            }
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Unable to start: " + e.getMessage());
+            close();
+        }
+        logger.info("Server shutting down");
+    }
+
+    /**
+     * Turns on virtual thread mode. Must be called before start()
+     *
+     * @param maxInFlight the most requests to handle at once
+     * @return this
+     * @throws IllegalArgumentException
+     *      If maxInFlight is less than 1
+     * @throws IllegalStateException
+     *      If the server has already started
+     */
+    public ServerReusePort setVirtualThreads(int maxInFlight) {
+        if(maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1");
+        }
+        if(!channels.isEmpty()) {
+            throw new IllegalStateException("Server already started");
+        }
+        this.inFlight = new Semaphore(maxInFlight);
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
+    /**
+     * Sets what decides which requests waited too long in virtual thread mode. Must be called before start()
+     *
+     * @param shedder the shedder
+     * @return this
+     * @throws NullPointerException
+     *      If shedder is null
+     * @throws IllegalStateException
+     *      If the server has already started
+     */
+    public ServerReusePort setLoadShedder(LoadShedder shedder) {
+        Objects.requireNonNull(shedder, "Shedder cannot be null");
+        if(!channels.isEmpty()) {
+            throw new IllegalStateException("Server already started");
+        }
+        this.shedder = shedder;
+        return this;
+    }
+
+    /**
+     * Gets what decides which requests waited too long in virtual thread mode
+     * @return the shedder
+     */
+    public LoadShedder getLoadShedder() {
+        return this.shedder;
+    }
+
+    /**
+     * Gets how long requests waited between being received and a virtual thread starting on them.
+     * Empty unless in virtual thread mode
+     *
+     * @return the queue times
+     */
+    public LatencyHistogram getQueueTimes() {
+        return this.queueTimes;
+    }
+
+    /**
+     * Gets what every loop hands its requests to
+     * @return the processor, null until the server is started
+     */
+    public RequestProcessor getProcessor() {
+        return this.processor;
+    }
+
+    /**
+     * Opens the channels and starts the receive loops
+     *
+     * @param port the port to listen on. 0 picks a free one, see getLocalPort()
+     * @param loopCount how many receive loops to run
+     * @throws IOException
+     *      If a channel can't be opened or bound
+     * @throws Exception
+     *      If a masterfile can't be made
+     */
+    public void start(int port, int loopCount) throws Exception {
+        start(port, loopCount, MasterFileFactory.makeMasterFile());
+    }
+
+    /**
+     * Opens the channels and starts the receive loops
+     *
+     * @param port the port to listen on. 0 picks a free one, see getLocalPort()
+     * @param loopCount how many receive loops to run
+     * @param masterFile the masterfile every loop searches
+     * @throws IOException
+     *      If a channel can't be opened or bound
+     */
+    public void start(int port, int loopCount, MasterFile masterFile) throws IOException {
+        if(loopCount < 1) {
+            throw new IllegalArgumentException("There must be at least one receive loop");
+        }
+
+        processor = new RequestProcessor(masterFile, false);
+        DatagramChannel first = DatagramChannel.open();
+        channels.add(first);
+        boolean reusePort = first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        if(reusePort) {
+            first.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        } else {
+            logger.log(Level.WARNING, "SO_REUSEPORT is not supported, all receive loops will share one channel");
+        }
+        first.bind(new InetSocketAddress(port));
+
+        //the rest of the channels have to bind to the port the first one got
+        int boundPort = ((InetSocketAddress) first.getLocalAddress()).getPort();
+        while(reusePort && channels.size() < loopCount) {
+            DatagramChannel channel = DatagramChannel.open();
+            channels.add(channel);
+            channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            channel.bind(new InetSocketAddress(boundPort));
+        }
+
+        for(int i = 0; i < loopCount; i++) {
+            DatagramChannel channel = channels.get(i % channels.size());
+            DatagramResponder responder = new DatagramResponder(channel, processor);
+            Thread loop = new Thread(() -> receiveLoop(channel, responder), "sdns-udp-" + i);
+            receiveLoops.add(loop);
+            loop.start();
+        }
+        logger.log(Level.INFO, "Running on port " + boundPort + " with " + loopCount + " receive loops over "
+                + channels.size() + " channels" + (inFlight == null ? "" :
+                ", up to " + maxInFlight + " requests in flight on virtual threads"));
+
+        if(inFlight != null) {
+            Thread.ofVirtual().name("sdns-udp-stats").start(this::logQueueTimes);
+        }
+    }
+
+    /**
+     * Gets the port the server is bound to
+     * @return the port, or -1 if it isn't started
+     */
+    public int getLocalPort() {
+        try {
+            return channels.isEmpty() ? -1 : ((InetSocketAddress) channels.get(0).getLocalAddress()).getPort();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Closes every channel, which stops the receive loops
+     */
+    public void close() {
+        if(inFlight != null) {
+            logger.log(Level.INFO, "Queue times: " + queueTimes + ", " + shedder);
+        }
+        for(DatagramChannel channel : channels) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Problem closing channel: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Receives, decodes, and answers requests on a channel until it is closed
+     * @param channel the channel to receive from
+     * @param responder this loop's responder
+     */
+    private void receiveLoop(DatagramChannel channel, DatagramResponder responder) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_MAX);
+        while(channel.isOpen()) {
+            try {
+                buffer.clear();
+                SocketAddress client = channel.receive(buffer);
+                buffer.flip();
+                long received = System.nanoTime();
+                byte[] packetData = new byte[buffer.remaining()];
+                buffer.get(packetData);
+                logger.log(Level.INFO, "Serving a request from " + client);
+
+                if(inFlight == null) {
+                    handleRequest(responder, client, packetData, null, RequestProcessor.deadline(received));
+                    continue;
+                }
+
+                //wait for room, then hand the request off and go back to receiving
+                inFlight.acquire();
+                try {
+                    requestThreads.newThread(() -> {
+                        queueTimes.record(System.nanoTime() - received);
+                        try {
+                            handleRequest(responder, client, packetData, shedder.shouldShed(received) ? shedder : null,
+                                    RequestProcessor.deadline(received));
+                        } finally {
+                            inFlight.release();
+                        }
+                    }).start();
+                } catch (RuntimeException e) {
+                    inFlight.release();
+                    throw e;
+                }
+            } catch (InterruptedException e) {
+                break;
+            } catch (ClosedChannelException e) {
+                //close() was called, this includes a receive that was interrupted by it
+                break;
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Communication Problem: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Decodes and answers one request
+     * @param responder the responder of the loop it came in on
+     * @param client the client that sent it
+     * @param packetData the datagram
+     * @param shedder what shed the request, null if it is to be answered
+     * @param deadline when the client stops waiting for the answer
+     */
+    private static void handleRequest(DatagramResponder responder, SocketAddress client, byte[] packetData,
+                                      LoadShedder shedder, Deadline deadline) {
+        try {
+            Message request = Message.decode(packetData);
+            if(shedder != null) {
+                responder.shed(request, client, shedder);
+            } else {
+                responder.respond(request, client, deadline);
+            }
+        } catch (ValidationException e) {
+            logger.log(Level.SEVERE, "Unable to parse message: " + e.getMessage() + ", Bad Token: " + e.getBadToken());
+        }
+    }
+
+    /**
+     * Logs the queue times every STATS_INTERVAL until the server is closed
+     */
+    private void logQueueTimes() {
+        try {
+            while(channels.get(0).isOpen()) {
+                Thread.sleep(STATS_INTERVAL);
+                logger.log(Level.INFO, "Queue times: " + queueTimes + ", in flight: "
+                        + (maxInFlight - inFlight.availablePermits()) + ", " + shedder);
+            }
+        } catch (InterruptedException e) {
+            //stop logging
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 7
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.bench;
+
+import org.openjdk.jmh.annotations.*;
+import sdns.app.RequestProcessor;
+import sdns.app.ServerLogger;
+import sdns.app.masterfile.AsyncMasterFile;
+import sdns.app.masterfile.CachingMasterFile;
+import sdns.app.masterfile.MasterFile;
+import sdns.app.masterfile.SearchResult;
+import sdns.app.tcp.server.ServerReactor;
+import sdns.serialization.Framer;
+import sdns.serialization.Message;
+import sdns.serialization.RCode;
+import sdns.serialization.Response;
+import sdns.serialization.ValidationException;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long a cache hit takes to answer, in process and end to end over TCP.
+ *
+ * The upstream answers the corpus names with the corpus responses, a millisecond after it is asked, like a nearby
+ * resolver. Only the names it answers with RRs that can be kept are asked for, and every one is asked for once
+ * before measuring, so every measured query is a hit.
+ *
+ * hit answers an encoded query through a RequestProcessor in front of a CachingMasterFile, which copies the
+ * response it encoded last time and puts the new ID on. build answers the same queries through a processor that
+ * builds and encodes every response from the RRs, which is what every hit cost before the cache kept encoded
+ * responses. endToEnd sends one query at a time to a ServerReactor in front of the cache and waits for the answer,
+ * sampled so the percentiles show; a miss would take more than the upstream's millisecond.
+ *
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class CacheBenchmark {
+    //how long the upstream takes to answer, in ms
+    private static final long UPSTREAM_DELAY = 1;
+
+    private ScheduledExecutorService upstreamTimer;
+    private RequestProcessor cached;
+    private RequestProcessor uncached;
+    //the queries whose answers can be kept, encoded
+    private byte[][] queries;
+    private int next;
+
+    /**
+     * Answers the corpus names with the corpus responses after UPSTREAM_DELAY
+     */
+    private static class Upstream implements AsyncMasterFile {
+        private final Map<String, SearchResult> answers;
+        private final ScheduledExecutorService timer;
+
+        Upstream(Map<String, SearchResult> answers, ScheduledExecutorService timer) {
+            this.answers = answers;
+            this.timer = timer;
+        }
+
+        @Override
+        public CompletableFuture<SearchResult> searchAsync(String question) {
+            CompletableFuture<SearchResult> result = new CompletableFuture<>();
+            timer.schedule(() -> {
+                SearchResult answer = answers.get(question);
+                if(answer == null) {
+                    result.completeExceptionally(new NoSuchElementException("Name does not exist"));
+                } else {
+                    result.complete(answer);
+                }
+            }, UPSTREAM_DELAY, TimeUnit.MILLISECONDS);
+            return result;
+        }
+    }
+
+    /**
+     * A ServerReactor in front of the cache, and a connection to it
+     */
+    @State(Scope.Thread)
+    public static class EndToEnd {
+        private ServerReactor server;
+        private Socket socket;
+        private OutputStream out;
+        private InputStream in;
+        private byte[][] queries;
+        private int next;
+
+        @Setup
+        public void setup(CacheBenchmark bench) throws IOException, ValidationException {
+            queries = new byte[bench.queries.length][];
+            for(int i = 0; i < queries.length; i++) {
+                queries[i] = Framer.frameMsg(bench.queries[i]);
+            }
+            server = new ServerReactor();
+            server.start(0, 1, 1, bench.cached.getMasterFile());
+            socket = new Socket("127.0.0.1", server.getLocalPort());
+            socket.setTcpNoDelay(true);
+            out = new BufferedOutputStream(socket.getOutputStream(), 4096);
+            in = socket.getInputStream();
+        }
+
+        @TearDown
+        public void tearDown() throws IOException, InterruptedException {
+            socket.close();
+            server.close();
+            server.join();
+        }
+    }
+
+    @Setup
+    public void setup() throws ValidationException {
+        //per request logging would turn this into a benchmark of the log file
+        ServerLogger.getLogger().setLevel(java.util.logging.Level.WARNING);
+        Map<String, SearchResult> answers = new HashMap<>();
+        List<byte[]> keepable = new ArrayList<>();
+        for(int i = 0; i < Corpus.SIZE; i++) {
+            Response response = (Response) Message.decode(Corpus.responses().get(i));
+            SearchResult answer = new SearchResult(response.getAnswerList(), response.getNameServerList(),
+                    response.getAdditionalList());
+            if(response.getRCode() == RCode.NOERROR && answer.getMinTTL() > 0
+                    && answers.putIfAbsent(Corpus.names().get(i), answer) == null) {
+                keepable.add(Corpus.queries().get(i));
+            }
+        }
+        queries = keepable.toArray(new byte[0][]);
+
+        upstreamTimer = Executors.newSingleThreadScheduledExecutor();
+        CachingMasterFile cache = new CachingMasterFile(new Upstream(answers, upstreamTimer));
+        cached = new RequestProcessor((MasterFile) cache, false);
+        uncached = new RequestProcessor((MasterFile) (question, an, ns, ad) -> {
+            SearchResult answer = answers.get(question);
+            if(answer == null) {
+                throw new NoSuchElementException("Name does not exist");
+            }
+            answer.addTo(an, ns, ad);
+        }, false);
+        for(byte[] query : queries) {
+            cached.processAsync(query).join();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        upstreamTimer.shutdown();
+    }
+
+    @Benchmark
+    public byte[] hit() {
+        return cached.processAsync(ByteBuffer.wrap(queries[next++ % queries.length])).join().encode();
+    }
+
+    @Benchmark
+    public byte[] build() {
+        return uncached.processAsync(ByteBuffer.wrap(queries[next++ % queries.length])).join().encode();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public byte[] endToEnd(EndToEnd client) throws IOException {
+        client.out.write(client.queries[client.next++ % client.queries.length]);
+        client.out.flush();
+        byte[] frame = Framer.nextMsg(client.in);
+        if(frame == null) {
+            throw new IOException("Server closed the connection");
+        }
+        return frame;
+    }
+}
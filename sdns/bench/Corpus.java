@@ -0,0 +1,284 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 7
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.bench;
+
+import sdns.serialization.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The packets every benchmark runs over. The corpus is built from a fixed seed so every run and every
+ * machine measures the same bytes.
+ *
+ * The mix is meant to look like what a resolver sees: mostly short queries for popular names, answered
+ * with a few A/AAAA records, CNAME chains, MX sets, referrals with glue, negative answers carrying only
+ * an SOA, the odd CAA, and a few large answers.
+ *
+ * @version 1.0
+ */
+public final class Corpus {
+    //how many packets of each kind there are. Benchmarks that go over the whole corpus count this many ops
+    public static final int SIZE = 256;
+
+    private static final long SEED = 0x5D45L;
+
+    private static final String[] ZONES = {
+            "google.com.", "youtube.com.", "facebook.com.", "baylor.edu.", "wikipedia.org.", "amazon.com.",
+            "netflix.com.", "cloudflare.net.", "akamaiedge.net.", "github.io.", "apple.com.", "microsoft.com.",
+            "linkedin.com.", "office365.us.", "example.org.", "ecs.baylor.edu."
+    };
+
+    private static final String[] HOSTS = {
+            "www", "mail", "api", "cdn", "static", "login", "m", "ns1", "ns2", "smtp", "img",
+            "edge-frontend-01", "a", "clients6", "accounts", "prod-us-east-2", "files", "vpn"
+    };
+
+    private static final List<byte[]> QUERIES = new ArrayList<>(SIZE);
+    private static final List<byte[]> RESPONSES = new ArrayList<>(SIZE);
+    private static final List<String> NAMES = new ArrayList<>(SIZE);
+
+    static {
+        try {
+            Random random = new Random(SEED);
+            for(int i = 0; i < SIZE; i++) {
+                String name = name(random);
+                NAMES.add(name);
+                QUERIES.add(new Query(random.nextInt(65536), name).encode());
+                RESPONSES.add(response(random, name).encode());
+            }
+        } catch (ValidationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Corpus() {
+    }
+
+    /**
+     * Gets the encoded queries
+     * @return SIZE encoded queries
+     */
+    public static List<byte[]> queries() {
+        return QUERIES;
+    }
+
+    /**
+     * Gets the encoded responses
+     * @return SIZE encoded responses
+     */
+    public static List<byte[]> responses() {
+        return RESPONSES;
+    }
+
+    /**
+     * Gets the names the queries ask for
+     * @return SIZE domain names
+     */
+    public static List<String> names() {
+        return NAMES;
+    }
+
+    /**
+     * Gets a single RR of a type encoded the way it is on the wire
+     * @param type the type name, A, AAAA, NS, CNAME, MX, SOA, CAA, or UNKNOWN
+     * @return the encoded RR
+     */
+    public static byte[] record(String type) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            switch (type) {
+                case "A" -> new A("www.google.com.", 300, v4(142, 250, 72, 196)).encode(out);
+                case "AAAA" -> new AAAA("www.google.com.", 300, v6(0x26, 0x07, 0xf8, 0xb0)).encode(out);
+                case "NS" -> new NS("google.com.", 172800, "ns1.google.com.").encode(out);
+                case "CNAME" -> new CName("www.baylor.edu.", 3600, "baylor-edu.edgesuite.net.").encode(out);
+                case "MX" -> new MX("baylor.edu.", 3600, "baylor-edu.mail.protection.outlook.com.", 10).encode(out);
+                case "SOA" -> soa("baylor.edu.").encode(out);
+                case "CAA" -> new CAA("google.com.", 86400, "pki.goog").encode(out);
+                case "UNKNOWN" -> {
+                    //a TXT record, which the codec keeps as Unknown
+                    byte[] name = {6, 'g', 'o', 'o', 'g', 'l', 'e', 3, 'c', 'o', 'm', 0};
+                    byte[] text = "v=spf1 include:_spf.google.com ~all".getBytes();
+                    out.write(name);
+                    out.write(new byte[] {0, 16, 0, 1, 0, 0, 14, 16, 0, (byte) (text.length + 1), (byte) text.length});
+                    out.write(text);
+                }
+                default -> throw new IllegalArgumentException("Unknown RR type: " + type);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (ValidationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Makes a distinct A record for answer number i
+     * @param i which record
+     * @return an A record for bulk.example.org.
+     * @throws ValidationException
+     *      If the record can't be made
+     */
+    public static A bulkA(int i) throws ValidationException {
+        return new A("bulk.example.org.", 60, v4(10, i >> 16, i >> 8, i));
+    }
+
+    /**
+     * Picks a name to ask for. Mostly host.zone, sometimes just the zone, sometimes in mixed case
+     * @param random the corpus random
+     * @return the name
+     */
+    private static String name(Random random) {
+        String zone = ZONES[random.nextInt(ZONES.length)];
+        String name = random.nextInt(5) == 0 ? zone : HOSTS[random.nextInt(HOSTS.length)] + "." + zone;
+        if(random.nextInt(8) == 0) {
+            StringBuilder mixed = new StringBuilder(name);
+            for(int i = 0; i < mixed.length(); i += 2) {
+                mixed.setCharAt(i, Character.toUpperCase(mixed.charAt(i)));
+            }
+            name = mixed.toString();
+        }
+        return name;
+    }
+
+    /**
+     * Makes a response to a name in one of the shapes a resolver sees
+     * @param random the corpus random
+     * @param name the question
+     * @return the response
+     * @throws ValidationException
+     *      If any RR can't be made
+     */
+    private static Response response(Random random, String name) throws ValidationException {
+        Response response = new Response(random.nextInt(65536), name, RCode.NOERROR);
+        String zone = zoneOf(name);
+        int shape = random.nextInt(100);
+        if(shape < 40) {
+            //plain address answer
+            for(int i = 1 + random.nextInt(4); i > 0; i--) {
+                response.addAnswer(new A(name, 300, v4(random)));
+            }
+        } else if(shape < 55) {
+            //dual stack
+            response.addAnswer(new A(name, 300, v4(random)));
+            response.addAnswer(new AAAA(name, 300, v6(random.nextInt(256), random.nextInt(256), 0, random.nextInt(256))));
+        } else if(shape < 70) {
+            //cdn CNAME chain
+            String edge = "e" + random.nextInt(9999) + ".a.akamaiedge.net.";
+            response.addAnswer(new CName(name, 3600, name.toLowerCase().replace('.', '-') + "edgekey.net."));
+            response.addAnswer(new CName(name.toLowerCase().replace('.', '-') + "edgekey.net.", 300, edge));
+            response.addAnswer(new A(edge, 20, v4(random)));
+            response.addAnswer(new A(edge, 20, v4(random)));
+        } else if(shape < 78) {
+            //mail
+            int exchanges = 1 + random.nextInt(3);
+            for(int i = 0; i < exchanges; i++) {
+                response.addAnswer(new MX(zone, 3600, "mx" + i + ".mail." + zone, (i + 1) * 10));
+            }
+        } else if(shape < 88) {
+            //referral with glue
+            for(int i = 1; i <= 4; i++) {
+                String ns = "ns" + i + "." + zone;
+                response.addNameServer(new NS(zone, 172800, ns));
+                response.addAdditional(new A(ns, 172800, v4(random)));
+                response.addAdditional(new AAAA(ns, 172800, v6(0x20, 0x01, i, random.nextInt(256))));
+            }
+        } else if(shape < 95) {
+            //negative answer
+            response.setRCode(RCode.NAMEERROR);
+            response.addNameServer(soa(zone));
+        } else if(shape < 98) {
+            response.addAnswer(new CAA(zone, 86400, "letsencrypt.org"));
+            response.addAnswer(new CAA(zone, 86400, "pki.goog"));
+        } else {
+            //large round robin
+            for(int i = 0; i < 40; i++) {
+                response.addAnswer(new A(name, 60, v4(random)));
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Gets the zone a name is in
+     * @param name the name
+     * @return the name without its first label, or the name if it is one of the zones
+     */
+    private static String zoneOf(String name) {
+        String lower = name.toLowerCase();
+        for(String zone : ZONES) {
+            if(lower.equals(zone)) {
+                return zone;
+            }
+        }
+        return lower.substring(lower.indexOf('.') + 1);
+    }
+
+    /**
+     * Makes the SOA of a zone
+     * @param zone the zone
+     * @return the SOA
+     * @throws ValidationException
+     *      If the SOA can't be made
+     */
+    private static SOA soa(String zone) throws ValidationException {
+        return new SOA(zone, 3600, "ns1." + zone, "hostmaster." + zone,
+                2024031501L, 7200, 3600, 1209600, 300);
+    }
+
+    /**
+     * Makes a random IPv4 address
+     * @param random the corpus random
+     * @return the address
+     */
+    private static Inet4Address v4(Random random) {
+        return v4(random.nextInt(224), random.nextInt(256), random.nextInt(256), random.nextInt(256));
+    }
+
+    /**
+     * Makes an IPv4 address out of the low bytes of four ints
+     * @return the address
+     */
+    private static Inet4Address v4(int a, int b, int c, int d) {
+        try {
+            return (Inet4Address) InetAddress.getByAddress(new byte[] {(byte) a, (byte) b, (byte) c, (byte) d});
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Makes an IPv6 address with the first four bytes given and the rest counting up
+     * @return the address
+     */
+    private static Inet6Address v6(int a, int b, int c, int d) {
+        byte[] address = new byte[16];
+        address[0] = (byte) a;
+        address[1] = (byte) b;
+        address[2] = (byte) c;
+        address[3] = (byte) d;
+        for(int i = 4; i < 16; i++) {
+            address[i] = (byte) i;
+        }
+        try {
+            return (Inet6Address) InetAddress.getByAddress(address);
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
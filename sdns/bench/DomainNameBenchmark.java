@@ -0,0 +1,135 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 7
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import sdns.serialization.LabelScanner;
+import sdns.serialization.ResourceRecord;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Domain name validation and case folding through ResourceRecord.validateDomainName() and through each LabelScanner
+ * directly. Scores are per name.
+ *
+ * length picks the names: short ones like "x12.io.", the corpus names, which are what a server typically sees,
+ * and long ones at the 255 byte limit. The vector scanner copies each name to bytes first, so whether it pays off
+ * depends on the length.
+ *
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class DomainNameBenchmark {
+    @Param({"scalar", "vector"})
+    public String scanner;
+
+    @Param({"short", "typical", "long"})
+    public String length;
+
+    private LabelScanner labelScanner;
+    private String[] names;
+    //the same names in lower case, different objects so equalsIgnoreCase can't shortcut
+    private String[] lowerNames;
+
+    @Setup
+    public void setup() {
+        labelScanner = "vector".equals(scanner) ? LabelScanner.getVector() : LabelScanner.getScalar();
+        if(labelScanner == null) {
+            throw new IllegalStateException("jdk.incubator.vector is not loaded");
+        }
+        names = switch (length) {
+            case "short" -> shortNames();
+            case "typical" -> Corpus.names().toArray(new String[0]);
+            case "long" -> longNames();
+            default -> throw new IllegalArgumentException("Unknown length: " + length);
+        };
+        lowerNames = new String[names.length];
+        for(int i = 0; i < names.length; i++) {
+            lowerNames[i] = new String(names[i].toLowerCase());
+        }
+    }
+
+    /**
+     * Makes names of one short label under a TLD
+     * @return Corpus.SIZE names of 6 to 8 chars
+     */
+    private static String[] shortNames() {
+        String[] names = new String[Corpus.SIZE];
+        for(int i = 0; i < names.length; i++) {
+            names[i] = (i % 2 == 0 ? "x" : "X") + i + ".io.";
+        }
+        return names;
+    }
+
+    /**
+     * Makes names as long as a name can be: three 63 char labels and a 62 char one
+     * @return Corpus.SIZE names of 255 chars
+     */
+    private static String[] longNames() {
+        Random random = new Random(255);
+        String[] names = new String[Corpus.SIZE];
+        for(int i = 0; i < names.length; i++) {
+            StringBuilder name = new StringBuilder(255);
+            for(int label = 0; label < 4; label++) {
+                name.append(label(random, label == 3 ? 62 : 63)).append('.');
+            }
+            names[i] = name.toString();
+        }
+        return names;
+    }
+
+    /**
+     * Makes a valid label of mixed case letters, digits and hyphens
+     * @param random where the chars come from
+     * @param length how long the label is
+     * @return the label
+     */
+    private static String label(Random random, int length) {
+        String chars = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789-";
+        char[] label = new char[length];
+        for(int i = 0; i < length; i++) {
+            label[i] = chars.charAt(random.nextInt(chars.length()));
+        }
+        //a label starts with a letter and ends with a letter or digit
+        label[0] = chars.charAt(random.nextInt(52));
+        label[length - 1] = chars.charAt(random.nextInt(chars.length() - 1));
+        return new String(label);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Corpus.SIZE)
+    public void validateDomainName(Blackhole bh) {
+        for(String name : names) {
+            bh.consume(ResourceRecord.validateDomainName(name));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Corpus.SIZE)
+    public void isValidDomainName(Blackhole bh) {
+        for(String name : names) {
+            bh.consume(labelScanner.isValidDomainName(name));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Corpus.SIZE)
+    public void equalsIgnoreCase(Blackhole bh) {
+        for(int i = 0; i < names.length; i++) {
+            bh.consume(labelScanner.equalsIgnoreCase(names[i], lowerNames[i]));
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 7
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import sdns.serialization.Framer;
+import sdns.serialization.NIODeframer;
+import sdns.serialization.ValidationException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TCP framing of the response corpus. The deframers get the whole corpus as one stream of frames;
+ * NIODeframer gets it in reads of a fixed size the way a socket hands it over. Scores are per message.
+ *
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class FramerBenchmark {
+    private byte[][] messages;
+    private byte[] stream;
+
+    /**
+     * The framed stream cut up into socket reads
+     */
+    @State(Scope.Benchmark)
+    public static class Reads {
+        //how many bytes each read hands NIODeframer
+        @Param({"64", "1460", "16384"})
+        public int readSize;
+
+        public byte[][] reads;
+
+        @Setup
+        public void setup(FramerBenchmark corpus) {
+            reads = new byte[(corpus.stream.length + readSize - 1) / readSize][];
+            for(int i = 0; i < reads.length; i++) {
+                reads[i] = Arrays.copyOfRange(corpus.stream, i * readSize,
+                        Math.min(corpus.stream.length, (i + 1) * readSize));
+            }
+        }
+    }
+
+    @Setup
+    public void setup() throws ValidationException {
+        messages = Corpus.responses().toArray(new byte[0][]);
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        for(byte[] message : messages) {
+            frames.writeBytes(Framer.frameMsg(message));
+        }
+        stream = frames.toByteArray();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Corpus.SIZE)
+    public void frameMsg(Blackhole bh) throws ValidationException {
+        for(byte[] message : messages) {
+            bh.consume(Framer.frameMsg(message));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Corpus.SIZE)
+    public void nextMsg(Blackhole bh) throws IOException {
+        ByteArrayInputStream in = new ByteArrayInputStream(stream);
+        byte[] message;
+        while((message = Framer.nextMsg(in)) != null) {
+            bh.consume(message);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Corpus.SIZE)
+    public void nioDeframer(Reads state, Blackhole bh) {
+        NIODeframer deframer = new NIODeframer();
+        for(byte[] read : state.reads) {
+            //a read can finish more than one frame
+            byte[] message = deframer.getMessage(read);
+            while(message != null) {
+                bh.consume(message);
+                message = deframer.getMessage(new byte[0]);
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 7
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import sdns.serialization.DecodeProfile;
+import sdns.serialization.Message;
+import sdns.serialization.ValidationException;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Message.decode() and encode() over the whole corpus. Scores are per packet.
+ *
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class MessageBenchmark {
+    /**
+     * Encoded packets to decode
+     */
+    @State(Scope.Benchmark)
+    public static class Encoded {
+        @Param({"query", "response"})
+        public String kind;
+
+        @Param({"STRICT", "LENIENT", "TRUSTED"})
+        public DecodeProfile profile;
+
+        public byte[][] packets;
+
+        @Setup
+        public void setup() {
+            packets = ("query".equals(kind) ? Corpus.queries() : Corpus.responses()).toArray(new byte[0][]);
+        }
+    }
+
+    /**
+     * Decoded messages to encode
+     */
+    @State(Scope.Benchmark)
+    public static class Decoded {
+        @Param({"query", "response"})
+        public String kind;
+
+        public Message[] messages;
+
+        @Setup
+        public void setup() throws ValidationException {
+            List<byte[]> packets = "query".equals(kind) ? Corpus.queries() : Corpus.responses();
+            messages = new Message[packets.size()];
+            for(int i = 0; i < messages.length; i++) {
+                messages[i] = Message.decode(packets.get(i));
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Corpus.SIZE)
+    public void decode(Encoded state, Blackhole bh) throws ValidationException {
+        for(byte[] packet : state.packets) {
+            bh.consume(Message.decode(packet, state.profile));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Corpus.SIZE)
+    public void encode(Decoded state, Blackhole bh) {
+        for(Message message : state.messages) {
+            bh.consume(message.encode());
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 7
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.bench;
+
+import org.openjdk.jmh.annotations.*;
+import sdns.app.ServerLogger;
+import sdns.app.masterfile.AsyncMasterFile;
+import sdns.app.masterfile.CachingMasterFile;
+import sdns.app.masterfile.LocalSearch;
+import sdns.app.masterfile.OffHeapMasterFile;
+import sdns.app.masterfile.SearchResult;
+import sdns.serialization.A;
+import sdns.serialization.ValidationException;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What a cache of millions of names costs the garbage collector, kept on the heap by a CachingMasterFile or off it by
+ * an OffHeapMasterFile.
+ *
+ * The cache is filled with entries names, each an A record answered straight away by the upstream. churn is the
+ * steady state of a busy server: a hit on a kept name and a new name that pushes an old one out. Run it with
+ * -prof gc: gc.time is how long the collector paused the application while churn ran, and gc.count how many
+ * collections that took. A heap cache is walked object by object on every old collection while an off-heap one is a
+ * few arrays, so the pauses are where the two differ. sdns-bench/offheap-gc.json is a run at 1 and 5 million entries.
+ *
+ * 10 million heap entries need several GB of heap. On a smaller machine, cut the sizes down with -p entries=...
+ * and the heap with -jvmArgs.
+ *
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx12g", "-XX:MaxDirectMemorySize=4g"})
+public class OffHeapCacheBenchmark {
+    //bytes of slabs an off-heap entry is given. An entry is about 90, and eviction frees whole slabs
+    private static final long BYTES_PER_ENTRY = 128;
+
+    @Param({"1000000", "5000000", "10000000"})
+    private int entries;
+
+    @Param({"heap", "offHeap"})
+    private String store;
+
+    private AsyncMasterFile cache;
+    //the next name churn adds
+    private int next;
+
+    /**
+     * Answers every name with one A record, straight away
+     */
+    private static class Upstream implements AsyncMasterFile {
+        @Override
+        public CompletableFuture<SearchResult> searchAsync(String question) {
+            try {
+                byte[] address = {10, (byte) (question.hashCode() >> 16), (byte) (question.hashCode() >> 8),
+                        (byte) question.hashCode()};
+                return CompletableFuture.completedFuture(new SearchResult(List.of(new A(question, 3600,
+                        (Inet4Address) InetAddress.getByAddress(address))), List.of(), List.of()));
+            } catch (ValidationException | UnknownHostException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+    }
+
+    @Setup
+    public void setup() {
+        ServerLogger.getLogger().setLevel(java.util.logging.Level.WARNING);
+        if(store.equals("heap")) {
+            cache = new CachingMasterFile(new Upstream(), entries, 86400, 1, 1);
+        } else {
+            cache = new OffHeapMasterFile(new Upstream(), entries * BYTES_PER_ENTRY, 86400, 1 << 20, 1);
+        }
+        for(next = 0; next < entries; next++) {
+            cache.searchAsync(name(next)).join();
+        }
+    }
+
+    /**
+     * Gets the name of an entry
+     * @param i which entry
+     * @return its name
+     */
+    private static String name(int i) {
+        return "n" + i + ".example.com.";
+    }
+
+    @Benchmark
+    public SearchResult churn() throws ValidationException {
+        //one of the newest names, which neither cache evicts first
+        SearchResult hit = ((LocalSearch) cache).searchLocal(name(next - 1 - ThreadLocalRandom.current().nextInt(
+                entries / 10)));
+        cache.searchAsync(name(next++)).join();
+        return hit;
+    }
+}
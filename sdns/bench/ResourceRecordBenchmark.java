@@ -0,0 +1,45 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 7
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.bench;
+
+import org.openjdk.jmh.annotations.*;
+import sdns.serialization.ResourceRecord;
+import sdns.serialization.ValidationException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ResourceRecord.decode() for a single RR of each type, including one the codec keeps as Unknown
+ *
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class ResourceRecordBenchmark {
+    @Param({"A", "AAAA", "NS", "CNAME", "MX", "SOA", "CAA", "UNKNOWN"})
+    public String type;
+
+    private byte[] encoded;
+
+    @Setup
+    public void setup() {
+        encoded = Corpus.record(type);
+    }
+
+    @Benchmark
+    public ResourceRecord decode() throws IOException, ValidationException {
+        return ResourceRecord.decode(new ByteArrayInputStream(encoded));
+    }
+}
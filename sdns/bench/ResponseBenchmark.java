@@ -0,0 +1,98 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 7
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.bench;
+
+import org.openjdk.jmh.annotations.*;
+import sdns.serialization.RCode;
+import sdns.serialization.ResourceRecord;
+import sdns.serialization.Response;
+import sdns.serialization.ValidationException;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building a Response with many answers, with the answers frozen (shared) or mutable (cloned on add),
+ * and encoding it once it is built. Scores are per response.
+ *
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class ResponseBenchmark {
+    @Param({"10", "100", "1000"})
+    public int answers;
+
+    private Response built;
+
+    /**
+     * The answers to add
+     */
+    @State(Scope.Benchmark)
+    public static class Records {
+        @Param({"true", "false"})
+        public boolean frozen;
+
+        public ResourceRecord[] records;
+
+        @Setup
+        public void setup(ResponseBenchmark bench) throws ValidationException {
+            records = records(bench.answers, frozen);
+        }
+    }
+
+    @Setup
+    public void setup() throws ValidationException {
+        built = build(records(answers, true));
+    }
+
+    @Benchmark
+    public Response build(Records state) throws ValidationException {
+        return build(state.records);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return built.encode();
+    }
+
+    /**
+     * Adds every record to a new response
+     * @param records the answers
+     * @return the response
+     * @throws ValidationException
+     *      If an answer can't be added
+     */
+    private static Response build(ResourceRecord[] records) throws ValidationException {
+        Response response = new Response(4321, "bulk.example.org.", RCode.NOERROR);
+        for(ResourceRecord record : records) {
+            response.addAnswer(record);
+        }
+        return response;
+    }
+
+    /**
+     * Makes distinct A records
+     * @param count how many
+     * @param frozen true to freeze them
+     * @return the records
+     * @throws ValidationException
+     *      If a record can't be made
+     */
+    private static ResourceRecord[] records(int count, boolean frozen) throws ValidationException {
+        ResourceRecord[] records = new ResourceRecord[count];
+        for(int i = 0; i < count; i++) {
+            records[i] = frozen ? Corpus.bulkA(i).freeze() : Corpus.bulkA(i);
+        }
+        return records;
+    }
+}
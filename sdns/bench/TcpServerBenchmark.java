@@ -0,0 +1,230 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 7
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.bench;
+
+import org.openjdk.jmh.annotations.*;
+import sdns.app.ServerLogger;
+import sdns.app.masterfile.AsyncMasterFile;
+import sdns.app.masterfile.MasterFile;
+import sdns.app.masterfile.SearchResult;
+import sdns.app.tcp.server.Server;
+import sdns.app.tcp.server.ServerAIO;
+import sdns.app.tcp.server.ServerReactor;
+import sdns.serialization.Framer;
+import sdns.serialization.Message;
+import sdns.serialization.ResourceRecord;
+import sdns.serialization.ValidationException;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queries answered on active connections while a TCP server also holds a crowd of idle ones, with every TCP engine
+ * head to head: Server with a thread pool, Server with virtual threads, ServerAIO, and ServerReactor.
+ *
+ * The idle connections are opened before the active ones and never send anything. In pool mode they take every
+ * thread in the pool, so the active connections wait behind them and their queries time out. In virtual thread
+ * mode each idle connection only parks a virtual thread, and the AIO and reactor engines don't spend a thread on
+ * them at all. The answered and timedOut counters are per second; the answered count is the score to compare.
+ *
+ * query sends one query and waits for its answer. pipelined sends a burst of queries in one write and then reads
+ * every answer, which is where the engines' batching shows. The masterfile answers every name with the same
+ * A record straight away, like a cache hit, so every engine answers inline and the score is the engine.
+ *
+ * Every connection needs a descriptor on each end, so 10,000 idle connections need an open file limit of a bit
+ * over 20,000. Use -p idle=... to run fewer.
+ *
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class TcpServerBenchmark {
+    //the thread pool size in pool mode
+    private static final int POOL_SIZE = 64;
+    //how many connections virtual thread mode serves past the idle ones
+    private static final int HEADROOM = 1024;
+    //how long an active client waits for an answer, in ms
+    private static final int TIMEOUT = 100;
+    //how many queries a pipelined burst sends
+    private static final int BURST = 32;
+
+    @Param({"pool", "virtual", "aio", "reactor"})
+    public String mode;
+
+    @Param({"10000"})
+    public int idle;
+
+    private Server server;
+    private ServerAIO aio;
+    private ServerReactor reactor;
+    private int port;
+    private final List<Socket> idleClients = new ArrayList<>();
+
+    /**
+     * Answers every name with the same RR. It is an AsyncMasterFile that always has the answer, so no engine hands
+     * the search to another thread
+     */
+    private static class Answers implements MasterFile, AsyncMasterFile {
+        private final SearchResult result;
+
+        Answers(ResourceRecord answer) {
+            this.result = new SearchResult(List.of(answer), List.of(), List.of());
+        }
+
+        @Override
+        public void search(String question, List<ResourceRecord> answers, List<ResourceRecord> nameservers,
+                           List<ResourceRecord> additionals) {
+            result.addTo(answers, nameservers, additionals);
+        }
+
+        @Override
+        public CompletableFuture<SearchResult> searchAsync(String question) {
+            return CompletableFuture.completedFuture(result);
+        }
+    }
+
+    /**
+     * An active connection and the queries it sends
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Client {
+        public long answered;
+        public long timedOut;
+        private Socket socket;
+        private OutputStream out;
+        private InputStream in;
+        private byte[][] queries;
+        private int next;
+
+        @Setup
+        public void setup(TcpServerBenchmark server) throws IOException, ValidationException {
+            socket = new Socket("127.0.0.1", server.port);
+            socket.setSoTimeout(TIMEOUT);
+            socket.setTcpNoDelay(true);
+            out = new BufferedOutputStream(socket.getOutputStream(), 16384);
+            in = socket.getInputStream();
+            List<byte[]> corpus = Corpus.queries();
+            queries = new byte[corpus.size()][];
+            for(int i = 0; i < queries.length; i++) {
+                queries[i] = Framer.frameMsg(corpus.get(i));
+            }
+        }
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            answered = 0;
+            timedOut = 0;
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            socket.close();
+        }
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        //per request logging would turn this into a benchmark of the log file
+        ServerLogger.getLogger().setLevel(java.util.logging.Level.WARNING);
+        MasterFile masterFile = new Answers(Corpus.bulkA(1).freeze());
+        switch (mode) {
+            case "pool" -> server = new Server().setThreadPoolSize(POOL_SIZE);
+            case "virtual" -> server = new Server().setVirtualThreads(idle + HEADROOM);
+            case "aio" -> aio = new ServerAIO();
+            case "reactor" -> reactor = new ServerReactor();
+            default -> throw new IllegalArgumentException("Unknown mode: " + mode);
+        }
+        if(server != null) {
+            server.start(0, masterFile);
+            port = server.getLocalPort();
+        } else if(aio != null) {
+            aio.start(0, masterFile);
+            port = aio.getLocalPort();
+        } else {
+            int cores = Runtime.getRuntime().availableProcessors();
+            reactor.start(0, cores, cores, masterFile);
+            port = reactor.getLocalPort();
+        }
+        for(int i = 0; i < idle; i++) {
+            idleClients.add(new Socket("127.0.0.1", port));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException, InterruptedException {
+        for(Socket socket : idleClients) {
+            socket.close();
+        }
+        if(server != null) {
+            server.close();
+            server.join();
+        }
+        if(aio != null) {
+            aio.close();
+        }
+        if(reactor != null) {
+            reactor.close();
+            reactor.join();
+        }
+    }
+
+    @Benchmark
+    public void query(Client client) throws IOException, ValidationException {
+        byte[] query = client.queries[client.next++ % client.queries.length];
+        client.out.write(query);
+        client.out.flush();
+        int id = ((query[2] & 0xFF) << 8) | (query[3] & 0xFF);
+        try {
+            //skip any answer that came in after its query had already timed out
+            byte[] frame;
+            while((frame = Framer.nextMsg(client.in)) != null && Message.decode(frame).getID() != id) {
+                continue;
+            }
+            if(frame == null) {
+                throw new IOException("Server closed the connection");
+            }
+            client.answered++;
+        } catch (SocketTimeoutException e) {
+            client.timedOut++;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void pipelined(Client client) throws IOException {
+        for(int i = 0; i < BURST; i++) {
+            client.out.write(client.queries[client.next++ % client.queries.length]);
+        }
+        client.out.flush();
+
+        //answers can come back in any order, and a lost one only costs the wait
+        int answered = 0;
+        try {
+            while(answered < BURST && Framer.nextMsg(client.in) != null) {
+                answered++;
+            }
+        } catch (SocketTimeoutException e) {
+            client.timedOut += BURST - answered;
+        }
+        client.answered += answered;
+    }
+}
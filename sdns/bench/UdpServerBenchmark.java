@@ -0,0 +1,170 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 7
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.bench;
+
+import org.openjdk.jmh.annotations.*;
+import sdns.app.ServerLogger;
+import sdns.app.masterfile.LocalSearch;
+import sdns.app.masterfile.MasterFile;
+import sdns.app.masterfile.SearchResult;
+import sdns.app.udp.server.ServerMMsg;
+import sdns.app.udp.server.ServerNIO;
+import sdns.serialization.ResourceRecord;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Packets per second through a single loop UDP server over loopback, ServerNIO against ServerMMsg.
+ *
+ * Each client sends a burst of queries from the corpus and then waits for every answer, so the server always finds
+ * a queue of datagrams when it wakes up, which is the load batching is for. The masterfile answers every name
+ * with the same A record from what it has on hand, like a cache hit, so it is answered on the loop instead of the
+ * resolver pool and the score is mostly I/O and the codec. Scores are per datagram answered.
+ *
+ * The mmsg engine needs --enable-preview on Linux. If ServerMMsg has to fall back to ServerNIO the trial fails
+ * instead of reporting ServerNIO's numbers under the wrong name.
+ *
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector", "--enable-preview",
+        "--enable-native-access=ALL-UNNAMED"})
+public class UdpServerBenchmark {
+    //how many queries a client has out at once
+    private static final int BURST = 32;
+    //how long a client waits for a lost answer, in ms
+    private static final long TIMEOUT = 100;
+
+    /**
+     * A masterfile that has every name on hand, with the same answer
+     */
+    private static final class OneAnswer implements MasterFile, LocalSearch {
+        private final SearchResult found;
+
+        OneAnswer(ResourceRecord answer) {
+            this.found = new SearchResult(List.of(answer), List.of(), List.of());
+        }
+
+        @Override
+        public void search(String question, List<ResourceRecord> answers, List<ResourceRecord> nameservers,
+                           List<ResourceRecord> additionals) {
+            found.addTo(answers, nameservers, additionals);
+        }
+
+        @Override
+        public SearchResult searchLocal(String question) {
+            return found;
+        }
+    }
+
+    @Param({"nio", "mmsg"})
+    public String engine;
+
+    private ServerNIO nio;
+    private ServerMMsg mmsg;
+    private int port;
+
+    /**
+     * A client socket and the queries it sends
+     */
+    @State(Scope.Thread)
+    public static class Client {
+        public DatagramChannel channel;
+        public Selector selector;
+        public ByteBuffer[] queries;
+        public ByteBuffer answer = ByteBuffer.allocateDirect(512);
+        public int next;
+
+        @Setup
+        public void setup(UdpServerBenchmark server) throws IOException {
+            channel = DatagramChannel.open();
+            channel.connect(new InetSocketAddress("127.0.0.1", server.port));
+            channel.configureBlocking(false);
+            selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
+            queries = Corpus.queries().stream().map(ByteBuffer::wrap).toArray(ByteBuffer[]::new);
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            selector.close();
+            channel.close();
+        }
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        //per request logging would turn this into a benchmark of the log file
+        ServerLogger.getLogger().setLevel(Level.WARNING);
+        ResourceRecord answer = Corpus.bulkA(1).freeze();
+        MasterFile masterFile = new OneAnswer(answer);
+        switch (engine) {
+            case "nio" -> {
+                nio = new ServerNIO();
+                nio.start(0, 1, 1, masterFile);
+                port = nio.getLocalPort();
+            }
+            case "mmsg" -> {
+                mmsg = new ServerMMsg();
+                mmsg.start(0, 1, 1, masterFile);
+                port = mmsg.getLocalPort();
+                if(!mmsg.isBatched()) {
+                    mmsg.close();
+                    throw new IllegalStateException("recvmmsg is unavailable, see the server log");
+                }
+            }
+            default -> throw new IllegalArgumentException("Unknown engine: " + engine);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        if(nio != null) {
+            nio.close();
+            nio.join();
+        }
+        if(mmsg != null) {
+            mmsg.close();
+            mmsg.join();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public int burst(Client client) throws IOException {
+        for(int i = 0; i < BURST; i++) {
+            ByteBuffer query = client.queries[client.next++ % client.queries.length];
+            client.channel.write(query.rewind());
+        }
+
+        //a lost answer only costs the wait, it isn't counted
+        int answered = 0;
+        while(answered < BURST && client.selector.select(TIMEOUT) > 0) {
+            client.selector.selectedKeys().clear();
+            client.answer.clear();
+            while(client.channel.read(client.answer) > 0) {
+                answered++;
+                client.answer.clear();
+            }
+        }
+        return answered;
+    }
+}
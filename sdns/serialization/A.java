@@ -12,6 +12,7 @@ import java.io.*;
 import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
 public class A extends ResourceRecord implements Cloneable{
@@ -47,16 +48,35 @@ public class A extends ResourceRecord implements Cloneable{
      *      If any values given or read are invalid
      */
     public A(String name, int ttl, int RDLength, InputStream in) throws IOException, ValidationException {
+        this(name, ttl, RDLength, in, DecodeProfile.STRICT);
+    }
+
+    /**
+     * The polymorphic constructor for A
+     * @param name the RR name
+     * @param ttl the TTL
+     * @param RDLength the RDLength of the RData
+     * @param in the input stream
+     * @param profile how strict to be
+     * @throws IOException -
+     *      If there is an error reading from the stream
+     * @throws ValidationException -
+     *      If any values given or read are invalid
+     */
+    public A(String name, int ttl, int RDLength, InputStream in, DecodeProfile profile) throws IOException, ValidationException {
         Inet4Address ipAddress;
+        if(RDLength != 4) {
+            throw new ValidationException("RDLength must be 4", Integer.toString(RDLength));
+        }
         try {
             byte[] readAddr = in.readNBytes(RDLength);
             if(readAddr.length < 4) {
                 throw new EOFException("addr too short");
             }
             ipAddress  = (Inet4Address) InetAddress.getByAddress(readAddr);
-            this.setTTL(ttl);
+            this.setTTL(ttl, profile);
             this.setRDLength(RDLength);
-            this.setName(name);
+            this.setName(name, profile);
             this.setAddress(ipAddress);
         } catch (IOException e) {
             if( e instanceof UnknownHostException) {
@@ -84,6 +104,7 @@ public class A extends ResourceRecord implements Cloneable{
      *      If the address is invalid or null.
      */
     public A setAddress(Inet4Address address) throws ValidationException {
+        checkNotFrozen();
         if(address == null) {
             throw new ValidationException("IP cannot be null", null);
         }
@@ -112,7 +133,7 @@ public class A extends ResourceRecord implements Cloneable{
         return this.TYPE_VALUE == a.getTypeValue() &&
                 ipv4Addr.equals(a.getAddress()) &&
                 this.getTTL() == a.getTTL() &&
-                this.getName().toLowerCase().equals(a.getName().toLowerCase());
+                LabelScanner.getDefault().equalsIgnoreCase(this.getName(), a.getName());
     }
 
     /**
@@ -121,7 +142,7 @@ public class A extends ResourceRecord implements Cloneable{
      */
     @Override
     public int hashCode() {
-        return Objects.hash(ipv4Addr, this.getTTL(), this.getName().toLowerCase(), this.TYPE_VALUE);
+        return Objects.hash(ipv4Addr, this.getTTL(), LabelScanner.getDefault().toLowerCase(this.getName()), this.TYPE_VALUE);
     }
 
     /**
@@ -145,6 +166,16 @@ public class A extends ResourceRecord implements Cloneable{
         encodeBuffer.writeTo(out); //write the entire contents of the BAOS to the output
     }
 
+    /**
+     * Encodes RDLength and the address into a buffer
+     * @param out the buffer to write to
+     */
+    @Override
+    protected void encodeRData(ByteBuffer out) {
+        out.putShort((short)4);
+        out.put(this.ipv4Addr.getAddress());
+    }
+
     /**
      * Gets the type value of this RR
      *
@@ -12,6 +12,7 @@ import java.io.*;
 import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
 public class AAAA extends ResourceRecord implements Cloneable{
@@ -47,7 +48,26 @@ public class AAAA extends ResourceRecord implements Cloneable{
      *      If any value given or read is invalid
      */
     public AAAA(String name, int ttl, int RDLength, InputStream in) throws IOException, ValidationException {
+        this(name, ttl, RDLength, in, DecodeProfile.STRICT);
+    }
+
+    /**
+     *  The polymorhpic constructor for AAAA
+     * @param name the RR name
+     * @param ttl the ttl
+     * @param RDLength the RDLength of the RData
+     * @param in the input stream
+     * @param profile how strict to be
+     * @throws IOException -
+     *      If any read from the stream is bad
+     * @throws ValidationException -
+     *      If any value given or read is invalid
+     */
+    public AAAA(String name, int ttl, int RDLength, InputStream in, DecodeProfile profile) throws IOException, ValidationException {
         Inet6Address ip6Address;
+        if(RDLength != 16) {
+            throw new ValidationException("RDLength must be 16", Integer.toString(RDLength));
+        }
         try {
             byte[] readAddr = in.readNBytes(RDLength);
             if(readAddr.length < 16) {
@@ -55,8 +75,8 @@ public class AAAA extends ResourceRecord implements Cloneable{
             }
             ip6Address = (Inet6Address) InetAddress.getByAddress(readAddr);
             this.setRDLength(RDLength);
-            this.setTTL(ttl);
-            this.setName(name);
+            this.setTTL(ttl, profile);
+            this.setName(name, profile);
             this.setAddress(ip6Address);
         } catch (IOException e) {
             if(e instanceof UnknownHostException) {
@@ -84,6 +104,7 @@ public class AAAA extends ResourceRecord implements Cloneable{
      *      If the address is invalid or null.
      */
     public AAAA setAddress(Inet6Address address) throws ValidationException {
+        checkNotFrozen();
         if(address == null) {
             throw new ValidationException("IP cannot be null", null);
         }
@@ -112,7 +133,7 @@ public class AAAA extends ResourceRecord implements Cloneable{
         return this.TYPE_VALUE == aaaa.getTypeValue() &&
                 ipv6Addr.equals(aaaa.getAddress()) &&
                 this.getTTL() == aaaa.getTTL() &&
-                this.getName().toLowerCase().equals(aaaa.getName().toLowerCase());
+                LabelScanner.getDefault().equalsIgnoreCase(this.getName(), aaaa.getName());
     }
 
     /**
@@ -121,7 +142,7 @@ public class AAAA extends ResourceRecord implements Cloneable{
      */
     @Override
     public int hashCode() {
-        return Objects.hash(ipv6Addr, this.getTTL(), this.getName().toLowerCase(), this.TYPE_VALUE);
+        return Objects.hash(ipv6Addr, this.getTTL(), LabelScanner.getDefault().toLowerCase(this.getName()), this.TYPE_VALUE);
     }
 
     /**
@@ -145,6 +166,16 @@ public class AAAA extends ResourceRecord implements Cloneable{
         encodeBuffer.writeTo(out); //write the entire contents of the BAOS to the output
     }
 
+    /**
+     * Encodes RDLength and the address into a buffer
+     * @param out the buffer to write to
+     */
+    @Override
+    protected void encodeRData(ByteBuffer out) {
+        out.putShort((short)16);
+        out.put(this.ipv6Addr.getAddress());
+    }
+
     /**
      * Gets the type value of this RR
      *
@@ -0,0 +1,60 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 1
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.serialization;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads straight out of a ByteBuffer, from its position to its limit. Lets the stream based decoders run on a
+ * buffer, including a direct one, without copying it into an array first. Reading moves the buffer's position.
+ *
+ * @version 1.0
+ */
+class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    /**
+     * Wraps a buffer
+     * @param buffer the buffer to read from
+     */
+    ByteBufferInputStream(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+        return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if(len == 0) {
+            return 0;
+        }
+        if(!buffer.hasRemaining()) {
+            return -1;
+        }
+        int n = Math.min(len, buffer.remaining());
+        buffer.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) {
+        int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+        buffer.position(buffer.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+}
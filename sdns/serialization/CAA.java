@@ -1,6 +1,7 @@
 package sdns.serialization;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Objects;
 
@@ -36,20 +37,36 @@ public class CAA extends ResourceRecord implements Cloneable{
      *      If any given or read values are invalid
      */
     public CAA(String name, int ttl, int RDLength, InputStream in) throws IOException, ValidationException {
+        this(name, ttl, RDLength, in, DecodeProfile.STRICT);
+    }
+
+    /**
+     * The polymorphic constructor for CAA
+     * @param name the RR name
+     * @param ttl the ttl
+     * @param RDLength the RDLength of the RData
+     * @param in the input stream
+     * @param profile how strict to be
+     * @throws IOException -
+     *      If there is an error reading from the input stream
+     * @throws ValidationException -
+     *      If any given or read values are invalid
+     */
+    public CAA(String name, int ttl, int RDLength, InputStream in, DecodeProfile profile) throws IOException, ValidationException {
         String issuer;
         int lengthOfIssuer = RDLength - 7;
 
         //byte padding
-        int paddingHalf1 = in.read(); //needs to be 0
+        int paddingHalf1 = in.read(); //the flags. Needs to be 0 unless the profile allows more
         int paddingHalf2 = in.read();
-        if(paddingHalf1 != 0 || paddingHalf2 != 5) {
+        if(!profile.acceptsCAAFlags(paddingHalf1) || paddingHalf2 != 5) {
             throw new ValidationException("Padding bytes were not as expected: " + paddingHalf1 + " and " + paddingHalf2 , "");
         }
 
         //char padding
         byte[] issueCharPadding = in.readNBytes(5);
         String charPaddingString = new String(issueCharPadding, StandardCharsets.US_ASCII);
-        if(!charPaddingString.equals("issue")) {
+        if(!profile.acceptsCAATag(charPaddingString)) {
             throw new ValidationException("Char Padding does not read as 'issue'. String assembled: " + charPaddingString, charPaddingString);
         }
 
@@ -58,9 +75,9 @@ public class CAA extends ResourceRecord implements Cloneable{
         if(issuer.length() != lengthOfIssuer) {
             throw new ValidationException("Issuer is too short", issuer);
         }
-        this.setName(name);
-        this.setTTL(ttl);
-        this.setIssuer(issuer);
+        this.setName(name, profile);
+        this.setTTL(ttl, profile);
+        this.setIssuer(issuer, profile);
         this.setRDLength(RDLength);
     }
 
@@ -80,14 +97,24 @@ public class CAA extends ResourceRecord implements Cloneable{
      *      If issuer is null or invalid.
      */
     public CAA setIssuer(String issuer) throws ValidationException {
+        return setIssuer(issuer, DecodeProfile.STRICT);
+    }
+
+    /**
+     * Sets the issuer string
+     * @param issuer a string containing the issuer name
+     * @param profile how strict to be
+     * @return this RR
+     * @throws ValidationException
+     *      If issuer is null or invalid.
+     */
+    private CAA setIssuer(String issuer, DecodeProfile profile) throws ValidationException {
+        checkNotFrozen();
         if(issuer == null) {
             throw new ValidationException("Issuer cannot be null", issuer);
         }
-        for(int i = 0; i < issuer.length(); i ++) {
-            char currChar = issuer.charAt(i);
-            if(currChar < 0x21 || currChar > 0x7E) {
-                throw new ValidationException("Bad issuer string", issuer);
-            }
+        if(!profile.acceptsIssuer(issuer)) {
+            throw new ValidationException("Bad issuer string", issuer);
         }
         this.issuer = issuer;
         return this;
@@ -116,6 +143,21 @@ public class CAA extends ResourceRecord implements Cloneable{
         encodeBuffer.writeTo(out);
     }
 
+    /**
+     * Encodes RDLength, the flags, the tag, and the issuer into a buffer
+     * @param out the buffer to write to
+     */
+    @Override
+    protected void encodeRData(ByteBuffer out) {
+        String issuer = this.getIssuer();
+        out.putShort((short)(7 + issuer.length()));
+        out.putShort((short)5); //covers the flags and the tag length
+        out.put((byte)'i').put((byte)'s').put((byte)'s').put((byte)'u').put((byte)'e');
+        for(int i = 0; i < issuer.length(); i++) {
+            out.put((byte)issuer.charAt(i));
+        }
+    }
+
     /**
      * the getter for type value that all resource record types must implement.
      *
@@ -146,9 +188,9 @@ public class CAA extends ResourceRecord implements Cloneable{
         if (o == null || getClass() != o.getClass()) return false;
         CAA caa = (CAA) o;
         return TYPE_VALUE == caa.TYPE_VALUE &&
-                getIssuer().toLowerCase().equals(caa.getIssuer().toLowerCase()) &&
+                LabelScanner.getDefault().equalsIgnoreCase(getIssuer(), caa.getIssuer()) &&
                 getTTL() == caa.getTTL() &&
-                getName().toLowerCase().equals(caa.getName().toLowerCase());
+                LabelScanner.getDefault().equalsIgnoreCase(getName(), caa.getName());
     }
 
     /**
@@ -157,7 +199,8 @@ public class CAA extends ResourceRecord implements Cloneable{
      */
     @Override
     public int hashCode() {
-        return Objects.hash(getIssuer().toLowerCase(), TYPE_VALUE, getName().toLowerCase(), getTTL());
+        return Objects.hash(LabelScanner.getDefault().toLowerCase(getIssuer()), TYPE_VALUE,
+                LabelScanner.getDefault().toLowerCase(getName()), getTTL());
     }
 
     /**
@@ -9,6 +9,7 @@
 package sdns.serialization;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
 /**
@@ -56,12 +57,29 @@ public class CName extends ResourceRecord implements Cloneable{
      *      If there is an error reading from the stream
      */
     public CName(String name, int ttl, int RDLength, InputStream in) throws ValidationException, IOException {
+        this(name, ttl, RDLength, in, DecodeProfile.STRICT);
+    }
+
+    /**
+     * The polymorphic constructor for CName
+     *
+     * @param name the RR name
+     * @param ttl the TTL
+     * @param RDLength the RDLength of the associated RData
+     * @param in the input stream
+     * @param profile how strict to be
+     * @throws ValidationException -
+     *      If any values are invalid
+     * @throws IOException -
+     *      If there is an error reading from the stream
+     */
+    public CName(String name, int ttl, int RDLength, InputStream in, DecodeProfile profile) throws ValidationException, IOException {
         String canonicalName = readNameFromInput(in, RDLength);
         this.setRDLength(RDLength);
-        this.setTTL(ttl);
-        if(validateDomainName(name) && validateDomainName(canonicalName)) {
-            this.setName(name);
-            this.setCanonicalName(canonicalName);
+        this.setTTL(ttl, profile);
+        if(profile.acceptsName(name) && profile.acceptsName(canonicalName)) {
+            this.setName(name, profile);
+            this.setCanonicalName(canonicalName, profile);
         } else {
             throw new ValidationException("Bad Name or Canonical Name", name +" or " + canonicalName);
         }
@@ -79,9 +97,9 @@ public class CName extends ResourceRecord implements Cloneable{
         if (o == null || getClass() != o.getClass()) return false;
         CName cName = (CName) o;
         return TYPE_VALUE == cName.TYPE_VALUE &&
-                getCanonicalName().toLowerCase().equals(cName.getCanonicalName().toLowerCase()) &&
+                LabelScanner.getDefault().equalsIgnoreCase(getCanonicalName(), cName.getCanonicalName()) &&
                 this.getTTL() == cName.getTTL() &&
-                this.getName().toLowerCase().equals(cName.getName().toLowerCase());
+                LabelScanner.getDefault().equalsIgnoreCase(this.getName(), cName.getName());
     }
 
     /**
@@ -91,7 +109,8 @@ public class CName extends ResourceRecord implements Cloneable{
      */
     @Override
     public int hashCode() {
-        return Objects.hash(getCanonicalName().toLowerCase(), TYPE_VALUE, this.getName().toLowerCase(), this.getTTL());
+        return Objects.hash(LabelScanner.getDefault().toLowerCase(getCanonicalName()), TYPE_VALUE,
+                LabelScanner.getDefault().toLowerCase(this.getName()), this.getTTL());
     }
 
     /**
@@ -123,6 +142,15 @@ public class CName extends ResourceRecord implements Cloneable{
         encodeBuffer.writeTo(out);
     }
 
+    /**
+     * Encodes RDLength and the canonical name into a buffer
+     * @param out the buffer to write to
+     */
+    @Override
+    protected void encodeRData(ByteBuffer out) {
+        encodeNameRData(out, this.getCanonicalName());
+    }
+
     /**
      * gets the canonical name
      * @return the canonical domain name
@@ -140,8 +168,22 @@ public class CName extends ResourceRecord implements Cloneable{
      *       If the canonical name is invalid or null
      */
     public CName setCanonicalName(String canonicalName) throws ValidationException {
+        return setCanonicalName(canonicalName, DecodeProfile.STRICT);
+    }
+
+    /**
+     *
+     * @param canonicalName the canonical name to be set
+     *
+     * @param profile how strict to be
+     * @return this RR with a new canonicalName
+     * @throws ValidationException
+     *       If the canonical name is invalid or null
+     */
+    private CName setCanonicalName(String canonicalName, DecodeProfile profile) throws ValidationException {
+        checkNotFrozen();
         try {
-            if (validateDomainName(canonicalName)) {
+            if (profile.acceptsName(canonicalName)) {
                 this.canonicalName = Objects.requireNonNull(canonicalName, "Canonical Name cannot be null");
             } else {
                 throw new ValidationException("Bad Canonical Name", canonicalName);
@@ -0,0 +1,70 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 1
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.serialization;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read through it. Used to check RData against RDLength when the RData is
+ * made of names we don't know the length of ahead of time.
+ *
+ * @version 1.0
+ */
+class CountingInputStream extends FilterInputStream {
+    private long count = 0;
+
+    /**
+     * Wraps a stream
+     * @param in the stream to count reads from
+     */
+    CountingInputStream(InputStream in) {
+        super(in);
+    }
+
+    /**
+     * Gets how many bytes have been read so far
+     * @return the byte count
+     */
+    long getCount() {
+        return this.count;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if(b != -1) {
+            count++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, len);
+        if(read > 0) {
+            count += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        count += skipped;
+        return skipped;
+    }
+
+    //marking would throw the count off
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
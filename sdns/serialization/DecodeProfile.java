@@ -0,0 +1,131 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 1
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.serialization;
+
+/**
+ * How strict Message.decode() and ResourceRecord.decode() are about what they accept.
+ * Framing is checked the same way by every profile: lengths, counts, EOFs, the question/RR class,
+ * and leftover bytes always fail. So is the question type. A query can only ask for ANY or AXFR, and
+ * reading any other type as one of those would change what was asked.
+ *
+ * @version 1.0
+ */
+public enum DecodeProfile {
+    /**
+     * The default. Everything is validated the same way the setters validate it
+     */
+    STRICT,
+
+    /**
+     * Still validates, but tolerates benign deviations seen from real servers:
+     * nonzero Z bits in a query, labels that start with a digit or '_' or end with '-' or '_',
+     * a CAA tag in any case, nonzero CAA flags, and TTLs with the high bit set (read as 0, RFC 2181 section 8)
+     */
+    LENIENT,
+
+    /**
+     * For bytes that came from somewhere we already trust, like our own cache or the configured upstream.
+     * Names, the CAA issuer, and the header flags aren't re-validated. A TTL with the high bit set is still read as 0,
+     * since nothing downstream can handle a negative one
+     */
+    TRUSTED;
+
+    /**
+     * Checks a name read off the wire. readNameFromInput() has already made sure every byte is 1-127
+     * and the name is at most 255 chars, so TRUSTED only rejects null
+     * @param name the name to check
+     * @return true if this profile accepts the name
+     */
+    boolean acceptsName(String name) {
+        switch (this) {
+            case STRICT -> {
+                return LabelScanner.getDefault().isValidDomainName(name);
+            }
+            case LENIENT -> {
+                return LabelScanner.getDefault().isValidDomainName(name, false);
+            }
+            default -> {
+                return name != null;
+            }
+        }
+    }
+
+    /**
+     * Checks a TTL read off the wire
+     * @param ttl the TTL as a signed int
+     * @return the TTL to store, 0 if the high bit is set and not STRICT
+     * @throws ValidationException
+     *      If STRICT and the high bit is set
+     */
+    int checkTTL(int ttl) throws ValidationException {
+        if(ttl > -1) {
+            return ttl;
+        }
+        if(this != STRICT) {
+            return 0;
+        }
+        throw new ValidationException("TTL out of allowed range", Integer.toString(ttl));
+    }
+
+    /**
+     * Checks the CAA tag
+     * @param tag the tag read off the wire
+     * @return true if this profile accepts the tag as "issue"
+     */
+    boolean acceptsCAATag(String tag) {
+        return this == STRICT ? tag.equals("issue") : LabelScanner.getDefault().equalsIgnoreCase(tag, "issue");
+    }
+
+    /**
+     * Checks the CAA flags byte
+     * @param flags the flags read off the wire, or -1 on EOF
+     * @return true if this profile accepts the flags
+     */
+    boolean acceptsCAAFlags(int flags) {
+        return this == STRICT ? flags == 0 : flags >= 0;
+    }
+
+    /**
+     * Checks the CAA issuer
+     * @param issuer the issuer, not null
+     * @return true if this profile accepts the issuer
+     */
+    boolean acceptsIssuer(String issuer) {
+        return this == TRUSTED || LabelScanner.getDefault().isVisibleAscii(issuer);
+    }
+
+    /**
+     * Gets the RCode out of the second flags byte of a query. STRICT keeps the old way of clearing RA and Z,
+     * which only clears Z when all three bits are set. The others just mask it off
+     * @param flags the second flags byte
+     * @return the rcode bits left over
+     */
+    byte queryRCode(byte flags) {
+        if(this != STRICT) {
+            return (byte) (flags & 0x0F);
+        }
+        //flip RA off because we don't care about it on deserialization
+        if(flags < 0) {
+            flags = (byte) (flags ^ 0x80);
+        }
+        //clear Z
+        if(flags > 15) {
+            flags = (byte) (flags ^ 0x70);
+        }
+        return flags;
+    }
+
+    /**
+     * Checks if the opcode, QR-dependent flags, and query rcode get checked
+     * @return false for TRUSTED
+     */
+    boolean checksHeaderFlags() {
+        return this != TRUSTED;
+    }
+}
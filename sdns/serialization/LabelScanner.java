@@ -0,0 +1,287 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 0
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.serialization;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Scans domain names and other ASCII strings one character at a time. This is the scalar implementation
+ * used by the RRs and messages for name validation and case-insensitive comparison.
+ *
+ * If the jdk.incubator.vector module is loaded, a vectorized version is picked once at startup and used instead.
+ * It can be turned off with -Dsdns.vector=false.
+ *
+ * @version 1.0
+ */
+public class LabelScanner {
+    //the longest a domain name and a single label can be
+    protected static final int MAX_NAME_LENGTH = 255;
+    protected static final int MAX_LABEL_LENGTH = 63;
+
+    //lookup for characters allowed anywhere in a label. [a-zA-Z0-9-_]
+    private static final boolean[] LABEL_CHARS = new boolean[128];
+
+    static {
+        for(char c = 'a'; c <= 'z'; c++) {
+            LABEL_CHARS[c] = true;
+            LABEL_CHARS[Character.toUpperCase(c)] = true;
+        }
+        for(char c = '0'; c <= '9'; c++) {
+            LABEL_CHARS[c] = true;
+        }
+        LABEL_CHARS['-'] = true;
+        LABEL_CHARS['_'] = true;
+    }
+
+    //the scanner that is always available
+    private static final LabelScanner SCALAR = new LabelScanner();
+
+    //the scanner picked at startup
+    private static final LabelScanner DEFAULT = pickDefault();
+
+    /**
+     * Only subclasses and the static instance are allowed. Use getDefault()
+     */
+    protected LabelScanner() {
+    }
+
+    /**
+     * Gets the scanner picked at startup
+     * @return the vectorized scanner if available, otherwise the scalar one
+     */
+    public static LabelScanner getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Gets the scalar scanner. This is always available
+     * @return the scalar scanner
+     */
+    public static LabelScanner getScalar() {
+        return SCALAR;
+    }
+
+    /**
+     * Gets the vectorized scanner
+     * @return the vectorized scanner or null if the jdk.incubator.vector module is not loaded
+     */
+    public static LabelScanner getVector() {
+        return DEFAULT == SCALAR ? loadVector() : DEFAULT;
+    }
+
+    /**
+     * Picks the scanner to use for this run
+     * @return the scanner to use
+     */
+    private static LabelScanner pickDefault() {
+        if(!Boolean.parseBoolean(System.getProperty("sdns.vector", "true"))) {
+            return SCALAR;
+        }
+        LabelScanner vector = loadVector();
+        return vector == null ? SCALAR : vector;
+    }
+
+    /**
+     * Loads the vectorized scanner if the incubator module is there. It is loaded by name so this class never links
+     * against the incubator module when it isn't loaded.
+     * @return the vectorized scanner or null if it can't be used
+     */
+    private static LabelScanner loadVector() {
+        if(ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return null;
+        }
+        try {
+            return (LabelScanner) Class.forName("sdns.serialization.VectorLabelScanner")
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            Logger.getLogger(LabelScanner.class.getName()).log(Level.WARNING, "Vector label scanner unavailable", e);
+            return null;
+        }
+    }
+
+    /**
+     * Checks the validity of a domain name. The name must be "." or a series of labels that each end in '.'.
+     * Each label is 1 to 63 characters of [a-zA-Z0-9-_], starts with a letter, and ends with a letter or digit.
+     * The whole name can be at most 255 characters.
+     *
+     * @param name the name to check
+     * @return true if the name is valid
+     */
+    public boolean isValidDomainName(String name) {
+        return isValidDomainName(name, true);
+    }
+
+    /**
+     * Checks the validity of a domain name. Without strict labels, a label may start and end with any of
+     * [a-zA-Z0-9-_] so names like "3com.com." and "_dmarc.example.com." are allowed. The lengths are always checked.
+     *
+     * @param name the name to check
+     * @param strictLabels true to also check the first and last char of every label
+     * @return true if the name is valid
+     */
+    public boolean isValidDomainName(String name, boolean strictLabels) {
+        if(name == null) {
+            return false;
+        }
+        int length = name.length();
+        if(length == 1 && name.charAt(0) == '.') {
+            return true;
+        }
+        if(length == 0 || length > MAX_NAME_LENGTH || name.charAt(length - 1) != '.') {
+            return false;
+        }
+
+        int labelStart = 0;
+        for(int i = 0; i < length; i++) {
+            char c = name.charAt(i);
+            if(c == '.') {
+                //an empty label means the name has ".." in it or starts with '.'
+                if(i == labelStart || !checkLabelEnds(name.charAt(labelStart), name.charAt(i - 1), i - labelStart, strictLabels)) {
+                    return false;
+                }
+                labelStart = i + 1;
+            } else if(!isLabelChar(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks the parts of a non-empty label that can't be checked a character at a time.
+     * @param first the first char of the label
+     * @param last the last char of the label
+     * @param length the label length
+     * @param strictLabels true to check the first and last chars, false to only check the length
+     * @return true if the label's length, first, and last chars are allowed
+     */
+    protected static boolean checkLabelEnds(int first, int last, int length, boolean strictLabels) {
+        return length <= MAX_LABEL_LENGTH && (!strictLabels || isLetter(first) && (isLetter(last) || isDigit(last)));
+    }
+
+    /**
+     * Checks that every char is visible ASCII (0x21 through 0x7E)
+     * @param s the string to check
+     * @return true if every char is visible ASCII
+     */
+    public boolean isVisibleAscii(String s) {
+        for(int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if(c < 0x21 || c > 0x7E) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks that every byte in the range is between 1 and 127. Used on label bytes read off the wire.
+     * @param bytes the bytes to check
+     * @param from the first index, inclusive
+     * @param to the last index, exclusive
+     * @return true if no byte is zero or has the high bit set
+     */
+    public boolean allPositive(byte[] bytes, int from, int to) {
+        for(int i = from; i < to; i++) {
+            if(bytes[i] <= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares two strings ignoring the case of ASCII letters
+     * @param a the first string
+     * @param b the second string
+     * @return true if they are equal ignoring ASCII case
+     */
+    public boolean equalsIgnoreCase(String a, String b) {
+        if(a == b) {
+            return true;
+        }
+        if(a == null || b == null || a.length() != b.length()) {
+            return false;
+        }
+        for(int i = 0; i < a.length(); i++) {
+            char ca = a.charAt(i);
+            char cb = b.charAt(i);
+            if(ca != cb && toLower(ca) != toLower(cb)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Lower cases the ASCII letters of a string. Unlike String.toLowerCase() this doesn't depend on the locale.
+     * @param s the string to lower case
+     * @return the lower case string. The same instance if it had no upper case letters
+     */
+    public String toLowerCase(String s) {
+        int i = 0;
+        while(i < s.length() && !isUpper(s.charAt(i))) {
+            i++;
+        }
+        if(i == s.length()) {
+            return s;
+        }
+        char[] lowered = s.toCharArray();
+        for(; i < lowered.length; i++) {
+            lowered[i] = toLower(lowered[i]);
+        }
+        return new String(lowered);
+    }
+
+    /**
+     * Checks for a char that is allowed anywhere in a label
+     * @param c the char
+     * @return true if c is one of [a-zA-Z0-9-_]
+     */
+    protected static boolean isLabelChar(int c) {
+        return c >= 0 && c < LABEL_CHARS.length && LABEL_CHARS[c];
+    }
+
+    /**
+     * Checks for an ASCII letter
+     * @param c the char
+     * @return true if c is a-z or A-Z
+     */
+    protected static boolean isLetter(int c) {
+        return (c | 0x20) >= 'a' && (c | 0x20) <= 'z';
+    }
+
+    /**
+     * Checks for an ASCII digit
+     * @param c the char
+     * @return true if c is 0-9
+     */
+    protected static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Checks for an ASCII upper case letter
+     * @param c the char
+     * @return true if c is A-Z
+     */
+    private static boolean isUpper(char c) {
+        return c >= 'A' && c <= 'Z';
+    }
+
+    /**
+     * Lower cases an ASCII letter
+     * @param c the char
+     * @return the lower case char, or c if it isn't an upper case letter
+     */
+    private static char toLower(char c) {
+        return isUpper(c) ? (char) (c | 0x20) : c;
+    }
+}
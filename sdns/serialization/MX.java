@@ -53,6 +53,23 @@ public class MX extends ResourceRecord implements Cloneable{
      *      If any given or read value is invalid
      */
     public MX(String name, int ttl, int RDLength, InputStream in, ByteBuffer bBuf) throws IOException, ValidationException {
+        this(name, ttl, RDLength, in, bBuf, DecodeProfile.STRICT);
+    }
+
+    /**
+     *  The polymorphic constructor for MX
+     * @param name the RR name
+     * @param ttl the ttl
+     * @param RDLength the RDLength of the RData
+     * @param in the input stream
+     * @param bBuf the bytebuffer to work with
+     * @param profile how strict to be
+     * @throws IOException -
+     *      If a read from the input stream fails
+     * @throws ValidationException -
+     *      If any given or read value is invalid
+     */
+    public MX(String name, int ttl, int RDLength, InputStream in, ByteBuffer bBuf, DecodeProfile profile) throws IOException, ValidationException {
         int preference;
         String exchange;
         bBuf.clear();
@@ -65,9 +82,9 @@ public class MX extends ResourceRecord implements Cloneable{
         preference = bBuf.getShort(); //will sign extend, mask in constructor
 
         exchange = readNameFromInput(in, RDLength-2); //subtract the two bytes read for preference
-        this.setTTL(ttl);
-        this.setName(name);
-        this.setExchange(exchange);
+        this.setTTL(ttl, profile);
+        this.setName(name, profile);
+        this.setExchange(exchange, profile);
         this.setPreference(preference & 0xFFFF);
         this.setRDLength(RDLength);
     }
@@ -96,8 +113,21 @@ public class MX extends ResourceRecord implements Cloneable{
      *      If the domain name is bad or null
      */
     public MX setExchange(String exchange) throws ValidationException {
+        return setExchange(exchange, DecodeProfile.STRICT);
+    }
+
+    /**
+     * Sets the exchange domain
+     * @param exchange the domain name of the exchange
+     * @param profile how strict to be
+     * @return this MX RR with the new exchange value
+     * @throws ValidationException
+     *      If the domain name is bad or null
+     */
+    private MX setExchange(String exchange, DecodeProfile profile) throws ValidationException {
+        checkNotFrozen();
         try {
-            if (validateDomainName(exchange)) {
+            if (profile.acceptsName(exchange)) {
                 this.exchange = Objects.requireNonNull(exchange, "Exchange cannot be null");
             } else {
                 throw new ValidationException("Bad exchange domain name", exchange);
@@ -116,6 +146,7 @@ public class MX extends ResourceRecord implements Cloneable{
      *      If the preference is an invalid value
      */
     public MX setPreference(int preference) throws ValidationException {
+        checkNotFrozen();
         if(preference > 0xFFFF || preference < 0) {
             throw new ValidationException("Invalid preference: " + preference, Integer.toString(preference));
         }
@@ -149,6 +180,19 @@ public class MX extends ResourceRecord implements Cloneable{
         encodeBuffer.writeTo(out);
     }
 
+    /**
+     * Encodes RDLength, the preference, and the exchange into a buffer
+     * @param out the buffer to write to
+     */
+    @Override
+    protected void encodeRData(ByteBuffer out) {
+        int lengthAt = out.position();
+        out.putShort((short)0);
+        out.putShort((short)this.getPreference());
+        encodeName(out, this.getExchange());
+        patchRDLength(out, lengthAt);
+    }
+
     /**
      * Gets the Type of this RR
      * @return the TYPE as an int
@@ -180,9 +224,9 @@ public class MX extends ResourceRecord implements Cloneable{
         MX mx = (MX) o;
         return getPreference() == mx.getPreference() &&
                 TYPE_VALUE == mx.TYPE_VALUE &&
-                getExchange().toLowerCase().equals(mx.getExchange().toLowerCase()) &&
+                LabelScanner.getDefault().equalsIgnoreCase(getExchange(), mx.getExchange()) &&
                 this.getTTL() == mx.getTTL() &&
-                this.getName().toLowerCase().equals(mx.getName().toLowerCase());
+                LabelScanner.getDefault().equalsIgnoreCase(this.getName(), mx.getName());
     }
 
     /**
@@ -191,7 +235,8 @@ public class MX extends ResourceRecord implements Cloneable{
      */
     @Override
     public int hashCode() {
-        return Objects.hash(getExchange().toLowerCase(), getPreference(), TYPE_VALUE, this.getTTL(), this.getName().toLowerCase());
+        return Objects.hash(LabelScanner.getDefault().toLowerCase(getExchange()), getPreference(),
+                TYPE_VALUE, this.getTTL(), LabelScanner.getDefault().toLowerCase(this.getName()));
     }
 
     /**
@@ -13,6 +13,10 @@ import java.nio.ByteBuffer;
 import java.util.Objects;
 
 public abstract class Message {
+    //the question types this server tells apart. Every other type is answered as ANY
+    public static final int TYPE_ANY = 0x00FF;
+    public static final int TYPE_AXFR = 0x00FC;
+
     private int messageID;
 
 
@@ -29,6 +33,9 @@ public abstract class Message {
 
     private String queryDomain;
 
+    //ANY unless this is a zone transfer
+    private int queryType = TYPE_ANY;
+
     /**
      * Decoding of a message. Will turn message
      * @param message
@@ -36,7 +43,45 @@ public abstract class Message {
      * @throws ValidationException
      */
     public static Message decode(byte[] message) throws ValidationException, NullPointerException{
-        ByteArrayInputStream wrappedInput = new ByteArrayInputStream(message);
+        return decode(message, DecodeProfile.STRICT);
+    }
+
+    /**
+     * Decoding of a message with a given strictness. See DecodeProfile for what each profile accepts
+     * @param message the encoded message
+     * @param profile how strict to be
+     * @return the decoded Query or Response
+     * @throws ValidationException
+     *      If the message is invalid under the profile
+     */
+    public static Message decode(byte[] message, DecodeProfile profile) throws ValidationException, NullPointerException{
+        return decodeFrom(ByteBuffer.wrap(message), profile);
+    }
+
+    /**
+     * Decoding of a message straight out of a buffer, from its position to its limit. The buffer can be direct,
+     * nothing is copied out of it up front. The position is moved past what was read
+     * @param message the buffer holding the encoded message
+     * @return the decoded Query or Response
+     * @throws ValidationException
+     *      If the message is invalid
+     */
+    public static Message decodeFrom(ByteBuffer message) throws ValidationException, NullPointerException{
+        return decodeFrom(message, DecodeProfile.STRICT);
+    }
+
+    /**
+     * Decoding of a message straight out of a buffer with a given strictness
+     * @param message the buffer holding the encoded message, from its position to its limit
+     * @param profile how strict to be
+     * @return the decoded Query or Response
+     * @throws ValidationException
+     *      If the message is invalid under the profile
+     */
+    public static Message decodeFrom(ByteBuffer message, DecodeProfile profile) throws ValidationException, NullPointerException{
+        Objects.requireNonNull(message, "Message cannot be null");
+        Objects.requireNonNull(profile, "Profile cannot be null");
+        ByteBufferInputStream wrappedInput = new ByteBufferInputStream(message);
 
         //grab the expected header
         byte[] header = new byte[12];
@@ -49,11 +94,23 @@ public abstract class Message {
 
         //read the question
         String query = null;
+        int queryType = TYPE_ANY;
         try {
             query = ResourceRecord.readNameFromInput(wrappedInput);
-            if(wrappedInput.readNBytes(4).length < 4) {
+            byte[] typeAndClass = wrappedInput.readNBytes(4);
+            if(typeAndClass.length < 4) {
                 throw new EOFException("premature EOF on question");
             }
+            //checked under every profile, answering another type as ANY would answer a different question
+            queryType = ((typeAndClass[0] & 0xFF) << 8) | (typeAndClass[1] & 0xFF);
+            if(queryType != TYPE_ANY && queryType != TYPE_AXFR) {
+                throw new ValidationException("Question type must be ANY or AXFR", Integer.toString(queryType));
+            }
+            //only the IN class is supported
+            if(typeAndClass[2] != 0 || typeAndClass[3] != 1) {
+                throw new ValidationException("Question class must be IN",
+                        Integer.toString(((typeAndClass[2] & 0xFF) << 8) | (typeAndClass[3] & 0xFF)));
+            }
         } catch (IOException e) {
             if(e instanceof EOFException) {
                 throw new ValidationException(e.getMessage(), e.getCause(), "query format was bad");
@@ -66,9 +123,9 @@ public abstract class Message {
             if(wrappedInput.available() > 0) {
                 throw new ValidationException("Too many bytes", "");
             }
-            return new Query(tempID, query, header);
+            return new Query(tempID, query, header, profile).setQueryType(queryType);
         } else {
-            return new Response(tempID, query, header, wrappedInput);
+            return new Response(tempID, query, header, wrappedInput, profile).setQueryType(queryType);
         }
     }
 
@@ -102,6 +159,46 @@ public abstract class Message {
         return outputStream.toByteArray();
     }
 
+    /**
+     * Encodes this message straight into a buffer. Makes the same bytes as encode() without building
+     * any arrays along the way
+     *
+     * @param out the buffer to write to, starting at its position
+     * @throws java.nio.BufferOverflowException
+     *      If the message doesn't fit. The position is left where it was
+     */
+    public void encodeInto(ByteBuffer out) {
+        Objects.requireNonNull(out, "Output cannot be null");
+        int start = out.position();
+        try {
+            this.setFlagsForEncoding();
+            out.putShort((short)this.getID());
+            out.put(this.getFlagsFirstHalf());
+            out.put((byte)this.getRCode().getRCodeValue());
+            out.putShort((short)0x0001); //question count
+
+            //the counts are filled in once the RRs are written
+            int countsAt = out.position();
+            out.putShort((short)0).putShort((short)0).putShort((short)0);
+
+            ResourceRecord.encodeName(out, this.getQuery());
+            out.putShort((short)this.queryType);
+            out.putShort((short)0x0001);
+
+            this.encodeRecords(out, countsAt);
+        } catch (RuntimeException e) {
+            out.position(start);
+            throw e;
+        }
+    }
+
+    /**
+     * Encodes the RRs after the question into a buffer and fills in their counts
+     * @param out the buffer to write to
+     * @param countsAt where ANCOUNT is in the buffer
+     */
+    protected abstract void encodeRecords(ByteBuffer out, int countsAt);
+
     /**
      * Ensures flags are set properly before encoding
      */
@@ -146,6 +243,15 @@ public abstract class Message {
         return this.queryDomain;
     }
 
+    /**
+     * Get the type of the question
+     *
+     * @return TYPE_AXFR for a zone transfer, otherwise TYPE_ANY
+     */
+    public int getQueryType() {
+        return this.queryType;
+    }
+
     public byte getFlagsFirstHalf() {
         return this.flagsFirstHalf;
     }
@@ -166,6 +272,33 @@ public abstract class Message {
         return this;
     }
 
+    /**
+     * Sets the type of the question
+     *
+     * @param queryType TYPE_ANY or TYPE_AXFR
+     * @return this Message with the new query type
+     * @throws ValidationException
+     *      If the type is anything else
+     */
+    public Message setQueryType(int queryType) throws ValidationException {
+        if(queryType != TYPE_ANY && queryType != TYPE_AXFR) {
+            throw new ValidationException("Query type must be ANY or AXFR", Integer.toString(queryType));
+        }
+        this.queryType = queryType;
+        return this;
+    }
+
+    /**
+     * Encodes the question's type and class
+     *
+     * @param out the stream to write to
+     */
+    protected void encodeQuestionType(ByteArrayOutputStream out) {
+        out.write(this.queryType >> 8);
+        out.write(this.queryType);
+        out.writeBytes(new byte[]{(byte)0x00, 1});
+    }
+
     /**
      * Sets the queried domain value
      *
@@ -175,8 +308,21 @@ public abstract class Message {
      *      If the queried domain name is invalid or null
      */
     public Message setQuery(String query) throws ValidationException {
+        return setQuery(query, DecodeProfile.STRICT);
+    }
+
+    /**
+     * Sets the queried domain value, validated by the given profile
+     *
+     * @param query the domain name being queried
+     * @param profile how strict to be with the name
+     * @return this Message with the new query
+     * @throws ValidationException
+     *      If the profile doesn't accept the name or it is null
+     */
+    protected Message setQuery(String query, DecodeProfile profile) throws ValidationException {
         try {
-            if (ResourceRecord.validateDomainName(query)) {
+            if (profile.acceptsName(query)) {
                 this.queryDomain = Objects.requireNonNull(query, "Question cannot be null");
                 return this;
             }
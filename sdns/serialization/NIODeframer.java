@@ -8,6 +8,7 @@
 
 package sdns.serialization;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 public class NIODeframer {
@@ -39,7 +40,46 @@ public class NIODeframer {
         //put the given data into the buffer and add it's length to the position
         System.arraycopy(buffer, 0, this.buffer, bufferPos, buffer.length);
         bufferPos += buffer.length;
+        return nextFrame();
+    }
+
+    /**
+     * Gets the next message, taking the data straight out of a ByteBuffer. Every remaining byte of the buffer is
+     *  consumed, so it can be cleared and reused as soon as this returns. Otherwise works the same as getMessage(byte[])
+     * @param buffer the data to put in the internal buffer, from its position to its limit
+     * @return the next complete frame, or null if there isn't one
+     * @throws NullPointerException if buffer is null
+     */
+    public byte[] getMessage(ByteBuffer buffer) throws NullPointerException{
+        if(buffer == null) {
+            throw new NullPointerException("input buffer cannot be null");
+        }
+
+        //grow the array if it can't fit the amount of bytes given
+        int length = buffer.remaining();
+        if(length + bufferPos >= this.buffer.length) {
+            growArray(length);
+        }
 
+        //put the given data into the buffer and add it's length to the position
+        buffer.get(this.buffer, bufferPos, length);
+        bufferPos += length;
+        return nextFrame();
+    }
+
+    /**
+     * Gets how many bytes are waiting in the internal buffer, the rest of any frames not taken out yet
+     * @return the count
+     */
+    public int getBufferedSize() {
+        return bufferPos;
+    }
+
+    /**
+     * Takes the first frame out of the internal buffer if it is complete
+     * @return the frame, or null if it isn't complete yet
+     */
+    private byte[] nextFrame() {
         //get the frame length if it hasn't been calculated yet
         if(bufferPos >= 2 && firstFrameLength == -1) {
             firstFrameLength = (((this.buffer[0] & 0xFF) << 8) | (this.buffer[1] & 0xFF));
@@ -9,6 +9,7 @@
 package sdns.serialization;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
 /**
@@ -52,12 +53,29 @@ public class NS extends ResourceRecord implements Cloneable{
      *      If reading anything from the stream fails
      */
     public NS(String name, int ttl, int RDLength, InputStream in) throws ValidationException, IOException {
+        this(name, ttl, RDLength, in, DecodeProfile.STRICT);
+    }
+
+    /**
+     * Polymorphic NS constructor for decode
+     *
+     * @param name the RR name
+     * @param ttl the TTL for this RR
+     * @param RDLength the RDLength of the related RData
+     * @param in the input stream
+     * @param profile how strict to be
+     * @throws ValidationException -
+     *      If any names or values are bad.
+     * @throws IOException -
+     *      If reading anything from the stream fails
+     */
+    public NS(String name, int ttl, int RDLength, InputStream in, DecodeProfile profile) throws ValidationException, IOException {
         String nameServer = readNameFromInput(in, RDLength);
         this.setRDLength(RDLength);
-        this.setTTL(ttl);
-        if (validateDomainName(name) && validateDomainName(nameServer)) {
-            this.setName(name);
-            this.setNameServer(nameServer); //validity is checked in method so no need to check here.
+        this.setTTL(ttl, profile);
+        if (profile.acceptsName(name) && profile.acceptsName(nameServer)) {
+            this.setName(name, profile);
+            this.setNameServer(nameServer, profile); //validity is checked in method so no need to check here.
         } else {
             throw new ValidationException("Invalid name for name or nameServer", name + " or " + nameServer);
         }
@@ -75,9 +93,9 @@ public class NS extends ResourceRecord implements Cloneable{
         if (o == null || getClass() != o.getClass()) return false;
         NS ns = (NS) o;
         return TYPE_VALUE == ns.TYPE_VALUE &&
-                getNameServer().toLowerCase().equals(ns.getNameServer().toLowerCase()) &&
+                LabelScanner.getDefault().equalsIgnoreCase(getNameServer(), ns.getNameServer()) &&
                 this.getTTL() == ns.getTTL() &&
-                this.getName().toLowerCase().equals(ns.getName().toLowerCase());
+                LabelScanner.getDefault().equalsIgnoreCase(this.getName(), ns.getName());
     }
 
     /**
@@ -87,7 +105,8 @@ public class NS extends ResourceRecord implements Cloneable{
      */
     @Override
     public int hashCode() {
-        return Objects.hash(getNameServer().toLowerCase(), TYPE_VALUE, this.getName().toLowerCase(), this.getTTL());
+        return Objects.hash(LabelScanner.getDefault().toLowerCase(getNameServer()), TYPE_VALUE,
+                LabelScanner.getDefault().toLowerCase(this.getName()), this.getTTL());
     }
 
     /**
@@ -116,6 +135,15 @@ public class NS extends ResourceRecord implements Cloneable{
         encodeBuffer.writeTo(out);
     }
 
+    /**
+     * Encodes RDLength and the name server into a buffer
+     * @param out the buffer to write to
+     */
+    @Override
+    protected void encodeRData(ByteBuffer out) {
+        encodeNameRData(out, this.getNameServer());
+    }
+
     /**
      * gets the name server
      * @return the name server
@@ -133,8 +161,22 @@ public class NS extends ResourceRecord implements Cloneable{
      *      if invalid name server, including null
      */
     public NS setNameServer(String nameServer) throws ValidationException {
+        return setNameServer(nameServer, DecodeProfile.STRICT);
+    }
+
+    /**
+     * Set name server
+     *
+     * @param nameServer the new name server
+     * @param profile how strict to be
+     * @return this NS with new name server
+     * @throws ValidationException
+     *      if invalid name server, including null
+     */
+    private NS setNameServer(String nameServer, DecodeProfile profile) throws ValidationException {
+        checkNotFrozen();
         try {
-            if(this.validateDomainName(nameServer)) {
+            if(profile.acceptsName(nameServer)) {
                 this.nameServer = Objects.requireNonNull(nameServer, "nameServer must be a non-null");
             } else {
                 throw new ValidationException("Bad nameServer name", nameServer);
@@ -19,29 +19,30 @@ import java.util.Objects;
  */
 public class Query extends Message {
 
-    protected Query(int id, String query, byte[] header) throws ValidationException{
-        this(id,query);
+    /**
+     * Constructor that finishes the decoding work
+     *
+     * @param id the id of this message
+     * @param query the query value
+     * @param header the header in a byte array
+     * @param profile how strict to be
+     * @throws ValidationException
+     *      If the header or query are invalid under the profile
+     */
+    protected Query(int id, String query, byte[] header, DecodeProfile profile) throws ValidationException{
+        this.setID(id);
+        this.setQuery(query, profile);
         DataInputStream middleMan = new DataInputStream(new ByteArrayInputStream(header));
         try {
             middleMan.readShort();
             this.flagsFirstHalf = middleMan.readByte();
 
-            //gets the byte and checks to see if the first flag is set. If so, flip it off because we don't care about RA
-            // on deserialization and need the rest of the byte for the RCode
-            byte tempRCode = middleMan.readByte();
-            if(tempRCode < 0) {
-                tempRCode ^= (1 << 7);
-            }
-            //clear Z since we don't care on deserialization
-            if(tempRCode > 15) {
-                tempRCode ^= (1 << 6);
-                tempRCode ^= (1 << 5);
-                tempRCode ^= (1 << 4);
-            }
-            if(tempRCode > 0) {
+            //RA and Z don't matter on deserialization, the profile clears them and leaves the RCode
+            byte tempRCode = profile.queryRCode(middleMan.readByte());
+            if(tempRCode != 0 && profile.checksHeaderFlags()) {
                 throw new ValidationException("The response code must be 0 for a query", Byte.toString(tempRCode));
             }
-            this.rCode = RCode.getRCode(tempRCode);
+            this.rCode = RCode.NOERROR;
 
             //this wraps the bytes in the header containing the counts into a bytebuffer
             ByteBuffer countBuf = ByteBuffer.wrap(header, 4, 8);
@@ -63,7 +64,7 @@ public class Query extends Message {
             }
 
             //if this fails, it means only the opcode was bad.
-            if(!checkQueryFlagValidity(this.flagsFirstHalf)) {
+            if(profile.checksHeaderFlags() && !checkQueryFlagValidity(this.flagsFirstHalf)) {
                 throw new ValidationException("Opcode contained non-permitted values for a query", Byte.toString(this.flagsFirstHalf));
             }
         } catch (IOException e) {
@@ -116,7 +117,7 @@ public class Query extends Message {
      */
     @Override
     public int hashCode() {
-        return Objects.hash(this.getID(), this.getQuery().toLowerCase());
+        return Objects.hash(this.getID(), LabelScanner.getDefault().toLowerCase(this.getQuery()), this.getQueryType());
     }
 
     /**
@@ -131,7 +132,8 @@ public class Query extends Message {
         if (o == null || getClass() != o.getClass()) return false;
         Query query = (Query) o;
         return this.getID() == query.getID() &&
-                this.getQuery().toLowerCase().equals(query.getQuery().toLowerCase());
+                this.getQueryType() == query.getQueryType() &&
+                LabelScanner.getDefault().equalsIgnoreCase(this.getQuery(), query.getQuery());
     }
 
     //this is breaking my encode and needs an overhaul
@@ -169,9 +171,17 @@ public class Query extends Message {
         ResourceRecord.encodeName(responseFrame,this.getQuery());
 
         //encode the question padding
-        responseFrame.writeBytes(new byte[]{(byte)0x00, (byte)0xFF});
-        responseFrame.writeBytes(new byte[]{(byte)0x00, 1});
+        this.encodeQuestionType(responseFrame);
 
         return responseFrame.toByteArray();
     }
+
+    /**
+     * A query has no RRs, so the counts stay 0
+     * @param out the buffer to write to
+     * @param countsAt where ANCOUNT is in the buffer
+     */
+    @Override
+    protected void encodeRecords(ByteBuffer out, int countsAt) {
+    }
 }
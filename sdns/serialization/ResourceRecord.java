@@ -13,12 +13,8 @@ import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 import java.util.Objects;
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
 
 /**
  * Represents a Resource Record.
@@ -37,6 +33,9 @@ public abstract class ResourceRecord implements Cloneable{
     //used in the unknown type to make each unknown instance more unique
     private int RDLength;
 
+    //once set, every setter refuses to change this RR so it can be shared without cloning
+    private volatile boolean frozen = false;
+
     /**
      * Deserializes the RR from an Input source
      *
@@ -48,6 +47,21 @@ public abstract class ResourceRecord implements Cloneable{
      *      If I/O problem
      */
     public static ResourceRecord decode(InputStream in) throws ValidationException, IOException {
+        return decode(in, DecodeProfile.STRICT);
+    }
+
+    /**
+     * Deserializes the RR from an Input source with a given strictness. See DecodeProfile for what each profile accepts
+     *
+     * @param in the input source
+     * @param profile how strict to be
+     * @return a new Resource Record
+     * @throws ValidationException
+     *      If parse or validation problem under the profile
+     * @throws IOException
+     *      If I/O problem
+     */
+    public static ResourceRecord decode(InputStream in, DecodeProfile profile) throws ValidationException, IOException {
         String readName = null; //the domain name
         int readTtl; //ttl
         int readRDLength; //rdlength
@@ -60,6 +74,7 @@ public abstract class ResourceRecord implements Cloneable{
         if(in == null) {
             throw new NullPointerException("Input cannot be null");
         }
+        Objects.requireNonNull(profile, "Profile cannot be null");
 
         try {
             readName = readNameFromInput(in);
@@ -75,16 +90,17 @@ public abstract class ResourceRecord implements Cloneable{
                 throw new EOFException();
             }
 
-            //read the padding bytes
-            if(in.read() == -1) {
+            //read the padding bytes. The class must be 0x0001
+            int firstPadByteCheck = in.read();
+            if(firstPadByteCheck == -1) {
                 throw new EOFException();
             }
             int secondPadByteCheck = in.read();
             if(secondPadByteCheck == -1) {
                 throw new EOFException();
             }
-            else if(secondPadByteCheck != 1) {
-                throw new ValidationException("bad padding bytes", Integer.toString(secondPadByteCheck));
+            else if(firstPadByteCheck != 0 || secondPadByteCheck != 1) {
+                throw new ValidationException("bad padding bytes", firstPadByteCheck + " " + secondPadByteCheck);
             }
 
             //read ttl
@@ -105,36 +121,32 @@ public abstract class ResourceRecord implements Cloneable{
 
             switch (type) {
                 case 2 -> {
-                    return new NS(readName, readTtl, readRDLength, in);
+                    return new NS(readName, readTtl, readRDLength, in, profile);
                 }
                 case 5 -> {
-                    return new CName(readName, readTtl, readRDLength, in);
+                    return new CName(readName, readTtl, readRDLength, in, profile);
                 }
                 case 1 -> {
-                    return new A(readName, readTtl, readRDLength, in);
+                    return new A(readName, readTtl, readRDLength, in, profile);
                 }
                 case 28 -> {
-                    return new AAAA(readName, readTtl, readRDLength, in);
+                    return new AAAA(readName, readTtl, readRDLength, in, profile);
                 }
                 case 15 -> {
-                    return new MX(readName, readTtl, readRDLength, in, bBuf);
+                    return new MX(readName, readTtl, readRDLength, in, bBuf, profile);
                 }
                 case 257 -> {
-                    return new CAA(readName, readTtl, readRDLength, in);
+                    return new CAA(readName, readTtl, readRDLength, in, profile);
                 }
                 case 6 -> {
-                    return new SOA(readName, readTtl, readRDLength, in, bBuf);
+                    return new SOA(readName, readTtl, readRDLength, in, bBuf, profile);
                 }
                 default -> {
                     Unknown whoGoesThere = new Unknown();
                     readUnknownRData(in, readRDLength);
                     whoGoesThere.setType_Value(type);
-                    if (readTtl > -1) {
-                        whoGoesThere.setTTL(readTtl);
-                    } else {
-                        throw new ValidationException("TTL out of Range", Integer.toString(readTtl));
-                    }
-                    whoGoesThere.setName(readName);
+                    whoGoesThere.setTTL(readTtl, profile);
+                    whoGoesThere.setName(readName, profile);
                     whoGoesThere.setRDLength(readRDLength);
                     return whoGoesThere;
                 }
@@ -178,6 +190,65 @@ public abstract class ResourceRecord implements Cloneable{
         this.encodeData(out, middleMan, encodeBuffer);
     };
 
+    /**
+     * Encodes this RR straight into a buffer. Makes the same bytes as encode(OutputStream)
+     * without the streams and arrays in between
+     *
+     * @param out the buffer to write to, starting at its position
+     * @throws java.nio.BufferOverflowException
+     *      If the RR doesn't fit. The position is left where it was
+     * @throws UnsupportedOperationException
+     *      If this RR's type can't be encoded. The position is left where it was
+     */
+    public void encodeInto(ByteBuffer out) {
+        Objects.requireNonNull(out, "Output cannot be null");
+        int start = out.position();
+        try {
+            encodeName(out, this.getName());
+            out.putShort((short)this.getTypeValue());
+            out.putShort((short)1);
+            out.putInt(this.getTTL());
+            this.encodeRData(out);
+        } catch (RuntimeException e) {
+            out.position(start);
+            throw e;
+        }
+    }
+
+    /**
+     * Encodes RDLength and RData into a buffer. Every type that can be encoded overrides this
+     *
+     * @param out the buffer to write to
+     * @throws UnsupportedOperationException
+     *      If this type can't be encoded
+     */
+    protected void encodeRData(ByteBuffer out) {
+        throw new UnsupportedOperationException("Unknown or unsupported record type");
+    }
+
+    /**
+     * Encodes RData that is only a name, with its RDLength in front
+     *
+     * @param out the buffer to write to
+     * @param name the name
+     */
+    protected static void encodeNameRData(ByteBuffer out, String name) {
+        int lengthAt = out.position();
+        out.putShort((short)0);
+        encodeName(out, name);
+        patchRDLength(out, lengthAt);
+    }
+
+    /**
+     * Fills in an RDLength once the RData after it has been written
+     *
+     * @param out the buffer the RData was written to
+     * @param lengthAt where the 2 byte RDLength is
+     */
+    protected static void patchRDLength(ByteBuffer out, int lengthAt) {
+        out.putShort(lengthAt, (short)(out.position() - lengthAt - 2));
+    }
+
     /**
      * Reads the RData portion for an unknown type while deserializing
      *
@@ -220,9 +291,10 @@ public abstract class ResourceRecord implements Cloneable{
     public static String readNameFromInput(InputStream in, int rdlength) throws IOException, ValidationException{
         //count how many bytes are read
         int byteCount = 0;
-        byte nextByte; //treat between 0 and 255
         int toCount = -1;
-        List<Byte> chars = new ArrayList<>(); //array to put bytes read into.
+        byte[] chars = new byte[256]; //the name read so far. Grown if a bad name goes over
+        int charCount = 0;
+        boolean badChars = false;
 
         do {
             //read the number to count ahead first
@@ -233,6 +305,10 @@ public abstract class ResourceRecord implements Cloneable{
             if(toCount < 0) {
                 throw new EOFException("Reached end of stream");
             }
+            //don't read past the RData
+            if(rdlength != -69 && rdlength < byteCount) {
+                throw new ValidationException("RDLength is less than the byte count of RData.", Integer.toString(rdlength));
+            }
             if(toCount == 0) {
                 break;
             }
@@ -241,23 +317,35 @@ public abstract class ResourceRecord implements Cloneable{
                 in.read();
                 byteCount++;
                 break;
+            } else if((toCount & 0xC0) == 0x80) {
+                throw new ValidationException("Reserved label type in name", Integer.toString(toCount));
             } else {
-                for (int i = 0; i < toCount; i++) {
-                    nextByte = (byte)in.read();
-                    if(nextByte <= 0) { //TODO: change to only accept between -1 and 0 as an early eof. Need to provide better detection to fail if unicode is handed to me.
-                        //throw eof if 0 or -1 is encountered before finishing the read.
-                        throw new EOFException("Reached end of stream");
-                    }
-                    chars.add(nextByte);
-                    byteCount++;
+                //room for the label and the '.' after it
+                if(charCount + toCount + 1 > chars.length) {
+                    chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charCount + toCount + 1));
                 }
-                chars.add((byte)46);
+                //throw eof if the label is cut short
+                if(in.readNBytes(chars, charCount, toCount) < toCount) {
+                    throw new EOFException("Reached end of stream");
+                }
+                //a 0 or non-ascii byte can't be part of a name. Finish reading it first so a cut off name is still EOF
+                if(!LabelScanner.getDefault().allPositive(chars, charCount, charCount + toCount)) {
+                    badChars = true;
+                }
+                charCount += toCount;
+                byteCount += toCount;
+                chars[charCount++] = (byte)46;
             }
 
         } while(toCount > 0);
 
-        if(chars.size() == 0) {
-            chars.add((byte)46);
+        if(charCount == 0) {
+            chars[charCount++] = (byte)46;
+        }
+
+        if(badChars) {
+            throw new ValidationException("Non-ASCII character in name",
+                    new String(chars, 0, charCount, StandardCharsets.ISO_8859_1));
         }
 
         if(rdlength != -69 && rdlength < byteCount) {
@@ -267,18 +355,12 @@ public abstract class ResourceRecord implements Cloneable{
             throw new EOFException();
         }
 
-        //take the bytes read and put them into a byte array
-        var intermediary = new byte[chars.size()];
-
         //possibly remove
-        if(chars.size() > 255) {
-            throw new ValidationException("too many characters in name", new String(intermediary, StandardCharsets.US_ASCII));
+        if(charCount > 255) {
+            throw new ValidationException("too many characters in name", new String(chars, 0, charCount, StandardCharsets.US_ASCII));
         }
 
-        for(int i= 0; i < chars.size(); i++) {
-            intermediary[i] = chars.get(i);
-        }
-        return new String(intermediary, StandardCharsets.US_ASCII);
+        return new String(chars, 0, charCount, StandardCharsets.US_ASCII);
     }
 
     /**
@@ -327,7 +409,20 @@ public abstract class ResourceRecord implements Cloneable{
      * @throws ValidationException - if new name invalid or null
      */
     public ResourceRecord setName(String name) throws ValidationException {
-        if(validateDomainName(name)) {
+        return setName(name, DecodeProfile.STRICT);
+    }
+
+    /**
+     * set the name, validated by the given profile. Used by decode
+     *
+     * @param name the domain name
+     * @param profile how strict to be with the name
+     * @return this RR with the new name
+     * @throws ValidationException - if the profile doesn't accept the name or it is null
+     */
+    protected ResourceRecord setName(String name, DecodeProfile profile) throws ValidationException {
+        checkNotFrozen();
+        if(profile.acceptsName(name)) {
             this.name = Objects.requireNonNull(name, "Name must be a non-null");
         }else {
             throw new ValidationException("Bad Domain Name", name);
@@ -342,7 +437,7 @@ public abstract class ResourceRecord implements Cloneable{
      */
     //Make sure to remember when using the value returned here that you need to treat it as unsigned.
     public int getTTL() {
-        return (int)this.ttl;
+        return this.ttl;
     }
 
     /**
@@ -354,11 +449,21 @@ public abstract class ResourceRecord implements Cloneable{
      *      If the ttl is invalid
      */
     public ResourceRecord setTTL(int ttl) throws ValidationException {
-        if(ttl > -1) {
-            this.ttl = ttl;
-        }else {
-            throw new ValidationException("TTL out of allowed range", Integer.toString(ttl));
-        }
+        return setTTL(ttl, DecodeProfile.STRICT);
+    }
+
+    /**
+     * set a new TTL, checked by the given profile. Used by decode
+     *
+     * @param ttl the TTL read off the wire
+     * @param profile how strict to be with the TTL
+     * @return this RR with a new TTL
+     * @throws ValidationException
+     *      If the profile doesn't accept the ttl
+     */
+    protected ResourceRecord setTTL(int ttl, DecodeProfile profile) throws ValidationException {
+        checkNotFrozen();
+        this.ttl = profile.checkTTL(ttl);
         return this;
     }
 
@@ -380,6 +485,7 @@ public abstract class ResourceRecord implements Cloneable{
      *      If rd length is invalid
      */
     protected ResourceRecord setRDLength(int RDLength) throws ValidationException{
+        checkNotFrozen();
         if(RDLength > 65535) {
             throw new ValidationException("RDLength Exceeds size limit", Integer.toString(RDLength));
         }
@@ -390,6 +496,76 @@ public abstract class ResourceRecord implements Cloneable{
         return this;
     }
 
+    /**
+     * Freezes this RR. A frozen RR rejects every setter, which makes it safe to share between threads
+     * and between responses without cloning it first.
+     *
+     * @return this RR, now frozen
+     */
+    public ResourceRecord freeze() {
+        this.frozen = true;
+        return this;
+    }
+
+    /**
+     * Checks if this RR has been frozen
+     *
+     * @return true if this RR can no longer be changed
+     */
+    public boolean isFrozen() {
+        return this.frozen;
+    }
+
+    /**
+     * Gets a frozen version of this RR. If this RR is already frozen it is returned as is,
+     * otherwise a frozen clone is returned and this RR stays mutable.
+     *
+     * @return a frozen RR equal to this one
+     */
+    public ResourceRecord frozenCopy() {
+        if(this.frozen) {
+            return this;
+        }
+        try {
+            return ((ResourceRecord) this.clone()).freeze();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException("RR could not be cloned", e);
+        }
+    }
+
+    /**
+     * Gets a frozen version of this RR with a different TTL. If this RR is already frozen with that TTL it is
+     * returned as is, otherwise a frozen clone is returned and this RR is left alone. Used to hand out a cached RR
+     * with only the time it has left.
+     *
+     * @param ttl the TTL the copy has
+     * @return a frozen RR equal to this one apart from the TTL
+     * @throws ValidationException
+     *      If the ttl is invalid
+     */
+    public ResourceRecord frozenCopy(int ttl) throws ValidationException {
+        if(this.frozen && this.ttl == ttl) {
+            return this;
+        }
+        try {
+            return ((ResourceRecord) this.clone()).setTTL(ttl).freeze();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException("RR could not be cloned", e);
+        }
+    }
+
+    /**
+     * Must be called by every setter before it changes anything
+     *
+     * @throws UnsupportedOperationException
+     *      If this RR is frozen
+     */
+    protected void checkNotFrozen() {
+        if(this.frozen) {
+            throw new UnsupportedOperationException("Resource record is frozen and cannot be changed");
+        }
+    }
+
     /**
      * Helper to encode domain names
      *
@@ -416,55 +592,58 @@ public abstract class ResourceRecord implements Cloneable{
     }
 
     /**
-     * Checks the validity of a domain name
+     * Encodes a name straight into a buffer, one label at a time. The length byte of each label is written
+     * once the end of the label is found
      *
-     * @param nameToCheck the name to validate
-     * @return a boolean for whether or not it passed validation
+     * @param out the buffer to write to
+     * @param toEncode the name
      */
-    public static boolean validateDomainName(String nameToCheck) {
-        if(nameToCheck == null) {
-            return false;
-        }
-        if(nameToCheck.isBlank()) {
-            return false;
+    protected static void encodeName(ByteBuffer out, String toEncode) {
+        if(toEncode.length() == 1 && toEncode.charAt(0) == '.') {
+            out.put((byte)0);
+            return;
         }
 
-        //Checks if the name contains 2 '.' at the end.
-        if(nameToCheck.matches(".*[.]{2,}.*$")) {
-            return false;
+        int lengthAt = out.position();
+        out.put((byte)0);
+        for(int i = 0; i < toEncode.length(); i++) {
+            char c = toEncode.charAt(i);
+            if(c == '.') {
+                //finish this label. The byte saved for the next one is the terminating 0 if this was the last
+                out.put(lengthAt, (byte)(out.position() - lengthAt - 1));
+                lengthAt = out.position();
+                out.put((byte)0);
+            } else {
+                out.put((byte)c);
+            }
         }
-        if(nameToCheck.length() == 1 && nameToCheck.contains(".")) {
-            return true;
-        } else if(nameToCheck.length() > 255) {
-            return false;
+        //a name without the trailing '.' still needs its last label finished and terminated
+        if(out.position() - lengthAt > 1) {
+            out.put(lengthAt, (byte)(out.position() - lengthAt - 1));
+            out.put((byte)0);
         }
-        if(nameToCheck.charAt(nameToCheck.length()-1) == '.') {
-            int lengthBeforeCheck;
-            ArrayList<String> tokenized = new ArrayList<>(Arrays.asList(nameToCheck.split("\\.")));
-            lengthBeforeCheck = tokenized.size();
-            int lengthAfter = (int) tokenized.stream().filter(e -> {
-                if (e.length() > 63) {
-                    return false;
-                }
-                String domainRegex = "^(?=[a-zA-Z])[a-zA-Z0-9-_]*([a-zA-Z0-9])$";
-                Pattern domainPattern = Pattern.compile(domainRegex);
-                Matcher verify = domainPattern.matcher(e);
-                boolean test = verify.matches();
-                return test;
-            }).count();
-            return lengthBeforeCheck == lengthAfter;
-        }
-        return false;
     }
 
     /**
-     * Clones this object
+     * Checks the validity of a domain name. See LabelScanner for the rules
+     *
+     * @param nameToCheck the name to validate
+     * @return a boolean for whether or not it passed validation
+     */
+    public static boolean validateDomainName(String nameToCheck) {
+        return LabelScanner.getDefault().isValidDomainName(nameToCheck);
+    }
+
+    /**
+     * Clones this object. The clone is never frozen, even if this RR is.
      * @return a clone of this object
      * @throws CloneNotSupportedException
      *      If clone isn't supported
      */
     @Override
     protected Object clone() throws CloneNotSupportedException {
-        return (ResourceRecord)super.clone();
+        ResourceRecord copy = (ResourceRecord)super.clone();
+        copy.frozen = false;
+        return copy;
     }
 }
@@ -24,11 +24,12 @@ public class Response extends Message {
      * @param query the query value
      * @param header the header in a byte array
      * @param in the input stream to continue from
+     * @param profile how strict to be
      * @throws ValidationException
-     *      If any flags, the id, or query string, are invalid. Also on premature EOFs
+     *      If any flags, the id, or query string, are invalid under the profile. Also on premature EOFs
      */
-    protected Response(int id, String query, byte[] header, ByteArrayInputStream in) throws ValidationException{
-        this(id,query,RCode.NOERROR); //RCode from deserialization is dealt with in this constructor but the super needs something so I just hand it NOERROR
+    protected Response(int id, String query, byte[] header, InputStream in, DecodeProfile profile) throws ValidationException{
+        this(id,query,RCode.NOERROR,profile); //RCode from deserialization is dealt with in this constructor but the super needs something so I just hand it NOERROR
         DataInputStream middleMan = new DataInputStream(new ByteArrayInputStream(header));
 
         try {
@@ -40,7 +41,7 @@ public class Response extends Message {
             // works just fine while on limited time.
             this.setResponseCode(middleMan.readByte());
 
-            if(!checkFlagValidity(this.flagsFirstHalf)) {
+            if(profile.checksHeaderFlags() && !checkFlagValidity(this.flagsFirstHalf)) {
                 throw new ValidationException("Un-permitted flags set " +flagsFirstHalf, "");
             }
 
@@ -55,13 +56,13 @@ public class Response extends Message {
 
             //Get all of the resource records.
             for (int i = 0; i < ANCOUNT; i++) {
-                answers.add(ResourceRecord.decode(in));
+                answers.add(ResourceRecord.decode(in, profile));
             }
             for (int i = 0; i < NSCOUNT; i++) {
-                nameServers.add(ResourceRecord.decode(in));
+                nameServers.add(ResourceRecord.decode(in, profile));
             }
             for (int i = 0; i < ARCOUNT; i++) {
-                additionalRecords.add(ResourceRecord.decode(in));
+                additionalRecords.add(ResourceRecord.decode(in, profile));
             }
             if(in.available() > 0) {
                 throw new ValidationException("too many bytes for response", "");
@@ -83,8 +84,22 @@ public class Response extends Message {
      *      If the id or query are invalid
      */
     public Response(int id, String query, RCode rcode) throws ValidationException{
+        this(id, query, rcode, DecodeProfile.STRICT);
+    }
+
+    /**
+     * Response constructor that validates the query with a given profile
+     *
+     * @param id the id of this response
+     * @param query the query value
+     * @param rcode the rcode
+     * @param profile how strict to be with the query
+     * @throws ValidationException
+     *      If the id or query are invalid
+     */
+    private Response(int id, String query, RCode rcode, DecodeProfile profile) throws ValidationException{
         this.setID(id);
-        this.setQuery(query);
+        this.setQuery(query, profile);
         this.answers = new ArrayList<>();
         this.nameServers = new ArrayList<>();
         this.additionalRecords = new ArrayList<>();
@@ -167,12 +182,8 @@ public class Response extends Message {
         if(answers.contains(answer)) {
             return this;
         }
-        try {
-            this.answers.add((ResourceRecord) answer.clone());
-            this.ANCOUNT++;
-        } catch (CloneNotSupportedException e) {
-            e.printStackTrace();
-        }
+        this.answers.add(shareable(answer));
+        this.ANCOUNT++;
         return this;
     }
 
@@ -197,12 +208,8 @@ public class Response extends Message {
         if(nameServers.contains(nameServer)) {
             return this;
         }
-        try {
-            this.nameServers.add((ResourceRecord)nameServer.clone());
-            this.NSCOUNT++;
-        } catch (CloneNotSupportedException e) {
-            e.printStackTrace();
-        }
+        this.nameServers.add(shareable(nameServer));
+        this.NSCOUNT++;
         return this;
     }
 
@@ -227,13 +234,28 @@ public class Response extends Message {
         if(additionalRecords.contains(additional)) {
             return this;
         }
+        this.additionalRecords.add(shareable(additional));
+        this.ARCOUNT++;
+        return this;
+    }
+
+    /**
+     * Gets the version of an RR that can be stored in this response. Frozen RRs can't change underneath us so they
+     * are shared as is, mutable ones are cloned so the caller can keep changing theirs.
+     * @param rr the RR being added
+     * @return the RR to store
+     * @throws ValidationException
+     *      If the RR could not be copied
+     */
+    private static ResourceRecord shareable(ResourceRecord rr) throws ValidationException {
+        if(rr.isFrozen()) {
+            return rr;
+        }
         try {
-            this.additionalRecords.add((ResourceRecord)additional.clone());
-            this.ARCOUNT++;
+            return (ResourceRecord) rr.clone();
         } catch (CloneNotSupportedException e) {
-            e.printStackTrace();
+            throw new ValidationException("Unable to copy RR", e, rr.toString());
         }
-        return this;
     }
 
     /**
@@ -318,8 +340,7 @@ public class Response extends Message {
             ResourceRecord.encodeName(responseFrame,this.getQuery());
 
             //encode the question padding
-            responseFrame.writeBytes(new byte[]{(byte)0x00, (byte)0xFF});
-            responseFrame.writeBytes(new byte[]{(byte)0x00, 1});
+            this.encodeQuestionType(responseFrame);
 
             responseFrame.write(listsStream.toByteArray());
         } catch (IOException e) {
@@ -330,6 +351,40 @@ public class Response extends Message {
 
     }
 
+    /**
+     * Encodes every RR into a buffer and fills in the counts. RRs that can't be encoded are left out
+     * @param out the buffer to write to
+     * @param countsAt where ANCOUNT is in the buffer
+     */
+    @Override
+    protected void encodeRecords(ByteBuffer out, int countsAt) {
+        this.ANCOUNT = encodeList(out, getAnswerList());
+        this.NSCOUNT = encodeList(out, getNameServerList());
+        this.ARCOUNT = encodeList(out, getAdditionalList());
+        out.putShort(countsAt, (short)this.ANCOUNT);
+        out.putShort(countsAt + 2, (short)this.NSCOUNT);
+        out.putShort(countsAt + 4, (short)this.ARCOUNT);
+    }
+
+    /**
+     * Encodes a list of RRs into a buffer
+     * @param out the buffer to write to
+     * @param rrs the RRs
+     * @return how many were encoded
+     */
+    private static int encodeList(ByteBuffer out, List<ResourceRecord> rrs) {
+        int count = 0;
+        for(ResourceRecord rr : rrs) {
+            try {
+                rr.encodeInto(out);
+                count++;
+            } catch(UnsupportedOperationException e) {
+                //unknown types are left out, same as encode()
+            }
+        }
+        return count;
+    }
+
     /**
      * Equals for response objects
      * @param o the object being compared to
@@ -340,8 +395,9 @@ public class Response extends Message {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Response response = (Response) o;
-        return this.getQuery().toLowerCase().equals(response.getQuery().toLowerCase()) &&
+        return LabelScanner.getDefault().equalsIgnoreCase(this.getQuery(), response.getQuery()) &&
                 this.getID() == response.getID() &&
+                this.getQueryType() == response.getQueryType() &&
                 this.getAnswerList().equals(response.getAnswerList()) &&
                 this.getNameServerList().equals(response.getNameServerList()) &&
                 this.getAdditionalList().equals(response.getAdditionalList()) &&
@@ -354,6 +410,7 @@ public class Response extends Message {
      */
     @Override
     public int hashCode() {
-        return Objects.hash(answers, nameServers, additionalRecords, this.getQuery().toLowerCase(), this.getID(), this.getRCode());
+        return Objects.hash(answers, nameServers, additionalRecords,
+                LabelScanner.getDefault().toLowerCase(this.getQuery()), this.getID(), this.getRCode(), this.getQueryType());
     }
 }
@@ -44,11 +44,11 @@ public class SOA extends ResourceRecord implements Cloneable {
             throw new ValidationException("Bad Domain name for name, mName, or rName", name);
         }
 
-        this.setSerial(serial & 0xFFFFFFFFL);
-        this.setRefresh(refresh & 0xFFFFFFFFL);
-        this.setRetry(retry & 0xFFFFFFFFL);
-        this.setExpire(expire & 0xFFFFFFFFL);
-        this.setMinimum(minimum & 0xFFFFFFFFL);
+        this.setSerial(serial);
+        this.setRefresh(refresh);
+        this.setRetry(retry);
+        this.setExpire(expire);
+        this.setMinimum(minimum);
     }
 
     /**
@@ -61,25 +61,43 @@ public class SOA extends ResourceRecord implements Cloneable {
      * @param bBuf the bytebuffer to get integer values from the stream.
      */
     public SOA(String name, int ttl, int RDLength, InputStream in, ByteBuffer bBuf) throws ValidationException, IOException{
-        this.setTTL(ttl);
-        if(validateDomainName(name)) {
-            this.setName(name);
+        this(name, ttl, RDLength, in, bBuf, DecodeProfile.STRICT);
+    }
+
+    /**
+     * This is for polymorphic creation of SOA from decode.
+     * Takes the input stream and bytebuf to finish reading RData.
+     *
+     * @param name the domain name of this RR
+     * @param ttl this ttl for this RR
+     * @param in the inputstream this RR is being read from
+     * @param bBuf the bytebuffer to get integer values from the stream.
+     * @param profile how strict to be
+     */
+    public SOA(String name, int ttl, int RDLength, InputStream in, ByteBuffer bBuf, DecodeProfile profile) throws ValidationException, IOException{
+        this.setTTL(ttl, profile);
+        if(profile.acceptsName(name)) {
+            this.setName(name, profile);
         } else {
             throw new ValidationException("Bad Domain name", name);
         }
         this.setRDLength(RDLength);
 
-        //just read the names straight from the stream. We don't know how long they are.
-        this.setMName(readNameFromInput(in));
-        this.setRName(readNameFromInput(in));
+        //just read the names straight from the stream. We don't know how long they are, so count what we read.
+        CountingInputStream counted = new CountingInputStream(in);
+        this.setMName(readNameFromInput(counted), profile);
+        this.setRName(readNameFromInput(counted), profile);
 
         //Get the 32-bit values for serial through minimum.
         bBuf.clear();
         bBuf = ByteBuffer.allocate(20).order(ByteOrder.BIG_ENDIAN);
-        byte[] serialThroughMin = in.readNBytes(20);
+        byte[] serialThroughMin = counted.readNBytes(20);
         if(serialThroughMin.length < 20) {
             throw new EOFException("Reached end of stream while reading serial through minimum in SOA");
         }
+        if(counted.getCount() != RDLength) {
+            throw new ValidationException("RDLength does not match the RData read", Integer.toString(RDLength));
+        }
         bBuf.put(serialThroughMin);
         bBuf.flip();
 
@@ -155,8 +173,20 @@ public class SOA extends ResourceRecord implements Cloneable {
      * @throws ValidationException if the given mName is an invalid domain name or null
      */
     public SOA setMName(String mName) throws ValidationException {
+        return setMName(mName, DecodeProfile.STRICT);
+    }
+
+    /**
+     * Sets the value of MName
+     * @param mName the value of MName. a domain name
+     * @param profile how strict to be
+     * @return this RR
+     * @throws ValidationException if the given mName is an invalid domain name or null
+     */
+    private SOA setMName(String mName, DecodeProfile profile) throws ValidationException {
+        checkNotFrozen();
         try {
-            if (validateDomainName(mName)) {
+            if (profile.acceptsName(mName)) {
                 this.mName = Objects.requireNonNull(mName, "mName cannot be null");
             } else {
                 throw new ValidationException("Bad mName", mName);
@@ -174,8 +204,20 @@ public class SOA extends ResourceRecord implements Cloneable {
      * @throws ValidationException if the given rName is an invalid domain name or null
      */
     public SOA setRName(String rName) throws ValidationException {
+        return setRName(rName, DecodeProfile.STRICT);
+    }
+
+    /**
+     * Sets the value of RName
+     * @param rName the value of RName. A domain name
+     * @param profile how strict to be
+     * @return this RR
+     * @throws ValidationException if the given rName is an invalid domain name or null
+     */
+    private SOA setRName(String rName, DecodeProfile profile) throws ValidationException {
+        checkNotFrozen();
         try {
-            if (validateDomainName(rName)) {
+            if (profile.acceptsName(rName)) {
                 this.rName = Objects.requireNonNull(rName, "mName cannot be null");
             } else {
                 throw new ValidationException("Bad mName", rName);
@@ -193,6 +235,7 @@ public class SOA extends ResourceRecord implements Cloneable {
      * @throws ValidationException if serial is invalid
      */
     public SOA setSerial(long serial) throws ValidationException {
+        checkNotFrozen();
         //leave no room for error
         if(serial > 0xFFFFFFFFL || serial < 0) {
             throw new ValidationException("Invalid serial value. Must be a value within an unsigned 32-bit int", Long.toString(serial));
@@ -208,6 +251,7 @@ public class SOA extends ResourceRecord implements Cloneable {
      * @throws ValidationException if refresh is invalid
      */
     public SOA setRefresh(long refresh) throws ValidationException {
+        checkNotFrozen();
         if(refresh > 0xFFFFFFFFL || refresh < 0) {
             throw new ValidationException("Invalid serial value. Must be a value within an unsigned 32-bit int", Long.toString(refresh));
         }
@@ -222,6 +266,7 @@ public class SOA extends ResourceRecord implements Cloneable {
      * @throws ValidationException if retry is invalid
      */
     public SOA setRetry(long retry) throws ValidationException {
+        checkNotFrozen();
         if(retry > 0xFFFFFFFFL || retry < 0) {
             throw new ValidationException("Invalid serial value. Must be a value within an unsigned 32-bit int", Long.toString(retry));
         }
@@ -236,6 +281,7 @@ public class SOA extends ResourceRecord implements Cloneable {
      * @throws ValidationException if expire is invalid
      */
     public SOA setExpire(long expire) throws ValidationException {
+        checkNotFrozen();
         if(expire > 0xFFFFFFFFL || expire < 0) {
             throw new ValidationException("Invalid serial value. Must be a value within an unsigned 32-bit int", Long.toString(expire));
         }
@@ -250,6 +296,7 @@ public class SOA extends ResourceRecord implements Cloneable {
      * @throws ValidationException If minimum is invalid
      */
     public SOA setMinimum(long minimum) throws ValidationException {
+        checkNotFrozen();
         if(minimum > 0xFFFFFFFFL || minimum < 0) {
             throw new ValidationException("Invalid serial value. Must be a value within an unsigned 32-bit int", Long.toString(minimum));
         }
@@ -295,6 +342,24 @@ public class SOA extends ResourceRecord implements Cloneable {
         encodeBuffer.writeTo(out);
     }
 
+    /**
+     * Encodes RDLength, both names, and the 32-bit values into a buffer
+     * @param out the buffer to write to
+     */
+    @Override
+    protected void encodeRData(ByteBuffer out) {
+        int lengthAt = out.position();
+        out.putShort((short)0);
+        encodeName(out, this.getMName());
+        encodeName(out, this.getRName());
+        out.putInt((int)this.getSerial());
+        out.putInt((int)this.getRefresh());
+        out.putInt((int)this.getRetry());
+        out.putInt((int)this.getExpire());
+        out.putInt((int)this.getMinimum());
+        patchRDLength(out, lengthAt);
+    }
+
     /**
      * the getter for type value that all resource record types must implement.
      *
@@ -321,9 +386,9 @@ public class SOA extends ResourceRecord implements Cloneable {
                 getExpire() == soa.getExpire() &&
                 getMinimum() == soa.getMinimum() &&
                 TYPE_VALUE == soa.TYPE_VALUE &&
-                mName.toLowerCase().equals(soa.getMName().toLowerCase()) &&
-                rName.toLowerCase().equals(soa.getRName().toLowerCase()) &&
-                this.getName().toLowerCase().equals(soa.getName().toLowerCase()) &&
+                LabelScanner.getDefault().equalsIgnoreCase(mName, soa.getMName()) &&
+                LabelScanner.getDefault().equalsIgnoreCase(rName, soa.getRName()) &&
+                LabelScanner.getDefault().equalsIgnoreCase(this.getName(), soa.getName()) &&
                 this.getTTL() == soa.getTTL();
     }
 
@@ -333,7 +398,8 @@ public class SOA extends ResourceRecord implements Cloneable {
      */
     @Override
     public int hashCode() {
-        return Objects.hash(this.getName().toLowerCase(), this.getTTL(), mName.toLowerCase(), rName.toLowerCase(),
+        return Objects.hash(LabelScanner.getDefault().toLowerCase(this.getName()), this.getTTL(),
+                LabelScanner.getDefault().toLowerCase(mName), LabelScanner.getDefault().toLowerCase(rName),
                 getSerial(), getRefresh(), getRetry(), getExpire(), getMinimum(), TYPE_VALUE);
     }
 
@@ -54,6 +54,7 @@ public class Unknown extends ResourceRecord implements Cloneable{
      * @param type the type number to set
      */
     public void setType_Value(int type) {
+        checkNotFrozen();
         type_value = type;
     }
 
@@ -63,14 +64,14 @@ public class Unknown extends ResourceRecord implements Cloneable{
         if (o == null || getClass() != o.getClass()) return false;
         Unknown unknown = (Unknown) o;
         return type_value == unknown.type_value &&
-                this.getName().toLowerCase().equals(unknown.getName().toLowerCase()) &&
+                LabelScanner.getDefault().equalsIgnoreCase(this.getName(), unknown.getName()) &&
                 this.getTTL() == unknown.getTTL() &&
                 this.getRDLength() == unknown.getRDLength();
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(type_value, this.getName().toLowerCase(), this.getTTL(), this.getRDLength());
+        return Objects.hash(type_value, LabelScanner.getDefault().toLowerCase(this.getName()), this.getTTL(), this.getRDLength());
     }
 
     public String toString() {
@@ -0,0 +1,260 @@
+/************************************************
+ *
+ * Author: Harrison Rogers
+ * Assignment: Program 0
+ * Class: Data Communications
+ *
+ ************************************************/
+
+package sdns.serialization;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The vectorized LabelScanner. Checks character classes, folds case, and compares a whole vector of
+ * bytes at a time using the jdk.incubator.vector module.
+ *
+ * Strings are turned into ISO-8859-1 bytes first. Anything shorter than two vectors isn't worth that copy,
+ * so it goes through the scalar code instead. Most names a server sees are well under that, so for them this is
+ * the scalar scanner. Chars above 0xFF become '?' when converted. '?' is never allowed
+ * in a name, and the string methods fall back to the scalar code whenever they see one.
+ *
+ * Only ever created by LabelScanner when the incubator module is loaded.
+ *
+ * @version 1.0
+ */
+final class VectorLabelScanner extends LabelScanner {
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+    //the shortest string worth copying to bytes. At one vector the copy eats what the vector saves
+    private static final int MIN_LENGTH = 2 * LANES;
+
+    /**
+     * Checks the validity of a domain name. See LabelScanner for the rules.
+     *
+     * @param name the name to check
+     * @param strictLabels true to also check the first and last char of every label
+     * @return true if the name is valid
+     */
+    @Override
+    public boolean isValidDomainName(String name, boolean strictLabels) {
+        if(name == null || name.length() < MIN_LENGTH) {
+            return super.isValidDomainName(name, strictLabels);
+        }
+        int length = name.length();
+        if(length > MAX_NAME_LENGTH || name.charAt(length - 1) != '.') {
+            return false;
+        }
+
+        byte[] bytes = name.getBytes(StandardCharsets.ISO_8859_1);
+        int labelStart = 0;
+        int i = 0;
+        for(int bound = SPECIES.loopBound(length); i < bound; i += LANES) {
+            ByteVector v = ByteVector.fromArray(SPECIES, bytes, i);
+            VectorMask<Byte> dots = v.compare(VectorOperators.EQ, (byte) '.');
+            if(!labelChars(v).or(dots).allTrue()) {
+                return false;
+            }
+
+            //check the ends of every label that finished in this vector
+            long dotBits = dots.toLong();
+            while(dotBits != 0) {
+                int dot = i + Long.numberOfTrailingZeros(dotBits);
+                if(dot == labelStart || !checkLabelEnds(bytes[labelStart], bytes[dot - 1], dot - labelStart, strictLabels)) {
+                    return false;
+                }
+                labelStart = dot + 1;
+                dotBits &= dotBits - 1;
+            }
+        }
+
+        //finish what didn't fill a whole vector
+        for(; i < length; i++) {
+            byte c = bytes[i];
+            if(c == '.') {
+                if(i == labelStart || !checkLabelEnds(bytes[labelStart], bytes[i - 1], i - labelStart, strictLabels)) {
+                    return false;
+                }
+                labelStart = i + 1;
+            } else if(!isLabelChar(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks that every char is visible ASCII (0x21 through 0x7E)
+     * @param s the string to check
+     * @return true if every char is visible ASCII
+     */
+    @Override
+    public boolean isVisibleAscii(String s) {
+        if(s.length() < MIN_LENGTH) {
+            return super.isVisibleAscii(s);
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.ISO_8859_1);
+        int i = 0;
+        for(int bound = SPECIES.loopBound(bytes.length); i < bound; i += LANES) {
+            ByteVector v = ByteVector.fromArray(SPECIES, bytes, i);
+            //bytes over 0x7F are negative so they fail the lower bound
+            if(!v.compare(VectorOperators.GE, (byte) 0x21).and(v.compare(VectorOperators.LE, (byte) 0x7E)).allTrue()
+                    || v.compare(VectorOperators.EQ, (byte) '?').anyTrue()) {
+                return super.isVisibleAscii(s);
+            }
+        }
+        for(; i < bytes.length; i++) {
+            char c = s.charAt(i);
+            if(c < 0x21 || c > 0x7E) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks that every byte in the range is between 1 and 127
+     * @param bytes the bytes to check
+     * @param from the first index, inclusive
+     * @param to the last index, exclusive
+     * @return true if no byte is zero or has the high bit set
+     */
+    @Override
+    public boolean allPositive(byte[] bytes, int from, int to) {
+        int i = from;
+        for(int bound = from + SPECIES.loopBound(to - from); i < bound; i += LANES) {
+            if(ByteVector.fromArray(SPECIES, bytes, i).compare(VectorOperators.LE, (byte) 0).anyTrue()) {
+                return false;
+            }
+        }
+        return super.allPositive(bytes, i, to);
+    }
+
+    /**
+     * Compares two strings ignoring the case of ASCII letters
+     * @param a the first string
+     * @param b the second string
+     * @return true if they are equal ignoring ASCII case
+     */
+    @Override
+    public boolean equalsIgnoreCase(String a, String b) {
+        if(a == b) {
+            return true;
+        }
+        if(a == null || b == null || a.length() != b.length()) {
+            return false;
+        }
+        if(a.length() < MIN_LENGTH) {
+            return super.equalsIgnoreCase(a, b);
+        }
+        byte[] aBytes = a.getBytes(StandardCharsets.ISO_8859_1);
+        byte[] bBytes = b.getBytes(StandardCharsets.ISO_8859_1);
+        int i = 0;
+        for(int bound = SPECIES.loopBound(aBytes.length); i < bound; i += LANES) {
+            ByteVector va = ByteVector.fromArray(SPECIES, aBytes, i);
+            ByteVector vb = ByteVector.fromArray(SPECIES, bBytes, i);
+            if(va.compare(VectorOperators.EQ, (byte) '?').or(vb.compare(VectorOperators.EQ, (byte) '?')).anyTrue()) {
+                return super.equalsIgnoreCase(a, b);
+            }
+            if(lower(va).compare(VectorOperators.NE, lower(vb)).anyTrue()) {
+                return false;
+            }
+        }
+        for(; i < aBytes.length; i++) {
+            byte x = aBytes[i];
+            byte y = bBytes[i];
+            if(x == '?' || y == '?') {
+                return super.equalsIgnoreCase(a, b);
+            }
+            if(x != y && lower(x) != lower(y)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Lower cases the ASCII letters of a string
+     * @param s the string to lower case
+     * @return the lower case string. The same instance if it had no upper case letters
+     */
+    @Override
+    public String toLowerCase(String s) {
+        if(s.length() < MIN_LENGTH) {
+            return super.toLowerCase(s);
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.ISO_8859_1);
+        boolean changed = false;
+        int i = 0;
+        for(int bound = SPECIES.loopBound(bytes.length); i < bound; i += LANES) {
+            ByteVector v = ByteVector.fromArray(SPECIES, bytes, i);
+            if(v.compare(VectorOperators.EQ, (byte) '?').anyTrue()) {
+                return super.toLowerCase(s);
+            }
+            VectorMask<Byte> upper = upper(v);
+            if(upper.anyTrue()) {
+                v.lanewise(VectorOperators.OR, (byte) 0x20, upper).intoArray(bytes, i);
+                changed = true;
+            }
+        }
+        for(; i < bytes.length; i++) {
+            if(bytes[i] == '?') {
+                return super.toLowerCase(s);
+            }
+            if(bytes[i] != lower(bytes[i])) {
+                bytes[i] = lower(bytes[i]);
+                changed = true;
+            }
+        }
+        return changed ? new String(bytes, StandardCharsets.ISO_8859_1) : s;
+    }
+
+    /**
+     * Finds the lanes that hold a char allowed anywhere in a label. [a-zA-Z0-9-_]
+     * @param v the bytes to check
+     * @return a mask of the lanes holding label chars
+     */
+    private static VectorMask<Byte> labelChars(ByteVector v) {
+        //setting 0x20 folds A-Z onto a-z and nothing else onto a-z
+        ByteVector folded = v.or((byte) 0x20);
+        VectorMask<Byte> letters = folded.compare(VectorOperators.GE, (byte) 'a')
+                .and(folded.compare(VectorOperators.LE, (byte) 'z'));
+        VectorMask<Byte> digits = v.compare(VectorOperators.GE, (byte) '0')
+                .and(v.compare(VectorOperators.LE, (byte) '9'));
+        return letters.or(digits)
+                .or(v.compare(VectorOperators.EQ, (byte) '-'))
+                .or(v.compare(VectorOperators.EQ, (byte) '_'));
+    }
+
+    /**
+     * Finds the lanes holding upper case ASCII letters
+     * @param v the bytes to check
+     * @return a mask of the upper case lanes
+     */
+    private static VectorMask<Byte> upper(ByteVector v) {
+        return v.compare(VectorOperators.GE, (byte) 'A').and(v.compare(VectorOperators.LE, (byte) 'Z'));
+    }
+
+    /**
+     * Lower cases a single ASCII letter
+     * @param b the byte to lower case
+     * @return the lower case byte, or b if it isn't an upper case letter
+     */
+    private static byte lower(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b | 0x20) : b;
+    }
+
+    /**
+     * Lower cases the ASCII letters in a vector
+     * @param v the bytes to lower case
+     * @return the lower cased bytes
+     */
+    private static ByteVector lower(ByteVector v) {
+        return v.lanewise(VectorOperators.OR, (byte) 0x20, upper(v));
+    }
+}
@@ -0,0 +1,269 @@
+//Contains the DecodeProfileTest class (see comments below)
+package sdns.serialization.test;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.params.provider.MethodSource;
+import sdns.serialization.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Harrison Rogers
+ * Conformance table for what each decode profile accepts
+ */
+class DecodeProfileTest {
+    /**
+     * Encodes a domain name the way it is on the wire
+     * @param name the name, ending in '.'
+     * @return the encoded name
+     */
+    private static byte[] name(String name) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if(!name.equals(".")) {
+            for(String label : name.split("\\.")) {
+                out.write(label.length());
+                out.writeBytes(label.getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+        out.write(0);
+        return out.toByteArray();
+    }
+
+    /**
+     * Encodes an RR
+     * @param name the RR name
+     * @param type the type value
+     * @param ttl the ttl
+     * @param rdata the rdata
+     * @return the encoded RR
+     */
+    private static byte[] rr(String name, int type, int ttl, byte[] rdata) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(name(name));
+        out.writeShort(type);
+        out.writeShort(1);
+        out.writeInt(ttl);
+        out.writeShort(rdata.length);
+        out.write(rdata);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Encodes CAA rdata
+     * @param flags the flags byte
+     * @param tag the tag, 5 chars
+     * @param issuer the issuer
+     * @return the rdata
+     */
+    private static byte[] caa(int flags, String tag, String issuer) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(flags);
+        out.write(tag.length());
+        out.writeBytes(tag.getBytes(StandardCharsets.US_ASCII));
+        out.writeBytes(issuer.getBytes(StandardCharsets.US_ASCII));
+        return out.toByteArray();
+    }
+
+    /**
+     * Encodes a message with one question and the given answers
+     * @param flags1 the first flags byte
+     * @param flags2 the second flags byte
+     * @param query the question name
+     * @param answers the encoded answers
+     * @return the encoded message
+     */
+    private static byte[] message(int flags1, int flags2, String query, byte[]... answers) throws IOException {
+        return message(flags1, flags2, query, 255, 1, answers);
+    }
+
+    /**
+     * Encodes a message with one question and the given answers
+     * @param flags1 the first flags byte
+     * @param flags2 the second flags byte
+     * @param query the question name
+     * @param qtype the question type
+     * @param qclass the question class
+     * @param answers the encoded answers
+     * @return the encoded message
+     */
+    private static byte[] message(int flags1, int flags2, String query, int qtype, int qclass, byte[]... answers)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeShort(1234);
+        out.writeByte(flags1);
+        out.writeByte(flags2);
+        out.writeShort(1);
+        out.writeShort(answers.length);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.write(name(query));
+        out.writeShort(qtype);
+        out.writeShort(qclass);
+        for(byte[] answer : answers) {
+            out.write(answer);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * A response with a single A answer
+     * @param name the answer name
+     * @param ttl the answer ttl
+     * @return the encoded message
+     */
+    private static byte[] aResponse(String name, int ttl) throws IOException {
+        return message(0x81, 0, "foo.com.", rr(name, 1, ttl, new byte[] {1, 2, 3, 4}));
+    }
+
+    /**
+     * Checks if a message decodes under a profile
+     * @param message the encoded message
+     * @param profile the profile
+     * @return true if it decoded
+     */
+    private static boolean accepts(byte[] message, DecodeProfile profile) {
+        try {
+            Message.decode(message, profile);
+            return true;
+        } catch (ValidationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The table of messages and whether STRICT, LENIENT, and TRUSTED accept them
+     * @return the test cases
+     */
+    static Stream<Arguments> conformance() throws IOException {
+        return Stream.of(
+                Arguments.of("plain response", aResponse("foo.com.", 60), true, true, true),
+                Arguments.of("plain query", message(0, 0, "foo.com."), true, true, true),
+                Arguments.of("query with RA and all of Z", message(0, 0xF0, "foo.com."), true, true, true),
+                Arguments.of("query with one Z bit", message(0, 0x20, "foo.com."), false, true, true),
+                Arguments.of("query with RA and one Z bit", message(0, 0x90, "foo.com."), false, true, true),
+                Arguments.of("query with an rcode", message(0, 0x03, "foo.com."), false, false, true),
+                Arguments.of("query with an opcode", message(0x10, 0, "foo.com."), false, false, true),
+                Arguments.of("response with an opcode", message(0x89, 0, "foo.com."), false, false, true),
+                Arguments.of("question starting with a digit", message(0, 0, "3com.com."), false, true, true),
+                Arguments.of("question type A", message(0, 0, "foo.com.", 1, 1), false, false, false),
+                Arguments.of("question type AXFR", message(0, 0, "foo.com.", 252, 1), true, true, true),
+                Arguments.of("question class CH", message(0, 0, "foo.com.", 255, 3), false, false, false),
+                Arguments.of("label starting with a digit", aResponse("3com.com.", 60), false, true, true),
+                Arguments.of("label starting with '_'", aResponse("_dmarc.foo.com.", 60), false, true, true),
+                Arguments.of("label ending with '-'", aResponse("foo-.com.", 60), false, true, true),
+                Arguments.of("wildcard label", aResponse("*.foo.com.", 60), false, false, true),
+                Arguments.of("label with a space", aResponse("a b.com.", 60), false, false, true),
+                Arguments.of("TTL with the high bit set", aResponse("foo.com.", 0x80000000), false, true, true),
+                Arguments.of("CAA", message(0x81, 0, "foo.com.",
+                        rr("foo.com.", 257, 60, caa(0, "issue", "ca.net"))), true, true, true),
+                Arguments.of("CAA tag in upper case", message(0x81, 0, "foo.com.",
+                        rr("foo.com.", 257, 60, caa(0, "ISSUE", "ca.net"))), false, true, true),
+                Arguments.of("CAA critical flag", message(0x81, 0, "foo.com.",
+                        rr("foo.com.", 257, 60, caa(128, "issue", "ca.net"))), false, true, true),
+                Arguments.of("CAA other tag", message(0x81, 0, "foo.com.",
+                        rr("foo.com.", 257, 60, caa(0, "iodef", "ca.net"))), false, false, false),
+                Arguments.of("CAA issuer with a space", message(0x81, 0, "foo.com.",
+                        rr("foo.com.", 257, 60, caa(0, "issue", "ca net"))), false, false, true),
+                Arguments.of("NS starting with a digit", message(0x81, 0, "foo.com.",
+                        rr("foo.com.", 2, 60, name("1ns.foo.com."))), false, true, true),
+                Arguments.of("RR class other than IN", message(0x81, 0, "foo.com.", new byte[] {
+                        0, 0, 1, 0, 3, 0, 0, 0, 60, 0, 4, 1, 2, 3, 4}), false, false, false),
+                Arguments.of("truncated RR", Arrays.copyOf(aResponse("foo.com.", 60), 35), false, false, false),
+                Arguments.of("extra byte", Arrays.copyOf(aResponse("foo.com.", 60), 49), false, false, false)
+        );
+    }
+
+    /**
+     * Every case in the table against every profile
+     * @param description what the case is
+     * @param message the encoded message
+     * @param strict true if STRICT accepts it
+     * @param lenient true if LENIENT accepts it
+     * @param trusted true if TRUSTED accepts it
+     */
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("conformance")
+    void conformanceTable(String description, byte[] message, boolean strict, boolean lenient, boolean trusted) {
+        assertAll(
+                () -> assertEquals(strict, accepts(message, DecodeProfile.STRICT), "STRICT"),
+                () -> assertEquals(lenient, accepts(message, DecodeProfile.LENIENT), "LENIENT"),
+                () -> assertEquals(trusted, accepts(message, DecodeProfile.TRUSTED), "TRUSTED"));
+    }
+
+    /**
+     * Values the profiles read differently
+     */
+    @Nested
+    class DecodedValues {
+        /**
+         * STRICT is what decode() without a profile does
+         */
+        @Test @DisplayName("Default is strict")
+        void defaultIsStrict() throws IOException {
+            assertThrows(ValidationException.class, () -> Message.decode(aResponse("3com.com.", 60)));
+            assertThrows(ValidationException.class, () -> ResourceRecord.decode(
+                    new ByteArrayInputStream(rr("3com.com.", 1, 60, new byte[] {1, 2, 3, 4}))));
+        }
+
+        /**
+         * A valid message decodes the same under every profile
+         * @param profile the profile
+         */
+        @ParameterizedTest(name = "Same as strict = {0}")
+        @EnumSource(DecodeProfile.class)
+        void validIsSame(DecodeProfile profile) throws Exception {
+            byte[] message = message(0x81, 0, "foo.com.",
+                    rr("foo.com.", 1, 60, new byte[] {1, 2, 3, 4}),
+                    rr("foo.com.", 257, 60, caa(0, "issue", "ca.net")),
+                    rr("foo.com.", 15, 60, new byte[] {0, 10, 2, 'm', 'x', 0}));
+            assertEquals(Message.decode(message), Message.decode(message, profile));
+        }
+
+        /**
+         * LENIENT and TRUSTED read a TTL with the high bit set as 0
+         */
+        @Test @DisplayName("High bit TTL")
+        void highBitTTL() throws Exception {
+            byte[] rr = rr("foo.com.", 1, 0x80000005, new byte[] {1, 2, 3, 4});
+            assertEquals(0, ResourceRecord.decode(new ByteArrayInputStream(rr), DecodeProfile.LENIENT).getTTL());
+            assertEquals(0, ResourceRecord.decode(new ByteArrayInputStream(rr), DecodeProfile.TRUSTED).getTTL());
+        }
+
+        /**
+         * The setters stay strict on an RR decoded leniently
+         */
+        @Test @DisplayName("Setters stay strict")
+        void settersStayStrict() throws Exception {
+            ResourceRecord rr = ResourceRecord.decode(new ByteArrayInputStream(
+                    rr("3com.com.", 1, 60, new byte[] {1, 2, 3, 4})), DecodeProfile.LENIENT);
+            assertEquals("3com.com.", rr.getName());
+            assertEquals(Inet4Address.getByName("1.2.3.4"), ((A) rr).getAddress());
+            assertThrows(ValidationException.class, () -> rr.setName("3com.com."));
+            assertThrows(ValidationException.class, () -> rr.setTTL(-1));
+        }
+
+        /**
+         * Null profile
+         */
+        @Test @DisplayName("Null profile")
+        void nullProfile() throws IOException {
+            assertThrows(NullPointerException.class, () -> Message.decode(aResponse("foo.com.", 60), null));
+        }
+    }
+}
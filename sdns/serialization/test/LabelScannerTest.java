@@ -0,0 +1,219 @@
+//Contains the LabelScannerTest class (see comments below)
+package sdns.serialization.test;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import sdns.serialization.LabelScanner;
+import sdns.serialization.ValidationException;
+import sdns.serialization.test.factories.DomainNameTestFactory;
+import sdns.serialization.test.factories.VisibleAsciiTestFactory;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * @author Harrison Rogers
+ * Runs the same checks against the scalar and the vectorized label scanners
+ */
+class LabelScannerTest {
+    //the regex domain names were validated with before the scanners existed
+    private static final String OLD_LABEL_REGEX = "^(?=[a-zA-Z])[a-zA-Z0-9-_]*([a-zA-Z0-9])$";
+
+    /**
+     * The old regex validation, used as the reference for the scanners
+     * @param name name to check
+     * @return true if the old validation accepted it
+     */
+    private static boolean oldValidate(String name) {
+        if(name == null || name.isBlank() || name.matches(".*[.]{2,}.*$")) {
+            return false;
+        }
+        if(name.equals(".")) {
+            return true;
+        }
+        if(name.length() > 255 || name.charAt(name.length() - 1) != '.') {
+            return false;
+        }
+        for(String label : name.split("\\.")) {
+            if(label.length() > 63 || !label.matches(OLD_LABEL_REGEX)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Makes a random name out of characters that are mostly allowed
+     * @param rand the random source
+     * @return a random name of up to 300 chars
+     */
+    private static String randomName(Random rand) {
+        String chars = "abcXYZ019-_..?";
+        int length = rand.nextInt(300);
+        StringBuilder name = new StringBuilder();
+        for(int i = 0; i < length; i++) {
+            name.append(chars.charAt(rand.nextInt(chars.length())));
+        }
+        return name.append('.').toString();
+    }
+
+    /**
+     * Tests shared by both scanners
+     */
+    abstract static class ScannerTests {
+        protected LabelScanner scanner;
+
+        /**
+         * Gets the scanner to test
+         * @return the scanner
+         */
+        protected abstract LabelScanner getScanner();
+
+        @BeforeEach
+        void setUp() {
+            scanner = getScanner();
+        }
+
+        /**
+         * Random names must be accepted exactly when the old regex accepted them
+         */
+        @Test @DisplayName("Matches old regex validation")
+        void matchesOldValidation() {
+            Random rand = new Random(26);
+            for(int i = 0; i < 5000; i++) {
+                String name = randomName(rand);
+                assertEquals(oldValidate(name), scanner.isValidDomainName(name), name);
+            }
+        }
+
+        /**
+         * Names built from long valid labels
+         */
+        @Test @DisplayName("Long valid names")
+        void longValidNames() {
+            String label = "a" + "b-_9".repeat(15) + "z.";
+            assertTrue(scanner.isValidDomainName(label));
+            assertTrue(scanner.isValidDomainName(label.repeat(4)));
+            assertFalse(scanner.isValidDomainName(label.repeat(4) + "bcd."));
+            assertFalse(scanner.isValidDomainName(label.repeat(3) + "-" + label));
+        }
+
+        /**
+         * Case insensitive compare
+         * @param name name to compare
+         */
+        @ParameterizedTest(name = "Equals ignore case = {0}")
+        @ValueSource(strings = {".", "foo.com.", "WWW.Baylor.EDU.", "a23456789012345678901234567890123456789012345678901234567890.",
+                "A23456789012345678901234567890123456789012345678901234567890.B23456789012345678901234567890."})
+        void equalsIgnoreCase(String name) {
+            assertTrue(scanner.equalsIgnoreCase(name, name.toUpperCase()));
+            assertTrue(scanner.equalsIgnoreCase(name.toLowerCase(), name.toUpperCase()));
+            assertFalse(scanner.equalsIgnoreCase(name, name + "a"));
+            assertFalse(scanner.equalsIgnoreCase(name, name.replace('.', 'a')));
+            assertEquals(name.toLowerCase(), scanner.toLowerCase(name));
+        }
+
+        /**
+         * Only ASCII letters fold
+         */
+        @Test @DisplayName("Only ASCII letters fold")
+        void onlyAsciiFolds() {
+            String padding = "x".repeat(140);
+            assertFalse(scanner.equalsIgnoreCase(padding + "@", padding + "`"));
+            assertFalse(scanner.equalsIgnoreCase(padding + "Ā", padding + "?"));
+            assertFalse(scanner.equalsIgnoreCase("Ā" + padding, "?" + padding));
+            assertEquals(padding + "É", scanner.toLowerCase(padding + "É"));
+        }
+
+        /**
+         * Lower casing a name that is already lower case gives back the same instance
+         */
+        @Test @DisplayName("Lower case is not copied")
+        void lowerCaseSameInstance() {
+            String name = "www.baylor.edu.".repeat(10);
+            assertSame(name, scanner.toLowerCase(name));
+        }
+
+        /**
+         * Bytes read off the wire
+         */
+        @Test @DisplayName("All positive bytes")
+        void allPositive() {
+            byte[] bytes = new byte[200];
+            java.util.Arrays.fill(bytes, (byte) 'a');
+            assertTrue(scanner.allPositive(bytes, 0, bytes.length));
+            bytes[150] = 0;
+            assertFalse(scanner.allPositive(bytes, 0, bytes.length));
+            assertTrue(scanner.allPositive(bytes, 151, bytes.length));
+            bytes[3] = (byte) 0x80;
+            assertFalse(scanner.allPositive(bytes, 1, 4));
+        }
+
+        /**
+         * Domain name rules
+         */
+        @Nested
+        class DomainNames extends DomainNameTestFactory {
+            @Override
+            protected String setGetDomainName(String dm) throws ValidationException {
+                if(!scanner.isValidDomainName(dm)) {
+                    throw new ValidationException("Bad name", dm);
+                }
+                return dm;
+            }
+
+            @Override
+            protected Class<? extends Throwable> getNullThrowableType() {
+                return ValidationException.class;
+            }
+        }
+
+        /**
+         * Visible ASCII rules
+         */
+        @Nested
+        class VisibleAscii extends VisibleAsciiTestFactory {
+            @Override
+            protected String setGetVisibleName(String name) throws ValidationException {
+                if(!scanner.isVisibleAscii(name)) {
+                    throw new ValidationException("Bad string", name);
+                }
+                return name;
+            }
+
+            @Override
+            protected Class<? extends Throwable> getNullThrowableType() {
+                return NullPointerException.class;
+            }
+        }
+    }
+
+    /**
+     * Scalar scanner tests
+     */
+    @Nested
+    class Scalar extends ScannerTests {
+        @Override
+        protected LabelScanner getScanner() {
+            return LabelScanner.getScalar();
+        }
+    }
+
+    /**
+     * Vector scanner tests. Skipped if the incubator module isn't loaded
+     */
+    @Nested
+    class Vector extends ScannerTests {
+        @Override
+        protected LabelScanner getScanner() {
+            assumeTrue(LabelScanner.getVector() != null, "jdk.incubator.vector not loaded");
+            return LabelScanner.getVector();
+        }
+    }
+}
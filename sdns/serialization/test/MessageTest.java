@@ -16,6 +16,9 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.Inet4Address;
 import java.net.UnknownHostException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import static org.junit.jupiter.api.Assertions.*;
 /**
@@ -873,4 +876,162 @@ class MessageTest {
             return ValidationException.class;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Test the question type
+     */
+    @Nested
+    class QueryType {
+        /**
+         * Default is ANY
+         */
+        @Test @DisplayName("Default ANY")
+        void defaultAny() throws ValidationException {
+            assertEquals(Message.TYPE_ANY, new Query(1, "foo.com.").getQueryType());
+            assertEquals(Message.TYPE_ANY, new Response(1, "foo.com.", RCode.NOERROR).getQueryType());
+        }
+
+        /**
+         * AXFR survives encode and decode for both message types
+         */
+        @Test @DisplayName("AXFR round trip")
+        void axfrRoundTrip() throws ValidationException {
+            Message query = new Query(1, "foo.com.").setQueryType(Message.TYPE_AXFR);
+            byte[] encoded = query.encode();
+            assertEquals(0, encoded[encoded.length - 4]);
+            assertEquals((byte) 252, encoded[encoded.length - 3]);
+            assertEquals(query, Message.decode(encoded));
+            assertNotEquals(new Query(1, "foo.com."), Message.decode(encoded));
+
+            Message response = new Response(1, "foo.com.", RCode.NOERROR).setQueryType(Message.TYPE_AXFR);
+            assertEquals(Message.TYPE_AXFR, Message.decode(response.encode()).getQueryType());
+        }
+
+        /**
+         * Other types are rejected by every profile, the same as queryDecodeInvalid8 expects
+         * @param type the question type on the wire
+         */
+        @ParameterizedTest(name = "Other type = {0}")
+        @ValueSource(ints = {1, 6, 251, 253, 0xFC00})
+        void otherTypes(int type) throws ValidationException {
+            byte[] encoded = new Query(1, "foo.com.").encode();
+            encoded[encoded.length - 4] = (byte) (type >> 8);
+            encoded[encoded.length - 3] = (byte) type;
+            for(DecodeProfile profile : DecodeProfile.values()) {
+                assertThrows(ValidationException.class, () -> Message.decode(encoded, profile));
+            }
+        }
+
+        /**
+         * Only ANY and AXFR can be set
+         * @param type the type to set
+         */
+        @ParameterizedTest(name = "Bad type = {0}")
+        @ValueSource(ints = {-1, 0, 1, 251, 253, 0x10000})
+        void badType(int type) throws ValidationException {
+            Query query = new Query(1, "foo.com.");
+            assertThrows(ValidationException.class, () -> query.setQueryType(type));
+        }
+    }
+
+    /**
+     * Test decoding from and encoding into ByteBuffers
+     */
+    @Nested
+    class ByteBufferCodec {
+        /**
+         * Makes a response with one of each RR type
+         * @return the response
+         */
+        private Response fullResponse() throws ValidationException, UnknownHostException {
+            Response response = new Response(77, "good.com.", RCode.NOERROR);
+            response.addAnswer(new A("good.com.", 5, (Inet4Address) Inet4Address.getByAddress(new byte[] {1, 2, 3, 4})));
+            response.addAnswer(new CName("www.good.com.", 6, "good.com."));
+            response.addAnswer(new MX("good.com.", 7, "mx.good.com.", 10));
+            response.addNameServer(new NS("good.com.", 8, "ns.good.com."));
+            response.addNameServer(new SOA("good.com.", 9, "ns.good.com.", "admin.good.com.", 1, 2, 3, 4, 5));
+            response.addAdditional(new CAA("good.com.", 10, "ca.org"));
+            return response;
+        }
+
+        /**
+         * Decoding a heap buffer gives the same message as decoding the array, and uses up the buffer
+         */
+        @Test @DisplayName("Heap buffer decode")
+        void heapDecode() throws ValidationException, UnknownHostException {
+            for(Message message : new Message[] {new Query(5, "foo.com."), fullResponse()}) {
+                byte[] encoded = message.encode();
+                ByteBuffer buffer = ByteBuffer.wrap(encoded);
+                assertEquals(Message.decode(encoded), Message.decodeFrom(buffer));
+                assertEquals(buffer.limit(), buffer.position());
+            }
+        }
+
+        /**
+         * Decoding a direct buffer starting part way in gives the same message
+         */
+        @Test @DisplayName("Direct buffer decode at an offset")
+        void directDecode() throws ValidationException, UnknownHostException {
+            byte[] encoded = fullResponse().encode();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(encoded.length + 10);
+            buffer.position(7);
+            buffer.put(encoded).flip().position(7);
+            assertEquals(fullResponse(), Message.decodeFrom(buffer));
+            assertEquals(buffer.limit(), buffer.position());
+        }
+
+        /**
+         * A short buffer fails the same way a short array does
+         */
+        @Test @DisplayName("Short buffer")
+        void shortBuffer() throws ValidationException {
+            byte[] encoded = new Query(5, "foo.com.").encode();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+            buffer.put(encoded, 0, encoded.length - 1).flip();
+            assertThrows(ValidationException.class, () -> Message.decodeFrom(buffer));
+        }
+
+        /**
+         * Encoding into a buffer makes the same bytes as encode()
+         */
+        @Test @DisplayName("Buffer encode")
+        void bufferEncode() throws ValidationException, UnknownHostException {
+            for(Message message : new Message[] {new Query(5, "foo.com.").setQueryType(Message.TYPE_AXFR),
+                    new Response(6, "foo.com.", RCode.NAMEERROR), fullResponse()}) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(512);
+                buffer.put((byte) 42);
+                message.encodeInto(buffer);
+                buffer.flip().position(1);
+                byte[] encoded = new byte[buffer.remaining()];
+                buffer.get(encoded);
+                assertArrayEquals(message.encode(), encoded);
+            }
+        }
+
+        /**
+         * A message that doesn't fit leaves the buffer's position alone
+         */
+        @Test @DisplayName("Buffer overflow")
+        void bufferOverflow() throws ValidationException, UnknownHostException {
+            Response response = fullResponse();
+            ByteBuffer buffer = ByteBuffer.allocate(response.encode().length - 1);
+            buffer.put((byte) 1);
+            assertThrows(BufferOverflowException.class, () -> response.encodeInto(buffer));
+            assertEquals(1, buffer.position());
+        }
+
+        /**
+         * Unknown RRs are left out of a buffer encode the same as encode()
+         */
+        @Test @DisplayName("Unknown RRs skipped")
+        void unknownSkipped() throws ValidationException, IOException {
+            byte[] txt = {3, 'f', 'o', 'o', 0, 0, 16, 0, 1, 0, 0, 0, 5, 0, 2, 1, 'a'};
+            Response response = new Response(9, "foo.", RCode.NOERROR);
+            response.addAnswer(ResourceRecord.decode(new ByteArrayInputStream(txt)));
+            response.addAnswer(new NS("foo.", 5, "ns.foo."));
+            ByteBuffer buffer = ByteBuffer.allocate(512);
+            response.encodeInto(buffer);
+            assertArrayEquals(response.encode(), Arrays.copyOf(buffer.array(), buffer.position()));
+        }
+    }
+}
@@ -3,11 +3,13 @@
 package sdns.serialization.test;
 
 import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
 import sdns.serialization.NIODeframer;
 import sdns.serialization.test.factories.DeframerTestFactory;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -148,4 +150,118 @@ public class NIODeframerTest {
             assertArrayEquals(message2, deframer.getMessage(new byte[0]));
         }
     }
+
+    /**
+     * Test get message from a ByteBuffer
+     */
+    @Nested
+    class TestGetMsgByteBuffer extends DeframerTestFactory{
+        /**
+         * Factory method for calling the appropriate function you want to test for deframing validity
+         *
+         * @param buff buffer to test
+         * @return the message without the frame
+         */
+        @Override
+        protected byte[] getNextMsg(byte[] buff) {
+            return (new NIODeframer()).getMessage(buff == null ? null : ByteBuffer.wrap(buff));
+        }
+
+        /**
+         * Allows the concrete class to specify which exception it wants to be thrown when a
+         * null buffer is passed to the function
+         *
+         * @return class to throw
+         */
+        @Override
+        protected Class<? extends Throwable> getNullThrowableType() {
+            return NullPointerException.class;
+        }
+
+        /**
+         * Allows the concrete class to specify which exception it wants to be thrown when a
+         * length-too-short buffer is passed to the function.
+         *
+         * @return if the function should throw when presented with a length that is too short
+         */
+        @Override
+        protected boolean getShouldThrowTooShortLength() { return false; }
+
+        /* ************** Start custom tests beyond factory ************** */
+        /**
+         * Send a frame in pieces through one reused direct buffer, the way a selector loop reads
+         * @param size size of buffer to make
+         */
+        @ParameterizedTest(name = "Reused direct buffer: Size: {0}")
+        @ValueSource(ints = {0, 1, 10, 18, 20, 100, 255, 256, 65535})
+        void validReusedDirectBuffer(int size){
+            byte[] message = generateRandomByteArray(size);
+            byte[] buff = putHeader(message, size);
+
+            NIODeframer deframer = new NIODeframer();
+            ByteBuffer readBuf = ByteBuffer.allocateDirect(64);
+            byte[] frame = null;
+            for(int i = 0; i < buff.length; i += readBuf.capacity()) {
+                assertNull(frame);
+                readBuf.clear();
+                readBuf.put(buff, i, Math.min(readBuf.capacity(), buff.length - i)).flip();
+                frame = deframer.getMessage(readBuf);
+                assertFalse(readBuf.hasRemaining());
+            }
+            assertArrayEquals(message, frame);
+        }
+
+        /**
+         * Two frames in one buffer come back one after the other
+         * @param size size of buffer to make
+         */
+        @ParameterizedTest(name = "Double insert: Size: {0}")
+        @ValueSource(ints = {0, 1, 10, 18, 20, 100, 255, 256, 65535})
+        void validDoubleInsert(int size){
+            byte[] message = generateRandomByteArray(size);
+            byte[] buff = putHeader(message, size);
+
+            ByteBuffer buffDouble = ByteBuffer.allocate(buff.length * 2).put(buff).put(buff).flip();
+            NIODeframer deframer = new NIODeframer();
+            assertArrayEquals(message, deframer.getMessage(buffDouble));
+            assertArrayEquals(message, deframer.getMessage(ByteBuffer.allocate(0)));
+        }
+    }
+    /**
+     * Test the count of buffered bytes
+     */
+    @Nested
+    class TestBufferedSize {
+        /**
+         * Nothing is buffered to start with
+         */
+        @Test
+        void empty() {
+            assertEquals(0, new NIODeframer().getBufferedSize());
+        }
+
+        /**
+         * A partial frame stays buffered, and a finished one doesn't
+         */
+        @Test
+        void partialThenFull() {
+            NIODeframer deframer = new NIODeframer();
+            assertNull(deframer.getMessage(new byte[] {0, 3, 1}));
+            assertEquals(3, deframer.getBufferedSize());
+            assertArrayEquals(new byte[] {1, 2, 3}, deframer.getMessage(new byte[] {2, 3, 0, 1}));
+            assertEquals(2, deframer.getBufferedSize());
+        }
+
+        /**
+         * Frames not taken out yet are counted
+         */
+        @Test
+        void framesWaiting() {
+            NIODeframer deframer = new NIODeframer();
+            assertArrayEquals(new byte[] {7}, deframer.getMessage(ByteBuffer.wrap(new byte[] {0, 1, 7, 0, 1, 8})));
+            assertEquals(3, deframer.getBufferedSize());
+            assertArrayEquals(new byte[] {8}, deframer.getMessage(new byte[0]));
+            assertEquals(0, deframer.getBufferedSize());
+        }
+    }
 }
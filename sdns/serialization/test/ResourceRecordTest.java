@@ -16,6 +16,8 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -1959,6 +1961,123 @@ class ResourceRecordTest {
         }
     }
 
+    /**
+     * Frozen RR tests
+     */
+    @Nested
+    class FrozenRecords {
+        //Every setter on a frozen RR fails and leaves it unchanged
+        @Test @DisplayName("Frozen RR rejects setters")
+        void frozenRejectsSetters() throws ValidationException {
+            MX mx = new MX("good.com.", 5, "mx.good.com.", 10);
+            assertSame(mx, mx.freeze());
+            assertTrue(mx.isFrozen());
+            assertAll("Setters",
+                    () -> assertThrows(UnsupportedOperationException.class, () -> mx.setName("bad.com.")),
+                    () -> assertThrows(UnsupportedOperationException.class, () -> mx.setTTL(6)),
+                    () -> assertThrows(UnsupportedOperationException.class, () -> mx.setExchange("mx.bad.com.")),
+                    () -> assertThrows(UnsupportedOperationException.class, () -> mx.setPreference(11))
+            );
+            assertEquals(new MX("good.com.", 5, "mx.good.com.", 10), mx);
+        }
+
+        //Frozen RRs still encode the same way
+        @Test @DisplayName("Frozen RR encodes the same")
+        void frozenEncodesSame() throws ValidationException, IOException {
+            ByteArrayOutputStream mutableOut = new ByteArrayOutputStream();
+            ByteArrayOutputStream frozenOut = new ByteArrayOutputStream();
+            new CName("good.com.", 5, "canon.com.").encode(mutableOut);
+            new CName("good.com.", 5, "canon.com.").freeze().encode(frozenOut);
+            assertArrayEquals(mutableOut.toByteArray(), frozenOut.toByteArray());
+        }
+
+        //A frozen copy leaves the original mutable
+        @Test @DisplayName("Frozen copy")
+        void frozenCopy() throws ValidationException {
+            NS ns = new NS("good.com.", 5, "ns.good.com.");
+            ResourceRecord copy = ns.frozenCopy();
+            assertNotSame(ns, copy);
+            assertEquals(ns, copy);
+            assertTrue(copy.isFrozen());
+            assertFalse(ns.isFrozen());
+            assertSame(copy, copy.frozenCopy());
+            ns.setTTL(6);
+            assertEquals(5, copy.getTTL());
+        }
+
+        //A frozen copy with a new TTL only changes the TTL
+        @Test @DisplayName("Frozen copy with TTL")
+        void frozenCopyWithTTL() throws ValidationException {
+            MX mx = new MX("good.com.", 300, "mx.good.com.", 10);
+            ResourceRecord copy = mx.frozenCopy(120);
+            assertTrue(copy.isFrozen());
+            assertFalse(mx.isFrozen());
+            assertEquals(120, copy.getTTL());
+            assertEquals(300, mx.getTTL());
+            assertEquals(new MX("good.com.", 120, "mx.good.com.", 10), copy);
+            assertSame(copy, copy.frozenCopy(120));
+            assertNotSame(copy, copy.frozenCopy(60));
+            assertEquals(120, copy.getTTL());
+        }
+
+        //A bad TTL is rejected the same way setTTL rejects it
+        @Test @DisplayName("Frozen copy with bad TTL")
+        void frozenCopyBadTTL() throws ValidationException, IOException {
+            A a = new A("good.com.", 300, (Inet4Address) Inet4Address.getByAddress(new byte[] {1, 2, 3, 4}));
+            assertThrows(ValidationException.class, () -> a.frozenCopy(-1));
+            assertFalse(a.isFrozen());
+        }
+    }
+
+    /**
+     * ByteBuffer encoding tests
+     */
+    @Nested
+    class ByteBufferEncode {
+        //Every type encodes the same bytes into a buffer as into a stream
+        @Test @DisplayName("Buffer encode matches stream encode")
+        void bufferMatchesStream() throws ValidationException, IOException {
+            ResourceRecord[] rrs = {
+                    new A("good.com.", 5, (Inet4Address) Inet4Address.getByAddress(new byte[] {1, 2, 3, 4})),
+                    new AAAA("good.com.", 5, (Inet6Address) Inet6Address.getByAddress(new byte[16])),
+                    new NS("good.com.", 5, "ns.good.com."),
+                    new CName("www.good.com.", 5, "good.com."),
+                    new MX("good.com.", 5, "mx.good.com.", 10),
+                    new SOA("good.com.", 5, "ns.good.com.", "admin.good.com.", 4294967295L, 2, 3, 4, 5),
+                    new CAA("good.com.", 5, "ca.org"),
+                    new NS(".", 5, ".")
+            };
+            for(ResourceRecord rr : rrs) {
+                ByteArrayOutputStream streamOut = new ByteArrayOutputStream();
+                rr.encode(streamOut);
+                ByteBuffer buffer = ByteBuffer.allocateDirect(300);
+                rr.encodeInto(buffer);
+                byte[] bufferOut = new byte[buffer.flip().remaining()];
+                buffer.get(bufferOut);
+                assertArrayEquals(streamOut.toByteArray(), bufferOut, rr.toString());
+            }
+        }
+
+        //An RR that doesn't fit leaves the position alone
+        @Test @DisplayName("Buffer overflow")
+        void bufferOverflow() throws ValidationException {
+            ByteBuffer buffer = ByteBuffer.allocate(20);
+            buffer.put((byte) 1);
+            assertThrows(BufferOverflowException.class, () -> new MX("good.com.", 5, "mx.good.com.", 10).encodeInto(buffer));
+            assertEquals(1, buffer.position());
+        }
+
+        //Unknown RRs can't be encoded into a buffer either
+        @Test @DisplayName("Unknown RR")
+        void unknownUnsupported() throws ValidationException, IOException {
+            byte[] txt = {3, 'f', 'o', 'o', 0, 0, 16, 0, 1, 0, 0, 0, 5, 0, 2, 1, 'a'};
+            ResourceRecord rr = ResourceRecord.decode(new ByteArrayInputStream(txt));
+            ByteBuffer buffer = ByteBuffer.allocate(64);
+            assertThrows(UnsupportedOperationException.class, () -> rr.encodeInto(buffer));
+            assertEquals(0, buffer.position());
+        }
+    }
+
     /**
      * TTL Setter and getter (DONE)
      */
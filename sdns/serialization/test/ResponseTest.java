@@ -715,6 +715,66 @@ class ResponseTest {
 
 
 
+    /**
+     * Frozen RR sharing tests
+     */
+    @Nested
+    class ResponseFrozenRecords {
+        //Frozen RRs are shared as is by every list
+        @Test @DisplayName("Frozen RRs are not cloned on add")
+        void addFrozenIsShared(){
+            try {
+                Response r = new Response(0, ".", RCode.NOERROR);
+                ResourceRecord cn = new CName(".", 123, "good.com.").freeze();
+                ResourceRecord ns = new NS(".", 123, "good.server.").freeze();
+                ResourceRecord a = new A(".", 123, (Inet4Address)Inet4Address.getByName("0.0.0.0")).freeze();
+                r.addAnswer(cn);
+                r.addNameServer(ns);
+                r.addAdditional(a);
+
+                assertAll("Records",
+                        () -> assertSame(cn, r.getAnswerList().get(0)),
+                        () -> assertSame(ns, r.getNameServerList().get(0)),
+                        () -> assertSame(a, r.getAdditionalList().get(0))
+                );
+            } catch (ValidationException | UnknownHostException e) {
+                fail();
+            }
+        }
+
+        //The same frozen RR can be put in more than one response
+        @Test @DisplayName("Frozen RR shared between responses")
+        void frozenSharedBetweenResponses(){
+            try {
+                Response r1 = new Response(0, ".", RCode.NOERROR);
+                Response r2 = new Response(1, "good.com.", RCode.NOERROR);
+                ResourceRecord mx = new MX("good.com.", 123, "mx.good.com.", 10).freeze();
+                r1.addAnswer(mx);
+                r2.addAnswer(mx);
+
+                assertSame(r1.getAnswerList().get(0), r2.getAnswerList().get(0));
+            } catch (ValidationException e) {
+                fail();
+            }
+        }
+
+        //Mutable RRs are still copied
+        @Test @DisplayName("Mutable RRs are cloned on add")
+        void addMutableIsCloned(){
+            try {
+                Response r = new Response(0, ".", RCode.NOERROR);
+                CName cn = new CName(".", 123, "good.com.");
+                r.addAnswer(cn);
+
+                assertNotSame(cn, r.getAnswerList().get(0));
+                assertEquals(cn, r.getAnswerList().get(0));
+                assertFalse(r.getAnswerList().get(0).isFrozen());
+            } catch (ValidationException e) {
+                fail();
+            }
+        }
+    }
+
     /**
      * Encode tests
      */